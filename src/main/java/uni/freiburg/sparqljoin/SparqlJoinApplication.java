@@ -10,11 +10,21 @@ import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import uni.freiburg.sparqljoin.join.JoinOn;
 import uni.freiburg.sparqljoin.model.db.ComplexTable;
+import uni.freiburg.sparqljoin.model.db.DataType;
 import uni.freiburg.sparqljoin.model.db.Database;
+import uni.freiburg.sparqljoin.model.db.OffHeapArena;
+import uni.freiburg.sparqljoin.model.db.RowIdTable;
+import uni.freiburg.sparqljoin.model.db.SimpleTable;
+import uni.freiburg.sparqljoin.model.db.TripleStore;
 import uni.freiburg.sparqljoin.service.DataLoaderService;
 import uni.freiburg.sparqljoin.service.JoinService;
+import uni.freiburg.sparqljoin.service.LoadOptions;
+import uni.freiburg.sparqljoin.service.SnapshotService;
+import uni.freiburg.sparqljoin.util.OffHeapMemory;
 import uni.freiburg.sparqljoin.util.Performance;
 
+import java.util.List;
+
 @SpringBootApplication
 public class SparqlJoinApplication implements CommandLineRunner {
 
@@ -26,9 +36,48 @@ public class SparqlJoinApplication implements CommandLineRunner {
     @Autowired
     JoinService joinService;
 
+    @Autowired
+    SnapshotService snapshotService;
+
     @Value("${datasetPath}")
     private String datasetPath;
 
+    @Value("${loaderWorkers:1}")
+    private int loaderWorkers;
+
+    @Value("${globalDictionary:false}")
+    private boolean globalDictionary;
+
+    @Value("${concurrentDictionary:false}")
+    private boolean concurrentDictionary;
+
+    @Value("${snapshotPath:}")
+    private String snapshotPath;
+
+    @Value("${lazyLoading:false}")
+    private boolean lazyLoading;
+
+    @Value("${offHeap:false}")
+    private boolean offHeap;
+
+    @Value("${offHeapLimitMb:0}")
+    private long offHeapLimitMb;
+
+    @Value("${lateMaterialization:false}")
+    private boolean lateMaterialization;
+
+    @Value("${compressTables:false}")
+    private boolean compressTables;
+
+    @Value("${permutations:false}")
+    private boolean permutations;
+
+    @Value("${tripleStore:false}")
+    private boolean tripleStore;
+
+    @Value("${joinMemoryBudgetMb:0}")
+    private long joinMemoryBudgetMb;
+
     public static void main(String[] args) {
         LOG.debug("Starting SPARQL join algorithms");
         SpringApplication app = new SpringApplication(SparqlJoinApplication.class);
@@ -43,110 +92,303 @@ public class SparqlJoinApplication implements CommandLineRunner {
     }
 
     public boolean perform() {
+        OffHeapMemory.setLimit(offHeapLimitMb * 1024 * 1024);
         // a) load data, build dictionaries
-        Database database = Performance.measure(this::loadData, "Load Data");
-        // b), c) join algorithms simulations
-        Performance.measure(() -> this.simulation(database), "Join Simulation");
+        try (Database database = Performance.measure(this::loadData, "Load Data")) {
+            // b), c) join algorithms simulations
+            Performance.measure(() -> this.simulation(database), "Join Simulation");
+        }
         return true;
     }
 
     public Database loadData() {
-        return dataLoaderService.load(datasetPath);
+        LoadOptions options = LoadOptions.builder()
+                .workers(loaderWorkers)
+                .globalDictionary(globalDictionary)
+                .concurrentDictionary(concurrentDictionary)
+                .offHeap(offHeap)
+                .compressTables(compressTables)
+                .permutations(permutations)
+                .build();
+        if (lazyLoading) {
+            return dataLoaderService.loadLazy(datasetPath, options);
+        }
+        if (snapshotPath.isEmpty()) {
+            return dataLoaderService.load(datasetPath, options);
+        }
+        if (offHeap) {
+            LOG.warn("offHeap only applies to the load that writes the snapshot, tables read from it are mapped from the snapshot file");
+        }
+        Database database = snapshotService.loadOrCreate(datasetPath, snapshotPath, options,
+                () -> dataLoaderService.load(datasetPath, options));
+        if (permutations) {
+            // snapshots only hold the rows
+            database.tables().values().forEach(SimpleTable::buildPermutations);
+        }
+        return database;
     }
 
     public boolean simulation(Database database) {
         LOG.info("Simulation begin...");
 
+        // merge the sorted tables while they are compressed, the join simulations below decompress temporary copies into their arenas
+        if (database.compressedTable("wsdbm:follows") != null && database.compressedTable("wsdbm:friendOf") != null) {
+            LOG.info("****** COMPRESSED SORT-MERGE JOIN ******");
+            try (OffHeapArena arena = joinArena()) {
+                ComplexTable joinedTable = joinService.sortMergeJoin(database.compressedTable("wsdbm:follows"),
+                        database.compressedTable("wsdbm:friendOf"), arena);
+                LOG.info("Compressed subject joined table size: {}", joinedTable.size());
+                logOffHeapMemory();
+            }
+        }
+
+        if (tripleStore) {
+            LOG.info("****** TRIPLE STORE ******");
+            TripleStore store = Performance.measure(database::tripleStore, "Build Triple Store");
+            LOG.info("Triple store holds {} triples in {} bytes", store.size(), store.bytes());
+            // ?s ?p wsdbm:User24
+            TripleStore.Range range = Performance.measure(() ->
+                    store.match(TripleStore.ANY, TripleStore.ANY, store.objectId(24, DataType.OBJECT, "wsdbm:User")), "Unbound Property Lookup");
+            LOG.info("Triples with object wsdbm:User24: {}", range.size());
+        }
+
+        // every simulation allocates its tables in its own arena, released when the simulation is done
         // hash join
         LOG.info("****** HASH JOIN ******");
-        Performance.measure(() -> hashJoin(database), "Hash Join Simulation");
+        try (OffHeapArena arena = joinArena()) {
+            Performance.measure(() -> hashJoin(database, arena), "Hash Join Simulation");
+            logOffHeapMemory();
+        }
 
         // sort merge simulation
         LOG.info("****** SORT-MERGE JOIN ******");
-        Performance.measure(() -> sortMergeJoin(database), "Sort-Merge Join Simulation");
+        try (OffHeapArena arena = joinArena()) {
+            Performance.measure(() -> sortMergeJoin(database, arena), "Sort-Merge Join Simulation");
+            logOffHeapMemory();
+        }
 
         // parallel hash join
         LOG.info("****** PARALLEL JOIN ******");
-        Performance.measure(() -> parallelHashJoin(database), "Parallel Hash Join Simulation");
+        try (OffHeapArena arena = joinArena()) {
+            Performance.measure(() -> parallelHashJoin(database, arena), "Parallel Hash Join Simulation");
+            logOffHeapMemory();
+        }
+
+        // partitioned parallel hash join
+        LOG.info("****** PARTITIONED PARALLEL JOIN ******");
+        try (OffHeapArena arena = joinArena()) {
+            Performance.measure(() -> partitionedParallelHashJoin(database, arena), "Partitioned Parallel Hash Join Simulation");
+            logOffHeapMemory();
+        }
+
+        // radix hash join
+        LOG.info("****** RADIX HASH JOIN ******");
+        try (OffHeapArena arena = joinArena()) {
+            Performance.measure(() -> radixHashJoin(database, arena), "Radix Hash Join Simulation");
+            logOffHeapMemory();
+        }
 
         return true;
     }
 
+    /**
+     * @return arena for the tables of a join simulation, null if tables are created on the heap
+     */
+    private OffHeapArena joinArena() {
+        return offHeap ? new OffHeapArena() : null;
+    }
+
+    private void logOffHeapMemory() {
+        if (offHeap) {
+            LOG.info(OffHeapMemory.report());
+        }
+    }
+
     public ComplexTable hashJoin(Database database) {
-        ComplexTable followsFriendsTable = joinService.hashJoin(
-                database.tables().get("wsdbm:follows").toComplex(),
-                database.tables().get("wsdbm:friendOf").toComplex(),
-                "wsdbm:follows",
-                JoinOn.OBJECT,
-                "wsdbm:friendOf",
-                JoinOn.SUBJECT);
-        ComplexTable followsFriendsLikesTable = joinService.hashJoin(
-                followsFriendsTable,
-                database.tables().get("wsdbm:likes").toComplex(),
-                "wsdbm:friendOf",
-                JoinOn.OBJECT,
-                "wsdbm:likes",
-                JoinOn.SUBJECT);
-        ComplexTable joinedTable = joinService.hashJoin(
-                followsFriendsLikesTable,
-                database.tables().get("rev:hasReview").toComplex(),
-                "wsdbm:likes",
-                JoinOn.OBJECT,
-                "rev:hasReview",
-                JoinOn.SUBJECT);
-        LOG.info("Hash joined table size: {}", joinedTable.getValues().size());
+        return hashJoin(database, null);
+    }
+
+    /**
+     * @param database database with the tables to join
+     * @param arena    arena of the intermediate and output tables, null to create them on the heap
+     * @return joined table, valid until the arena is closed
+     */
+    public ComplexTable hashJoin(Database database, OffHeapArena arena) {
+        ComplexTable joinedTable = lateMaterialization
+                ? lateMaterializedJoin(database, joinService::hashJoin, arena)
+                : eagerJoin(database, this::hashJoin, arena);
+        LOG.info("Hash joined table size: {}", joinedTable.size());
         return joinedTable;
     }
 
+    /**
+     * Hash join within the join memory budget, spills build partitions exceeding it
+     */
+    private ComplexTable hashJoin(ComplexTable R, ComplexTable S, String joinPropertyR, JoinOn joinOnR,
+                                  String joinPropertyS, JoinOn joinOnS, OffHeapArena arena) {
+        if (joinMemoryBudgetMb > 0) {
+            return joinService.graceHashJoin(R, S, joinPropertyR, joinOnR, joinPropertyS, joinOnS, joinMemoryBudgetMb * 1024 * 1024, arena);
+        }
+        return joinService.hashJoin(R, S, joinPropertyR, joinOnR, joinPropertyS, joinOnS, arena);
+    }
+
     public ComplexTable parallelHashJoin(Database database) {
-        ComplexTable followsFriendsTable = joinService.parallelHashJoin(
-                database.tables().get("wsdbm:follows").toComplex(),
-                database.tables().get("wsdbm:friendOf").toComplex(),
+        return parallelHashJoin(database, null);
+    }
+
+    /**
+     * @param database database with the tables to join
+     * @param arena    arena of the intermediate and output tables, null to create them on the heap
+     * @return joined table, valid until the arena is closed
+     */
+    public ComplexTable parallelHashJoin(Database database, OffHeapArena arena) {
+        ComplexTable joinedTable = lateMaterialization
+                ? lateMaterializedJoin(database, joinService::parallelHashJoin, arena)
+                : eagerJoin(database, joinService::parallelHashJoin, arena);
+        LOG.info("Hash joined table size: {}", joinedTable.size());
+        return joinedTable;
+    }
+
+    /**
+     * @param database database with the tables to join
+     * @param arena    arena of the intermediate and output tables, null to create them on the heap
+     * @return joined table, valid until the arena is closed
+     */
+    public ComplexTable partitionedParallelHashJoin(Database database, OffHeapArena arena) {
+        ComplexTable joinedTable = lateMaterialization
+                ? lateMaterializedJoin(database, joinService::partitionedParallelHashJoin, arena)
+                : eagerJoin(database, joinService::partitionedParallelHashJoin, arena);
+        LOG.info("Partitioned hash joined table size: {}", joinedTable.size());
+        return joinedTable;
+    }
+
+    /**
+     * @param database database with the tables to join
+     * @param arena    arena of the intermediate and output tables, null to create them on the heap
+     * @return joined table, valid until the arena is closed
+     */
+    public ComplexTable radixHashJoin(Database database, OffHeapArena arena) {
+        ComplexTable joinedTable = lateMaterialization
+                ? lateMaterializedJoin(database, joinService::radixHashJoin, arena)
+                : eagerJoin(database, joinService::radixHashJoin, arena);
+        LOG.info("Radix hash joined table size: {}", joinedTable.size());
+        return joinedTable;
+    }
+
+    public ComplexTable sortMergeJoin(Database database) {
+        return sortMergeJoin(database, null);
+    }
+
+    /**
+     * @param database database with the tables to join
+     * @param arena    arena of the intermediate and output tables, null to create them on the heap
+     * @return joined table, valid until the arena is closed
+     */
+    public ComplexTable sortMergeJoin(Database database, OffHeapArena arena) {
+        ComplexTable joinedTable = lateMaterialization
+                ? lateMaterializedJoin(database, joinService::sortMergeJoin, arena)
+                : eagerJoin(database, this::sortMergeJoin, arena);
+        LOG.info("Sort-Merge joined table size: {}", joinedTable.size());
+        return joinedTable;
+    }
+
+    /**
+     * Sort-Merge join within the join memory budget, sorts relations exceeding it in spilled runs
+     */
+    private ComplexTable sortMergeJoin(ComplexTable R, ComplexTable S, String joinPropertyR, JoinOn joinOnR,
+                                       String joinPropertyS, JoinOn joinOnS, OffHeapArena arena) {
+        if (joinMemoryBudgetMb > 0) {
+            return joinService.externalSortMergeJoin(R, S, joinPropertyR, joinOnR, joinPropertyS, joinOnS, joinMemoryBudgetMb * 1024 * 1024, arena);
+        }
+        return joinService.sortMergeJoin(R, S, joinPropertyR, joinOnR, joinPropertyS, joinOnS, arena);
+    }
+
+    /**
+     * Join the tables, every join materializes its result and the intermediate results are released
+     *
+     * @param database database with the tables to join
+     * @param joiner   join algorithm
+     * @param arena    arena of the intermediate and output tables, null to create them on the heap
+     * @return joined table, valid until the arena is closed
+     */
+    private ComplexTable eagerJoin(Database database, ComplexJoin joiner, OffHeapArena arena) {
+        ComplexTable followsFriendsTable = joiner.join(
+                database.table("wsdbm:follows", arena).asComplex(),
+                database.table("wsdbm:friendOf", arena).asComplex(),
                 "wsdbm:follows",
                 JoinOn.OBJECT,
                 "wsdbm:friendOf",
-                JoinOn.SUBJECT);
-        ComplexTable followsFriendsLikesTable = joinService.parallelHashJoin(
+                JoinOn.SUBJECT,
+                arena);
+        ComplexTable followsFriendsLikesTable = joiner.join(
                 followsFriendsTable,
-                database.tables().get("wsdbm:likes").toComplex(),
+                database.table("wsdbm:likes", arena).asComplex(),
                 "wsdbm:friendOf",
                 JoinOn.OBJECT,
                 "wsdbm:likes",
-                JoinOn.SUBJECT);
-        ComplexTable joinedTable = joinService.parallelHashJoin(
+                JoinOn.SUBJECT,
+                arena);
+        followsFriendsTable.release();
+        ComplexTable joinedTable = joiner.join(
                 followsFriendsLikesTable,
-                database.tables().get("rev:hasReview").toComplex(),
+                database.table("rev:hasReview", arena).asComplex(),
                 "wsdbm:likes",
                 JoinOn.OBJECT,
                 "rev:hasReview",
-                JoinOn.SUBJECT);
-        LOG.info("Hash joined table size: {}", joinedTable.getValues().size());
+                JoinOn.SUBJECT,
+                arena);
+        followsFriendsLikesTable.release();
         return joinedTable;
     }
 
-    public ComplexTable sortMergeJoin(Database database) {
-        ComplexTable followsFriendsTable = joinService.sortMergeJoin(
-                database.tables().get("wsdbm:follows").toComplex(),
-                database.tables().get("wsdbm:friendOf").toComplex(),
+    /**
+     * Join the tables by their row ids, the items of the result are gathered once at the end
+     *
+     * @param database database with the tables to join
+     * @param joiner   join algorithm
+     * @param arena    arena of the result, null to create it on the heap
+     * @return joined table, valid until the arena is closed
+     */
+    private ComplexTable lateMaterializedJoin(Database database, RowIdJoin joiner, OffHeapArena arena) {
+        RowIdTable followsFriendsTable = joiner.join(
+                database.table("wsdbm:follows", arena).toRowIds(),
+                database.table("wsdbm:friendOf", arena).toRowIds(),
                 "wsdbm:follows",
                 JoinOn.OBJECT,
                 "wsdbm:friendOf",
                 JoinOn.SUBJECT);
-        ComplexTable followsFriendsLikesTable = joinService.sortMergeJoin(
+        RowIdTable followsFriendsLikesTable = joiner.join(
                 followsFriendsTable,
-                database.tables().get("wsdbm:likes").toComplex(),
+                database.table("wsdbm:likes", arena).toRowIds(),
                 "wsdbm:friendOf",
                 JoinOn.OBJECT,
                 "wsdbm:likes",
                 JoinOn.SUBJECT);
-        ComplexTable joinedTable = joinService.sortMergeJoin(
+        RowIdTable joinedTable = joiner.join(
                 followsFriendsLikesTable,
-                database.tables().get("rev:hasReview").toComplex(),
+                database.table("rev:hasReview", arena).toRowIds(),
                 "wsdbm:likes",
                 JoinOn.OBJECT,
                 "rev:hasReview",
                 JoinOn.SUBJECT);
-        LOG.info("Sort-Merge joined table size: {}", joinedTable.getValues().size());
-        return joinedTable;
+        return Performance.measure(() -> joinedTable.materialize(
+                List.of("wsdbm:follows", "wsdbm:friendOf", "wsdbm:likes", "rev:hasReview"), arena), "Materialization");
+    }
+
+    /**
+     * Join of complex tables by property names
+     */
+    @FunctionalInterface
+    private interface ComplexJoin {
+        ComplexTable join(ComplexTable R, ComplexTable S, String joinPropertyR, JoinOn joinOnR, String joinPropertyS, JoinOn joinOnS,
+                          OffHeapArena arena);
+    }
+
+    /**
+     * Join of row id tables by property names
+     */
+    @FunctionalInterface
+    private interface RowIdJoin {
+        RowIdTable join(RowIdTable R, RowIdTable S, String joinPropertyR, JoinOn joinOnR, String joinPropertyS, JoinOn joinOnS);
     }
 }
@@ -0,0 +1,32 @@
+package uni.freiburg.sparqljoin.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Pool of the parallel joins. It lives as long as the application, so the joins don't start threads of their own.
+ */
+@Configuration
+public class JoinPoolConfiguration {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JoinPoolConfiguration.class);
+
+    /**
+     * @param parallelism number of workers of the pool and of the tasks of a parallel join, 0 = all available processors
+     * @return pool of the parallel joins, shut down with the application context
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ForkJoinPool joinPool(@Value("${joinParallelism:0}") int parallelism) {
+        if (parallelism < 0) {
+            throw new IllegalArgumentException("joinParallelism must not be negative: " + parallelism);
+        }
+        int workers = parallelism == 0 ? Runtime.getRuntime().availableProcessors() : parallelism;
+        LOG.info("Parallel joins use {} workers", workers);
+        return new ForkJoinPool(workers);
+    }
+}
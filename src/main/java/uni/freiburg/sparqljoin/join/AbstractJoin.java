@@ -1,14 +1,13 @@
 package uni.freiburg.sparqljoin.join;
 
 import uni.freiburg.sparqljoin.model.db.ComplexTable;
-import uni.freiburg.sparqljoin.model.db.DataType;
+import uni.freiburg.sparqljoin.model.db.ConcurrentDictionary;
 import uni.freiburg.sparqljoin.model.db.Dictionary;
-import uni.freiburg.sparqljoin.model.db.Item;
+import uni.freiburg.sparqljoin.model.db.OffHeapArena;
+import uni.freiburg.sparqljoin.model.db.Relation;
+import uni.freiburg.sparqljoin.model.db.RowIdTable;
+import uni.freiburg.sparqljoin.model.db.SimpleTable;
 import uni.freiburg.sparqljoin.model.join.BuildOutput;
-import uni.freiburg.sparqljoin.model.join.JoinedItems;
-
-import java.util.HashMap;
-import java.util.List;
 
 /**
  * This interface provides functionality for joins
@@ -31,14 +30,90 @@ public interface AbstractJoin {
                               int joinPropertyS, JoinOn joinOnS) {
         BuildOutput buildOutput = build(R, joinPropertyR, joinOnR);
         ComplexTable probeOutput = probe(buildOutput, R, S, joinPropertyR, joinOnR, joinPropertyS, joinOnS);
+        if (R.getObjectDictionary() == S.getObjectDictionary()) {
+            // Relations share a global dictionary, keys pass through unchanged
+            return probeOutput;
+        }
 
         // Remove unnecessary dictionary entries
-        ComplexTable joinResult = new ComplexTable(new Dictionary());
+        ComplexTable joinResult = new ComplexTable(probeOutput.getPropertyDictionary(), new Dictionary(), probeOutput.size(), arena());
         joinResult.insertComplexTable(probeOutput);
+        probeOutput.release();
 
         return joinResult;
     }
 
+    /**
+     * Join 2 tables with late materialization: only the row ids of the matching rows are combined,
+     * see RowIdTable.materialize() for building the items of the final result
+     *
+     * @param R             R relation join table
+     * @param S             S relation join table
+     * @param joinPropertyR name of the property to join on from table R
+     * @param joinOnR       join field in property from R
+     * @param joinPropertyS name of the property to join on from table S
+     * @param joinOnS       join field in property from S
+     * @return row ids of the joined rows
+     */
+    RowIdTable join(RowIdTable R, RowIdTable S,
+                    int joinPropertyR, JoinOn joinOnR,
+                    int joinPropertyS, JoinOn joinOnS);
+
+    /**
+     * Get the arena that join outputs and intermediate tables are allocated in
+     *
+     * @return arena of the tables, null to create them on the heap
+     */
+    default OffHeapArena arena() {
+        return null;
+    }
+
+    /**
+     * Get the object dictionary of the join output. Relations sharing a global dictionary keep using it,
+     * otherwise the output starts with a copy of the R dictionary.
+     *
+     * @param R R relation join table
+     * @param S S relation join table
+     * @return object dictionary for the join output
+     */
+    default Dictionary outputObjectDictionary(ComplexTable R, ComplexTable S) {
+        if (R.getObjectDictionary() == S.getObjectDictionary()) {
+            return R.getObjectDictionary();
+        }
+        return R.getObjectDictionary().clone();
+    }
+
+    /**
+     * Get the object dictionary that the tasks of a parallel join intern the output terms into.
+     * Relations sharing a global dictionary keep using it, otherwise the tasks share a new concurrent dictionary.
+     *
+     * @param R R relation join table
+     * @param S S relation join table
+     * @return object dictionary for the task outputs
+     */
+    default Dictionary concurrentOutputObjectDictionary(ComplexTable R, ComplexTable S) {
+        if (R.getObjectDictionary() == S.getObjectDictionary()) {
+            return R.getObjectDictionary();
+        }
+        return new ConcurrentDictionary();
+    }
+
+    /**
+     * Get the object dictionary of the combined output of a parallel join, once its tasks are done.
+     * A concurrent dictionary of the tasks is frozen into a plain one with the same keys, so the next join clones
+     * it without copying.
+     *
+     * @param R                      R relation join table
+     * @param outputObjectDictionary dictionary of concurrentOutputObjectDictionary()
+     * @return object dictionary for the join output
+     */
+    default Dictionary combinedOutputObjectDictionary(ComplexTable R, Dictionary outputObjectDictionary) {
+        if (outputObjectDictionary != R.getObjectDictionary() && outputObjectDictionary instanceof ConcurrentDictionary dictionary) {
+            return dictionary.freeze();
+        }
+        return outputObjectDictionary;
+    }
+
     /**
      * Build phase of join
      *
@@ -47,7 +122,7 @@ public interface AbstractJoin {
      * @param joinOn   property field to join on
      * @return build output
      */
-    BuildOutput build(ComplexTable table, int property, JoinOn joinOn);
+    BuildOutput build(Relation table, int property, JoinOn joinOn);
 
     /**
      * Probe phase of join
@@ -67,46 +142,106 @@ public interface AbstractJoin {
 
 
     /**
-     * Merge 2 tuples into a single with all properties. Merge the dictionaries.
+     * Create the output table of a join. The properties of R keep their keys and slots,
+     * the properties of S that are not in R are added after them.
      *
-     * @param joinedItems              Output relation where the new tuple should be added
-     * @param outputObjectDictionary   Dictionary of the output relation. Entries from the R relation must have been added before.
-     * @param outputPropertyDictionary Dictionary containing the properties. Entries from the R relation must have been added before.
-     * @param joinedItemsR             Items from R relation
-     * @param joinedItemsS             Items from S relation
-     * @param dictionaryS              S table dictionary
+     * @param R                      R relation table
+     * @param S                      S relation table
+     * @param outputObjectDictionary object dictionary of the output
+     * @return empty output table
      */
-    default void mergeTuplesAndDictionaries(List<JoinedItems> joinedItems, Dictionary outputPropertyDictionary, Dictionary propertyDictionaryS, Dictionary outputObjectDictionary, JoinedItems joinedItemsR, JoinedItems joinedItemsS, Dictionary dictionaryS) {
-        // clone reference item values to avoid overwriting values by reference
-        @SuppressWarnings("unchecked") HashMap<Integer, Item> outputValues = (HashMap<Integer, Item>) joinedItemsR.values().clone();
-
-        // add new property values
-        joinedItemsS.values().forEach((propertyIntS, propertyItem) -> {
-            String property = propertyDictionaryS.getValues().get(propertyIntS);
-            Integer outputPropertyInt = outputPropertyDictionary.getInvertedValues().get(property);
-            if (outputPropertyInt == null) {
-                outputPropertyInt = outputPropertyDictionary.put(property);
-            }
+    default ComplexTable outputTable(ComplexTable R, ComplexTable S, Dictionary outputObjectDictionary) {
+        return new ComplexTable(outputPropertyDictionary(R, S), outputObjectDictionary, arena());
+    }
+
+    /**
+     * Create the output table of a late materialized join, with the properties of outputTable()
+     *
+     * @param R R relation table
+     * @param S S relation table
+     * @return empty output table
+     */
+    default RowIdTable outputTable(RowIdTable R, RowIdTable S) {
+        Dictionary outputPropertyDictionary = outputPropertyDictionary(R, S);
+        SimpleTable[] tables = new SimpleTable[outputPropertyDictionary.size()];
+        for (int slot = 0; slot < R.width(); slot++) {
+            tables[slot] = R.table(slot);
+        }
+        int[] slotsS = outputSlots(outputPropertyDictionary, S);
+        for (int slot = 0; slot < slotsS.length; slot++) {
+            tables[slotsS[slot]] = S.table(slot);
+        }
+        return new RowIdTable(outputPropertyDictionary, tables);
+    }
+
+    /**
+     * Get the property dictionary of the join output: the properties of R with their keys, followed by the other properties of S
+     *
+     * @param R R relation table
+     * @param S S relation table
+     * @return property dictionary for the join output
+     */
+    default Dictionary outputPropertyDictionary(Relation R, Relation S) {
+        Dictionary outputPropertyDictionary = R.getPropertyDictionary().clone();
+        outputPropertyDictionary.putAll(S.getPropertyDictionary());
+        return outputPropertyDictionary;
+    }
+
+    /**
+     * Get the slots of the output table the properties of S are written to
+     *
+     * @param output output table containing all properties of S
+     * @param S      S relation table
+     * @return output slot for every slot of S
+     */
+    default int[] outputSlots(Relation output, Relation S) {
+        return outputSlots(output.getPropertyDictionary(), S);
+    }
 
-            if (propertyItem.type().equals(DataType.STRING)) {
-                // object was a string -> put value into new dictionary, update item value index
-                // TODO write a test for this
-
-                int propertyItemObjectIntRepresentation = outputObjectDictionary.put(dictionaryS.get(propertyItem.object()));
-                outputValues.put(outputPropertyInt, new Item(
-                        propertyItem.subject(),
-                        propertyItemObjectIntRepresentation,
-                        propertyItem.type()
-                ));
-            } else {
-                // else put as it is
-                outputValues.put(outputPropertyInt, new Item(
-                        propertyItem.subject(),
-                        propertyItem.object(),
-                        propertyItem.type())
-                );
+    /**
+     * Get the slots of the output properties the properties of S are written to
+     *
+     * @param outputPropertyDictionary output properties containing all properties of S
+     * @param S                        S relation table
+     * @return output slot for every slot of S
+     */
+    default int[] outputSlots(Dictionary outputPropertyDictionary, Relation S) {
+        int[] slots = new int[S.width()];
+        for (int slot = 0; slot < slots.length; slot++) {
+            String property = S.getPropertyDictionary().get(S.property(slot));
+            int key = outputPropertyDictionary.getKey(property);
+            if (key == Dictionary.NOT_FOUND) {
+                throw new IllegalArgumentException("Property '" + property + "' is not in the output properties");
             }
-        });
-        joinedItems.add(new JoinedItems(joinedItemsR.subject(), outputValues));
+            // output slots are laid out like the slots of a table, slot = property key - 1
+            slots[slot] = key - 1;
+        }
+        return slots;
+    }
+
+    /**
+     * Get the join key of a row
+     *
+     * @param table  relation table
+     * @param row    row of the table
+     * @param slot   slot of the join property
+     * @param joinOn join field of the property
+     * @return subject or object of the join property
+     */
+    default int joinKey(Relation table, int row, int slot, JoinOn joinOn) {
+        return joinOn == JoinOn.SUBJECT ? table.subject(row, slot) : table.object(row, slot);
+    }
+
+    /**
+     * Receives the matching rows of a join
+     */
+    @FunctionalInterface
+    interface RowMatches {
+
+        /**
+         * @param rowR row of R relation
+         * @param rowS row of S relation
+         */
+        void accept(int rowR, int rowS);
     }
 }
@@ -0,0 +1,383 @@
+package uni.freiburg.sparqljoin.join;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uni.freiburg.sparqljoin.model.db.ComplexTable;
+import uni.freiburg.sparqljoin.model.db.Dictionary;
+import uni.freiburg.sparqljoin.model.db.KeyMapping;
+import uni.freiburg.sparqljoin.model.db.OffHeapArena;
+import uni.freiburg.sparqljoin.model.join.MergeJoinBuildOutput;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sort-Merge join with an external merge sort for relations whose sort doesn't fit into memory. A relation that
+ * fits into the memory budget is sorted like SortMergeJoin does. Otherwise its rows are cut into runs of as many
+ * rows as the budget allows, every run is sorted and spilled to a temporary file, and the runs are merged k-way
+ * while the join reads them. Both relations are streamed in join key order, only the rows of S with the current
+ * join key are buffered.
+ * <p>
+ * Only the sort and the chunks of the merged runs count against the budget, the inputs and the output are
+ * allocated as usual. Late materialized joins of row ids are small and joined in memory like SortMergeJoin does.
+ */
+public class ExternalSortMergeJoin extends SortMergeJoin {
+    private static final Logger LOG = LoggerFactory.getLogger(ExternalSortMergeJoin.class);
+
+    // bytes of a row while sorting: join key and row in a long and the row in the sorted rows
+    private static final int SORT_ENTRY_BYTES = Long.BYTES + Integer.BYTES;
+
+    // estimated bytes of an item of a row: subject, object and type
+    private static final int ITEM_BYTES = 2 * Integer.BYTES + 1;
+
+    private static final int MIN_RUN_SIZE = 1024;
+
+    private static final int MIN_CHUNK_SIZE = 256;
+
+    private final long memoryBudget;
+
+    private final Path spillDirectory;
+
+    /**
+     * @param memoryBudget bytes of the sort of a relation in memory
+     */
+    public ExternalSortMergeJoin(long memoryBudget) {
+        this(memoryBudget, null, null);
+    }
+
+    /**
+     * @param memoryBudget   bytes of the sort of a relation in memory
+     * @param spillDirectory directory of the sorted runs, null for the temporary directory of the system
+     * @param arena          arena of the join outputs, null to create them on the heap
+     */
+    public ExternalSortMergeJoin(long memoryBudget, Path spillDirectory, OffHeapArena arena) {
+        super(arena);
+        if (memoryBudget <= 0) {
+            throw new IllegalArgumentException("Memory budget must be positive, got " + memoryBudget);
+        }
+        this.memoryBudget = memoryBudget;
+        this.spillDirectory = spillDirectory;
+    }
+
+    @Override
+    public ComplexTable join(ComplexTable R, ComplexTable S,
+                             int joinPropertyR, JoinOn joinOnR,
+                             int joinPropertyS, JoinOn joinOnS) {
+        Dictionary outputObjectDictionary = outputObjectDictionary(R, S);
+        ComplexTable output = outputTable(R, S, outputObjectDictionary);
+        int[] outputSlotsS = outputSlots(output, S);
+        KeyMapping keysS = new KeyMapping(S.getObjectDictionary(), outputObjectDictionary);
+
+        Path directory = null;
+        if (!fits(R, joinPropertyR, joinOnR) || !fits(S, joinPropertyS, joinOnS)) {
+            try {
+                directory = spillDirectory == null
+                        ? Files.createTempDirectory("external-sort-merge-join")
+                        : Files.createTempDirectory(spillDirectory, "external-sort-merge-join");
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        try (SortedRows sortedR = sort(R, joinPropertyR, joinOnR, directory);
+             SortedRows sortedS = sort(S, joinPropertyS, joinOnS, directory)) {
+            merge(sortedR, sortedS, output, outputSlotsS, keysS);
+        } finally {
+            // the runs are deleted by then
+            if (directory != null) {
+                try {
+                    Files.deleteIfExists(directory);
+                } catch (IOException e) {
+                    LOG.warn("Could not delete spill directory {}", directory, e);
+                }
+            }
+        }
+        return compact(output, R, S);
+    }
+
+    /**
+     * @return true if the relation is presorted or its sort fits into the memory budget
+     */
+    private boolean fits(ComplexTable table, int property, JoinOn joinOn) {
+        int slot = table.slot(property);
+        int[] presortedRows = joinOn == JoinOn.SUBJECT ? table.rowsBySubject(slot) : table.rowsByObject(slot);
+        return presortedRows != null || (long) table.size() * SORT_ENTRY_BYTES <= memoryBudget;
+    }
+
+    /**
+     * Sort the rows of a relation by the join key, in memory or in spilled runs.
+     * Rows with equal join keys keep their order, rows without the property are left out.
+     *
+     * @param table     relation to sort
+     * @param property  property to join on
+     * @param joinOn    property field to join on
+     * @param directory directory of the runs, null if no relation is spilled
+     * @return rows in join key order
+     */
+    private SortedRows sort(ComplexTable table, int property, JoinOn joinOn, Path directory) {
+        int slot = table.slot(property);
+        if (fits(table, property, joinOn)) {
+            return new InMemoryRows(table, ((MergeJoinBuildOutput) build(table, property, joinOn)).getRowsR(), slot, joinOn);
+        }
+        int runSize = (int) Math.max(MIN_RUN_SIZE, Math.min(table.size(), memoryBudget / SORT_ENTRY_BYTES));
+        // join key in the high, row in the low half, so sorting orders by key and then by row
+        long[] keyedRows = new long[runSize];
+        List<SpillFile> runs = new ArrayList<>();
+        try {
+            int numRows = 0;
+            for (int row = 0; row < table.size(); row++) {
+                if (!table.has(row, slot)) {
+                    continue;
+                }
+                keyedRows[numRows++] = ((long) joinKey(table, row, slot, joinOn) << Integer.SIZE) | row;
+                if (numRows == runSize) {
+                    runs.add(writeRun(table, keyedRows, numRows, directory));
+                    numRows = 0;
+                }
+            }
+            if (numRows > 0) {
+                runs.add(writeRun(table, keyedRows, numRows, directory));
+            }
+        } catch (RuntimeException e) {
+            runs.forEach(SpillFile::close);
+            throw e;
+        }
+        LOG.debug("Sorted {} rows into {} runs of up to {} rows", table.size(), runs.size(), runSize);
+
+        // both relations are merged at the same time, each keeps a chunk of every run in memory
+        long chunkBytes = memoryBudget / 2 / Math.max(runs.size(), 1) / ((long) ITEM_BYTES * table.width());
+        int chunkSize = (int) Math.max(MIN_CHUNK_SIZE, Math.min(runSize, chunkBytes));
+        return new MergedRuns(runs, chunkSize, slot, joinOn);
+    }
+
+    private SpillFile writeRun(ComplexTable table, long[] keyedRows, int numRows, Path directory) {
+        Arrays.sort(keyedRows, 0, numRows);
+        SpillFile run = new SpillFile(directory, table);
+        for (int i = 0; i < numRows; i++) {
+            run.write(table, (int) keyedRows[i]);
+        }
+        return run;
+    }
+
+    /**
+     * Merge two relations in join key order. The rows of S with the current join key are copied into a buffer,
+     * the chunk of a spilled row is released once its run moves on, and every row of R with the key is combined
+     * with the buffered rows.
+     *
+     * @param R            rows of R in join key order
+     * @param S            rows of S in join key order
+     * @param output       receives the joined rows
+     * @param outputSlotsS output slots of the slots of S
+     * @param keysS        mapping of the object keys of S to the output
+     */
+    private void merge(SortedRows R, SortedRows S, ComplexTable output, int[] outputSlotsS, KeyMapping keysS) {
+        ComplexTable groupS = null;
+        boolean hasR = R.next();
+        boolean hasS = S.next();
+        try {
+            while (hasR && hasS) {
+                if (R.key() < S.key()) {
+                    hasR = R.next();
+                } else if (R.key() > S.key()) {
+                    hasS = S.next();
+                } else {
+                    // Match is found, buffer the rows of S with this key and combine them with every row of R
+                    int key = R.key();
+                    if (groupS == null) {
+                        groupS = new ComplexTable(S.table().getPropertyDictionary(), S.table().getObjectDictionary(), MIN_CHUNK_SIZE);
+                    }
+                    groupS.clear();
+                    do {
+                        groupS.insertRow(S.table(), S.row());
+                        hasS = S.next();
+                    } while (hasS && S.key() == key);
+                    do {
+                        for (int rowS = 0; rowS < groupS.size(); rowS++) {
+                            output.insertJoined(R.table(), R.row(), KeyMapping.identity(), groupS, rowS, outputSlotsS, keysS);
+                        }
+                        hasR = R.next();
+                    } while (hasR && R.key() == key);
+                }
+            }
+        } finally {
+            if (groupS != null) {
+                groupS.release();
+            }
+        }
+    }
+
+    /**
+     * Forward-only stream of the rows of a relation in join key order
+     */
+    private interface SortedRows extends AutoCloseable {
+
+        /**
+         * Move to the next row
+         *
+         * @return false if there are no more rows
+         */
+        boolean next();
+
+        /**
+         * @return table holding the current row, valid until the next call of next()
+         */
+        ComplexTable table();
+
+        int row();
+
+        int key();
+
+        @Override
+        void close();
+    }
+
+    /**
+     * Rows sorted in memory
+     */
+    private final class InMemoryRows implements SortedRows {
+
+        private final ComplexTable table;
+
+        private final int[] rows;
+
+        private final int slot;
+
+        private final JoinOn joinOn;
+
+        private int index = -1;
+
+        private InMemoryRows(ComplexTable table, int[] rows, int slot, JoinOn joinOn) {
+            this.table = table;
+            this.rows = rows;
+            this.slot = slot;
+            this.joinOn = joinOn;
+        }
+
+        @Override
+        public boolean next() {
+            return ++index < rows.length;
+        }
+
+        @Override
+        public ComplexTable table() {
+            return table;
+        }
+
+        @Override
+        public int row() {
+            return rows[index];
+        }
+
+        @Override
+        public int key() {
+            return joinKey(table, rows[index], slot, joinOn);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * K-way merge of sorted runs, the run with the smallest join key comes next.
+     * Runs with equal keys come in run order, so rows with equal keys keep their order like in memory.
+     */
+    private final class MergedRuns implements SortedRows {
+
+        private final List<SpillFile> runs;
+
+        private final PriorityQueue<Run> queue;
+
+        private Run current;
+
+        private MergedRuns(List<SpillFile> runs, int chunkSize, int slot, JoinOn joinOn) {
+            this.runs = runs;
+            this.queue = new PriorityQueue<>(Math.max(runs.size(), 1), (a, b) -> a.key != b.key
+                    ? Integer.compare(a.key, b.key)
+                    : Integer.compare(a.index, b.index));
+            for (int index = 0; index < runs.size(); index++) {
+                Run run = new Run(runs.get(index).cursor(chunkSize), index, slot, joinOn);
+                if (run.advance()) {
+                    queue.add(run);
+                } else {
+                    run.cursor.close();
+                }
+            }
+        }
+
+        @Override
+        public boolean next() {
+            if (current != null) {
+                if (current.advance()) {
+                    queue.add(current);
+                } else {
+                    current.cursor.close();
+                }
+            }
+            current = queue.poll();
+            return current != null;
+        }
+
+        @Override
+        public ComplexTable table() {
+            return current.cursor.table();
+        }
+
+        @Override
+        public int row() {
+            return current.cursor.row();
+        }
+
+        @Override
+        public int key() {
+            return current.key;
+        }
+
+        @Override
+        public void close() {
+            if (current != null) {
+                current.cursor.close();
+                current = null;
+            }
+            queue.forEach(run -> run.cursor.close());
+            queue.clear();
+            runs.forEach(SpillFile::close);
+        }
+    }
+
+    /**
+     * Cursor over a run with the join key of its current row
+     */
+    private final class Run {
+
+        private final SpillFile.Cursor cursor;
+
+        private final int index;
+
+        private final int slot;
+
+        private final JoinOn joinOn;
+
+        private int key;
+
+        private Run(SpillFile.Cursor cursor, int index, int slot, JoinOn joinOn) {
+            this.cursor = cursor;
+            this.index = index;
+            this.slot = slot;
+            this.joinOn = joinOn;
+        }
+
+        private boolean advance() {
+            if (!cursor.next()) {
+                return false;
+            }
+            key = joinKey(cursor.table(), cursor.row(), slot, joinOn);
+            return true;
+        }
+    }
+}
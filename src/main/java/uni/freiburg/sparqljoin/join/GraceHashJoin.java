@@ -0,0 +1,334 @@
+package uni.freiburg.sparqljoin.join;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uni.freiburg.sparqljoin.model.db.ComplexTable;
+import uni.freiburg.sparqljoin.model.db.Dictionary;
+import uni.freiburg.sparqljoin.model.db.KeyMapping;
+import uni.freiburg.sparqljoin.model.db.OffHeapArena;
+import uni.freiburg.sparqljoin.model.join.JoinHashTable;
+import uni.freiburg.sparqljoin.util.Hasher;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+
+/**
+ * Hybrid hash join for build relations that don't fit into memory. Both relations are partitioned by the hash of the
+ * join key. As many build partitions as the memory budget allows stay in memory and are joined while partitioning,
+ * the other partitions of both relations are spilled to temporary files. The spilled partition pairs are joined one
+ * at a time afterwards, a pair whose build partition still exceeds the budget is partitioned again with other hash bits.
+ * <p>
+ * Only the hash tables and the resident build rows count against the budget, the inputs and the output are
+ * allocated as usual. Late materialized joins of row ids are small and joined in memory like HashJoin does.
+ */
+public class GraceHashJoin extends HashJoin {
+    private static final Logger LOG = LoggerFactory.getLogger(GraceHashJoin.class);
+
+    // partitions per level, a power of two
+    private static final int PARTITION_BITS = 4;
+
+    private static final int NUM_PARTITIONS = 1 << PARTITION_BITS;
+
+    // partition levels, deeper partitions are joined in memory even if they exceed the budget (skewed keys)
+    private static final int MAX_DEPTH = 4;
+
+    // estimated heap bytes of a build row in the JoinHashTable: two long slots, at most half of the slots are used,
+    // and the int chain link of the row
+    private static final int HASH_ENTRY_BYTES = 2 * Long.BYTES + Integer.BYTES;
+
+    // estimated bytes of an item of a row: subject, object and type
+    private static final int ITEM_BYTES = 2 * Integer.BYTES + 1;
+
+    private static final int MIN_CHUNK_SIZE = 1024;
+
+    private final long memoryBudget;
+
+    private final Path spillDirectory;
+
+    /**
+     * @param memoryBudget bytes of the build partitions joined in memory
+     */
+    public GraceHashJoin(long memoryBudget) {
+        this(memoryBudget, null, null);
+    }
+
+    /**
+     * @param memoryBudget   bytes of the build partitions joined in memory
+     * @param spillDirectory directory of the spilled partitions, null for the temporary directory of the system
+     * @param arena          arena of the join outputs, null to create them on the heap
+     */
+    public GraceHashJoin(long memoryBudget, Path spillDirectory, OffHeapArena arena) {
+        super(arena);
+        if (memoryBudget <= 0) {
+            throw new IllegalArgumentException("Memory budget must be positive, got " + memoryBudget);
+        }
+        this.memoryBudget = memoryBudget;
+        this.spillDirectory = spillDirectory;
+    }
+
+    @Override
+    public ComplexTable join(ComplexTable R, ComplexTable S, int joinPropertyR, JoinOn joinOnR, int joinPropertyS, JoinOn joinOnS) {
+        // Use the smaller relation of R and S as the build relation, like HashJoin
+        if (R.size() < S.size()) {
+            return spillingJoin(R, S, joinPropertyR, joinOnR, joinPropertyS, joinOnS);
+        } else {
+            return spillingJoin(S, R, joinPropertyS, joinOnS, joinPropertyR, joinOnR);
+        }
+    }
+
+    /**
+     * Partition, spill and join the build relation R and the probe relation S
+     *
+     * @return joined table with the properties of R first
+     */
+    private ComplexTable spillingJoin(ComplexTable R, ComplexTable S, int joinPropertyR, JoinOn joinOnR, int joinPropertyS, JoinOn joinOnS) {
+        Dictionary outputObjectDictionary = outputObjectDictionary(R, S);
+        ComplexTable output = outputTable(R, S, outputObjectDictionary);
+        Partitioning partitioning = new Partitioning(R, S, joinPropertyR, joinOnR, joinPropertyS, joinOnS, output,
+                outputSlots(output, S), new KeyMapping(S.getObjectDictionary(), outputObjectDictionary));
+        try {
+            partitioning.directory = spillDirectory == null
+                    ? Files.createTempDirectory("grace-hash-join")
+                    : Files.createTempDirectory(spillDirectory, "grace-hash-join");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        try {
+            partitioning.join(chunks -> chunks.accept(R), chunks -> chunks.accept(S), R.size(), 0);
+        } finally {
+            // the spill files are deleted by then
+            try {
+                Files.deleteIfExists(partitioning.directory);
+            } catch (IOException e) {
+                LOG.warn("Could not delete spill directory {}", partitioning.directory, e);
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Partition of the bits of the join key hash belonging to a level
+     *
+     * @param key   join key
+     * @param depth partition level
+     * @return partition number
+     */
+    private static int partition(int key, int depth) {
+        // every level takes the next bits of a well mixed hash (MurmurHash3 finalizer), so a level splits
+        // the partitions of the level above
+        int hash = Hasher.hash(key);
+        hash ^= hash >>> 16;
+        hash *= 0x85EBCA6B;
+        hash ^= hash >>> 13;
+        hash *= 0xC2B2AE35;
+        hash ^= hash >>> 16;
+        return (hash >>> (Integer.SIZE - PARTITION_BITS * (depth + 1))) & (NUM_PARTITIONS - 1);
+    }
+
+    /**
+     * Source of the rows of a relation or a spilled partition, passes the rows on in one or more chunks
+     */
+    @FunctionalInterface
+    private interface Chunks {
+
+        void forEach(Consumer<ComplexTable> chunks);
+    }
+
+    /**
+     * State of the join of a build and a probe relation, the partitions keep the schema of their relation
+     */
+    private final class Partitioning {
+
+        private final ComplexTable R;
+
+        private final ComplexTable S;
+
+        private final int joinPropertyR;
+
+        private final JoinOn joinOnR;
+
+        private final int joinPropertyS;
+
+        private final JoinOn joinOnS;
+
+        private final ComplexTable output;
+
+        private final int[] outputSlotsS;
+
+        private final KeyMapping keysS;
+
+        // estimated bytes of a build row in memory
+        private final long rowBytes;
+
+        private Path directory;
+
+        private Partitioning(ComplexTable R, ComplexTable S, int joinPropertyR, JoinOn joinOnR, int joinPropertyS, JoinOn joinOnS,
+                             ComplexTable output, int[] outputSlotsS, KeyMapping keysS) {
+            this.R = R;
+            this.S = S;
+            this.joinPropertyR = joinPropertyR;
+            this.joinOnR = joinOnR;
+            this.joinPropertyS = joinPropertyS;
+            this.joinOnS = joinOnS;
+            this.output = output;
+            this.outputSlotsS = outputSlotsS;
+            this.keysS = keysS;
+            this.rowBytes = HASH_ENTRY_BYTES + (long) ITEM_BYTES * R.width();
+        }
+
+        /**
+         * Join the rows of a build and a probe partition
+         *
+         * @param build     rows of the build partition
+         * @param probe     rows of the probe partition
+         * @param buildRows number of build rows
+         * @param depth     partition level
+         */
+        private void join(Chunks build, Chunks probe, int buildRows, int depth) {
+            int slotR = R.slot(joinPropertyR);
+            int slotS = S.slot(joinPropertyS);
+            if (buildRows * rowBytes <= memoryBudget || depth == MAX_DEPTH) {
+                if (buildRows * rowBytes > memoryBudget) {
+                    LOG.warn("Partition of {} rows exceeds the memory budget after {} levels, joining it in memory", buildRows, depth);
+                }
+                if (depth == 0) {
+                    // the build relation is in memory already
+                    joinResident(R, probe, null);
+                    return;
+                }
+                // chunks of spilled partitions are released after they are read, so their rows are copied
+                ComplexTable resident = new ComplexTable(R.getPropertyDictionary(), R.getObjectDictionary(), buildRows);
+                build.forEach(chunk -> {
+                    for (int row = 0; row < chunk.size(); row++) {
+                        resident.insertRow(chunk, row);
+                    }
+                });
+                joinResident(resident, probe, null);
+                resident.release();
+                return;
+            }
+
+            // count the build rows per partition and keep the partitions in memory that fit into the budget
+            int[] counts = new int[NUM_PARTITIONS];
+            build.forEach(chunk -> {
+                for (int row = 0; row < chunk.size(); row++) {
+                    if (chunk.has(row, slotR)) {
+                        counts[partition(joinKey(chunk, row, slotR, joinOnR), depth)]++;
+                    }
+                }
+            });
+            boolean[] inMemory = new boolean[NUM_PARTITIONS];
+            long residentBytes = 0;
+            int residentRows = 0;
+            for (int partition = 0; partition < NUM_PARTITIONS; partition++) {
+                if (residentBytes + counts[partition] * rowBytes <= memoryBudget) {
+                    inMemory[partition] = true;
+                    residentBytes += counts[partition] * rowBytes;
+                    residentRows += counts[partition];
+                }
+            }
+
+            SpillFile[] buildFiles = new SpillFile[NUM_PARTITIONS];
+            SpillFile[] probeFiles = new SpillFile[NUM_PARTITIONS];
+            ComplexTable resident = new ComplexTable(R.getPropertyDictionary(), R.getObjectDictionary(), residentRows);
+            try {
+                build.forEach(chunk -> {
+                    for (int row = 0; row < chunk.size(); row++) {
+                        if (!chunk.has(row, slotR)) {
+                            continue;
+                        }
+                        int partition = partition(joinKey(chunk, row, slotR, joinOnR), depth);
+                        if (inMemory[partition]) {
+                            resident.insertRow(chunk, row);
+                        } else {
+                            spill(buildFiles, partition, R, chunk, row);
+                        }
+                    }
+                });
+                // the probe rows of spilled partitions are spilled as well, the others are joined right away
+                joinResident(resident, probe, (chunk, row) -> {
+                    int partition = partition(joinKey(chunk, row, slotS, joinOnS), depth);
+                    if (inMemory[partition]) {
+                        return true;
+                    }
+                    spill(probeFiles, partition, S, chunk, row);
+                    return false;
+                });
+                resident.release();
+                LOG.debug("Level {}: joined {} build rows in memory, spilled {} build rows", depth, residentRows, buildRows - residentRows);
+
+                // partitions without build or without probe rows have no matches
+                for (int partition = 0; partition < NUM_PARTITIONS; partition++) {
+                    SpillFile buildFile = buildFiles[partition];
+                    SpillFile probeFile = probeFiles[partition];
+                    if (buildFile != null && probeFile != null) {
+                        int chunkSize = chunkSize();
+                        join(chunks -> buildFile.forEachChunk(chunkSize, chunks), chunks -> probeFile.forEachChunk(chunkSize, chunks),
+                                buildFile.size(), depth + 1);
+                    }
+                    close(buildFiles, partition);
+                    close(probeFiles, partition);
+                }
+            } finally {
+                for (int partition = 0; partition < NUM_PARTITIONS; partition++) {
+                    close(buildFiles, partition);
+                    close(probeFiles, partition);
+                }
+            }
+        }
+
+        /**
+         * Build the hash table of the resident build rows and probe the probe rows
+         *
+         * @param resident build rows in memory
+         * @param probe    probe rows
+         * @param filter   decides if a probe row is probed, null to probe all rows
+         */
+        private void joinResident(ComplexTable resident, Chunks probe, ProbeFilter filter) {
+            int slotS = S.slot(joinPropertyS);
+            JoinHashTable hashTable = build(resident, joinPropertyR, joinOnR).getTable();
+            probe.forEach(chunk -> {
+                for (int rowS = 0; rowS < chunk.size(); rowS++) {
+                    if (!chunk.has(rowS, slotS) || filter != null && !filter.probe(chunk, rowS)) {
+                        continue;
+                    }
+                    int probeJoinKey = joinKey(chunk, rowS, slotS, joinOnS);
+                    for (int rowR = hashTable.first(probeJoinKey); rowR != JoinHashTable.NO_ROW; rowR = hashTable.next(rowR)) {
+                        output.insertJoined(resident, rowR, KeyMapping.identity(), chunk, rowS, outputSlotsS, keysS);
+                    }
+                }
+            });
+        }
+
+        private void spill(SpillFile[] files, int partition, ComplexTable schema, ComplexTable chunk, int row) {
+            if (files[partition] == null) {
+                files[partition] = new SpillFile(directory, schema);
+            }
+            files[partition].write(chunk, row);
+        }
+
+        // rows read back per chunk, so a chunk stays well below the budget
+        private int chunkSize() {
+            return (int) Math.max(MIN_CHUNK_SIZE, Math.min(Integer.MAX_VALUE, memoryBudget / 4 / rowBytes));
+        }
+    }
+
+    /**
+     * Decides while probing whether a probe row belongs to a resident partition
+     */
+    @FunctionalInterface
+    private interface ProbeFilter {
+
+        boolean probe(ComplexTable chunk, int row);
+    }
+
+    private static void close(SpillFile[] files, int partition) {
+        if (files[partition] != null) {
+            files[partition].close();
+            files[partition] = null;
+        }
+    }
+}
@@ -2,14 +2,15 @@ package uni.freiburg.sparqljoin.join;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import uni.freiburg.sparqljoin.model.db.*;
+import uni.freiburg.sparqljoin.model.db.ComplexTable;
 import uni.freiburg.sparqljoin.model.db.Dictionary;
-import uni.freiburg.sparqljoin.model.join.*;
-import uni.freiburg.sparqljoin.util.Hasher;
-
-import java.util.*;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
+import uni.freiburg.sparqljoin.model.db.KeyMapping;
+import uni.freiburg.sparqljoin.model.db.OffHeapArena;
+import uni.freiburg.sparqljoin.model.db.Relation;
+import uni.freiburg.sparqljoin.model.db.RowIdTable;
+import uni.freiburg.sparqljoin.model.join.BuildOutput;
+import uni.freiburg.sparqljoin.model.join.HashJoinBuildOutput;
+import uni.freiburg.sparqljoin.model.join.JoinHashTable;
 
 /**
  * This class implements hash join algorithm
@@ -17,10 +18,28 @@ import java.util.concurrent.atomic.AtomicInteger;
 public class HashJoin implements AbstractJoin {
     private static final Logger LOG = LoggerFactory.getLogger(HashJoin.class);
 
+    private final OffHeapArena arena;
+
+    public HashJoin() {
+        this(null);
+    }
+
+    /**
+     * @param arena arena of the join outputs, null to create them on the heap
+     */
+    public HashJoin(OffHeapArena arena) {
+        this.arena = arena;
+    }
+
+    @Override
+    public OffHeapArena arena() {
+        return arena;
+    }
+
     @Override
     public ComplexTable join(ComplexTable R, ComplexTable S, int joinPropertyR, JoinOn joinOnR, int joinPropertyS, JoinOn joinOnS) {
         // Use the smaller relation of R and S as the build relation. Algorithm will run faster
-        if (R.getValues().size() < S.getValues().size()) {
+        if (R.size() < S.size()) {
             BuildOutput output = build(R, joinPropertyR, joinOnR);
             return probe(output, R, S, joinPropertyR, joinOnR, joinPropertyS, joinOnS);
         } else {
@@ -29,46 +48,64 @@ public class HashJoin implements AbstractJoin {
         }
     }
 
+    @Override
+    public RowIdTable join(RowIdTable R, RowIdTable S, int joinPropertyR, JoinOn joinOnR, int joinPropertyS, JoinOn joinOnS) {
+        RowIdTable output = outputTable(R, S);
+        int[] outputSlotsS = outputSlots(output, S);
+        // Build on the smaller relation, the output keeps R first either way
+        if (R.size() < S.size()) {
+            probeMatches(build(R, joinPropertyR, joinOnR), R, S, 0, S.size(), joinPropertyR, joinOnR, joinPropertyS, joinOnS,
+                    (rowR, rowS) -> output.insertJoined(R, rowR, S, rowS, outputSlotsS));
+        } else {
+            probeMatches(build(S, joinPropertyS, joinOnS), S, R, 0, R.size(), joinPropertyS, joinOnS, joinPropertyR, joinOnR,
+                    (rowS, rowR) -> output.insertJoined(R, rowR, S, rowS, outputSlotsS));
+        }
+        return output;
+    }
+
     /**
-     * Build a hash map partition over the join key:
-     * for each item in relation R, calculate the hash of the join key and append the JoinedItems instance to the partition corresponding to the hashed join key
+     * Build a hash table over the join key:
+     * for each row in relation R, insert the row under its join key
      *
      * @param table    input relation
      * @param property property value to join on name of the property to join on from the reference table
      * @param joinOn   property field to join on
-     * @return build output - HashMap with key = hashed join key, value = list of JoinedItems
+     * @return build output - hash table with the rows of every join key
      */
     @Override
-    public HashJoinBuildOutput build(ComplexTable table, int property, JoinOn joinOn) {
-        LOG.info("Starting build phase");
-
-        HashMap<Integer, List<JoinedItems>> buildOutput = new HashMap<>();
-        table.getValues().forEach(joinedItems -> {
-            Item item = joinedItems.values().get(property);
-            if (item == null) {
-                return;
-            }
+    public HashJoinBuildOutput build(Relation table, int property, JoinOn joinOn) {
+        return build(table, property, joinOn, 0, table.size());
+    }
 
-            int key = joinOn == JoinOn.SUBJECT ? item.subject() : item.object();
-            int hashedKey = Hasher.hash(key);
+    /**
+     * Build a hash table over the join key of a range of rows, sized for a distinct key per row
+     *
+     * @param table    input relation
+     * @param property property value to join on name of the property to join on from the reference table
+     * @param joinOn   property field to join on
+     * @param fromRow  first row of the range
+     * @param toRow    end of the range, exclusive
+     * @return build output - hash table with the rows of every join key in row order
+     */
+    public HashJoinBuildOutput build(Relation table, int property, JoinOn joinOn, int fromRow, int toRow) {
+        LOG.info("Starting build phase");
 
-            if (buildOutput.containsKey(hashedKey)) {
-                List<JoinedItems> list = buildOutput.get(hashedKey);
-                list.add(joinedItems);
-                buildOutput.put(hashedKey, list); // TODO is this required? buildOutput.get() returns a reference
-            } else {
-                buildOutput.put(hashedKey, new ArrayList<>(List.of(joinedItems)));
+        int slot = table.slot(property);
+        JoinHashTable hashTable = new JoinHashTable(toRow - fromRow, fromRow, toRow);
+        // rows are inserted in front of the rows of their key, inserting backwards chains them in row order
+        for (int row = toRow - 1; row >= fromRow; row--) {
+            if (table.has(row, slot)) {
+                hashTable.insert(joinKey(table, row, slot, joinOn), row);
             }
-        });
-        return new HashJoinBuildOutput(buildOutput);
+        }
+        return new HashJoinBuildOutput(hashTable);
     }
 
     /**
      * Probe join key from the joining table:
-     * for each item in probe table
-     * take hash of the join key subject
-     * find matching bucket hash map partition
-     * compare and join items in the matching bucket
+     * for each row in probe table
+     * look up the join key in the hash table
+     * join the rows chained under the key
      *
      * @param partitions    build relation partitions from the build phase
      * @param R             R relation table - build relation
@@ -85,65 +122,52 @@ public class HashJoin implements AbstractJoin {
                               int joinPropertyS, JoinOn joinOnS) {
         LOG.info("Starting probe phase");
 
-        HashMap<Integer, List<JoinedItems>> hashedReferenceTablePartitions = ((HashJoinBuildOutput) partitions).getPartition();
-
-        Dictionary referenceTableDictionary = R.getObjectDictionary();
-        Dictionary probeTableDictionary = S.getObjectDictionary();
-        Dictionary probeTablePropertyDictionary = S.getPropertyDictionary();
+        // Output starts with a copy of the R dictionary, so only the keys of S are mapped
+        Dictionary outputObjectDictionary = outputObjectDictionary(R, S);
+        ComplexTable output = outputTable(R, S, outputObjectDictionary);
+        int[] outputSlotsS = outputSlots(output, S);
+        KeyMapping keysS = new KeyMapping(S.getObjectDictionary(), outputObjectDictionary);
 
-        // Output variables
-        Dictionary outputObjectDictionary = referenceTableDictionary.clone();
-        Dictionary outputPropertyDictionary = R.getPropertyDictionary().clone();
-        List<JoinedItems> joinedItems = new ArrayList<>();
+        probeMatches(partitions, R, S, 0, S.size(), joinPropertyR, joinOnR, joinPropertyS, joinOnS, (rowR, rowS) ->
+                output.insertJoined(R, rowR, KeyMapping.identity(), S, rowS, outputSlotsS, keysS));
 
-        AtomicInteger numProcessedRecords = new AtomicInteger(0);
-        int numRecords = S.getValues().size();
-        AtomicBoolean printedProgress = new AtomicBoolean(false);
-
-        // For each tuple in S...
-        S.getValues().forEach(probeJoinedItems -> {
-            if (numProcessedRecords.incrementAndGet() % 10000 == 0 && !printedProgress.get()) {
-                System.out.println("Iterate over S tuples. " + numProcessedRecords + "/" + numRecords + " records = " + (int)(100f * numProcessedRecords.get() / numRecords) + "%");
-                printedProgress.set(true);
-            } else {
-                printedProgress.set(false);
-            }
+        return output;
+    }
 
-            int hashedSKey;
-            if (joinOnS == JoinOn.SUBJECT) {
-                hashedSKey = Hasher.hash(probeJoinedItems.subject());
-            } else {
-                hashedSKey = Hasher.hash(probeJoinedItems.values().get(joinPropertyS).object());
+    /**
+     * Look up the join key of every row of a range of S in the build output and pass each matching pair of rows on
+     *
+     * @param partitions    build relation partitions from the build phase
+     * @param R             R relation table - build relation
+     * @param S             S relation table - probe relation
+     * @param fromRowS      first row of S to probe
+     * @param toRowS        end of the rows of S to probe, exclusive
+     * @param joinPropertyR name of the property to join on from table R (build relation)
+     * @param joinOnR       join field in property from R (build relation)
+     * @param joinPropertyS name of the property to join on from table S (probe relation)
+     * @param joinOnS       join field in property from S (probe relation)
+     * @param matches       receives the row of R and the row of S of every match
+     */
+    protected void probeMatches(BuildOutput partitions, Relation R, Relation S, int fromRowS, int toRowS,
+                                int joinPropertyR, JoinOn joinOnR,
+                                int joinPropertyS, JoinOn joinOnS,
+                                RowMatches matches) {
+        JoinHashTable hashTable = ((HashJoinBuildOutput) partitions).getTable();
+        int slotS = S.slot(joinPropertyS);
+        LOG.trace("Probing rows {} to {} of S", fromRowS, toRowS);
+
+        // For each row in S...
+        for (int rowS = fromRowS; rowS < toRowS; rowS++) {
+            if (!S.has(rowS, slotS)) {
+                continue; // Discard this S row
             }
 
             // ... look up its join key in the hash table of R
-            if (hashedReferenceTablePartitions.containsKey(hashedSKey)) {
-                for (JoinedItems referenceJoinedItems : hashedReferenceTablePartitions.get(hashedSKey)) {
-                    if (!referenceJoinedItems.values().containsKey(joinPropertyR)) {
-                        return; // Discard this S tuple
-                    }
-                    if (!probeJoinedItems.values().containsKey(joinPropertyS)) {
-                        return; // Discard this S tuple
-                    }
-
-                    // A match is found. Output the combined tuple.
-
-                    // Get join property
-                    Item referenceItem = referenceJoinedItems.values().get(joinPropertyR);
-                    Item probeItem = probeJoinedItems.values().get(joinPropertyS);
-
-                    // Check if there is a hash collision
-                    int referenceJoinKey = joinOnR == JoinOn.SUBJECT ? referenceItem.subject() : referenceItem.object();
-                    int probeJoinKey = joinOnS == JoinOn.SUBJECT ? probeItem.subject() : probeItem.object();
-                    if (referenceJoinKey == probeJoinKey) {
-                        // No hash collision
-                        mergeTuplesAndDictionaries(joinedItems, outputPropertyDictionary, probeTablePropertyDictionary, outputObjectDictionary, referenceJoinedItems, probeJoinedItems, probeTableDictionary);
-                    }
-                }
+            int probeJoinKey = joinKey(S, rowS, slotS, joinOnS);
+            for (int rowR = hashTable.first(probeJoinKey); rowR != JoinHashTable.NO_ROW; rowR = hashTable.next(rowR)) {
+                // A match is found, the table compares the join keys themselves. Output the combined row.
+                matches.accept(rowR, rowS);
             }
-        });
-
-        return new ComplexTable(outputPropertyDictionary, outputObjectDictionary, new PropertyValues<>(joinedItems));
+        }
     }
-
 }
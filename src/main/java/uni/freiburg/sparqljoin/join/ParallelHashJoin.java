@@ -4,96 +4,175 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import uni.freiburg.sparqljoin.model.db.ComplexTable;
 import uni.freiburg.sparqljoin.model.db.Dictionary;
+import uni.freiburg.sparqljoin.model.db.KeyMapping;
+import uni.freiburg.sparqljoin.model.db.OffHeapArena;
+import uni.freiburg.sparqljoin.model.db.Relation;
+import uni.freiburg.sparqljoin.model.db.RowIdTable;
+import uni.freiburg.sparqljoin.model.join.BuildOutput;
 import uni.freiburg.sparqljoin.model.join.HashJoinBuildOutput;
-import uni.freiburg.sparqljoin.model.join.JoinedItems;
+import uni.freiburg.sparqljoin.model.join.JoinHashTable;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
+/**
+ * Hash join with several build and probe tasks on a fork/join pool, one task per worker of the pool.
+ * Every task works on a contiguous range of rows.
+ * The build tasks insert into one shared hash table with compare-and-set, so there is nothing to merge.
+ * The probe tasks encode their output into shared dictionaries, so the task outputs are only concatenated.
+ */
 public class ParallelHashJoin extends HashJoin {
     private static final Logger LOG = LoggerFactory.getLogger(ParallelHashJoin.class);
 
-    private List<ComplexTable> splitRelationIntoParts(ComplexTable relation, int numParts) {
-        List<ComplexTable> relationParts = new ArrayList<>();
+    private final ForkJoinPool pool;
 
-        for (int i = 0; i < numParts; i++) {
-            relationParts.add(new ComplexTable(relation.getPropertyDictionary(), relation.getObjectDictionary()));
-        }
+    private final int numTasks;
 
-        int numProcessedElements = 0;
-        for (JoinedItems items : relation.getValues()) {
-            relationParts.get(numProcessedElements % numParts).insert(items);
-            numProcessedElements++;
-        }
+    public ParallelHashJoin() {
+        this(ForkJoinPool.commonPool(), null);
+    }
+
+    /**
+     * @param arena arena of the join output and the task outputs, null to create them on the heap
+     */
+    public ParallelHashJoin(OffHeapArena arena) {
+        this(ForkJoinPool.commonPool(), arena);
+    }
 
-        return relationParts;
+    /**
+     * @param pool  pool running the build and probe tasks
+     * @param arena arena of the join output and the task outputs, null to create them on the heap
+     */
+    public ParallelHashJoin(ForkJoinPool pool, OffHeapArena arena) {
+        super(arena);
+        this.pool = pool;
+        this.numTasks = pool.getParallelism();
     }
 
     @Override
     public ComplexTable join(ComplexTable R, ComplexTable S, int joinPropertyR, JoinOn joinOnR, int joinPropertyS, JoinOn joinOnS) {
-        // TODO clean code
-        // TODO combine splitting R and S relations into one thread
-
-        int numThreads = 6;
-
-        // Partition relation R across all threads for the build phase
-        List<ComplexTable> buildRelationParts = splitRelationIntoParts(R, numThreads);
-
-        // Start build threads
-        List<ParallelHashJoinBuildWorkerThread> buildThreads = new ArrayList<>();
-        for (int i = 0; i < numThreads; i++) {
-            ParallelHashJoinBuildWorkerThread thread = new ParallelHashJoinBuildWorkerThread(this, buildRelationParts.get(i), joinPropertyR, joinOnR);
-            buildThreads.add(thread);
-            thread.start();
+        HashJoinBuildOutput combinedBuildOutput = parallelBuild(R, joinPropertyR, joinOnR);
+
+        // Output dictionaries shared by the probe tasks
+        Dictionary outputObjectDictionary = concurrentOutputObjectDictionary(R, S);
+        Dictionary outputPropertyDictionary = outputPropertyDictionary(R, S);
+
+        // Probe tasks, each on a range of relation S
+        ComplexTable[] probeOutputs = new ComplexTable[numTasks];
+        ParallelTasks.run(pool, numTasks, task -> probeOutputs[task] = probe(combinedBuildOutput, R, S,
+                ParallelTasks.partStart(S.size(), task, numTasks), ParallelTasks.partStart(S.size(), task + 1, numTasks),
+                joinPropertyR, joinOnR, joinPropertyS, joinOnS, outputPropertyDictionary, outputObjectDictionary));
+
+        // Combine probe task results, keys are already encoded with the output dictionaries
+        int numRows = 0;
+        for (ComplexTable taskOutput : probeOutputs) {
+            numRows += taskOutput.size();
         }
-
-        // Wait for build threads to finish and get results
-        List<HashJoinBuildOutput> buildOutputs = new ArrayList<>();
-        for (ParallelHashJoinBuildWorkerThread thread : buildThreads) {
-            try {
-                thread.join();
-                buildOutputs.add(thread.getOutput());
-            } catch (InterruptedException e) {
-                LOG.warn("InterruptedException occurred while joining thread: {}", e.toString());
-            }
+        ComplexTable joinedTable = new ComplexTable(outputPropertyDictionary, combinedOutputObjectDictionary(R, outputObjectDictionary),
+                numRows, arena());
+        for (ComplexTable taskOutput : probeOutputs) {
+            joinedTable.insertAll(taskOutput);
+            taskOutput.release();
         }
+        return joinedTable;
+    }
 
+    @Override
+    public RowIdTable join(RowIdTable R, RowIdTable S, int joinPropertyR, JoinOn joinOnR, int joinPropertyS, JoinOn joinOnS) {
+        HashJoinBuildOutput combinedBuildOutput = parallelBuild(R, joinPropertyR, joinOnR);
 
-        // Combine build thread results
-        HashJoinBuildOutput combinedBuildOutput = new HashJoinBuildOutput(new HashMap<>());
-        for (HashJoinBuildOutput threadOutput : buildOutputs) {
-            combinedBuildOutput.mergeFrom(threadOutput);
+        // Probe tasks, each on a range of relation S into its own output
+        RowIdTable[] probeOutputs = new RowIdTable[numTasks];
+        for (int i = 0; i < numTasks; i++) {
+            probeOutputs[i] = outputTable(R, S);
         }
-
-        // Partition relation S across all threads for the probe phase
-        List<ComplexTable> probeRelationParts = splitRelationIntoParts(S, numThreads);
-
-        // Start probe threads
-        List<ParallelHashJoinProbeWorkerThread> probeThreads = new ArrayList<>();
-        for (int i = 0; i < numThreads; i++) {
-            ParallelHashJoinProbeWorkerThread thread = new ParallelHashJoinProbeWorkerThread(this, combinedBuildOutput, R, probeRelationParts.get(i), joinPropertyR, joinOnR, joinPropertyS, joinOnS);
-            probeThreads.add(thread);
-            thread.start();
+        ParallelTasks.run(pool, numTasks, task -> {
+            RowIdTable taskOutput = probeOutputs[task];
+            int[] outputSlotsS = outputSlots(taskOutput, S);
+            probeMatches(combinedBuildOutput, R, S,
+                    ParallelTasks.partStart(S.size(), task, numTasks), ParallelTasks.partStart(S.size(), task + 1, numTasks),
+                    joinPropertyR, joinOnR, joinPropertyS, joinOnS,
+                    (rowR, rowS) -> taskOutput.insertJoined(R, rowR, S, rowS, outputSlotsS));
+        });
+
+        // Combine probe task results in the order of S
+        RowIdTable joinedTable = outputTable(R, S);
+        for (RowIdTable taskOutput : probeOutputs) {
+            joinedTable.insertAll(taskOutput);
         }
+        return joinedTable;
+    }
 
-        // Wait for probe threads to finish and get results
-        List<ComplexTable> probeOutputs = new ArrayList<>();
-        for (ParallelHashJoinProbeWorkerThread thread : probeThreads) {
-            try {
-                thread.join();
-                probeOutputs.add(thread.getOutput());
-            } catch (InterruptedException e) {
-                LOG.warn("InterruptedException occurred while joining thread: {}", e.toString());
-            }
-        }
+    /**
+     * Build the hash table of a relation with several tasks, each on a range of the rows
+     *
+     * @param table    build relation
+     * @param property property to join on
+     * @param joinOn   property field to join on
+     * @return build output with the rows of all tasks, the order of the rows of a join key depends on the tasks
+     */
+    private HashJoinBuildOutput parallelBuild(Relation table, int property, JoinOn joinOn) {
+        // One table for all tasks, sized for a distinct key per row, so it never has to grow
+        JoinHashTable sharedTable = new JoinHashTable(table.size(), 0, table.size());
+
+        // Waiting for the build tasks makes their rows visible to the probe tasks started afterwards
+        ParallelTasks.run(pool, numTasks, task -> build(table, property, joinOn,
+                ParallelTasks.partStart(table.size(), task, numTasks), ParallelTasks.partStart(table.size(), task + 1, numTasks), sharedTable));
+        return new HashJoinBuildOutput(sharedTable);
+    }
 
-        // Combine probe thread results
-        ComplexTable joinResult = new ComplexTable(new Dictionary());
-        for (ComplexTable threadOutput : probeOutputs) {
-            joinResult.insertComplexTable(threadOutput);
+    /**
+     * Insert a range of rows into the hash table shared by the build tasks
+     *
+     * @param table       build relation
+     * @param property    property to join on
+     * @param joinOn      property field to join on
+     * @param fromRow     first row of the range
+     * @param toRow       end of the range, exclusive
+     * @param sharedTable hash table of all build tasks
+     */
+    public void build(Relation table, int property, JoinOn joinOn, int fromRow, int toRow, JoinHashTable sharedTable) {
+        LOG.info("Starting build phase");
+
+        int slot = table.slot(property);
+        for (int row = fromRow; row < toRow; row++) {
+            if (table.has(row, slot)) {
+                sharedTable.insertConcurrently(joinKey(table, row, slot, joinOn), row);
+            }
         }
+    }
 
-        return joinResult;
+    /**
+     * Probe a range of S. Rows of R and S are encoded with the output dictionaries,
+     * which may be shared with the other probe tasks.
+     *
+     * @param partitions               build relation partitions from the build phase
+     * @param R                        R relation table - build relation
+     * @param S                        S relation table - probe relation
+     * @param fromRowS                 first row of S to probe
+     * @param toRowS                   end of the rows of S to probe, exclusive
+     * @param joinPropertyR            name of the property to join on from table R (build relation)
+     * @param joinOnR                  join field in property from R (build relation)
+     * @param joinPropertyS            name of the property to join on from table S (probe relation)
+     * @param joinOnS                  join field in property from S (probe relation)
+     * @param outputPropertyDictionary property dictionary of the output, containing the properties of R and S with the keys of R
+     * @param outputObjectDictionary   object dictionary of the output, thread-safe if it isn't the dictionary of R and S
+     * @return joined values of the range
+     */
+    public ComplexTable probe(BuildOutput partitions, ComplexTable R, ComplexTable S, int fromRowS, int toRowS,
+                              int joinPropertyR, JoinOn joinOnR,
+                              int joinPropertyS, JoinOn joinOnS,
+                              Dictionary outputPropertyDictionary, Dictionary outputObjectDictionary) {
+        LOG.info("Starting probe phase");
+
+        // the output property dictionary is only read here
+        ComplexTable output = new ComplexTable(outputPropertyDictionary, outputObjectDictionary, arena());
+        int[] outputSlotsS = outputSlots(output, S);
+        KeyMapping keysR = new KeyMapping(R.getObjectDictionary(), outputObjectDictionary);
+        KeyMapping keysS = new KeyMapping(S.getObjectDictionary(), outputObjectDictionary);
+
+        probeMatches(partitions, R, S, fromRowS, toRowS, joinPropertyR, joinOnR, joinPropertyS, joinOnS, (rowR, rowS) ->
+                output.insertJoined(R, rowR, keysR, S, rowS, outputSlotsS, keysS));
+
+        return output;
     }
 }
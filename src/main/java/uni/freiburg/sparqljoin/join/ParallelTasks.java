@@ -0,0 +1,49 @@
+package uni.freiburg.sparqljoin.join;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.IntConsumer;
+
+/**
+ * Runs the tasks of the parallel joins on a long-lived fork/join pool instead of threads of their own.
+ * A join splits its work into a fixed number of tasks, usually the parallelism of the pool, and waits for all of them.
+ */
+final class ParallelTasks {
+
+    private ParallelTasks() {
+    }
+
+    /**
+     * Run numbered tasks on a pool and wait for all of them. Waiting for a task makes everything it wrote
+     * visible to the caller.
+     *
+     * @param pool     pool running the tasks
+     * @param numTasks number of tasks
+     * @param task     receives the number of the task, in [0, numTasks)
+     * @throws RuntimeException the exception of the first failed task, after all tasks are done
+     */
+    static void run(ForkJoinPool pool, int numTasks, IntConsumer task) {
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(numTasks);
+        for (int i = 0; i < numTasks; i++) {
+            int number = i;
+            tasks.add(pool.submit(() -> task.accept(number)));
+        }
+        // a failed task doesn't cancel the others, so no task still writes into the join outputs once the caller sees the failure
+        tasks.forEach(ForkJoinTask::quietlyJoin);
+        tasks.forEach(ForkJoinTask::join);
+    }
+
+    /**
+     * Get the first row of a part of a relation
+     *
+     * @param numRows  number of rows of the relation
+     * @param part     part of the relation, numParts for the end of the last part
+     * @param numParts number of parts
+     * @return first row of the part
+     */
+    static int partStart(int numRows, int part, int numParts) {
+        return (int) ((long) numRows * part / numParts);
+    }
+}
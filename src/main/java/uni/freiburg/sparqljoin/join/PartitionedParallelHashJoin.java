@@ -0,0 +1,263 @@
+package uni.freiburg.sparqljoin.join;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uni.freiburg.sparqljoin.model.db.ComplexTable;
+import uni.freiburg.sparqljoin.model.db.Dictionary;
+import uni.freiburg.sparqljoin.model.db.KeyMapping;
+import uni.freiburg.sparqljoin.model.db.OffHeapArena;
+import uni.freiburg.sparqljoin.model.db.Relation;
+import uni.freiburg.sparqljoin.model.db.RowIdTable;
+import uni.freiburg.sparqljoin.model.join.JoinHashTable;
+import uni.freiburg.sparqljoin.util.Hasher;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+
+/**
+ * Shared-nothing parallel hash join. Both relations are hash partitioned on the join key by the tasks of a
+ * fork/join pool: every task counts the partitions of its range of rows, a prefix sum over the counts gives every task
+ * its own write position in every partition, and the tasks scatter their rows without synchronization.
+ * Afterwards every task owns whole partitions and builds and probes a private hash table per partition,
+ * unlike ParallelHashJoin, whose tasks probe one shared table at random.
+ * The tasks encode their output into shared dictionaries, like ParallelHashJoin.
+ * It has not been compared with ParallelHashJoin on the 10M dataset on a multi-core machine yet, so it runs as a
+ * separate simulation instead of replacing it.
+ */
+public class PartitionedParallelHashJoin extends HashJoin {
+    private static final Logger LOG = LoggerFactory.getLogger(PartitionedParallelHashJoin.class);
+
+    // several partitions per task, so partitions of skewed keys even out
+    private static final int PARTITION_BITS = 6;
+
+    private static final int NUM_PARTITIONS = 1 << PARTITION_BITS;
+
+    private final ForkJoinPool pool;
+
+    private final int numTasks;
+
+    public PartitionedParallelHashJoin() {
+        this(ForkJoinPool.commonPool(), null);
+    }
+
+    /**
+     * @param arena arena of the join output and the task outputs, null to create them on the heap
+     */
+    public PartitionedParallelHashJoin(OffHeapArena arena) {
+        this(ForkJoinPool.commonPool(), arena);
+    }
+
+    /**
+     * @param pool  pool running the partitioning and join tasks, one task per worker of the pool
+     * @param arena arena of the join output and the task outputs, null to create them on the heap
+     */
+    public PartitionedParallelHashJoin(ForkJoinPool pool, OffHeapArena arena) {
+        super(arena);
+        this.pool = pool;
+        this.numTasks = pool.getParallelism();
+    }
+
+    @Override
+    public ComplexTable join(ComplexTable R, ComplexTable S, int joinPropertyR, JoinOn joinOnR, int joinPropertyS, JoinOn joinOnS) {
+        // Output dictionaries shared by the tasks
+        Dictionary outputObjectDictionary = concurrentOutputObjectDictionary(R, S);
+        Dictionary outputPropertyDictionary = outputPropertyDictionary(R, S);
+
+        List<ComplexTable> taskOutputs = new ArrayList<>();
+        RowMatches[] taskMatches = new RowMatches[numTasks];
+        for (int i = 0; i < numTasks; i++) {
+            ComplexTable taskOutput = new ComplexTable(outputPropertyDictionary, outputObjectDictionary, arena());
+            int[] outputSlotsS = outputSlots(taskOutput, S);
+            KeyMapping keysR = new KeyMapping(R.getObjectDictionary(), outputObjectDictionary);
+            KeyMapping keysS = new KeyMapping(S.getObjectDictionary(), outputObjectDictionary);
+            taskOutputs.add(taskOutput);
+            taskMatches[i] = (rowR, rowS) -> taskOutput.insertJoined(R, rowR, keysR, S, rowS, outputSlotsS, keysS);
+        }
+        joinPartitions(R, S, joinPropertyR, joinOnR, joinPropertyS, joinOnS, taskMatches);
+
+        // Combine the task outputs, keys are already encoded with the output dictionaries
+        int numRows = taskOutputs.stream().mapToInt(ComplexTable::size).sum();
+        ComplexTable joinedTable = new ComplexTable(outputPropertyDictionary, combinedOutputObjectDictionary(R, outputObjectDictionary),
+                numRows, arena());
+        for (ComplexTable taskOutput : taskOutputs) {
+            joinedTable.insertAll(taskOutput);
+            taskOutput.release();
+        }
+        return joinedTable;
+    }
+
+    @Override
+    public RowIdTable join(RowIdTable R, RowIdTable S, int joinPropertyR, JoinOn joinOnR, int joinPropertyS, JoinOn joinOnS) {
+        List<RowIdTable> taskOutputs = new ArrayList<>();
+        RowMatches[] taskMatches = new RowMatches[numTasks];
+        for (int i = 0; i < numTasks; i++) {
+            RowIdTable taskOutput = outputTable(R, S);
+            int[] outputSlotsS = outputSlots(taskOutput, S);
+            taskOutputs.add(taskOutput);
+            taskMatches[i] = (rowR, rowS) -> taskOutput.insertJoined(R, rowR, S, rowS, outputSlotsS);
+        }
+        joinPartitions(R, S, joinPropertyR, joinOnR, joinPropertyS, joinOnS, taskMatches);
+
+        RowIdTable joinedTable = outputTable(R, S);
+        for (RowIdTable taskOutput : taskOutputs) {
+            joinedTable.insertAll(taskOutput);
+        }
+        return joinedTable;
+    }
+
+    /**
+     * Partition both relations and join the partitions, every task joins every numTasks-th partition
+     *
+     * @param R             R relation table
+     * @param S             S relation table
+     * @param joinPropertyR name of the property to join on from table R
+     * @param joinOnR       join field in property from R
+     * @param joinPropertyS name of the property to join on from table S
+     * @param joinOnS       join field in property from S
+     * @param taskMatches   receives the row of R and the row of S of every match of a task
+     */
+    private void joinPartitions(Relation R, Relation S, int joinPropertyR, JoinOn joinOnR, int joinPropertyS, JoinOn joinOnS,
+                                RowMatches[] taskMatches) {
+        Partitions partitionsR = partition(R, R.slot(joinPropertyR), joinOnR);
+        Partitions partitionsS = partition(S, S.slot(joinPropertyS), joinOnS);
+        LOG.debug("Partitioned {} rows of R and {} rows of S into {} partitions", partitionsR.keys.length, partitionsS.keys.length, NUM_PARTITIONS);
+        runTasks(task -> {
+            for (int partition = task; partition < NUM_PARTITIONS; partition += numTasks) {
+                joinPartition(partitionsR, partitionsS, partition, taskMatches[task]);
+            }
+        });
+    }
+
+    /**
+     * Partition the rows of a relation by the hash of the join key with all tasks
+     *
+     * @param table  relation to partition
+     * @param slot   slot of the join property
+     * @param joinOn property field to join on
+     * @return partitioned rows, rows without the property are left out
+     */
+    private Partitions partition(Relation table, int slot, JoinOn joinOn) {
+        // every task counts the rows of every partition in its range
+        int[][] histograms = new int[numTasks][NUM_PARTITIONS];
+        runTasks(task -> {
+            int[] histogram = histograms[task];
+            for (int row = partStart(table.size(), task); row < partStart(table.size(), task + 1); row++) {
+                if (table.has(row, slot)) {
+                    histogram[partition(joinKey(table, row, slot, joinOn))]++;
+                }
+            }
+        });
+
+        // the partitions follow each other, within a partition the tasks write one after another, so rows keep their order
+        int[][] offsets = new int[numTasks][NUM_PARTITIONS];
+        int[] starts = new int[NUM_PARTITIONS + 1];
+        int offset = 0;
+        for (int partition = 0; partition < NUM_PARTITIONS; partition++) {
+            starts[partition] = offset;
+            for (int task = 0; task < numTasks; task++) {
+                offsets[task][partition] = offset;
+                offset += histograms[task][partition];
+            }
+        }
+        starts[NUM_PARTITIONS] = offset;
+
+        int[] keys = new int[offset];
+        int[] rows = new int[offset];
+        runTasks(task -> {
+            int[] taskOffsets = offsets[task];
+            for (int row = partStart(table.size(), task); row < partStart(table.size(), task + 1); row++) {
+                if (table.has(row, slot)) {
+                    int key = joinKey(table, row, slot, joinOn);
+                    int target = taskOffsets[partition(key)]++;
+                    keys[target] = key;
+                    rows[target] = row;
+                }
+            }
+        });
+        return new Partitions(keys, rows, starts);
+    }
+
+    /**
+     * Build a private hash table of the smaller side of a partition and probe the other side
+     *
+     * @param partitionsR partitioned rows of R
+     * @param partitionsS partitioned rows of S
+     * @param partition   partition to join
+     * @param matches     receives the row of R and the row of S of every match
+     */
+    private static void joinPartition(Partitions partitionsR, Partitions partitionsS, int partition, RowMatches matches) {
+        int sizeR = partitionsR.starts[partition + 1] - partitionsR.starts[partition];
+        int sizeS = partitionsS.starts[partition + 1] - partitionsS.starts[partition];
+        if (sizeR == 0 || sizeS == 0) {
+            return;
+        }
+        boolean buildR = sizeR <= sizeS;
+        Partitions build = buildR ? partitionsR : partitionsS;
+        Partitions probe = buildR ? partitionsS : partitionsR;
+
+        // the table chains the positions of the rows in the partitioned arrays, they are contiguous unlike the rows
+        int from = build.starts[partition];
+        int to = build.starts[partition + 1];
+        JoinHashTable hashTable = new JoinHashTable(to - from, from, to);
+        for (int i = to - 1; i >= from; i--) {
+            hashTable.insert(build.keys[i], i);
+        }
+        for (int j = probe.starts[partition]; j < probe.starts[partition + 1]; j++) {
+            for (int i = hashTable.first(probe.keys[j]); i != JoinHashTable.NO_ROW; i = hashTable.next(i)) {
+                if (buildR) {
+                    matches.accept(build.rows[i], probe.rows[j]);
+                } else {
+                    matches.accept(probe.rows[j], build.rows[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Partition of a join key, from the high bits of the multiplied hash. The hash tables of the partitions
+     * use the low bits of the hash, which are independent of the partition.
+     */
+    private static int partition(int key) {
+        return (Hasher.hash(key) * 0x9E3779B9) >>> (Integer.SIZE - PARTITION_BITS);
+    }
+
+    /**
+     * Get the first row of the range of a task
+     *
+     * @param numRows number of rows of the relation
+     * @param task    task, numTasks for the end of the last range
+     * @return first row of the range
+     */
+    private int partStart(int numRows, int task) {
+        return ParallelTasks.partStart(numRows, task, numTasks);
+    }
+
+    /**
+     * Run numTasks tasks on the pool and wait for all of them
+     *
+     * @param task receives the number of the task
+     */
+    private void runTasks(IntConsumer task) {
+        ParallelTasks.run(pool, numTasks, task);
+    }
+
+    /**
+     * Rows of a relation grouped by partition, partition p is at [starts[p], starts[p + 1])
+     */
+    private static final class Partitions {
+
+        private final int[] keys;
+
+        private final int[] rows;
+
+        private final int[] starts;
+
+        private Partitions(int[] keys, int[] rows, int[] starts) {
+            this.keys = keys;
+            this.rows = rows;
+            this.starts = starts;
+        }
+    }
+}
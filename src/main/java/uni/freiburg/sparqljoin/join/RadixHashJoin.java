@@ -0,0 +1,337 @@
+package uni.freiburg.sparqljoin.join;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uni.freiburg.sparqljoin.model.db.ComplexTable;
+import uni.freiburg.sparqljoin.model.db.Dictionary;
+import uni.freiburg.sparqljoin.model.db.KeyMapping;
+import uni.freiburg.sparqljoin.model.db.OffHeapArena;
+import uni.freiburg.sparqljoin.model.db.Relation;
+import uni.freiburg.sparqljoin.model.db.RowIdTable;
+import uni.freiburg.sparqljoin.model.join.BuildOutput;
+import uni.freiburg.sparqljoin.model.join.RadixJoinBuildOutput;
+import uni.freiburg.sparqljoin.util.Hasher;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Radix hash join: both relations are clustered on the low bits of the hashed join key, in one or two passes of at
+ * most 2^MAX_PASS_BITS partitions each, until a build partition with its hash table fits into the cache.
+ * Matching partitions are joined with a small bucket-chained hash table per partition, the partitions are spread
+ * over the tasks of a fork/join pool. The tasks encode their output into shared dictionaries, like ParallelHashJoin.
+ */
+public class RadixHashJoin implements AbstractJoin {
+    private static final Logger LOG = LoggerFactory.getLogger(RadixHashJoin.class);
+
+    // target size of a build partition with its hash table, about the size of a L2 cache
+    private static final long CACHE_BYTES = 256 * 1024;
+
+    // bytes of a build row: key and row of the cluster, bucket head and chain link of the hash table
+    private static final int TUPLE_BYTES = 4 * Integer.BYTES;
+
+    // partitions per pass, more scatter targets than TLB entries would slow the pass down
+    private static final int MAX_PASS_BITS = 8;
+
+    private static final int MAX_PASSES = 2;
+
+    private final ForkJoinPool pool;
+
+    private final int numTasks;
+
+    private final OffHeapArena arena;
+
+    public RadixHashJoin() {
+        this(ForkJoinPool.commonPool(), null);
+    }
+
+    /**
+     * @param arena arena of the join output and the task outputs, null to create them on the heap
+     */
+    public RadixHashJoin(OffHeapArena arena) {
+        this(ForkJoinPool.commonPool(), arena);
+    }
+
+    /**
+     * @param pool  pool running the partition joins, one task per worker of the pool
+     * @param arena arena of the join output and the task outputs, null to create them on the heap
+     */
+    public RadixHashJoin(ForkJoinPool pool, OffHeapArena arena) {
+        this.pool = pool;
+        this.numTasks = pool.getParallelism();
+        this.arena = arena;
+    }
+
+    @Override
+    public OffHeapArena arena() {
+        return arena;
+    }
+
+    @Override
+    public ComplexTable join(ComplexTable R, ComplexTable S, int joinPropertyR, JoinOn joinOnR, int joinPropertyS, JoinOn joinOnS) {
+        // Use the smaller relation of R and S as the build relation like HashJoin, its partitions decide the radix bits
+        if (R.size() < S.size()) {
+            return probe(build(R, joinPropertyR, joinOnR), R, S, joinPropertyR, joinOnR, joinPropertyS, joinOnS);
+        } else {
+            return probe(build(S, joinPropertyS, joinOnS), S, R, joinPropertyS, joinOnS, joinPropertyR, joinOnR);
+        }
+    }
+
+    @Override
+    public RowIdTable join(RowIdTable R, RowIdTable S, int joinPropertyR, JoinOn joinOnR, int joinPropertyS, JoinOn joinOnS) {
+        // Build on the smaller relation, the output keeps R first either way
+        boolean buildR = R.size() < S.size();
+        RadixJoinBuildOutput clusters = buildR ? build(R, joinPropertyR, joinOnR) : build(S, joinPropertyS, joinOnS);
+        RadixJoinBuildOutput probeClusters = buildR
+                ? cluster(S, S.slot(joinPropertyS), joinOnS, clusters.getRadixBits())
+                : cluster(R, R.slot(joinPropertyR), joinOnR, clusters.getRadixBits());
+
+        List<RowIdTable> taskOutputs = new ArrayList<>();
+        RowMatches[] taskMatches = new RowMatches[numTasks];
+        for (int i = 0; i < numTasks; i++) {
+            RowIdTable taskOutput = outputTable(R, S);
+            int[] outputSlotsS = outputSlots(taskOutput, S);
+            taskOutputs.add(taskOutput);
+            taskMatches[i] = buildR
+                    ? (rowR, rowS) -> taskOutput.insertJoined(R, rowR, S, rowS, outputSlotsS)
+                    : (rowS, rowR) -> taskOutput.insertJoined(R, rowR, S, rowS, outputSlotsS);
+        }
+        joinPartitions(clusters, probeClusters, taskMatches);
+
+        RowIdTable joinedTable = outputTable(R, S);
+        for (RowIdTable taskOutput : taskOutputs) {
+            joinedTable.insertAll(taskOutput);
+        }
+        return joinedTable;
+    }
+
+    /**
+     * Cluster the rows of the build relation, the number of radix bits is chosen so that a partition fits into the cache
+     *
+     * @param table    build relation
+     * @param property property to join on
+     * @param joinOn   property field to join on
+     * @return clustered rows
+     */
+    @Override
+    public RadixJoinBuildOutput build(Relation table, int property, JoinOn joinOn) {
+        LOG.info("Starting build phase");
+
+        int slot = table.slot(property);
+        int numRows = 0;
+        for (int row = 0; row < table.size(); row++) {
+            if (table.has(row, slot)) {
+                numRows++;
+            }
+        }
+        int radixBits = 0;
+        while (radixBits < MAX_PASSES * MAX_PASS_BITS && ((long) numRows * TUPLE_BYTES >> radixBits) > CACHE_BYTES) {
+            radixBits++;
+        }
+        LOG.debug("Clustering {} build rows into {} partitions", numRows, 1 << radixBits);
+        return cluster(table, slot, joinOn, radixBits);
+    }
+
+    /**
+     * Cluster the probe relation like the build relation and join the matching partitions
+     *
+     * @param partitions    clustered rows of R from the build phase
+     * @param R             R relation table - build relation
+     * @param S             S relation table - probe relation
+     * @param joinPropertyR name of the property to join on from table R (build relation)
+     * @param joinOnR       join field in property from R (build relation)
+     * @param joinPropertyS name of the property to join on from table S (probe relation)
+     * @param joinOnS       join field in property from S (probe relation)
+     * @return new joined table
+     */
+    @Override
+    public ComplexTable probe(BuildOutput partitions, ComplexTable R, ComplexTable S,
+                              int joinPropertyR, JoinOn joinOnR,
+                              int joinPropertyS, JoinOn joinOnS) {
+        LOG.info("Starting probe phase");
+
+        RadixJoinBuildOutput clusters = (RadixJoinBuildOutput) partitions;
+        RadixJoinBuildOutput probeClusters = cluster(S, S.slot(joinPropertyS), joinOnS, clusters.getRadixBits());
+
+        // Output dictionaries shared by the tasks
+        Dictionary outputObjectDictionary = concurrentOutputObjectDictionary(R, S);
+        Dictionary outputPropertyDictionary = outputPropertyDictionary(R, S);
+
+        List<ComplexTable> taskOutputs = new ArrayList<>();
+        RowMatches[] taskMatches = new RowMatches[numTasks];
+        for (int i = 0; i < numTasks; i++) {
+            ComplexTable taskOutput = new ComplexTable(outputPropertyDictionary, outputObjectDictionary, arena());
+            int[] outputSlotsS = outputSlots(taskOutput, S);
+            KeyMapping keysR = new KeyMapping(R.getObjectDictionary(), outputObjectDictionary);
+            KeyMapping keysS = new KeyMapping(S.getObjectDictionary(), outputObjectDictionary);
+            taskOutputs.add(taskOutput);
+            taskMatches[i] = (rowR, rowS) -> taskOutput.insertJoined(R, rowR, keysR, S, rowS, outputSlotsS, keysS);
+        }
+        joinPartitions(clusters, probeClusters, taskMatches);
+
+        // Combine the task outputs, keys are already encoded with the output dictionaries
+        int numRows = taskOutputs.stream().mapToInt(ComplexTable::size).sum();
+        ComplexTable joinedTable = new ComplexTable(outputPropertyDictionary, combinedOutputObjectDictionary(R, outputObjectDictionary),
+                numRows, arena());
+        for (ComplexTable taskOutput : taskOutputs) {
+            joinedTable.insertAll(taskOutput);
+            taskOutput.release();
+        }
+        return joinedTable;
+    }
+
+    /**
+     * Cluster the rows of a relation by the low radix bits of the hashed join key. The first pass scatters the rows
+     * by up to MAX_PASS_BITS bits, the second pass scatters every partition of the first pass by the remaining bits.
+     *
+     * @param table     relation to cluster
+     * @param slot      slot of the join property
+     * @param joinOn    property field to join on
+     * @param radixBits number of hash bits of the partition number
+     * @return clustered rows, rows without the property are left out
+     */
+    private RadixJoinBuildOutput cluster(Relation table, int slot, JoinOn joinOn, int radixBits) {
+        int numRows = 0;
+        int[] keys = new int[table.size()];
+        int[] rows = new int[table.size()];
+        for (int row = 0; row < table.size(); row++) {
+            if (table.has(row, slot)) {
+                keys[numRows] = joinKey(table, row, slot, joinOn);
+                rows[numRows] = row;
+                numRows++;
+            }
+        }
+
+        int firstPassBits = Math.min(radixBits, MAX_PASS_BITS);
+        int secondPassBits = radixBits - firstPassBits;
+        int[] firstPassStarts = new int[(1 << firstPassBits) + 1];
+        int[] clusteredKeys = new int[numRows];
+        int[] clusteredRows = new int[numRows];
+        scatter(keys, rows, 0, numRows, 0, firstPassBits, clusteredKeys, clusteredRows, firstPassStarts, 0);
+        firstPassStarts[1 << firstPassBits] = numRows;
+        if (secondPassBits == 0) {
+            return new RadixJoinBuildOutput(clusteredKeys, clusteredRows, firstPassStarts, radixBits);
+        }
+
+        // the first pass arrays are the targets of the second pass, the bits of the first pass are the high bits of the partition number
+        int[] partitionStarts = new int[(1 << radixBits) + 1];
+        for (int partition = 0; partition < 1 << firstPassBits; partition++) {
+            scatter(clusteredKeys, clusteredRows, firstPassStarts[partition], firstPassStarts[partition + 1],
+                    firstPassBits, secondPassBits, keys, rows, partitionStarts, partition << secondPassBits);
+        }
+        partitionStarts[1 << radixBits] = numRows;
+        return new RadixJoinBuildOutput(Arrays.copyOf(keys, numRows), Arrays.copyOf(rows, numRows), partitionStarts, radixBits);
+    }
+
+    /**
+     * Scatter a range of rows into partitions by a histogram of the partition numbers and its prefix sum.
+     * Rows of a partition keep their order.
+     *
+     * @param keys            join keys of the rows
+     * @param rows            rows to scatter
+     * @param from            first index of the range
+     * @param to              end of the range, exclusive
+     * @param shift           first hash bit of the partition number
+     * @param bits            number of hash bits of the partition number
+     * @param outKeys         receives the keys at the indexes of the range
+     * @param outRows         receives the rows at the indexes of the range
+     * @param partitionStarts receives the first index of every partition
+     * @param firstPartition  index in partitionStarts of the first partition
+     */
+    private static void scatter(int[] keys, int[] rows, int from, int to, int shift, int bits,
+                                int[] outKeys, int[] outRows, int[] partitionStarts, int firstPartition) {
+        int[] offsets = new int[1 << bits];
+        for (int i = from; i < to; i++) {
+            offsets[radix(keys[i], shift, bits)]++;
+        }
+        int offset = from;
+        for (int partition = 0; partition < offsets.length; partition++) {
+            int count = offsets[partition];
+            offsets[partition] = offset;
+            partitionStarts[firstPartition + partition] = offset;
+            offset += count;
+        }
+        for (int i = from; i < to; i++) {
+            int target = offsets[radix(keys[i], shift, bits)]++;
+            outKeys[target] = keys[i];
+            outRows[target] = rows[i];
+        }
+    }
+
+    private static int radix(int key, int shift, int bits) {
+        return (Hasher.hash(key) >>> shift) & ((1 << bits) - 1);
+    }
+
+    /**
+     * Join the matching partitions of the build and the probe relation, every task joins every numTasks-th partition
+     *
+     * @param clusters      clustered build rows
+     * @param probeClusters clustered probe rows, with the radix bits of the build rows
+     * @param taskMatches   receives the build row and the probe row of every match of a task
+     */
+    private void joinPartitions(RadixJoinBuildOutput clusters, RadixJoinBuildOutput probeClusters, RowMatches[] taskMatches) {
+        ParallelTasks.run(pool, taskMatches.length, task -> {
+            PartitionTable table = new PartitionTable();
+            for (int partition = task; partition < clusters.numPartitions(); partition += taskMatches.length) {
+                table.join(clusters, probeClusters, partition, taskMatches[task]);
+            }
+        });
+    }
+
+    /**
+     * Bucket-chained hash table of a build partition, the arrays are reused for the partitions of a task
+     */
+    private static final class PartitionTable {
+
+        // first row of every bucket, -1 if the bucket is empty
+        private int[] heads = new int[0];
+
+        // next row of the bucket of a row, -1 at the end of the chain
+        private int[] next = new int[0];
+
+        /**
+         * Build the hash table of a build partition and probe the rows of the matching probe partition
+         */
+        private void join(RadixJoinBuildOutput clusters, RadixJoinBuildOutput probeClusters, int partition, RowMatches matches) {
+            int from = clusters.partitionStart(partition);
+            int to = clusters.partitionStart(partition + 1);
+            int probeFrom = probeClusters.partitionStart(partition);
+            int probeTo = probeClusters.partitionStart(partition + 1);
+            if (from == to || probeFrom == probeTo) {
+                return;
+            }
+            int[] keys = clusters.getKeys();
+            int[] rows = clusters.getRows();
+            // the radix bits are equal within the partition, the buckets use the hash bits above them
+            int shift = clusters.getRadixBits();
+            int numBuckets = Math.max(Integer.highestOneBit(to - from - 1) << 1, 1);
+            int mask = numBuckets - 1;
+            if (heads.length < numBuckets) {
+                heads = new int[numBuckets];
+            }
+            if (next.length < to - from) {
+                next = new int[Math.max(to - from, next.length * 2)];
+            }
+            Arrays.fill(heads, 0, numBuckets, -1);
+            // insert backwards, so a chain lists the rows in row order
+            for (int i = to - 1; i >= from; i--) {
+                int bucket = (Hasher.hash(keys[i]) >>> shift) & mask;
+                next[i - from] = heads[bucket];
+                heads[bucket] = i - from;
+            }
+
+            int[] probeKeys = probeClusters.getKeys();
+            int[] probeRows = probeClusters.getRows();
+            for (int j = probeFrom; j < probeTo; j++) {
+                int key = probeKeys[j];
+                for (int i = heads[(Hasher.hash(key) >>> shift) & mask]; i >= 0; i = next[i]) {
+                    if (keys[from + i] == key) {
+                        matches.accept(rows[from + i], probeRows[j]);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -1,20 +1,41 @@
 package uni.freiburg.sparqljoin.join;
 
 import uni.freiburg.sparqljoin.model.db.ComplexTable;
+import uni.freiburg.sparqljoin.model.db.CompressedTable;
+import uni.freiburg.sparqljoin.model.db.DataType;
 import uni.freiburg.sparqljoin.model.db.Dictionary;
-import uni.freiburg.sparqljoin.model.db.Item;
-import uni.freiburg.sparqljoin.model.db.PropertyValues;
+import uni.freiburg.sparqljoin.model.db.KeyMapping;
+import uni.freiburg.sparqljoin.model.db.OffHeapArena;
+import uni.freiburg.sparqljoin.model.db.Relation;
+import uni.freiburg.sparqljoin.model.db.RowIdTable;
 import uni.freiburg.sparqljoin.model.join.BuildOutput;
-import uni.freiburg.sparqljoin.model.join.JoinedItems;
 import uni.freiburg.sparqljoin.model.join.MergeJoinBuildOutput;
 
-import java.util.*;
+import java.util.Arrays;
 
 /**
  * This class implements Sort-Merge join algorithm
  */
 public class SortMergeJoin implements AbstractJoin {
 
+    private final OffHeapArena arena;
+
+    public SortMergeJoin() {
+        this(null);
+    }
+
+    /**
+     * @param arena arena of the join outputs, null to create them on the heap
+     */
+    public SortMergeJoin(OffHeapArena arena) {
+        this.arena = arena;
+    }
+
+    @Override
+    public OffHeapArena arena() {
+        return arena;
+    }
+
     /**
      * Sort two tables by the join attribute and merge by join condition
      *
@@ -32,33 +53,153 @@ public class SortMergeJoin implements AbstractJoin {
                              int joinPropertyS, JoinOn joinOnS) {
         MergeJoinBuildOutput sortedR = (MergeJoinBuildOutput) build(R, joinPropertyR, joinOnR);
         MergeJoinBuildOutput sortedS = (MergeJoinBuildOutput) build(S, joinPropertyS, joinOnS);
-        MergeJoinBuildOutput buildOutput = new MergeJoinBuildOutput(sortedR.getValuesR(), sortedS.getValuesR());
+        MergeJoinBuildOutput buildOutput = new MergeJoinBuildOutput(sortedR.getRowsR(), sortedS.getRowsR());
         ComplexTable probeOutput = probe(buildOutput, R, S, joinPropertyR, joinOnR, joinPropertyS, joinOnS);
+        return compact(probeOutput, R, S);
+    }
+
+    /**
+     * Remove the dictionary entries the merge output doesn't use. The output object dictionary starts
+     * with a copy of the dictionary of R, see outputObjectDictionary().
+     *
+     * @param probeOutput merge output, released if it is compacted
+     * @param R           R relation table
+     * @param S           S relation table
+     * @return output with a dictionary of the used objects only
+     */
+    protected ComplexTable compact(ComplexTable probeOutput, ComplexTable R, ComplexTable S) {
+        if (R.getObjectDictionary() == S.getObjectDictionary()) {
+            // Relations share a global dictionary, keys pass through unchanged
+            return probeOutput;
+        }
 
         // Remove unnecessary dictionary entries
-        ComplexTable joinResult = new ComplexTable(new Dictionary());
+        ComplexTable joinResult = new ComplexTable(probeOutput.getPropertyDictionary(), new Dictionary(), probeOutput.size(), arena);
         joinResult.insertComplexTable(probeOutput);
+        probeOutput.release();
 
         return joinResult;
     }
 
+    @Override
+    public RowIdTable join(RowIdTable R, RowIdTable S,
+                           int joinPropertyR, JoinOn joinOnR,
+                           int joinPropertyS, JoinOn joinOnS) {
+        MergeJoinBuildOutput sortedR = (MergeJoinBuildOutput) build(R, joinPropertyR, joinOnR);
+        MergeJoinBuildOutput sortedS = (MergeJoinBuildOutput) build(S, joinPropertyS, joinOnS);
+        RowIdTable output = outputTable(R, S);
+        int[] outputSlotsS = outputSlots(output, S);
+        mergeMatches(new MergeJoinBuildOutput(sortedR.getRowsR(), sortedS.getRowsR()), R, S,
+                joinPropertyR, joinOnR, joinPropertyS, joinOnS,
+                (rowR, rowS) -> output.insertJoined(R, rowR, S, rowS, outputSlotsS));
+        return output;
+    }
+
     /**
-     * Sort table values by join attributes
+     * Merge join of two compressed tables on their subjects. The tables are sorted by subject already,
+     * so nothing is sorted, and blocks whose subjects are all smaller than the current subject of the other table
+     * are skipped without decoding them.
+     *
+     * @param R R relation table
+     * @param S S relation table
+     * @return joined table with the property of R in the first and the property of S in the second slot
+     */
+    public ComplexTable joinOnSubjects(CompressedTable R, CompressedTable S) {
+        Dictionary outputPropertyDictionary = new Dictionary();
+        outputPropertyDictionary.put(R.getProperty());
+        outputPropertyDictionary.put(S.getProperty());
+        Dictionary outputObjectDictionary = R.getObjectDictionary() == S.getObjectDictionary()
+                ? R.getObjectDictionary()
+                : new Dictionary();
+        ComplexTable output = new ComplexTable(outputPropertyDictionary, outputObjectDictionary, arena());
+        int slotR = output.slot(outputPropertyDictionary.getKey(R.getProperty()));
+        int slotS = output.slot(outputPropertyDictionary.getKey(S.getProperty()));
+        KeyMapping keysR = new KeyMapping(R.getObjectDictionary(), outputObjectDictionary);
+        KeyMapping keysS = new KeyMapping(S.getObjectDictionary(), outputObjectDictionary);
+
+        // items of S with the current subject
+        int[] objectsS = new int[16];
+        DataType[] typesS = new DataType[16];
+
+        CompressedTable.Cursor cursorR = R.cursor();
+        CompressedTable.Cursor cursorS = S.cursor();
+        boolean hasR = cursorR.next();
+        boolean hasS = cursorS.next();
+        while (hasR && hasS) {
+            int subject = cursorR.subject();
+            if (subject < cursorS.subject()) {
+                hasR = cursorR.seek(cursorS.subject());
+            } else if (subject > cursorS.subject()) {
+                hasS = cursorS.seek(subject);
+            } else {
+                // Match is found, collect the items of S with this subject and combine them with every item of R
+                int numS = 0;
+                do {
+                    if (numS == objectsS.length) {
+                        objectsS = Arrays.copyOf(objectsS, numS * 2);
+                        typesS = Arrays.copyOf(typesS, numS * 2);
+                    }
+                    DataType typeS = cursorS.type();
+                    typesS[numS] = typeS;
+                    objectsS[numS] = typeS == DataType.STRING ? keysS.map(cursorS.object()) : cursorS.object();
+                    numS++;
+                    hasS = cursorS.next();
+                } while (hasS && cursorS.subject() == subject);
+                do {
+                    DataType typeR = cursorR.type();
+                    int objectR = typeR == DataType.STRING ? keysR.map(cursorR.object()) : cursorR.object();
+                    for (int i = 0; i < numS; i++) {
+                        int row = output.addRow();
+                        output.set(row, slotR, subject, objectR, typeR);
+                        output.set(row, slotS, subject, objectsS[i], typesS[i]);
+                    }
+                    hasR = cursorR.next();
+                } while (hasR && cursorR.subject() == subject);
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Sort table rows by join attributes. Rows with equal join keys keep their order, rows without the property are left out.
+     * Presorted tables (SO and OS permutations of a base table) and rows already in join key order are not sorted.
      *
      * @param table    build input
      * @param property property value to join on name of the property to join on from the reference table
      * @param joinOn   property field to join on
-     * @return sorted table values
+     * @return sorted table rows
      */
     @Override
-    public BuildOutput build(ComplexTable table, int property, JoinOn joinOn) {
-        List<JoinedItems> values = table.getValues();
-        values.sort(new JoinedItems.JoinedItemsComparator(property, joinOn));
-        return new MergeJoinBuildOutput(values);
+    public BuildOutput build(Relation table, int property, JoinOn joinOn) {
+        int slot = table.slot(property);
+        int[] presortedRows = joinOn == JoinOn.SUBJECT ? table.rowsBySubject(slot) : table.rowsByObject(slot);
+        if (presortedRows != null) {
+            return new MergeJoinBuildOutput(presortedRows);
+        }
+        // join key in the high, row in the low half, so sorting orders by key and then by row
+        long[] keyedRows = new long[table.size()];
+        int numRows = 0;
+        boolean sorted = true;
+        for (int row = 0; row < table.size(); row++) {
+            if (table.has(row, slot)) {
+                keyedRows[numRows] = ((long) joinKey(table, row, slot, joinOn) << Integer.SIZE) | row;
+                sorted &= numRows == 0 || keyedRows[numRows - 1] < keyedRows[numRows];
+                numRows++;
+            }
+        }
+        if (!sorted) {
+            // e.g. merge join outputs are in the order of the join key of R already
+            Arrays.sort(keyedRows, 0, numRows);
+        }
+        int[] rows = new int[numRows];
+        for (int i = 0; i < numRows; i++) {
+            rows[i] = (int) keyedRows[i];
+        }
+        return new MergeJoinBuildOutput(rows);
     }
 
     /**
-     * Merge sorted lists by join condition
+     * Merge sorted rows by join condition
      *
      * @param partition     partition from the build phase
      * @param R             R relation table for the reference
@@ -73,30 +214,49 @@ public class SortMergeJoin implements AbstractJoin {
     public ComplexTable probe(BuildOutput partition, ComplexTable R, ComplexTable S,
                               int joinPropertyR, JoinOn joinOnR,
                               int joinPropertyS, JoinOn joinOnS) {
-        MergeJoinBuildOutput buildOutput = (MergeJoinBuildOutput) partition;
-        List<JoinedItems> referenceValues = buildOutput.getValuesR();
-        List<JoinedItems> probeValues = buildOutput.getValuesS();
+        // Output variables, output starts with a copy of the R dictionary, so only the keys of S are mapped
+        Dictionary outputObjectDictionary = outputObjectDictionary(R, S);
+        ComplexTable output = outputTable(R, S, outputObjectDictionary);
+        int[] outputSlotsS = outputSlots(output, S);
+        KeyMapping keysR = KeyMapping.identity();
+        KeyMapping keysS = new KeyMapping(S.getObjectDictionary(), outputObjectDictionary);
 
-        Dictionary referenceTableDictionary = R.getObjectDictionary();
-        Dictionary probeTableDictionary = S.getObjectDictionary();
-        Dictionary probeTablePropertyDictionary = S.getPropertyDictionary();
+        mergeMatches((MergeJoinBuildOutput) partition, R, S, joinPropertyR, joinOnR, joinPropertyS, joinOnS,
+                (rowR, rowS) -> output.insertJoined(R, rowR, keysR, S, rowS, outputSlotsS, keysS));
 
-        // Output variables
-        Dictionary outputObjectDictionary = referenceTableDictionary.clone();
-        Dictionary outputPropertyDictionary = R.getPropertyDictionary().clone();
-        List<JoinedItems> joinedItems = new ArrayList<>();
+        return output;
+    }
+
+    /**
+     * Merge sorted rows by join condition and pass each matching pair of rows on
+     *
+     * @param buildOutput   sorted rows of R and S
+     * @param R             R relation table for the reference
+     * @param S             S relation table to join
+     * @param joinPropertyR name of the property to join on from table R
+     * @param joinOnR       join field in property from R
+     * @param joinPropertyS name of the property to join on from table S
+     * @param joinOnS       join field in property from S
+     * @param matches       receives the row of R and the row of S of every match
+     */
+    private void mergeMatches(MergeJoinBuildOutput buildOutput, Relation R, Relation S,
+                              int joinPropertyR, JoinOn joinOnR,
+                              int joinPropertyS, JoinOn joinOnS,
+                              RowMatches matches) {
+        int[] referenceRows = buildOutput.getRowsR();
+        int[] probeRows = buildOutput.getRowsS();
+        int slotR = R.slot(joinPropertyR);
+        int slotS = S.slot(joinPropertyS);
 
         int referenceRelIndex = 0;
         int probeRelIndex = 0;
 
-        while (referenceRelIndex < referenceValues.size() && probeRelIndex < probeValues.size()) {
-            JoinedItems referenceItems = referenceValues.get(referenceRelIndex);
-            Item referenceItem = referenceItems.values().get(joinPropertyR);
-            JoinedItems probeItems = probeValues.get(probeRelIndex);
-            Item probeItem = probeItems.values().get(joinPropertyS);
+        while (referenceRelIndex < referenceRows.length && probeRelIndex < probeRows.length) {
+            int referenceRow = referenceRows[referenceRelIndex];
+            int probeRow = probeRows[probeRelIndex];
 
-            long referenceJoinKey = joinOnR == JoinOn.SUBJECT ? referenceItem.subject() : referenceItem.object();
-            long probeJoinKey = joinOnS == JoinOn.SUBJECT ? probeItem.subject() : probeItem.object();
+            long referenceJoinKey = joinKey(R, referenceRow, slotR, joinOnR);
+            long probeJoinKey = joinKey(S, probeRow, slotS, joinOnS);
 
             // Forward pointers so that until a match is found
             if (referenceJoinKey > probeJoinKey) {
@@ -106,30 +266,28 @@ public class SortMergeJoin implements AbstractJoin {
             } else {
                 // Match is found
 
-                mergeTuplesAndDictionaries(joinedItems, outputPropertyDictionary, probeTablePropertyDictionary, outputObjectDictionary, referenceItems, probeItems, probeTableDictionary);
+                matches.accept(referenceRow, probeRow);
 
-                // output further tuples that match with reference item
+                // output further rows that match with reference row
                 int probeRelIndexPrime = probeRelIndex + 1;
-                while (probeRelIndexPrime < probeValues.size()) {
-                    JoinedItems probeItemsNext = probeValues.get(probeRelIndexPrime);
-                    Item probeItemNext = probeItemsNext.values().get(joinPropertyS);
-                    long probeJoinKeyNext = joinOnS == JoinOn.SUBJECT ? probeItemNext.subject() : probeItemNext.object();
+                while (probeRelIndexPrime < probeRows.length) {
+                    int probeRowNext = probeRows[probeRelIndexPrime];
+                    long probeJoinKeyNext = joinKey(S, probeRowNext, slotS, joinOnS);
                     if (referenceJoinKey == probeJoinKeyNext) {
-                        mergeTuplesAndDictionaries(joinedItems, outputPropertyDictionary, probeTablePropertyDictionary, outputObjectDictionary, referenceItems, probeItemsNext, probeTableDictionary);
+                        matches.accept(referenceRow, probeRowNext);
                         probeRelIndexPrime++;
                     } else {
                         break;
                     }
                 }
 
-                // output further tuples that match with probe item
+                // output further rows that match with probe row
                 int referenceRelIndexPrime = referenceRelIndex + 1;
-                while (referenceRelIndexPrime < referenceValues.size()) {
-                    JoinedItems referenceItemsNext = referenceValues.get(referenceRelIndexPrime);
-                    Item referenceItemNext = referenceItemsNext.values().get(joinPropertyR);
-                    long referenceJoinKeyNext = joinOnR == JoinOn.SUBJECT ? referenceItemNext.subject() : referenceItemNext.object();
+                while (referenceRelIndexPrime < referenceRows.length) {
+                    int referenceRowNext = referenceRows[referenceRelIndexPrime];
+                    long referenceJoinKeyNext = joinKey(R, referenceRowNext, slotR, joinOnR);
                     if (referenceJoinKeyNext == probeJoinKey) {
-                        mergeTuplesAndDictionaries(joinedItems, outputPropertyDictionary, probeTablePropertyDictionary, outputObjectDictionary, referenceItemsNext, probeItems, probeTableDictionary);
+                        matches.accept(referenceRowNext, probeRow);
                         referenceRelIndexPrime++;
                     } else {
                         break;
@@ -139,8 +297,6 @@ public class SortMergeJoin implements AbstractJoin {
                 probeRelIndex++;
             }
         }
-
-        return new ComplexTable(outputPropertyDictionary, outputObjectDictionary, new PropertyValues<>(joinedItems));
     }
 
 }
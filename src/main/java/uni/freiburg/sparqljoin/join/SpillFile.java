@@ -0,0 +1,234 @@
+package uni.freiburg.sparqljoin.join;
+
+import uni.freiburg.sparqljoin.model.db.ComplexTable;
+import uni.freiburg.sparqljoin.model.db.DataType;
+import uni.freiburg.sparqljoin.model.db.Dictionary;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+
+/**
+ * Rows of a ComplexTable in a temporary file. The rows are written in a compact binary format:
+ * per slot the DataType ordinal + 1, 0 if the row has no item of the slot, followed by subject and object of the item.
+ * The rows are read back in chunks into tables with the property and object dictionaries of the spilled table,
+ * so keys keep their meaning, all at once or streamed by a Cursor.
+ */
+final class SpillFile implements AutoCloseable {
+
+    private static final DataType[] TYPES = DataType.values();
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path path;
+
+    private final Dictionary propertyDictionary;
+
+    private final Dictionary objectDictionary;
+
+    private final int width;
+
+    private DataOutputStream out;
+
+    private int size;
+
+    /**
+     * @param directory directory of the file
+     * @param schema    table whose rows are spilled, provides the dictionaries of the rows read back
+     */
+    SpillFile(Path directory, ComplexTable schema) {
+        this.propertyDictionary = schema.getPropertyDictionary();
+        this.objectDictionary = schema.getObjectDictionary();
+        this.width = schema.width();
+        try {
+            this.path = Files.createTempFile(directory, "spill", ".bin");
+            this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), BUFFER_SIZE));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return number of rows written
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Append a row
+     *
+     * @param table table with the schema of the file
+     * @param row   row to write
+     */
+    void write(ComplexTable table, int row) {
+        try {
+            for (int slot = 0; slot < width; slot++) {
+                if (!table.has(row, slot)) {
+                    out.writeByte(0);
+                    continue;
+                }
+                out.writeByte(table.type(row, slot).ordinal() + 1);
+                out.writeInt(table.subject(row, slot));
+                out.writeInt(table.object(row, slot));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        size++;
+    }
+
+    /**
+     * Read the rows back, the file is complete afterwards and can't be written anymore.
+     * Every chunk is released after the consumer returns.
+     *
+     * @param chunkSize maximum number of rows of a chunk
+     * @param chunks    receives the chunks in file order
+     */
+    void forEachChunk(int chunkSize, Consumer<ComplexTable> chunks) {
+        try (Cursor cursor = cursor(chunkSize)) {
+            while (cursor.nextChunk()) {
+                chunks.accept(cursor.chunk);
+            }
+        }
+    }
+
+    /**
+     * Stream the rows back, the file is complete afterwards and can't be written anymore
+     *
+     * @param chunkSize number of rows read at once
+     * @return cursor before the first row
+     */
+    Cursor cursor(int chunkSize) {
+        finishWriting();
+        try {
+            return new Cursor(new DataInputStream(new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE)), chunkSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Delete the file
+     */
+    @Override
+    public void close() {
+        try {
+            finishWriting();
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Forward-only cursor over the rows of the file, holds one chunk of rows at a time.
+     * The chunk of a row is released when the cursor moves past the chunk.
+     */
+    final class Cursor implements AutoCloseable {
+
+        private final DataInputStream in;
+
+        private final int chunkSize;
+
+        private ComplexTable chunk;
+
+        private int read;
+
+        private int row = -1;
+
+        private Cursor(DataInputStream in, int chunkSize) {
+            this.in = in;
+            this.chunkSize = chunkSize;
+        }
+
+        /**
+         * Move to the next row
+         *
+         * @return false if there are no more rows
+         */
+        boolean next() {
+            if (chunk != null && row + 1 < chunk.size()) {
+                row++;
+                return true;
+            }
+            if (!nextChunk()) {
+                return false;
+            }
+            row = 0;
+            return true;
+        }
+
+        /**
+         * @return table holding the current row
+         */
+        ComplexTable table() {
+            return chunk;
+        }
+
+        /**
+         * @return current row in table()
+         */
+        int row() {
+            return row;
+        }
+
+        @Override
+        public void close() {
+            if (chunk != null) {
+                chunk.release();
+                chunk = null;
+            }
+            try {
+                in.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private boolean nextChunk() {
+            if (chunk != null) {
+                chunk.release();
+                chunk = null;
+            }
+            if (read == size) {
+                return false;
+            }
+            int rows = Math.min(chunkSize, size - read);
+            chunk = new ComplexTable(propertyDictionary, objectDictionary, rows);
+            try {
+                for (int i = 0; i < rows; i++) {
+                    int row = chunk.addRow();
+                    for (int slot = 0; slot < width; slot++) {
+                        int type = in.readUnsignedByte();
+                        if (type != 0) {
+                            chunk.set(row, slot, in.readInt(), in.readInt(), TYPES[type - 1]);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            read += rows;
+            return true;
+        }
+    }
+
+    private void finishWriting() {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        out = null;
+    }
+}
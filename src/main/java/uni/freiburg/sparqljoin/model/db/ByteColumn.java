@@ -0,0 +1,107 @@
+package uni.freiburg.sparqljoin.model.db;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Column of byte values in a byte array or in off-heap memory
+ */
+final class ByteColumn implements Column {
+
+    private static final ByteBuffer RELEASED = ByteBuffer.allocate(0);
+
+    private final OffHeapArena arena;
+
+    // heap storage, null if the column is off-heap or released
+    private byte[] array;
+
+    // off-heap storage
+    private ByteBuffer memory = RELEASED;
+
+    /**
+     * @param capacity number of values
+     * @param arena    arena owning the memory, null to store the values on the heap
+     */
+    ByteColumn(int capacity, OffHeapArena arena) {
+        this.arena = arena;
+        if (arena == null) {
+            array = new byte[capacity];
+        } else {
+            memory = arena.allocate(this, capacity);
+        }
+    }
+
+    /**
+     * Column over existing memory, e.g. a mapped file section, the memory is not copied.
+     * The column is read-only until it is resized, the values are copied to the heap then.
+     */
+    ByteColumn(ByteBuffer memory) {
+        this.arena = null;
+        this.memory = memory;
+    }
+
+    byte get(int index) {
+        byte[] array = this.array;
+        return array != null ? array[index] : memory.get(index);
+    }
+
+    void set(int index, byte value) {
+        byte[] array = this.array;
+        if (array != null) {
+            array[index] = value;
+        } else {
+            memory.put(index, value);
+        }
+    }
+
+    /**
+     * Copy values between columns
+     */
+    static void copy(ByteColumn source, int sourceIndex, ByteColumn target, int targetIndex, int length) {
+        if (source.array != null && target.array != null) {
+            System.arraycopy(source.array, sourceIndex, target.array, targetIndex, length);
+        } else if (target.array != null) {
+            source.memory.get(sourceIndex, target.array, targetIndex, length);
+        } else if (source.array != null) {
+            target.memory.put(targetIndex, source.array, sourceIndex, length);
+        } else {
+            target.memory.put(targetIndex, source.memory, sourceIndex, length);
+        }
+    }
+
+    @Override
+    public int capacity() {
+        return array != null ? array.length : memory.capacity();
+    }
+
+    @Override
+    public void resize(int capacity) {
+        if (arena == null) {
+            if (array == null) {
+                // existing memory
+                array = new byte[capacity];
+                memory.get(0, array, 0, Math.min(capacity, memory.capacity()));
+                memory = RELEASED;
+            } else {
+                array = Arrays.copyOf(array, capacity);
+            }
+            return;
+        }
+        ByteBuffer oldMemory = memory;
+        memory = arena.allocate(this, capacity);
+        memory.put(0, oldMemory, 0, Math.min(capacity, oldMemory.capacity()));
+        arena.free(this, oldMemory, false);
+    }
+
+    @Override
+    public void release() {
+        array = null;
+        if (memory != RELEASED) {
+            ByteBuffer oldMemory = memory;
+            memory = RELEASED;
+            if (arena != null) {
+                arena.free(this, oldMemory, true);
+            }
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package uni.freiburg.sparqljoin.model.db;
+
+/**
+ * Growable column of a table, stored on the heap or in the direct memory of an OffHeapArena
+ */
+interface Column {
+
+    /**
+     * @return number of values the column can hold
+     */
+    int capacity();
+
+    /**
+     * Change the capacity, the values up to the new capacity are kept
+     *
+     * @param capacity new capacity
+     */
+    void resize(int capacity);
+
+    /**
+     * Free the storage of the column. Reading a released column throws IndexOutOfBoundsException.
+     */
+    void release();
+}
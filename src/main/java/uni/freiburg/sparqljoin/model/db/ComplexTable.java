@@ -2,94 +2,383 @@ package uni.freiburg.sparqljoin.model.db;
 
 import uni.freiburg.sparqljoin.model.join.JoinedItems;
 
+import java.util.AbstractList;
+import java.util.HashMap;
 import java.util.List;
 
 /**
  * Table that holds multiple properties with complex subject-object property values
  * See SimpleTable.toComplex() for how this works.
+ * <p>
+ * The schema is fixed when the table is created: every property of the property dictionary has a slot,
+ * slot = property key - 1. Every slot stores the subject, object and type of its property in one column each,
+ * so a row is a position in the columns and no objects are created per row.
+ * Columns are on the heap or in the direct memory of an OffHeapArena.
+ * A view of a SimpleTable (SimpleTable.asComplex()) shares the columns of the table and is read-only.
  */
-public class ComplexTable {
+public class ComplexTable implements Relation {
 
-    private final Dictionary propertyDictionary;
+    private static final DataType[] TYPES = DataType.values();
+
+    private static final int INITIAL_CAPACITY = 16;
 
-    private final PropertyValues<JoinedItems> items;
+    // type column value of a slot without an item
+    private static final byte ABSENT = 0;
+
+    private final Dictionary propertyDictionary;
 
     private final Dictionary objectDictionary;
 
+    // per slot: subject, object and DataType ordinal + 1 of every row
+    private final IntColumn[] subjects;
+
+    private final IntColumn[] objects;
+
+    private final ByteColumn[] types;
+
+    private int capacity;
+
+    private int size;
+
+    // view of a SimpleTable, its columns must not be changed
+    private final boolean view;
+
+    // table of a view, null if the table has its own columns
+    private final SimpleTable base;
+
     public ComplexTable(Dictionary propertyDictionary) {
-        this.propertyDictionary = propertyDictionary;
-        this.items = new PropertyValues<>();
-        this.objectDictionary = new Dictionary();
+        this(propertyDictionary, new Dictionary());
     }
 
     public ComplexTable(Dictionary propertyDictionary, Dictionary objectDictionary) {
+        this(propertyDictionary, objectDictionary, INITIAL_CAPACITY);
+    }
+
+    /**
+     * @param propertyDictionary properties of the table, the schema is fixed to the properties it contains now
+     * @param objectDictionary   dictionary of the STRING objects
+     * @param capacity           number of rows to allocate
+     */
+    public ComplexTable(Dictionary propertyDictionary, Dictionary objectDictionary, int capacity) {
+        this(propertyDictionary, objectDictionary, capacity, null);
+    }
+
+    public ComplexTable(Dictionary propertyDictionary, Dictionary objectDictionary, OffHeapArena arena) {
+        this(propertyDictionary, objectDictionary, INITIAL_CAPACITY, arena);
+    }
+
+    /**
+     * @param propertyDictionary properties of the table, the schema is fixed to the properties it contains now
+     * @param objectDictionary   dictionary of the STRING objects
+     * @param capacity           number of rows to allocate
+     * @param arena              arena of the columns, null to store them on the heap
+     */
+    public ComplexTable(Dictionary propertyDictionary, Dictionary objectDictionary, int capacity, OffHeapArena arena) {
         this.propertyDictionary = propertyDictionary;
         this.objectDictionary = objectDictionary;
-        this.items = new PropertyValues<>();
+        int width = propertyDictionary.keyLimit() - 1;
+        this.capacity = Math.max(capacity, 1);
+        this.subjects = new IntColumn[width];
+        this.objects = new IntColumn[width];
+        this.types = new ByteColumn[width];
+        for (int slot = 0; slot < width; slot++) {
+            subjects[slot] = new IntColumn(this.capacity, arena);
+            objects[slot] = new IntColumn(this.capacity, arena);
+            types[slot] = new ByteColumn(this.capacity, arena);
+        }
+        this.view = false;
+        this.base = null;
     }
 
-    public ComplexTable(Dictionary propertyDictionary, Dictionary objectDictionary, PropertyValues<JoinedItems> items) {
+    /**
+     * Read-only view of the columns of a single property table
+     */
+    ComplexTable(Dictionary propertyDictionary, SimpleTable base, IntColumn subjects, IntColumn objects, ByteColumn types, int size) {
         this.propertyDictionary = propertyDictionary;
-        this.items = items;
-        this.objectDictionary = objectDictionary;
+        this.objectDictionary = base.getObjectDictionary();
+        this.subjects = new IntColumn[]{subjects};
+        this.objects = new IntColumn[]{objects};
+        this.types = new ByteColumn[]{types};
+        this.capacity = size;
+        this.size = size;
+        this.view = true;
+        this.base = base;
     }
 
+    @Override
     public Dictionary getPropertyDictionary() {
         return propertyDictionary;
     }
 
+    public Dictionary getObjectDictionary() {
+        return objectDictionary;
+    }
+
+    @Override
+    public int width() {
+        return subjects.length;
+    }
+
+    /**
+     * @return true if the table is a read-only view of a SimpleTable
+     */
+    public boolean isView() {
+        return view;
+    }
+
+    /**
+     * A view is ordered by the SO permutation of its table, if the table has one
+     */
+    @Override
+    public int[] rowsBySubject(int slot) {
+        return base == null ? null : presorted(base.subjectObjectRows());
+    }
+
+    /**
+     * A view is ordered by the OS permutation of its table, if the table has one
+     */
+    @Override
+    public int[] rowsByObject(int slot) {
+        return base == null ? null : presorted(base.objectSubjectRows());
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean has(int row, int slot) {
+        return types[slot].get(row) != ABSENT;
+    }
+
+    @Override
+    public int subject(int row, int slot) {
+        return subjects[slot].get(row);
+    }
+
+    @Override
+    public int object(int row, int slot) {
+        return objects[slot].get(row);
+    }
+
+    public DataType type(int row, int slot) {
+        return TYPES[types[slot].get(row) - 1];
+    }
+
+    /**
+     * Append an empty row, its slots have no items until they are set
+     *
+     * @return index of the new row
+     */
+    public int addRow() {
+        checkWritable();
+        if (size == capacity) {
+            grow(size + 1);
+        }
+        return size++;
+    }
+
+    /**
+     * Set the item of a property in a row
+     */
+    public void set(int row, int slot, int subject, int object, DataType type) {
+        checkWritable();
+        subjects[slot].set(row, subject);
+        objects[slot].set(row, object);
+        types[slot].set(row, (byte) (type.ordinal() + 1));
+    }
+
     /**
-     * Insert items, adding missing object dictionary entries
+     * Append a row combining a row of R and a row of S.
+     * R has the first slots of this table, the slots of S are mapped. If R and S have a slot in common, the item of S is kept.
+     *
+     * @param R      R relation table
+     * @param rowR   row of R
+     * @param keysR  STRING keys of R to keys of this table
+     * @param S      S relation table
+     * @param rowS   row of S
+     * @param slotsS slot of this table for every slot of S
+     * @param keysS  STRING keys of S to keys of this table
+     */
+    public void insertJoined(ComplexTable R, int rowR, KeyMapping keysR, ComplexTable S, int rowS, int[] slotsS, KeyMapping keysS) {
+        int row = addRow();
+        for (int slot = 0; slot < R.width(); slot++) {
+            copyItem(R, rowR, slot, keysR, row, slot);
+        }
+        for (int slot = 0; slot < S.width(); slot++) {
+            copyItem(S, rowS, slot, keysS, row, slotsS[slot]);
+        }
+    }
+
+    /**
+     * Insert items, the properties must be in the schema
      *
      * @param items to save
      */
     public void insert(JoinedItems items) {
-        this.items.put(items);
+        int row = addRow();
+        items.values().forEach((property, item) -> set(row, slot(property), item.subject(), item.object(), item.type()));
     }
 
     /**
-     * Adapt object longs with values from the other dictionary and insert into this table
+     * Adapt object longs with values from the other dictionary and insert into this table.
+     * Object keys are kept if both tables use the same dictionary.
+     * Properties are matched by name, all properties of the other table must be in the schema.
      *
      * @param otherTable The other table
      */
     public void insertComplexTable(ComplexTable otherTable) {
-        otherTable.getValues().forEach(joinedItems -> {
-            joinedItems.values().forEach((otherProperty, otherPropertyValue) -> {
-                String propertyStr = otherTable.getPropertyDictionary().getValues().get(otherProperty);
-                assert propertyStr != null;
-
-                Integer propertyInteger = this.getPropertyDictionary().getInvertedValues().get(propertyStr);
-                if (propertyInteger == null) {
-                    propertyInteger = this.getPropertyDictionary().put(propertyStr);
-                }
+        int[] slots = new int[otherTable.width()];
+        for (int otherSlot = 0; otherSlot < slots.length; otherSlot++) {
+            String property = otherTable.getPropertyDictionary().get(otherTable.property(otherSlot));
+            int key = propertyDictionary.getKey(property);
+            if (key == Dictionary.NOT_FOUND) {
+                throw new IllegalArgumentException("Property '" + property + "' is not in the schema of the table");
+            }
+            slots[otherSlot] = slot(key);
+        }
+        KeyMapping keys = new KeyMapping(otherTable.getObjectDictionary(), objectDictionary);
+        if (size + otherTable.size > capacity) {
+            grow(size + otherTable.size);
+        }
+        for (int otherRow = 0; otherRow < otherTable.size; otherRow++) {
+            int row = addRow();
+            for (int otherSlot = 0; otherSlot < slots.length; otherSlot++) {
+                copyItem(otherTable, otherRow, otherSlot, keys, row, slots[otherSlot]);
+            }
+        }
+    }
 
-                Integer object = otherPropertyValue.object();
-                if (otherPropertyValue.type() == DataType.STRING) {
-                    // Object is a string
-                    String objectStr = otherTable.getObjectDictionary().getValues().get(object);
-                    object = this.getObjectDictionary().getInvertedValues().get(objectStr);
-                    if (object == null) {
-                        // Does not exist yet, generate a new value
-                        object = this.getObjectDictionary().put(objectStr);
-                    }
-                }
-                joinedItems.values().put(propertyInteger, new Item(otherPropertyValue.subject(), object, otherPropertyValue.type()));
-            });
+    /**
+     * Append all rows of a table with the same schema and object dictionary, columns are copied as they are
+     *
+     * @param otherTable table to append
+     */
+    public void insertAll(ComplexTable otherTable) {
+        if (otherTable.width() != width()) {
+            throw new IllegalArgumentException("Tables have different schemas");
+        }
+        checkWritable();
+        if (size + otherTable.size > capacity) {
+            grow(size + otherTable.size);
+        }
+        for (int slot = 0; slot < width(); slot++) {
+            IntColumn.copy(otherTable.subjects[slot], 0, subjects[slot], size, otherTable.size);
+            IntColumn.copy(otherTable.objects[slot], 0, objects[slot], size, otherTable.size);
+            ByteColumn.copy(otherTable.types[slot], 0, types[slot], size, otherTable.size);
+        }
+        size += otherTable.size;
+    }
+
+    /**
+     * Append a row of a table with the same schema and object dictionary, the items are copied as they are
+     *
+     * @param otherTable table with the row
+     * @param otherRow   row to append
+     * @return index of the new row
+     */
+    public int insertRow(ComplexTable otherTable, int otherRow) {
+        int row = addRow();
+        for (int slot = 0; slot < width(); slot++) {
+            copyItem(otherTable, otherRow, slot, KeyMapping.identity(), row, slot);
+        }
+        return row;
+    }
 
-            this.items.put(joinedItems);
-        });
+    /**
+     * Remove all rows, the capacity is kept for the rows added next
+     */
+    public void clear() {
+        checkWritable();
+        for (int slot = 0; slot < width(); slot++) {
+            for (int row = 0; row < size; row++) {
+                types[slot].set(row, ABSENT);
+            }
+        }
+        size = 0;
     }
 
     /**
-     * Get all values in the table
+     * Get all values in the table. JoinedItems are created when they are read, prefer the row accessors for scans.
+     * The subject of a row is the subject of its first item.
      *
-     * @return List of values
+     * @return read-only List view of the values
      */
     public List<JoinedItems> getValues() {
-        return this.items.getValues();
+        return new AbstractList<>() {
+            @Override
+            public JoinedItems get(int row) {
+                if (row >= size) {
+                    throw new IndexOutOfBoundsException(row);
+                }
+                HashMap<Integer, Item> values = new HashMap<>();
+                int subject = 0;
+                for (int slot = width() - 1; slot >= 0; slot--) {
+                    if (has(row, slot)) {
+                        subject = subject(row, slot);
+                        values.put(property(slot), new Item(subject, object(row, slot), type(row, slot)));
+                    }
+                }
+                return new JoinedItems(subject, values);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
     }
 
-    public Dictionary getObjectDictionary() {
-        return objectDictionary;
+    private void copyItem(ComplexTable from, int fromRow, int fromSlot, KeyMapping keys, int row, int slot) {
+        byte type = from.types[fromSlot].get(fromRow);
+        if (type == ABSENT) {
+            return;
+        }
+        int object = from.objects[fromSlot].get(fromRow);
+        if (type - 1 == DataType.STRING.ordinal()) {
+            object = keys.map(object);
+        }
+        subjects[slot].set(row, from.subjects[fromSlot].get(fromRow));
+        objects[slot].set(row, object);
+        types[slot].set(row, type);
+    }
+
+    /**
+     * Free the columns, the table must not be used afterwards. A view leaves the columns to its SimpleTable.
+     */
+    public void release() {
+        if (view) {
+            size = 0;
+            return;
+        }
+        for (int slot = 0; slot < width(); slot++) {
+            subjects[slot].release();
+            objects[slot].release();
+            types[slot].release();
+        }
+        capacity = 0;
+        size = 0;
+    }
+
+    // the permutation of the table orders the rows of the view, unless rows were inserted into the table since
+    private int[] presorted(int[] rows) {
+        return rows != null && rows.length == size ? rows : null;
+    }
+
+    private void checkWritable() {
+        if (view) {
+            throw new UnsupportedOperationException("View of a SimpleTable is read-only");
+        }
+    }
+
+    private void grow(int minCapacity) {
+        // grow by half like ArrayList
+        capacity = Math.max(minCapacity, capacity + (capacity >> 1) + 1);
+        for (int slot = 0; slot < width(); slot++) {
+            subjects[slot].resize(capacity);
+            objects[slot].resize(capacity);
+            types[slot].resize(capacity);
+        }
     }
 }
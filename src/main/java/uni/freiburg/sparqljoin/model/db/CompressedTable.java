@@ -0,0 +1,203 @@
+package uni.freiburg.sparqljoin.model.db;
+
+import java.util.Arrays;
+
+/**
+ * Read-only copy of a SimpleTable sorted by subject and compressed in PackedColumns.
+ * The sorted subjects pack their deltas, which are mostly 0 or small for the dense subject keys of a property,
+ * objects and types are packed relative to their block minimum.
+ * A Cursor decodes a block at a time and seeks over whole blocks of smaller subjects.
+ */
+public final class CompressedTable {
+
+    private static final DataType[] TYPES = DataType.values();
+
+    private final String property;
+
+    private final Dictionary objectDictionary;
+
+    // entity classes of the subjects and objects, see SimpleTable
+    private final String subjectClass;
+
+    private final String objectClass;
+
+    private final PackedColumn subjects;
+
+    private final PackedColumn objects;
+
+    // DataType ordinals
+    private final PackedColumn types;
+
+    private CompressedTable(String property, Dictionary objectDictionary, String subjectClass, String objectClass,
+                            PackedColumn subjects, PackedColumn objects, PackedColumn types) {
+        this.property = property;
+        this.objectDictionary = objectDictionary;
+        this.subjectClass = subjectClass;
+        this.objectClass = objectClass;
+        this.subjects = subjects;
+        this.objects = objects;
+        this.types = types;
+    }
+
+    /**
+     * Sort the rows of a table by subject and compress them. Rows with equal subjects keep their order.
+     *
+     * @param table table to compress, not changed
+     * @return compressed table
+     */
+    public static CompressedTable of(SimpleTable table) {
+        int size = table.size();
+        // subject in the high, row in the low half, so sorting orders by subject and then by row
+        long[] keyedRows = new long[size];
+        for (int row = 0; row < size; row++) {
+            keyedRows[row] = ((long) table.subject(row) << Integer.SIZE) | row;
+        }
+        Arrays.sort(keyedRows);
+        int[] subjects = new int[size];
+        int[] objects = new int[size];
+        int[] types = new int[size];
+        for (int i = 0; i < size; i++) {
+            int row = (int) keyedRows[i];
+            subjects[i] = table.subject(row);
+            objects[i] = table.object(row);
+            types[i] = table.type(row).ordinal();
+        }
+        return new CompressedTable(table.getProperty(), table.getObjectDictionary(), table.getSubjectClass(), table.getObjectClass(),
+                PackedColumn.of(subjects, size), PackedColumn.of(objects, size), PackedColumn.of(types, size));
+    }
+
+    public String getProperty() {
+        return property;
+    }
+
+    public Dictionary getObjectDictionary() {
+        return objectDictionary;
+    }
+
+    /**
+     * @return number of rows
+     */
+    public int size() {
+        return subjects.size();
+    }
+
+    /**
+     * @return bytes used by the compressed columns
+     */
+    public long bytes() {
+        return subjects.bytes() + objects.bytes() + types.bytes();
+    }
+
+    /**
+     * @return cursor before the first row
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Decompress into a SimpleTable, the rows are ordered by subject
+     *
+     * @param arena arena of the table, null to create it on the heap
+     * @return table with the rows of this table
+     */
+    public SimpleTable decompress(OffHeapArena arena) {
+        SimpleTable table = new SimpleTable(property, objectDictionary, arena);
+        table.setSubjectClass(subjectClass);
+        table.setObjectClass(objectClass);
+        Cursor cursor = cursor();
+        while (cursor.next()) {
+            table.insert(cursor.subject(), cursor.object(), cursor.type());
+        }
+        table.trimToSize();
+        return table;
+    }
+
+    /**
+     * Forward-only cursor over the rows in subject order, decodes one block at a time
+     */
+    public final class Cursor {
+
+        private final int[] subjectBlock = new int[PackedColumn.BLOCK_SIZE];
+
+        private final int[] objectBlock = new int[PackedColumn.BLOCK_SIZE];
+
+        private final int[] typeBlock = new int[PackedColumn.BLOCK_SIZE];
+
+        private int block = -1;
+
+        private int count;
+
+        private int position = -1;
+
+        /**
+         * Move to the next row
+         *
+         * @return false if there are no more rows
+         */
+        public boolean next() {
+            if (++position < count) {
+                return true;
+            }
+            return load(block + 1);
+        }
+
+        /**
+         * Move forward to the first row with a subject of at least the key. Blocks with smaller subjects are not decoded.
+         *
+         * @param subject subject to look for
+         * @return false if there is no such row
+         */
+        public boolean seek(int subject) {
+            if (block >= subjects.blocks()) {
+                return false;
+            }
+            if (block < 0 || subjects.blockMax(block) < subject) {
+                int target = subjects.seekBlock(subject, Math.max(block + 1, 0));
+                if (!load(target)) {
+                    return false;
+                }
+            }
+            while (subjectBlock[position] < subject) {
+                if (!next()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return position of the row in subject order
+         */
+        public int row() {
+            return block * PackedColumn.BLOCK_SIZE + position;
+        }
+
+        public int subject() {
+            return subjectBlock[position];
+        }
+
+        public int object() {
+            return objectBlock[position];
+        }
+
+        public DataType type() {
+            return TYPES[typeBlock[position]];
+        }
+
+        private boolean load(int nextBlock) {
+            if (nextBlock >= subjects.blocks()) {
+                block = subjects.blocks();
+                count = 0;
+                position = 0;
+                return false;
+            }
+            block = nextBlock;
+            count = subjects.decode(block, subjectBlock);
+            objects.decode(block, objectBlock);
+            types.decode(block, typeBlock);
+            position = 0;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package uni.freiburg.sparqljoin.model.db;
+
+import uni.freiburg.sparqljoin.util.Hasher;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Dictionary that can be shared by several threads.
+ * <p>
+ * Term to key is split into lock-striped open-addressing tables, inserting a new term only locks
+ * the stripe the term hashes to. Lookups never lock: a stripe table is published as a whole on resize
+ * and its slots are written with release semantics, so readers see fully initialised entries.
+ * Keys are handed out by a shared counter, every term maps to exactly one key.
+ * Keys of concurrently inserted terms depend on the thread scheduling.
+ * <p>
+ * Terms can't be removed. Once no thread inserts anymore, freeze() gives a plain copy with the same keys,
+ * which is cheap to clone.
+ */
+public class ConcurrentDictionary extends Dictionary {
+
+    private static final VarHandle INTS = MethodHandles.arrayElementVarHandle(int[].class);
+
+    private static final VarHandle STRINGS = MethodHandles.arrayElementVarHandle(String[].class);
+
+    private static final int STRIPE_BITS = 6;
+
+    private static final int CHUNK_BITS = 14;
+
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    private static final int INITIAL_STRIPE_CAPACITY = 64;
+
+    private final Stripe[] stripes = new Stripe[1 << STRIPE_BITS];
+
+    private final AtomicInteger nextKey = new AtomicInteger(1);
+
+    // key -> term in fixed size chunks, chunks are never moved
+    private volatile String[][] chunks = new String[16][];
+
+    public ConcurrentDictionary() {
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    @Override
+    public int put(String value) {
+        int hash = Hasher.hashUtf8(value);
+        int key = find(value, hash);
+        if (key != NOT_FOUND) {
+            return key;
+        }
+        return insert(value, hash);
+    }
+
+    @Override
+    public int put(byte[] bytes, int offset, int length) {
+        int hash = Hasher.hash(bytes, offset, length);
+        Table table = stripe(hash).table;
+        int mask = table.keys.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int key = (int) INTS.getAcquire(table.keys, slot);
+            if (key == 0) {
+                break;
+            }
+            if (table.hashes[slot] == hash && utf8Equals(get(key), bytes, offset, length)) {
+                return key;
+            }
+        }
+        // String.equals is used from here on, malformed bytes decode to the same String every time
+        return put(new String(bytes, offset, length, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public String get(int key) {
+        if (key <= 0) {
+            return null;
+        }
+        String[][] chunks = this.chunks;
+        int chunk = (key >>> CHUNK_BITS);
+        if (chunk >= chunks.length || chunks[chunk] == null) {
+            return null;
+        }
+        return (String) STRINGS.getAcquire(chunks[chunk], key & (CHUNK_SIZE - 1));
+    }
+
+    @Override
+    public int getKey(String value) {
+        return find(value, Hasher.hashUtf8(value));
+    }
+
+    /**
+     * @return number of stored terms, keys handed out to terms that are still being stored are not counted
+     */
+    @Override
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.size;
+        }
+        return size;
+    }
+
+    /**
+     * Terms are never removed from a concurrent dictionary
+     *
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public String remove(int key) {
+        throw new UnsupportedOperationException("Terms can't be removed from a concurrent dictionary");
+    }
+
+    /**
+     * Plain copy of the dictionary with the same keys, see freeze()
+     *
+     * @return copy of the dictionary
+     */
+    @SuppressWarnings("MethodDoesntCallSuperMethod")
+    @Override
+    public Dictionary clone() {
+        return freeze();
+    }
+
+    /**
+     * Copy the terms into a plain dictionary with the same keys. Unlike this dictionary, the copy shares its
+     * arrays with its clones, so joins cloning it don't copy it again. Terms inserted concurrently with the copy
+     * may be missing from it, keys handed out to them stay unused.
+     *
+     * @return plain dictionary with the same keys
+     */
+    public Dictionary freeze() {
+        int keyLimit = keyLimit();
+        String[] terms = new String[keyLimit];
+        for (int key = 1; key < keyLimit; key++) {
+            terms[key] = get(key);
+        }
+        return new Dictionary(terms, keyLimit);
+    }
+
+    @Override
+    public int keyLimit() {
+        return nextKey.get();
+    }
+
+    private Stripe stripe(int hash) {
+        // stripes use the high bits, slots within a stripe the low bits of the hash
+        return stripes[hash >>> (Integer.SIZE - STRIPE_BITS)];
+    }
+
+    private int find(String value, int hash) {
+        Table table = stripe(hash).table;
+        int mask = table.keys.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int key = (int) INTS.getAcquire(table.keys, slot);
+            if (key == 0) {
+                return NOT_FOUND;
+            }
+            if (table.hashes[slot] == hash && value.equals(get(key))) {
+                return key;
+            }
+        }
+    }
+
+    private int insert(String value, int hash) {
+        Stripe stripe = stripe(hash);
+        synchronized (stripe) {
+            // another thread could have inserted the value in the meantime
+            int key = find(value, hash);
+            if (key != NOT_FOUND) {
+                return key;
+            }
+            key = nextKey.getAndIncrement();
+            storeTerm(key, value);
+            Table table = stripe.table;
+            if ((stripe.size + 1) * 2 > table.keys.length) {
+                table = stripe.table = table.resize();
+            }
+            table.insert(key, hash);
+            stripe.size++;
+            return key;
+        }
+    }
+
+    private void storeTerm(int key, String value) {
+        int chunk = key >>> CHUNK_BITS;
+        String[][] chunks = this.chunks;
+        if (chunk >= chunks.length || chunks[chunk] == null) {
+            chunks = addChunk(chunk);
+        }
+        STRINGS.setRelease(chunks[chunk], key & (CHUNK_SIZE - 1), value);
+    }
+
+    private synchronized String[][] addChunk(int chunk) {
+        String[][] chunks = this.chunks;
+        if (chunk >= chunks.length) {
+            chunks = Arrays.copyOf(chunks, Math.max(chunks.length * 2, chunk + 1));
+        } else if (chunks[chunk] != null) {
+            return chunks;
+        } else {
+            chunks = chunks.clone();
+        }
+        chunks[chunk] = new String[CHUNK_SIZE];
+        // chunks are published with a new directory, readers of the old one don't see a partial update
+        this.chunks = chunks;
+        return chunks;
+    }
+
+    /**
+     * Part of the term to key table, guarded by its own monitor
+     */
+    private static final class Stripe {
+
+        private volatile Table table = new Table(INITIAL_STRIPE_CAPACITY);
+
+        // written under the monitor after the term is stored, read by size() without it
+        private volatile int size;
+    }
+
+    /**
+     * Open-addressing table of keys with linear probing. A key slot is published after its hash,
+     * so a reader seeing the key also sees the hash.
+     */
+    private static final class Table {
+
+        private final int[] keys;
+
+        private final int[] hashes;
+
+        private Table(int capacity) {
+            this.keys = new int[capacity];
+            this.hashes = new int[capacity];
+        }
+
+        private void insert(int key, int hash) {
+            int mask = keys.length - 1;
+            int slot = hash & mask;
+            while (keys[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            hashes[slot] = hash;
+            INTS.setRelease(keys, slot, key);
+        }
+
+        private Table resize() {
+            Table table = new Table(keys.length * 2);
+            for (int slot = 0; slot < keys.length; slot++) {
+                if (keys[slot] != 0) {
+                    table.insert(keys[slot], hashes[slot]);
+                }
+            }
+            return table;
+        }
+    }
+}
@@ -1,10 +1,296 @@
 package uni.freiburg.sparqljoin.model.db;
 
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
 
 /**
- * This class is used to hold collection of tables and provide operations on them
- * @param tables       collection of tables
+ * This class is used to hold collection of tables and provide operations on them.
+ * Tables of a lazy database are loaded when they are first requested.
+ * A compressed database keeps its tables as CompressedTables, a requested table is decompressed into a temporary copy.
+ * Only the merge join on subjects reads the compressed tables themselves, see compressedTable.
+ * The statistics catalog holds the PropertyStatistics of every loaded table.
+ * The triple store indexes all triples for patterns with an unbound property, it is built when it is first used.
+ * Tables with off-heap columns belong to the arena of the database, closing the database releases them.
  */
-public record Database (HashMap<String, SimpleTable> tables) {
+public class Database implements AutoCloseable {
+
+    // loaded tables
+    private final HashMap<String, SimpleTable> tables;
+
+    // all properties, including the ones not loaded yet
+    private final Set<String> properties;
+
+    // loads the table of a property, null if all tables are loaded
+    private final Function<String, SimpleTable> tableLoader;
+
+    // tables of a compressed database, they stay compressed, null if the database is not compressed
+    private final HashMap<String, CompressedTable> compressedTables;
+
+    // statistics catalog of the loaded tables
+    private final HashMap<String, PropertyStatistics> statistics = new HashMap<>();
+
+    // index of all triples, null until it is first used
+    private TripleStore tripleStore;
+
+    // dictionary shared by all tables, null if every table has its own dictionary
+    private final Dictionary globalDictionary;
+
+    // arena of the off-heap tables, null if the tables are on the heap
+    private final OffHeapArena arena;
+
+    /**
+     * @param tables collection of tables
+     */
+    public Database(HashMap<String, SimpleTable> tables) {
+        this(tables, null);
+    }
+
+    /**
+     * @param tables collection of tables
+     * @param arena  arena of the tables, null if the tables are on the heap
+     */
+    public Database(HashMap<String, SimpleTable> tables, OffHeapArena arena) {
+        this(tables, null, arena);
+    }
+
+    /**
+     * @param tables           collection of tables
+     * @param globalDictionary dictionary shared by all tables, null if every table has its own dictionary
+     * @param arena            arena of the tables, null if the tables are on the heap
+     */
+    public Database(HashMap<String, SimpleTable> tables, Dictionary globalDictionary, OffHeapArena arena) {
+        this(tables, tables.keySet(), null, null, globalDictionary, arena);
+    }
+
+    /**
+     * Database that loads its tables on demand
+     *
+     * @param properties  all properties of the database
+     * @param tableLoader loads the table of a property
+     */
+    public Database(Set<String> properties, Function<String, SimpleTable> tableLoader) {
+        this(properties, tableLoader, null);
+    }
+
+    /**
+     * Database that loads its tables on demand
+     *
+     * @param properties  all properties of the database
+     * @param tableLoader loads the table of a property
+     * @param arena       arena the tables are loaded into, null if the tables are on the heap
+     */
+    public Database(Set<String> properties, Function<String, SimpleTable> tableLoader, OffHeapArena arena) {
+        this(properties, tableLoader, null, arena);
+    }
+
+    /**
+     * Database that loads its tables on demand
+     *
+     * @param properties       all properties of the database
+     * @param tableLoader      loads the table of a property
+     * @param globalDictionary dictionary shared by all tables, null if every table has its own dictionary
+     * @param arena            arena the tables are loaded into, null if the tables are on the heap
+     */
+    public Database(Set<String> properties, Function<String, SimpleTable> tableLoader, Dictionary globalDictionary,
+                    OffHeapArena arena) {
+        this(new HashMap<>(), new HashSet<>(properties), tableLoader, null, globalDictionary, arena);
+    }
+
+    private Database(HashMap<String, SimpleTable> tables, Set<String> properties, Function<String, SimpleTable> tableLoader,
+                     HashMap<String, CompressedTable> compressedTables, Dictionary globalDictionary, OffHeapArena arena) {
+        this.tables = tables;
+        this.properties = properties;
+        this.tableLoader = tableLoader;
+        this.compressedTables = compressedTables;
+        this.globalDictionary = globalDictionary;
+        this.arena = arena;
+    }
+
+    /**
+     * Database that keeps its tables compressed, a requested table is decompressed into a temporary copy
+     *
+     * @param compressedTables compressed tables by property
+     * @param statistics       statistics of the tables collected before they were compressed
+     * @param globalDictionary dictionary shared by all tables, null if every table has its own dictionary
+     * @param arena            arena of the tables of new properties, null if they are on the heap
+     * @return compressed database
+     */
+    public static Database compressed(HashMap<String, CompressedTable> compressedTables, Map<String, PropertyStatistics> statistics,
+                                      Dictionary globalDictionary, OffHeapArena arena) {
+        Database database = new Database(new HashMap<>(), new HashSet<>(compressedTables.keySet()), null, compressedTables,
+                globalDictionary, arena);
+        database.statistics.putAll(statistics);
+        return database;
+    }
+
+    /**
+     * @return true if the database keeps its tables compressed
+     */
+    public boolean isCompressed() {
+        return compressedTables != null;
+    }
+
+    /**
+     * Get the compressed table of a property
+     *
+     * @param property property name
+     * @return compressed table or null if the database is not compressed or there is no such property
+     */
+    public synchronized CompressedTable compressedTable(String property) {
+        return compressedTables == null ? null : compressedTables.get(property);
+    }
+
+    /**
+     * @return dictionary shared by all tables, also by the tables of new properties, null if every table has its own dictionary
+     */
+    public Dictionary globalDictionary() {
+        return globalDictionary;
+    }
+
+    /**
+     * @return arena of the tables, null if the tables are on the heap
+     */
+    public OffHeapArena arena() {
+        return arena;
+    }
+
+    /**
+     * Get the table of a property, load it if needed.
+     * A compressed table is decompressed into a new heap table on every call.
+     *
+     * @param property property name
+     * @return table or null if there is no such property
+     */
+    public SimpleTable table(String property) {
+        return table(property, null);
+    }
+
+    /**
+     * Get the table of a property for a query, load it if needed.
+     * A compressed table is decompressed into a temporary copy on every call, the copy belongs to the arena of the query.
+     *
+     * @param property property name
+     * @param arena    arena of a decompressed copy, null to decompress it on the heap
+     * @return table or null if there is no such property
+     */
+    public synchronized SimpleTable table(String property, OffHeapArena arena) {
+        CompressedTable compressedTable = compressedTable(property);
+        if (compressedTable != null) {
+            return compressedTable.decompress(arena);
+        }
+        SimpleTable table = tables.get(property);
+        if (table == null && tableLoader != null && properties.contains(property)) {
+            table = tableLoader.apply(property);
+            tables.put(property, table);
+        }
+        return table;
+    }
+
+    /**
+     * Put the table of a new property or replace the table of a property, e.g. after it was extended.
+     * A compressed database compresses the table and releases it.
+     *
+     * @param table table to put, belongs to the arena of the database unless the database is compressed
+     */
+    public synchronized void putTable(SimpleTable table) {
+        if (compressedTables != null) {
+            compressedTables.put(table.getProperty(), CompressedTable.of(table));
+            table.release();
+        } else {
+            tables.put(table.getProperty(), table);
+        }
+        if (!properties.contains(table.getProperty())) {
+            properties.add(table.getProperty());
+        }
+    }
+
+    /**
+     * Get all tables, loads the remaining tables of a lazy database.
+     * The tables of a compressed database are decompressed into new heap tables on every call.
+     *
+     * @return collection of tables
+     */
+    public synchronized HashMap<String, SimpleTable> tables() {
+        if (compressedTables != null) {
+            HashMap<String, SimpleTable> decompressed = new HashMap<>();
+            compressedTables.forEach((property, compressedTable) -> decompressed.put(property, compressedTable.decompress(null)));
+            return decompressed;
+        }
+        if (tableLoader != null) {
+            properties.forEach(this::table);
+        }
+        return tables;
+    }
+
+    /**
+     * @return names of all properties, loaded or not
+     */
+    public Set<String> properties() {
+        return Collections.unmodifiableSet(properties);
+    }
+
+    /**
+     * Get the statistics of a property, collect them if the table is new or has changed since
+     *
+     * @param property property name
+     * @return statistics or null if there is no such property
+     */
+    public synchronized PropertyStatistics statistics(String property) {
+        PropertyStatistics cached = statistics.get(property);
+        CompressedTable compressedTable = compressedTable(property);
+        // tables only grow, so a changed table has more triples, a compressed table is only decompressed if it has changed
+        if (compressedTable != null && cached != null && cached.triples() == compressedTable.size()) {
+            return cached;
+        }
+        SimpleTable table = table(property);
+        if (table == null) {
+            return null;
+        }
+        if (cached == null || cached.triples() != table.size()) {
+            cached = PropertyStatistics.of(table, PropertyStatistics.DEFAULT_TOP_KEYS);
+            statistics.put(property, cached);
+        }
+        return cached;
+    }
+
+    /**
+     * Get the statistics of all properties, loads the remaining tables of a lazy database
+     *
+     * @return statistics catalog
+     */
+    public synchronized HashMap<String, PropertyStatistics> statistics() {
+        properties.forEach(this::statistics);
+        return new HashMap<>(statistics);
+    }
+
+    /**
+     * Get the six-order index of all triples, build it if it is new or the tables have changed since.
+     * Loads the remaining tables of a lazy database, a compressed database is indexed from temporary copies of its tables.
+     *
+     * @return triple store
+     */
+    public synchronized TripleStore tripleStore() {
+        long triples = compressedTables != null
+                ? compressedTables.values().stream().mapToLong(CompressedTable::size).sum()
+                : tables().values().stream().mapToLong(SimpleTable::size).sum();
+        // tables only grow, so changed tables have more triples
+        if (tripleStore == null || tripleStore.size() != triples) {
+            tripleStore = TripleStore.of(tables().values());
+        }
+        return tripleStore;
+    }
+
+    /**
+     * Release the off-heap tables, they must not be used afterwards. Heap tables are left to the garbage collector.
+     */
+    @Override
+    public synchronized void close() {
+        if (arena != null) {
+            arena.close();
+        }
+    }
 }
@@ -1,28 +1,91 @@
 package uni.freiburg.sparqljoin.model.db;
 
-import java.util.HashMap;
+import uni.freiburg.sparqljoin.util.Hasher;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 
 /**
- * Dictionary object used to map string terms to unique integers to compress operations
+ * Dictionary object used to map string terms to unique integers to compress operations.
+ * <p>
+ * Keys are assigned sequentially from 1, so key to term is a dense array indexed by key.
+ * Term to key is an open-addressing hash table (linear probing) over the UTF-8 bytes of the terms,
+ * which allows looking up raw bytes of the dataset without creating Strings.
+ * Clones share the arrays until one of the dictionaries is modified (copy-on-write).
  */
 public class Dictionary {
 
-    private final HashMap<Integer, String> values;
+    public static final int NOT_FOUND = 0;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    // key -> term, index 0 is unused
+    private String[] terms;
+
+    // key -> hash of the term
+    private int[] hashes;
 
-    private final HashMap<String, Integer> invertedValues;
+    // open-addressing table of keys, 0 marks an empty slot
+    private int[] slots;
 
     private int index;
 
+    private int size;
+
+    // arrays are shared with a clone and must be copied before the next modification
+    private boolean shared;
+
     public Dictionary() {
-        this.values = new HashMap<>();
-        this.invertedValues = new HashMap<>();
+        this.terms = new String[INITIAL_CAPACITY];
+        this.hashes = new int[INITIAL_CAPACITY];
+        this.slots = new int[INITIAL_CAPACITY * 2];
         this.index = 1;
     }
 
-    public Dictionary(HashMap<Integer, String> values, HashMap<String, Integer> invertedValues, int index) {
-        this.values = values;
-        this.invertedValues = invertedValues;
-        this.index = index;
+    /**
+     * Dictionary with the given keys, e.g. a plain copy of a concurrent dictionary
+     *
+     * @param terms    key -> term, null for keys without a term, index 0 is unused
+     * @param keyLimit upper bound (exclusive) of the keys
+     */
+    Dictionary(String[] terms, int keyLimit) {
+        this.terms = Arrays.copyOf(terms, Math.max(keyLimit, INITIAL_CAPACITY));
+        this.hashes = new int[this.terms.length];
+        this.index = keyLimit;
+        for (int key = 1; key < keyLimit; key++) {
+            if (this.terms[key] != null) {
+                hashes[key] = Hasher.hashUtf8(this.terms[key]);
+                size++;
+            }
+        }
+        // load factor at most 0.5, like insert() keeps it
+        rehash(Integer.highestOneBit(Math.max(size, INITIAL_CAPACITY) * 2 - 1) << 1);
+    }
+
+    /**
+     * Dictionary with the given keys, e.g. read from a snapshot. The hash table is built in one pass.
+     *
+     * @param terms    key -> term, null for keys without a term, index 0 is unused
+     * @param keyLimit upper bound (exclusive) of the keys
+     * @return dictionary
+     */
+    public static Dictionary of(String[] terms, int keyLimit) {
+        return new Dictionary(terms, keyLimit);
+    }
+
+    private Dictionary(Dictionary other) {
+        this.terms = other.terms;
+        this.hashes = other.hashes;
+        this.slots = other.slots;
+        this.index = other.index;
+        this.size = other.size;
+        this.shared = true;
     }
 
     /**
@@ -32,40 +95,185 @@ public class Dictionary {
      * @return unique integer that represent putted value
      */
     public int put(String value) {
-        // save value into the dictionary
-        if (!this.invertedValues.containsKey(value)) {
-            this.values.put(this.index, value);
-            this.invertedValues.put(value, this.index);
-            return this.index++;
+        int hash = Hasher.hashUtf8(value);
+        int key = find(value, hash);
+        if (key != NOT_FOUND) {
+            // return existing index for the given value
+            return key;
         }
-        // return existing index for the given value
-        return this.invertedValues.get(value);
+        return insert(value, hash);
+    }
+
+    /**
+     * Put UTF-8 encoded value into the dictionary (if not exists) and return unique integer representation.
+     * The String is only created if the value is not in the dictionary yet.
+     *
+     * @param bytes  buffer holding the value
+     * @param offset first byte of the value
+     * @param length number of bytes of the value
+     * @return unique integer that represent putted value
+     */
+    public int put(byte[] bytes, int offset, int length) {
+        int hash = Hasher.hash(bytes, offset, length);
+        int mask = slots.length - 1;
+        for (int slot = hash & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int key = slots[slot];
+            if (hashes[key] == hash && utf8Equals(terms[key], bytes, offset, length)) {
+                return key;
+            }
+        }
+        String value = new String(bytes, offset, length, StandardCharsets.UTF_8);
+        int valueHash = Hasher.hashUtf8(value);
+        if (valueHash != hash) {
+            // malformed UTF-8, the decoded value is kept under the hash of its own encoding
+            return put(value);
+        }
+        return insert(value, hash);
     }
 
     /**
      * Get string value from the dictionary by its index
      *
      * @param key index representation of the value
-     * @return value from the dictionary
+     * @return value from the dictionary, null if there is no such key
      */
     public String get(int key) {
-        return this.values.get(key);
+        return key > 0 && key < index ? terms[key] : null;
+    }
+
+    /**
+     * Get index of the value
+     *
+     * @param value to look up
+     * @return index representation of the value or NOT_FOUND
+     */
+    public int getKey(String value) {
+        return find(value, Hasher.hashUtf8(value));
     }
 
     public boolean containsKey(int key) {
-        return this.values.containsKey(key);
+        return get(key) != null;
+    }
+
+    /**
+     * @return number of values in the dictionary
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Remove value from the dictionary. The key is not reused.
+     *
+     * @param key index representation of the value
+     * @return removed value, null if there is no such key
+     */
+    public String remove(int key) {
+        String value = get(key);
+        if (value == null) {
+            return null;
+        }
+        ensureOwnArrays();
+        int mask = slots.length - 1;
+        int slot = hashes[key] & mask;
+        while (slots[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        // backward shift deletion keeps the probe sequences intact without tombstones
+        int next = (slot + 1) & mask;
+        while (slots[next] != 0) {
+            int home = hashes[slots[next]] & mask;
+            if (((next - home) & mask) >= ((next - slot) & mask)) {
+                slots[slot] = slots[next];
+                slot = next;
+            }
+            next = (next + 1) & mask;
+        }
+        slots[slot] = 0;
+        terms[key] = null;
+        size--;
+        return value;
     }
 
-    public HashMap<Integer, String> getValues() {
-        return values;
+    /**
+     * @return live map view from index to value
+     */
+    public Map<Integer, String> getValues() {
+        return new AbstractMap<>() {
+            @Override
+            public String get(Object key) {
+                return key instanceof Integer ? Dictionary.this.get((Integer) key) : null;
+            }
+
+            @Override
+            public boolean containsKey(Object key) {
+                return get(key) != null;
+            }
+
+            @Override
+            public String remove(Object key) {
+                return key instanceof Integer ? Dictionary.this.remove((Integer) key) : null;
+            }
+
+            @Override
+            public int size() {
+                return Dictionary.this.size();
+            }
+
+            @Override
+            public Set<Entry<Integer, String>> entrySet() {
+                return new EntrySet<>(key -> new SimpleImmutableEntry<>(key, Dictionary.this.get(key)));
+            }
+        };
     }
 
-    public HashMap<String, Integer> getInvertedValues() {
-        return invertedValues;
+    /**
+     * @return live map view from value to index
+     */
+    public Map<String, Integer> getInvertedValues() {
+        return new AbstractMap<>() {
+            @Override
+            public Integer get(Object value) {
+                if (!(value instanceof String)) {
+                    return null;
+                }
+                int key = getKey((String) value);
+                return key == NOT_FOUND ? null : key;
+            }
+
+            @Override
+            public boolean containsKey(Object value) {
+                return get(value) != null;
+            }
+
+            @Override
+            public Integer remove(Object value) {
+                Integer key = get(value);
+                if (key != null) {
+                    Dictionary.this.remove(key);
+                }
+                return key;
+            }
+
+            @Override
+            public int size() {
+                return Dictionary.this.size();
+            }
+
+            @Override
+            public Set<Entry<String, Integer>> entrySet() {
+                return new EntrySet<>(key -> new SimpleImmutableEntry<>(Dictionary.this.get(key), key));
+            }
+        };
     }
 
     public void putAll(Dictionary otherDictionary) {
-        otherDictionary.getValues().forEach((otherDictionaryIndex, value) -> this.put(value));
+        for (int key = 1; key < otherDictionary.keyLimit(); key++) {
+            String value = otherDictionary.get(key);
+            if (value != null) {
+                this.put(value);
+            }
+        }
     }
 
     @Override
@@ -73,23 +281,202 @@ public class Dictionary {
         return this.getValues().toString();
     }
 
+    /**
+     * Copy of the dictionary. The copy shares the arrays with this dictionary
+     * until one of them is modified.
+     *
+     * @return copy of the dictionary
+     */
     @SuppressWarnings("MethodDoesntCallSuperMethod")
     @Override
     public Dictionary clone() {
-        //noinspection unchecked
-        return new Dictionary(
-                (HashMap<Integer, String>) this.values.clone(),
-                (HashMap<String, Integer>) this.invertedValues.clone(),
-                this.index);
+        this.shared = true;
+        return new Dictionary(this);
     }
 
     @Override
     public boolean equals(Object obj) {
-        if (obj.getClass() != Dictionary.class) return false;
+        if (!(obj instanceof Dictionary other)) return false;
+
+        if (this.keyLimit() != other.keyLimit() || this.size() != other.size()) {
+            return false;
+        }
+        for (int key = 1; key < keyLimit(); key++) {
+            String value = this.get(key);
+            if (value == null ? other.get(key) != null : !value.equals(other.get(key))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hashCode = keyLimit();
+        for (int key = 1; key < keyLimit(); key++) {
+            String value = get(key);
+            hashCode = 31 * hashCode + (value == null ? 0 : value.hashCode());
+        }
+        return hashCode;
+    }
+
+    /**
+     * @return upper bound (exclusive) of the keys handed out so far
+     */
+    public int keyLimit() {
+        return index;
+    }
+
+    private int find(String value, int hash) {
+        int mask = slots.length - 1;
+        for (int slot = hash & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int key = slots[slot];
+            if (hashes[key] == hash && terms[key].equals(value)) {
+                return key;
+            }
+        }
+        return NOT_FOUND;
+    }
+
+    private int insert(String value, int hash) {
+        ensureOwnArrays();
+        if (index == terms.length) {
+            terms = Arrays.copyOf(terms, terms.length * 2);
+            hashes = Arrays.copyOf(hashes, hashes.length * 2);
+        }
+        int key = index++;
+        terms[key] = value;
+        hashes[key] = hash;
+        size++;
+        // keep the load factor at 0.5
+        if (size * 2 > slots.length) {
+            rehash(slots.length * 2);
+        } else {
+            insertSlot(key);
+        }
+        return key;
+    }
 
-        Dictionary other = (Dictionary) obj;
-        return this.values.equals(other.values) &&
-                this.invertedValues.equals(other.invertedValues) &&
-                this.index == other.index;
+    private void insertSlot(int key) {
+        int mask = slots.length - 1;
+        int slot = hashes[key] & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = key;
+    }
+
+    private void rehash(int capacity) {
+        slots = new int[capacity];
+        for (int key = 1; key < index; key++) {
+            if (terms[key] != null) {
+                insertSlot(key);
+            }
+        }
+    }
+
+    private void ensureOwnArrays() {
+        if (shared) {
+            terms = terms.clone();
+            hashes = hashes.clone();
+            slots = slots.clone();
+            shared = false;
+        }
+    }
+
+    /**
+     * Compare String with UTF-8 bytes without encoding the String.
+     * Unpaired surrogates are encoded as '?' like String.getBytes does.
+     */
+    static boolean utf8Equals(String value, byte[] bytes, int offset, int length) {
+        int position = offset;
+        int end = offset + length;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                if (position >= end || bytes[position++] != c) {
+                    return false;
+                }
+                continue;
+            }
+            int codePoint = c;
+            if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                codePoint = Character.toCodePoint(c, value.charAt(++i));
+            } else if (Character.isSurrogate(c)) {
+                codePoint = '?';
+            }
+            int numBytes = codePoint < 0x80 ? 1 : codePoint < 0x800 ? 2 : codePoint < 0x10000 ? 3 : 4;
+            if (position + numBytes > end) {
+                return false;
+            }
+            switch (numBytes) {
+                case 1 -> {
+                    if (bytes[position] != codePoint) return false;
+                }
+                case 2 -> {
+                    if (bytes[position] != (byte) (0xc0 | codePoint >> 6)
+                            || bytes[position + 1] != (byte) (0x80 | codePoint & 0x3f)) return false;
+                }
+                case 3 -> {
+                    if (bytes[position] != (byte) (0xe0 | codePoint >> 12)
+                            || bytes[position + 1] != (byte) (0x80 | codePoint >> 6 & 0x3f)
+                            || bytes[position + 2] != (byte) (0x80 | codePoint & 0x3f)) return false;
+                }
+                default -> {
+                    if (bytes[position] != (byte) (0xf0 | codePoint >> 18)
+                            || bytes[position + 1] != (byte) (0x80 | codePoint >> 12 & 0x3f)
+                            || bytes[position + 2] != (byte) (0x80 | codePoint >> 6 & 0x3f)
+                            || bytes[position + 3] != (byte) (0x80 | codePoint & 0x3f)) return false;
+                }
+            }
+            position += numBytes;
+        }
+        return position == end;
+    }
+
+    /**
+     * Entries of the present keys in ascending key order
+     */
+    private class EntrySet<E> extends AbstractSet<E> {
+
+        private final java.util.function.IntFunction<E> entry;
+
+        private EntrySet(java.util.function.IntFunction<E> entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public Iterator<E> iterator() {
+            return new Iterator<>() {
+                private int key = advance(1);
+
+                private int advance(int from) {
+                    while (from < keyLimit() && Dictionary.this.get(from) == null) {
+                        from++;
+                    }
+                    return from;
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return key < keyLimit();
+                }
+
+                @Override
+                public E next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    E next = entry.apply(key);
+                    key = advance(key + 1);
+                    return next;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return Dictionary.this.size();
+        }
     }
 }
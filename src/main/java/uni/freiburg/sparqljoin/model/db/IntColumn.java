@@ -0,0 +1,117 @@
+package uni.freiburg.sparqljoin.model.db;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Column of int values in an int array or in off-heap memory
+ */
+final class IntColumn implements Column {
+
+    private static final IntBuffer RELEASED = IntBuffer.allocate(0);
+
+    private final OffHeapArena arena;
+
+    // heap storage, null if the column is off-heap or released
+    private int[] array;
+
+    // off-heap storage and its int view
+    private ByteBuffer memory;
+
+    private IntBuffer buffer = RELEASED;
+
+    /**
+     * @param capacity number of values
+     * @param arena    arena owning the memory, null to store the values on the heap
+     */
+    IntColumn(int capacity, OffHeapArena arena) {
+        this.arena = arena;
+        if (arena == null) {
+            array = new int[capacity];
+        } else {
+            memory = arena.allocate(this, (long) capacity * Integer.BYTES);
+            buffer = memory.asIntBuffer();
+        }
+    }
+
+    /**
+     * Column over existing memory, e.g. a mapped file section, the memory is not copied.
+     * The values are read in the byte order of the memory. The column is read-only until it is resized,
+     * the values are copied to the heap then.
+     */
+    IntColumn(ByteBuffer memory) {
+        this.arena = null;
+        this.memory = memory;
+        this.buffer = memory.asIntBuffer();
+    }
+
+    int get(int index) {
+        int[] array = this.array;
+        return array != null ? array[index] : buffer.get(index);
+    }
+
+    void set(int index, int value) {
+        int[] array = this.array;
+        if (array != null) {
+            array[index] = value;
+        } else {
+            buffer.put(index, value);
+        }
+    }
+
+    /**
+     * Copy values between columns
+     */
+    static void copy(IntColumn source, int sourceIndex, IntColumn target, int targetIndex, int length) {
+        if (source.array != null && target.array != null) {
+            System.arraycopy(source.array, sourceIndex, target.array, targetIndex, length);
+        } else if (target.array != null) {
+            source.buffer.get(sourceIndex, target.array, targetIndex, length);
+        } else if (source.array != null) {
+            target.buffer.put(targetIndex, source.array, sourceIndex, length);
+        } else {
+            target.buffer.put(targetIndex, source.buffer, sourceIndex, length);
+        }
+    }
+
+    @Override
+    public int capacity() {
+        return array != null ? array.length : buffer.capacity();
+    }
+
+    @Override
+    public void resize(int capacity) {
+        if (arena == null) {
+            if (array == null) {
+                // existing memory
+                array = new int[capacity];
+                buffer.get(0, array, 0, Math.min(capacity, buffer.capacity()));
+                memory = null;
+                buffer = RELEASED;
+            } else {
+                array = Arrays.copyOf(array, capacity);
+            }
+            return;
+        }
+        ByteBuffer oldMemory = memory;
+        IntBuffer oldBuffer = buffer;
+        memory = arena.allocate(this, (long) capacity * Integer.BYTES);
+        buffer = memory.asIntBuffer();
+        buffer.put(0, oldBuffer, 0, Math.min(capacity, oldBuffer.capacity()));
+        arena.free(this, oldMemory, false);
+    }
+
+    @Override
+    public void release() {
+        array = null;
+        buffer = RELEASED;
+        if (memory != null) {
+            ByteBuffer oldMemory = memory;
+            memory = null;
+            if (arena != null) {
+                arena.free(this, oldMemory, true);
+            }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package uni.freiburg.sparqljoin.model.db;
+
+import java.util.Arrays;
+
+/**
+ * Translates the STRING object keys of one dictionary into the keys of another one.
+ * Every key is looked up once, a term is put into the target dictionary when its key is first mapped.
+ * Not thread-safe, use one mapping per thread.
+ */
+public final class KeyMapping {
+
+    private static final KeyMapping IDENTITY = new KeyMapping(null, null);
+
+    private final Dictionary source;
+
+    private final Dictionary target;
+
+    // source key -> target key, 0 if not mapped yet
+    private int[] keys = new int[0];
+
+    public KeyMapping(Dictionary source, Dictionary target) {
+        this.source = source;
+        this.target = target;
+    }
+
+    /**
+     * @return mapping that keeps every key, for keys that are valid in the target dictionary already
+     */
+    public static KeyMapping identity() {
+        return IDENTITY;
+    }
+
+    /**
+     * @param key key of the source dictionary
+     * @return key of the same term in the target dictionary
+     */
+    public int map(int key) {
+        if (source == target) {
+            return key;
+        }
+        if (key >= keys.length) {
+            keys = Arrays.copyOf(keys, Math.max(key + 1, keys.length * 2));
+        }
+        int mapped = keys[key];
+        if (mapped == 0) {
+            mapped = keys[key] = target.put(source.get(key));
+        }
+        return mapped;
+    }
+}
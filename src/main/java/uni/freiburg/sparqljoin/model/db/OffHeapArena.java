@@ -0,0 +1,78 @@
+package uni.freiburg.sparqljoin.model.db;
+
+import uni.freiburg.sparqljoin.util.OffHeapMemory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Owner of off-heap table columns. Closing the arena releases the memory of all its columns at once,
+ * e.g. the intermediate results of a join pipeline. Tables of a closed arena must not be used anymore.
+ * Columns can be allocated by several threads.
+ */
+public final class OffHeapArena implements AutoCloseable {
+
+    private final Set<Column> columns = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private long allocated;
+
+    private boolean closed;
+
+    /**
+     * Allocate the memory of a column
+     *
+     * @param column column the memory is allocated for, released when the arena is closed
+     * @param bytes  size of the memory
+     * @return zeroed direct buffer
+     * @throws IllegalStateException if the arena is closed or the off-heap limit would be exceeded
+     */
+    synchronized ByteBuffer allocate(Column column, long bytes) {
+        if (closed) {
+            throw new IllegalStateException("Arena is closed");
+        }
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Column of " + bytes + " bytes is too large");
+        }
+        ByteBuffer memory = OffHeapMemory.allocate((int) bytes);
+        allocated += bytes;
+        columns.add(column);
+        return memory;
+    }
+
+    /**
+     * Free memory of a column
+     *
+     * @param column   column the memory was allocated for
+     * @param memory   memory to free
+     * @param released true if the column doesn't have other memory of the arena anymore
+     */
+    synchronized void free(Column column, ByteBuffer memory, boolean released) {
+        allocated -= memory.capacity();
+        OffHeapMemory.free(memory);
+        if (released) {
+            columns.remove(column);
+        }
+    }
+
+    /**
+     * @return bytes allocated by the columns of the arena
+     */
+    public synchronized long allocated() {
+        return allocated;
+    }
+
+    /**
+     * Release the memory of all columns of the arena
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        for (Column column : new ArrayList<>(columns)) {
+            column.release();
+        }
+        columns.clear();
+    }
+}
@@ -0,0 +1,284 @@
+package uni.freiburg.sparqljoin.model.db;
+
+/**
+ * Read-only int column compressed in blocks of BLOCK_SIZE values. Every block has a header with the minimum and
+ * maximum value and the bit width of its packed values. A non-decreasing column packs the deltas between neighbouring
+ * values, any other column the differences to the block minimum (frame of reference).
+ * Scans decode a block at a time and skip the blocks whose values can't match.
+ */
+public final class PackedColumn {
+
+    public static final int BLOCK_SIZE = 128;
+
+    private final int size;
+
+    // true if the column is non-decreasing and packs deltas
+    private final boolean deltas;
+
+    private final int[] mins;
+
+    private final int[] maxs;
+
+    private final byte[] widths;
+
+    // first word of every block, blocks start at word boundaries
+    private final int[] offsets;
+
+    private final long[] words;
+
+    private PackedColumn(int size, boolean deltas, int[] mins, int[] maxs, byte[] widths, int[] offsets, long[] words) {
+        this.size = size;
+        this.deltas = deltas;
+        this.mins = mins;
+        this.maxs = maxs;
+        this.widths = widths;
+        this.offsets = offsets;
+        this.words = words;
+    }
+
+    /**
+     * Compress values
+     *
+     * @param values values to compress, not changed
+     * @param size   number of values
+     * @return compressed column
+     */
+    public static PackedColumn of(int[] values, int size) {
+        boolean deltas = true;
+        for (int i = 1; i < size && deltas; i++) {
+            deltas = values[i - 1] <= values[i];
+        }
+        int blocks = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        int[] mins = new int[blocks];
+        int[] maxs = new int[blocks];
+        byte[] widths = new byte[blocks];
+        int[] offsets = new int[blocks];
+        long[] packed = new long[BLOCK_SIZE];
+        long[] words = new long[16];
+        int numWords = 0;
+        for (int block = 0; block < blocks; block++) {
+            int from = block * BLOCK_SIZE;
+            int count = Math.min(BLOCK_SIZE, size - from);
+            int min = values[from];
+            int max = values[from];
+            for (int i = from + 1; i < from + count; i++) {
+                min = Math.min(min, values[i]);
+                max = Math.max(max, values[i]);
+            }
+            // unsigned 32 bit differences, they are added back with int arithmetic
+            long widest = 0;
+            for (int i = 0; i < count; i++) {
+                int base = !deltas ? min : i == 0 ? values[from] : values[from + i - 1];
+                packed[i] = (values[from + i] - base) & 0xFFFFFFFFL;
+                widest |= packed[i];
+            }
+            int width = Long.SIZE - Long.numberOfLeadingZeros(widest);
+            int blockWords = (count * width + Long.SIZE - 1) / Long.SIZE;
+            if (numWords + blockWords > words.length) {
+                long[] grown = new long[Math.max(numWords + blockWords, words.length * 2)];
+                System.arraycopy(words, 0, grown, 0, numWords);
+                words = grown;
+            }
+            for (int i = 0; i < count && width > 0; i++) {
+                long bit = (long) numWords * Long.SIZE + (long) i * width;
+                int word = (int) (bit >>> 6);
+                int shift = (int) (bit & 63);
+                words[word] |= packed[i] << shift;
+                if (shift + width > Long.SIZE) {
+                    words[word + 1] |= packed[i] >>> (Long.SIZE - shift);
+                }
+            }
+            mins[block] = min;
+            maxs[block] = max;
+            widths[block] = (byte) width;
+            offsets[block] = numWords;
+            numWords += blockWords;
+        }
+        long[] trimmed = new long[numWords];
+        System.arraycopy(words, 0, trimmed, 0, numWords);
+        return new PackedColumn(size, deltas, mins, maxs, widths, offsets, trimmed);
+    }
+
+    /**
+     * @return number of values
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return true if the column is non-decreasing
+     */
+    public boolean isSorted() {
+        return deltas;
+    }
+
+    /**
+     * @return number of blocks
+     */
+    public int blocks() {
+        return mins.length;
+    }
+
+    public int blockMin(int block) {
+        return mins[block];
+    }
+
+    public int blockMax(int block) {
+        return maxs[block];
+    }
+
+    /**
+     * Decode the values of a block
+     *
+     * @param block block to decode
+     * @param out   receives the values, at least BLOCK_SIZE long
+     * @return number of values of the block
+     */
+    public int decode(int block, int[] out) {
+        int count = Math.min(BLOCK_SIZE, size - block * BLOCK_SIZE);
+        int width = widths[block];
+        long bit = (long) offsets[block] * Long.SIZE;
+        int value = mins[block];
+        for (int i = 0; i < count; i++, bit += width) {
+            int packed = read(bit, width);
+            if (deltas) {
+                value += packed;
+                out[i] = value;
+            } else {
+                out[i] = mins[block] + packed;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Get a single value. A sorted column decodes the block up to the value, prefer decode() for scans.
+     *
+     * @param index index of the value
+     * @return value
+     */
+    public int get(int index) {
+        int block = index / BLOCK_SIZE;
+        int position = index % BLOCK_SIZE;
+        int width = widths[block];
+        long bit = (long) offsets[block] * Long.SIZE;
+        if (!deltas) {
+            return mins[block] + read(bit + (long) position * width, width);
+        }
+        int value = mins[block];
+        for (int i = 0; i <= position; i++, bit += width) {
+            value += read(bit, width);
+        }
+        return value;
+    }
+
+    /**
+     * Find the first block that may contain a value of at least the key, the blocks before only hold smaller values
+     *
+     * @param key       value to look for
+     * @param fromBlock first block to consider
+     * @return block index, blocks() if all values from fromBlock on are smaller
+     * @throws IllegalStateException if the column isn't sorted
+     */
+    public int seekBlock(int key, int fromBlock) {
+        if (!deltas) {
+            throw new IllegalStateException("Only sorted columns can be searched");
+        }
+        int low = fromBlock;
+        int high = blocks();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (maxs[middle] < key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Find the first index of a non-decreasing range of values with a value of at least the key
+     *
+     * @param key  value to look for
+     * @param from first index of the range
+     * @param to   index after the range
+     * @return index in [from, to], to if all values of the range are smaller
+     */
+    public int lowerBound(int key, int from, int to) {
+        return search(key, from, to, false);
+    }
+
+    /**
+     * Find the first index of a non-decreasing range of values with a value larger than the key
+     *
+     * @param key  value to look for
+     * @param from first index of the range
+     * @param to   index after the range
+     * @return index in [from, to], to if no value of the range is larger
+     */
+    public int upperBound(int key, int from, int to) {
+        return search(key, from, to, true);
+    }
+
+    /**
+     * @return bytes used by the packed values and the block headers
+     */
+    public long bytes() {
+        return (long) words.length * Long.BYTES + (long) blocks() * (3 * Integer.BYTES + 1);
+    }
+
+    private int search(int key, int from, int to, boolean larger) {
+        if (from >= to) {
+            return from;
+        }
+        if (deltas) {
+            // the block maxima find the block, only this block is decoded
+            int low = from / BLOCK_SIZE;
+            int high = (to - 1) / BLOCK_SIZE;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (larger ? maxs[middle] <= key : maxs[middle] < key) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            int[] values = new int[BLOCK_SIZE];
+            int count = decode(low, values);
+            int start = low * BLOCK_SIZE;
+            int index = Math.max(from - start, 0);
+            int end = Math.min(to - start, count);
+            while (index < end && (larger ? values[index] <= key : values[index] < key)) {
+                index++;
+            }
+            return start + index;
+        }
+        int low = from;
+        int high = to;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            int value = get(middle);
+            if (larger ? value <= key : value < key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private int read(long bit, int width) {
+        if (width == 0) {
+            return 0;
+        }
+        int word = (int) (bit >>> 6);
+        int shift = (int) (bit & 63);
+        long value = words[word] >>> shift;
+        if (shift + width > Long.SIZE) {
+            value |= words[word + 1] << (Long.SIZE - shift);
+        }
+        return (int) (value & ((1L << width) - 1));
+    }
+}
@@ -0,0 +1,131 @@
+package uni.freiburg.sparqljoin.model.db;
+
+import lombok.Builder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Statistics of the table of one property, collected when the table is loaded
+ *
+ * @param property         property name
+ * @param triples          number of triples
+ * @param distinctSubjects number of distinct subjects
+ * @param distinctObjects  number of distinct objects, objects of different DataTypes are distinct
+ * @param topSubjects      most frequent subjects, most frequent first
+ * @param topObjects       most frequent objects, most frequent first
+ * @param objectTypes      DataTypes of the objects that occur
+ */
+@Builder
+public record PropertyStatistics(String property, int triples, int distinctSubjects, int distinctObjects,
+                                 List<KeyFrequency> topSubjects, List<KeyFrequency> topObjects, Set<DataType> objectTypes) {
+
+    public static final int DEFAULT_TOP_KEYS = 10;
+
+    private static final DataType[] TYPES = DataType.values();
+
+    /**
+     * Join key with the number of triples it occurs in
+     *
+     * @param key       subject or object key
+     * @param type      DataType of the key, subjects are OBJECT
+     * @param frequency number of triples with the key
+     */
+    public record KeyFrequency(int key, DataType type, int frequency) {
+    }
+
+    /**
+     * Collect the statistics of a table
+     *
+     * @param table   table to collect the statistics of
+     * @param topKeys number of most frequent subjects and objects to keep
+     * @return statistics of the table
+     */
+    public static PropertyStatistics of(SimpleTable table, int topKeys) {
+        int triples = table.size();
+        // subjects and typed objects are sorted, so equal keys form runs
+        long[] subjects = new long[triples];
+        long[] objects = new long[triples];
+        EnumSet<DataType> objectTypes = EnumSet.noneOf(DataType.class);
+        SimpleTable.Cursor cursor = table.cursor();
+        while (cursor.next()) {
+            subjects[cursor.row()] = typedKey(DataType.OBJECT, cursor.subject());
+            objects[cursor.row()] = typedKey(cursor.type(), cursor.object());
+            objectTypes.add(cursor.type());
+        }
+        List<KeyFrequency> topSubjects = new ArrayList<>();
+        List<KeyFrequency> topObjects = new ArrayList<>();
+        return PropertyStatistics.builder()
+                .property(table.getProperty())
+                .triples(triples)
+                .distinctSubjects(countRuns(subjects, topKeys, topSubjects))
+                .distinctObjects(countRuns(objects, topKeys, topObjects))
+                .topSubjects(List.copyOf(topSubjects))
+                .topObjects(List.copyOf(topObjects))
+                .objectTypes(Set.copyOf(objectTypes))
+                .build();
+    }
+
+    /**
+     * @return average number of triples per subject, 0 for an empty table
+     */
+    public double subjectFanout() {
+        return distinctSubjects == 0 ? 0 : (double) triples / distinctSubjects;
+    }
+
+    /**
+     * @return average number of triples per object, 0 for an empty table
+     */
+    public double objectFanout() {
+        return distinctObjects == 0 ? 0 : (double) triples / distinctObjects;
+    }
+
+    private static long typedKey(DataType type, int key) {
+        return ((long) type.ordinal() << Integer.SIZE) | (key & 0xffffffffL);
+    }
+
+    /**
+     * Sort the keys and count the distinct ones
+     *
+     * @param keys    typed keys, sorted in place
+     * @param topKeys number of most frequent keys to keep
+     * @param top     receives the most frequent keys, most frequent first
+     * @return number of distinct keys
+     */
+    private static int countRuns(long[] keys, int topKeys, List<KeyFrequency> top) {
+        Arrays.sort(keys);
+        // min-heap of the most frequent runs, ties keep the smaller key
+        Comparator<long[]> byFrequency = Comparator.<long[]>comparingLong(run -> run[1])
+                .thenComparing(run -> run[0], Comparator.reverseOrder());
+        PriorityQueue<long[]> heap = new PriorityQueue<>(byFrequency);
+        int distinct = 0;
+        for (int start = 0, end; start < keys.length; start = end) {
+            end = start + 1;
+            while (end < keys.length && keys[end] == keys[start]) {
+                end++;
+            }
+            distinct++;
+            if (topKeys <= 0) {
+                continue;
+            }
+            long[] run = {keys[start], end - start};
+            if (heap.size() < topKeys) {
+                heap.add(run);
+            } else if (byFrequency.compare(run, heap.peek()) > 0) {
+                heap.poll();
+                heap.add(run);
+            }
+        }
+        List<long[]> runs = new ArrayList<>(heap);
+        runs.sort(byFrequency.reversed());
+        for (long[] run : runs) {
+            top.add(new KeyFrequency((int) run[0], TYPES[(int) (run[0] >>> Integer.SIZE)], (int) run[1]));
+        }
+        return distinct;
+    }
+}
@@ -0,0 +1,69 @@
+package uni.freiburg.sparqljoin.model.db;
+
+/**
+ * Rows of property items the join algorithms read their join keys from.
+ * Every property of the property dictionary has a slot, slot = property key - 1, and a row has at most one item per slot.
+ */
+public interface Relation {
+
+    Dictionary getPropertyDictionary();
+
+    /**
+     * @return number of rows
+     */
+    int size();
+
+    /**
+     * @return number of property slots of a row
+     */
+    int width();
+
+    /**
+     * @param property property key of the property dictionary
+     * @return slot of the property
+     * @throws IllegalArgumentException if the property is not in the schema
+     */
+    default int slot(int property) {
+        if (property < 1 || property > width()) {
+            throw new IllegalArgumentException("Property " + property + " is not in the schema of the table");
+        }
+        return property - 1;
+    }
+
+    /**
+     * @param slot slot of a property
+     * @return property key of the property dictionary
+     */
+    default int property(int slot) {
+        return slot + 1;
+    }
+
+    /**
+     * Get the rows in the order of the subjects of a slot, if the relation keeps them in that order
+     *
+     * @param slot slot of a property
+     * @return rows with an item of the slot ordered by subject, null if they have to be sorted. Must not be changed
+     */
+    default int[] rowsBySubject(int slot) {
+        return null;
+    }
+
+    /**
+     * Get the rows in the order of the objects of a slot, if the relation keeps them in that order
+     *
+     * @param slot slot of a property
+     * @return rows with an item of the slot ordered by object, null if they have to be sorted. Must not be changed
+     */
+    default int[] rowsByObject(int slot) {
+        return null;
+    }
+
+    /**
+     * @return false if the row has no item of the property
+     */
+    boolean has(int row, int slot);
+
+    int subject(int row, int slot);
+
+    int object(int row, int slot);
+}
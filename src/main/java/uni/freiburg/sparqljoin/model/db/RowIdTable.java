@@ -0,0 +1,251 @@
+package uni.freiburg.sparqljoin.model.db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Join result of late materialization: instead of items, a row holds per property slot the row id of the item
+ * in the SimpleTable of the property. Joins read their keys through the row ids and only pass row ids on,
+ * subjects, objects and types are gathered once by materialize() for the properties the result needs.
+ * Every row has an item of every property, as the rows come from inner joins.
+ */
+public class RowIdTable implements Relation {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final Dictionary propertyDictionary;
+
+    // per slot: base table of the property and row id of every row
+    private final SimpleTable[] tables;
+
+    private final int[][] rowIds;
+
+    private int capacity;
+
+    private int size;
+
+    // true while row i refers to row i of the single base table
+    private boolean scan;
+
+    /**
+     * @param propertyDictionary properties of the table, the schema is fixed to the properties it contains now
+     * @param tables             base table of every slot
+     * @param capacity           number of rows to allocate
+     */
+    public RowIdTable(Dictionary propertyDictionary, SimpleTable[] tables, int capacity) {
+        if (tables.length != propertyDictionary.keyLimit() - 1) {
+            throw new IllegalArgumentException("Every property needs a base table");
+        }
+        this.propertyDictionary = propertyDictionary;
+        this.tables = tables;
+        this.capacity = Math.max(capacity, 1);
+        this.rowIds = new int[tables.length][this.capacity];
+    }
+
+    public RowIdTable(Dictionary propertyDictionary, SimpleTable[] tables) {
+        this(propertyDictionary, tables, INITIAL_CAPACITY);
+    }
+
+    /**
+     * Scan of a base table, row i refers to row i of the table
+     *
+     * @param table base table
+     * @return single property table with all rows of the base table
+     */
+    public static RowIdTable of(SimpleTable table) {
+        Dictionary propertyDictionary = new Dictionary();
+        propertyDictionary.put(table.getProperty());
+        RowIdTable rowIdTable = new RowIdTable(propertyDictionary, new SimpleTable[]{table}, table.size());
+        for (int row = 0; row < table.size(); row++) {
+            rowIdTable.rowIds[0][row] = row;
+        }
+        rowIdTable.size = table.size();
+        rowIdTable.scan = true;
+        return rowIdTable;
+    }
+
+    @Override
+    public Dictionary getPropertyDictionary() {
+        return propertyDictionary;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int width() {
+        return tables.length;
+    }
+
+    /**
+     * @param slot slot of a property
+     * @return base table of the property
+     */
+    public SimpleTable table(int slot) {
+        return tables[slot];
+    }
+
+    /**
+     * @return row id of the item in the base table of the slot
+     */
+    public int rowId(int row, int slot) {
+        return rowIds[slot][row];
+    }
+
+    /**
+     * A scan of a base table is ordered by the SO permutation of the table, if the table has one
+     */
+    @Override
+    public int[] rowsBySubject(int slot) {
+        return scan ? presorted(tables[0].subjectObjectRows()) : null;
+    }
+
+    /**
+     * A scan of a base table is ordered by the OS permutation of the table, if the table has one
+     */
+    @Override
+    public int[] rowsByObject(int slot) {
+        return scan ? presorted(tables[0].objectSubjectRows()) : null;
+    }
+
+    @Override
+    public boolean has(int row, int slot) {
+        return true;
+    }
+
+    @Override
+    public int subject(int row, int slot) {
+        return tables[slot].subject(rowIds[slot][row]);
+    }
+
+    @Override
+    public int object(int row, int slot) {
+        return tables[slot].object(rowIds[slot][row]);
+    }
+
+    public DataType type(int row, int slot) {
+        return tables[slot].type(rowIds[slot][row]);
+    }
+
+    /**
+     * Append a row combining a row of R and a row of S.
+     * R has the first slots of this table, the slots of S are mapped. If R and S have a slot in common, the row id of S is kept.
+     *
+     * @param R      R relation table
+     * @param rowR   row of R
+     * @param S      S relation table
+     * @param rowS   row of S
+     * @param slotsS slot of this table for every slot of S
+     */
+    public void insertJoined(RowIdTable R, int rowR, RowIdTable S, int rowS, int[] slotsS) {
+        if (size == capacity) {
+            grow(size + 1);
+        }
+        scan = false;
+        for (int slot = 0; slot < R.width(); slot++) {
+            rowIds[slot][size] = R.rowIds[slot][rowR];
+        }
+        for (int slot = 0; slot < S.width(); slot++) {
+            rowIds[slotsS[slot]][size] = S.rowIds[slot][rowS];
+        }
+        size++;
+    }
+
+    /**
+     * Append all rows of a table with the same schema
+     *
+     * @param otherTable table to append
+     */
+    public void insertAll(RowIdTable otherTable) {
+        if (otherTable.width() != width()) {
+            throw new IllegalArgumentException("Tables have different schemas");
+        }
+        if (size + otherTable.size > capacity) {
+            grow(size + otherTable.size);
+        }
+        scan = false;
+        for (int slot = 0; slot < width(); slot++) {
+            System.arraycopy(otherTable.rowIds[slot], 0, rowIds[slot], size, otherTable.size);
+        }
+        size += otherTable.size;
+    }
+
+    /**
+     * Gather the items of all properties
+     *
+     * @return table with the items of every row
+     */
+    public ComplexTable materialize() {
+        List<String> properties = new ArrayList<>();
+        for (int slot = 0; slot < width(); slot++) {
+            properties.add(propertyDictionary.get(property(slot)));
+        }
+        return materialize(properties, null);
+    }
+
+    /**
+     * Gather the items of the given properties. STRING objects are put into a new object dictionary,
+     * unless all base tables share one global dictionary, whose keys are then kept.
+     *
+     * @param properties properties of the result, in this order
+     * @param arena      arena of the result, null to create it on the heap
+     * @return table with the items of the properties
+     * @throws IllegalArgumentException if a property is not in the schema
+     */
+    public ComplexTable materialize(List<String> properties, OffHeapArena arena) {
+        Dictionary outputPropertyDictionary = new Dictionary();
+        int[] slots = new int[properties.size()];
+        for (int i = 0; i < slots.length; i++) {
+            int key = propertyDictionary.getKey(properties.get(i));
+            if (key == Dictionary.NOT_FOUND) {
+                throw new IllegalArgumentException("Property '" + properties.get(i) + "' is not in the schema of the table");
+            }
+            slots[i] = slot(key);
+            outputPropertyDictionary.put(properties.get(i));
+        }
+        Dictionary sharedDictionary = tables[0].getObjectDictionary();
+        for (SimpleTable table : tables) {
+            if (table.getObjectDictionary() != sharedDictionary) {
+                sharedDictionary = null;
+                break;
+            }
+        }
+        Dictionary outputObjectDictionary = sharedDictionary != null ? sharedDictionary : new Dictionary();
+        IdentityHashMap<Dictionary, KeyMapping> mappings = new IdentityHashMap<>();
+        KeyMapping[] keys = new KeyMapping[slots.length];
+        for (int i = 0; i < slots.length; i++) {
+            keys[i] = mappings.computeIfAbsent(tables[slots[i]].getObjectDictionary(),
+                    dictionary -> new KeyMapping(dictionary, outputObjectDictionary));
+        }
+
+        ComplexTable output = new ComplexTable(outputPropertyDictionary, outputObjectDictionary, size, arena);
+        for (int row = 0; row < size; row++) {
+            int outputRow = output.addRow();
+            for (int i = 0; i < slots.length; i++) {
+                SimpleTable table = tables[slots[i]];
+                int rowId = rowIds[slots[i]][row];
+                DataType type = table.type(rowId);
+                int object = type == DataType.STRING ? keys[i].map(table.object(rowId)) : table.object(rowId);
+                output.set(outputRow, i, table.subject(rowId), object, type);
+            }
+        }
+        return output;
+    }
+
+    // rows inserted into the base table since the scan are not part of it
+    private int[] presorted(int[] rows) {
+        return rows != null && rows.length == size ? rows : null;
+    }
+
+    private void grow(int minCapacity) {
+        // grow by half like ArrayList
+        capacity = Math.max(minCapacity, capacity + (capacity >> 1) + 1);
+        for (int slot = 0; slot < width(); slot++) {
+            rowIds[slot] = Arrays.copyOf(rowIds[slot], capacity);
+        }
+    }
+}
@@ -1,79 +1,403 @@
 package uni.freiburg.sparqljoin.model.db;
 
-import uni.freiburg.sparqljoin.model.join.JoinedItems;
-
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.stream.Collectors;
 
 /**
- * Table that holds single property with simple Integer subject-object property values
+ * Table that holds single property with simple Integer subject-object property values.
+ * Rows are stored column-wise: subjects and objects in int columns, DataType ordinals + 1 in a byte column,
+ * the encoding of a ComplexTable slot, so asComplex() can share the columns.
+ * Columns are on the heap or in the direct memory of an OffHeapArena.
+ * Use a Cursor or the row accessors to scan the table without allocating.
+ * The SO and OS permutations keep the rows ordered by (subject, object) and (object, subject), so merge joins
+ * don't sort the table. They are built on request, kept on the heap and dropped when rows are inserted.
  */
 public class SimpleTable {
 
-    private final String property;
+    private static final DataType[] TYPES = DataType.values();
 
-    private final PropertyValues<Item> items;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final String property;
 
     private final Dictionary objectDictionary;
 
+    private final IntColumn subjects;
+
+    private final IntColumn objects;
+
+    private final ByteColumn types;
+
+    private int size;
+
+    // term of the OBJECT subjects and objects without their key digits, e.g. wsdbm:User for wsdbm:User24,
+    // null if unknown. The keys of a property are entities of one class per position
+    private String subjectClass;
+
+    private String objectClass;
+
+    // rows ordered by (subject, object) and by (object, subject), null if not built
+    private int[] subjectObjectRows;
+
+    private int[] objectSubjectRows;
+
     public SimpleTable(String property) {
-        this.property = property;
-        this.items = new PropertyValues<>();
-        this.objectDictionary = new Dictionary();
+        this(property, new Dictionary());
     }
 
     public SimpleTable(String property, Dictionary objectDictionary) {
+        this(property, objectDictionary, null);
+    }
+
+    /**
+     * @param property         property name
+     * @param objectDictionary dictionary of the STRING objects
+     * @param arena            arena of the columns, null to store them on the heap
+     */
+    public SimpleTable(String property, Dictionary objectDictionary, OffHeapArena arena) {
         this.property = property;
         this.objectDictionary = objectDictionary;
-        this.items = new PropertyValues<>();
+        this.subjects = new IntColumn(INITIAL_CAPACITY, arena);
+        this.objects = new IntColumn(INITIAL_CAPACITY, arena);
+        this.types = new ByteColumn(INITIAL_CAPACITY, arena);
     }
 
-    public SimpleTable(String property, Dictionary objectDictionary, PropertyValues<Item> items) {
+    /**
+     * Table over existing memory, e.g. the mapped section of a snapshot, the memory is not copied.
+     * The columns are read-only until rows are inserted, they are copied to the heap then.
+     *
+     * @param property         property name
+     * @param objectDictionary dictionary of the STRING objects
+     * @param subjects         subject column in native byte order
+     * @param objects          object column in native byte order
+     * @param types            DataType ordinals + 1 of the objects
+     * @param size             number of rows, the capacity of the columns
+     */
+    public SimpleTable(String property, Dictionary objectDictionary, ByteBuffer subjects, ByteBuffer objects, ByteBuffer types,
+                       int size) {
         this.property = property;
         this.objectDictionary = objectDictionary;
-        this.items = items;
+        this.subjects = new IntColumn(subjects.order(ByteOrder.nativeOrder()));
+        this.objects = new IntColumn(objects.order(ByteOrder.nativeOrder()));
+        this.types = new ByteColumn(types);
+        this.size = size;
+    }
+
+    private SimpleTable(SimpleTable table, Dictionary objectDictionary) {
+        this.property = table.property;
+        this.objectDictionary = objectDictionary;
+        this.subjects = table.subjects;
+        this.objects = table.objects;
+        this.types = table.types;
+        this.size = table.size;
+        this.subjectClass = table.subjectClass;
+        this.objectClass = table.objectClass;
+        this.subjectObjectRows = table.subjectObjectRows;
+        this.objectSubjectRows = table.objectSubjectRows;
+    }
+
+    /**
+     * Move the rows to a table with another object dictionary with the same keys, e.g. a frozen concurrent dictionary.
+     * The columns are not copied, this table must not be used afterwards.
+     *
+     * @param objectDictionary dictionary of the STRING objects, with the keys of the current one
+     * @return table with the rows of this table
+     */
+    public SimpleTable withObjectDictionary(Dictionary objectDictionary) {
+        return new SimpleTable(this, objectDictionary);
     }
 
     public String getProperty() {
         return property;
     }
 
+    /**
+     * @return entity class of the subjects, e.g. wsdbm:User for wsdbm:User24, null if unknown
+     */
+    public String getSubjectClass() {
+        return subjectClass;
+    }
+
+    public void setSubjectClass(String subjectClass) {
+        this.subjectClass = subjectClass;
+    }
+
+    /**
+     * @return entity class of the OBJECT objects, e.g. wsdbm:Product for wsdbm:Product24, null if unknown
+     */
+    public String getObjectClass() {
+        return objectClass;
+    }
+
+    public void setObjectClass(String objectClass) {
+        this.objectClass = objectClass;
+    }
+
     /**
      * Save value
      *
      * @param item to save
      */
     public void insert(Item item) {
-        this.items.put(item);
+        insert(item.subject(), item.object(), item.type());
+    }
+
+    /**
+     * Save value
+     *
+     * @param subject subject key
+     * @param object  object key
+     * @param type    type of the data that object represents
+     */
+    public void insert(int subject, int object, DataType type) {
+        if (size == subjects.capacity()) {
+            grow(size + 1);
+        }
+        if (subjectObjectRows != null) {
+            dropPermutations();
+        }
+        subjects.set(size, subject);
+        objects.set(size, object);
+        types.set(size, (byte) (type.ordinal() + 1));
+        size++;
     }
 
     /**
-     * Get all values in the table
+     * Append all rows of another table, keys are copied as they are
      *
-     * @return List of values
+     * @param other table with the same object dictionary
+     */
+    public void insertAll(SimpleTable other) {
+        if (size + other.size > subjects.capacity()) {
+            grow(size + other.size);
+        }
+        dropPermutations();
+        IntColumn.copy(other.subjects, 0, subjects, size, other.size);
+        IntColumn.copy(other.objects, 0, objects, size, other.size);
+        ByteColumn.copy(other.types, 0, types, size, other.size);
+        size += other.size;
+    }
+
+    /**
+     * @return number of rows
+     */
+    public int size() {
+        return size;
+    }
+
+    public int subject(int row) {
+        return subjects.get(row);
+    }
+
+    public int object(int row) {
+        return objects.get(row);
+    }
+
+    public DataType type(int row) {
+        return TYPES[types.get(row) - 1];
+    }
+
+    /**
+     * @return cursor before the first row
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Get all values in the table. Items are created when they are read, prefer the Cursor for scans.
+     *
+     * @return read-only List view of the values
      */
     public List<Item> list() {
-        return this.items.getValues();
+        return new AbstractList<>() {
+            @Override
+            public Item get(int row) {
+                if (row >= size) {
+                    throw new IndexOutOfBoundsException(row);
+                }
+                return new Item(subject(row), object(row), type(row));
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
     }
 
     public Dictionary getObjectDictionary() {
         return objectDictionary;
     }
 
+    /**
+     * Build the SO and OS permutations of the rows, unless they are built already
+     */
+    public void buildPermutations() {
+        if (subjectObjectRows != null) {
+            return;
+        }
+        // sorting by the second field and then stable by the first one orders by both fields
+        subjectObjectRows = order(subjects, order(objects, null));
+        objectSubjectRows = order(objects, order(subjects, null));
+    }
+
+    /**
+     * @return rows ordered by subject and then by object, null if the permutations are not built. Must not be changed
+     */
+    public int[] subjectObjectRows() {
+        return subjectObjectRows;
+    }
+
+    /**
+     * @return rows ordered by object and then by subject, null if the permutations are not built. Must not be changed
+     */
+    public int[] objectSubjectRows() {
+        return objectSubjectRows;
+    }
+
+    /**
+     * Release the unused capacity of the columns
+     */
+    public void trimToSize() {
+        if (size < subjects.capacity()) {
+            subjects.resize(size);
+            objects.resize(size);
+            types.resize(size);
+        }
+    }
+
+    /**
+     * Free the columns, the table must not be used afterwards
+     */
+    public void release() {
+        dropPermutations();
+        subjects.release();
+        objects.release();
+        types.release();
+        size = 0;
+    }
+
     /**
      * Transform simple table to complex one
      *
      * @return ComplexTable
      */
     public ComplexTable toComplex() {
+        return toComplex(null);
+    }
+
+    /**
+     * Transform simple table to complex one
+     *
+     * @param arena arena of the complex table, null to store it on the heap
+     * @return ComplexTable
+     */
+    public ComplexTable toComplex(OffHeapArena arena) {
         Dictionary propertyDictionary = new Dictionary();
-        Integer propertyInteger = propertyDictionary.put(getProperty());
-        List<JoinedItems> values = list().stream().map((item) -> {
-            HashMap<Integer, Item> itemMap = new HashMap<>();
-            itemMap.put(propertyInteger, item);
-            return new JoinedItems(item.subject(), itemMap);
-        }).collect(Collectors.toList());
-        return new ComplexTable(propertyDictionary, getObjectDictionary(), new PropertyValues<>(values));
+        propertyDictionary.put(getProperty());
+        ComplexTable complexTable = new ComplexTable(propertyDictionary, getObjectDictionary(), size, arena);
+        for (int row = 0; row < size; row++) {
+            complexTable.set(complexTable.addRow(), 0, subject(row), object(row), type(row));
+        }
+        return complexTable;
+    }
+
+    /**
+     * Read-only ComplexTable view of this table, the columns are shared instead of copied.
+     * Rows inserted into this table afterwards are not part of the view.
+     *
+     * @return ComplexTable with the rows of this table, valid as long as this table is not released
+     */
+    public ComplexTable asComplex() {
+        Dictionary propertyDictionary = new Dictionary();
+        propertyDictionary.put(getProperty());
+        return new ComplexTable(propertyDictionary, this, subjects, objects, types, size);
+    }
+
+    /**
+     * Transform simple table to a row id table for late materialization, the items stay in this table
+     *
+     * @return RowIdTable referring to every row of this table
+     */
+    public RowIdTable toRowIds() {
+        return RowIdTable.of(this);
+    }
+
+    /**
+     * Stable sort of rows by the values of a column
+     *
+     * @param column        column to sort by
+     * @param previousOrder order of the rows with equal values, null for the row order
+     * @return ordered rows
+     */
+    private int[] order(IntColumn column, int[] previousOrder) {
+        // value in the high, position in the previous order in the low half, so ties keep the previous order
+        long[] keyedRows = new long[size];
+        for (int i = 0; i < size; i++) {
+            int row = previousOrder == null ? i : previousOrder[i];
+            keyedRows[i] = ((long) column.get(row) << Integer.SIZE) | i;
+        }
+        Arrays.sort(keyedRows);
+        int[] rows = new int[size];
+        for (int i = 0; i < size; i++) {
+            int position = (int) keyedRows[i];
+            rows[i] = previousOrder == null ? position : previousOrder[position];
+        }
+        return rows;
+    }
+
+    private void dropPermutations() {
+        subjectObjectRows = null;
+        objectSubjectRows = null;
+    }
+
+    private void grow(int minCapacity) {
+        // grow by half like ArrayList
+        int capacity = Math.max(minCapacity, subjects.capacity() + (subjects.capacity() >> 1) + 1);
+        subjects.resize(capacity);
+        objects.resize(capacity);
+        types.resize(capacity);
+    }
+
+    /**
+     * Forward-only cursor over the rows, reads the columns without allocating.
+     * Rows inserted while scanning are visited as well.
+     */
+    public final class Cursor {
+
+        private int row = -1;
+
+        /**
+         * Move to the next row
+         *
+         * @return false if there are no more rows
+         */
+        public boolean next() {
+            if (row + 1 >= size) {
+                return false;
+            }
+            row++;
+            return true;
+        }
+
+        public int row() {
+            return row;
+        }
+
+        public int subject() {
+            return subjects.get(row);
+        }
+
+        public int object() {
+            return objects.get(row);
+        }
+
+        public DataType type() {
+            return TYPES[types.get(row) - 1];
+        }
     }
 }
@@ -0,0 +1,406 @@
+package uni.freiburg.sparqljoin.model.db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Clustered index of all triples in the six orders of subject, property and object (SPO, SOP, PSO, POS, OSP, OPS),
+ * like the permutations of RDF-3X. The vertically partitioned tables need a scan of every table for a pattern
+ * with an unbound property, the triple store answers any mix of bound and unbound positions with one range
+ * of the order that has the bound positions first.
+ * <p>
+ * Every order keeps its triples in three PackedColumns, the leading one packs deltas. Properties are keys of the
+ * property dictionary of the store. The keys of OBJECT terms are the digits of the entity only, e.g. 24 for both
+ * wsdbm:User24 and wsdbm:Product24, so subjects and objects are stored as ids of the entity class too: the distinct
+ * (entity class, subject key) and (entity class, object key, DataType) terms are numbered from 1 in this order,
+ * like dictionary keys. Ids of one entity class are ordered like the keys the joins compare. Entity classes are the
+ * classes the tables recorded at load time, tables without them keep the keys as they are. STRING object keys are keys
+ * of the object dictionary of the store.
+ */
+public final class TripleStore {
+
+    // unbound position of a pattern
+    public static final int ANY = -1;
+
+    private static final int SUBJECT = 0;
+
+    private static final int PROPERTY = 1;
+
+    private static final int OBJECT = 2;
+
+    /**
+     * Order of the triple positions
+     */
+    public enum Order {
+        SPO(SUBJECT, PROPERTY, OBJECT),
+        SOP(SUBJECT, OBJECT, PROPERTY),
+        PSO(PROPERTY, SUBJECT, OBJECT),
+        POS(PROPERTY, OBJECT, SUBJECT),
+        OSP(OBJECT, SUBJECT, PROPERTY),
+        OPS(OBJECT, PROPERTY, SUBJECT);
+
+        private final int[] positions;
+
+        Order(int... positions) {
+            this.positions = positions;
+        }
+    }
+
+    private static final DataType[] TYPES = DataType.values();
+
+    private final Dictionary propertyDictionary;
+
+    private final Dictionary objectDictionary;
+
+    // entity classes of the subjects and OBJECT objects, class key Dictionary.NOT_FOUND if the class is unknown
+    private final Dictionary classDictionary;
+
+    // class key << 32 | subject key of every subject id, at subject id - 1
+    private final long[] subjectTerms;
+
+    // class key << 34 | object key << 2 | DataType ordinal of every object id, at object id - 1
+    private final long[] terms;
+
+    // per order: the columns of the positions in the order of the positions
+    private final PackedColumn[][] columns;
+
+    private final int size;
+
+    private TripleStore(Dictionary propertyDictionary, Dictionary objectDictionary, Dictionary classDictionary,
+                        long[] subjectTerms, long[] terms, PackedColumn[][] columns, int size) {
+        this.propertyDictionary = propertyDictionary;
+        this.objectDictionary = objectDictionary;
+        this.classDictionary = classDictionary;
+        this.subjectTerms = subjectTerms;
+        this.terms = terms;
+        this.columns = columns;
+        this.size = size;
+    }
+
+    /**
+     * Index the triples of tables
+     *
+     * @param tables tables with the triples, not changed
+     * @return triple store with all triples of the tables
+     */
+    public static TripleStore of(Collection<SimpleTable> tables) {
+        List<SimpleTable> sortedTables = new ArrayList<>(tables);
+        sortedTables.sort((a, b) -> a.getProperty().compareTo(b.getProperty()));
+        Dictionary propertyDictionary = new Dictionary();
+        Dictionary sharedDictionary = sortedTables.isEmpty() ? null : sortedTables.get(0).getObjectDictionary();
+        int size = 0;
+        for (SimpleTable table : sortedTables) {
+            propertyDictionary.put(table.getProperty());
+            if (table.getObjectDictionary() != sharedDictionary) {
+                sharedDictionary = null;
+            }
+            size += table.size();
+        }
+        // STRING keys of a global dictionary stay the same, otherwise they are mapped into a new dictionary
+        Dictionary objectDictionary = sharedDictionary != null ? sharedDictionary : new Dictionary();
+        IdentityHashMap<Dictionary, KeyMapping> mappings = new IdentityHashMap<>();
+        Dictionary classDictionary = new Dictionary();
+
+        int[][] triples = new int[3][size];
+        long[] tripleSubjectTerms = new long[size];
+        long[] objectTerms = new long[size];
+        int triple = 0;
+        for (SimpleTable table : sortedTables) {
+            int property = propertyDictionary.getKey(table.getProperty());
+            int subjectClass = classKey(classDictionary, table.getSubjectClass());
+            int objectClass = classKey(classDictionary, table.getObjectClass());
+            KeyMapping keys = mappings.computeIfAbsent(table.getObjectDictionary(),
+                    dictionary -> new KeyMapping(dictionary, objectDictionary));
+            SimpleTable.Cursor cursor = table.cursor();
+            while (cursor.next()) {
+                int object = cursor.type() == DataType.STRING ? keys.map(cursor.object()) : cursor.object();
+                triples[PROPERTY][triple] = property;
+                tripleSubjectTerms[triple] = subjectTerm(subjectClass, cursor.subject());
+                objectTerms[triple] = term(cursor.type() == DataType.OBJECT ? objectClass : Dictionary.NOT_FOUND, object, cursor.type());
+                triple++;
+            }
+        }
+        long[] subjectTerms = number(tripleSubjectTerms, triples[SUBJECT]);
+        long[] terms = number(objectTerms, triples[OBJECT]);
+
+        PackedColumn[][] columns = new PackedColumn[Order.values().length][];
+        int[] values = new int[size];
+        for (Order order : Order.values()) {
+            // sorting by the last position and then stable by the ones before orders by all positions
+            int[] triplesInOrder = null;
+            for (int i = order.positions.length - 1; i >= 0; i--) {
+                triplesInOrder = order(triples[order.positions[i]], triplesInOrder);
+            }
+            columns[order.ordinal()] = new PackedColumn[order.positions.length];
+            for (int i = 0; i < order.positions.length; i++) {
+                int[] positionValues = triples[order.positions[i]];
+                for (int j = 0; j < size; j++) {
+                    values[j] = positionValues[triplesInOrder[j]];
+                }
+                columns[order.ordinal()][i] = PackedColumn.of(values, size);
+            }
+        }
+        return new TripleStore(propertyDictionary, objectDictionary, classDictionary, subjectTerms, terms, columns, size);
+    }
+
+    public Dictionary getPropertyDictionary() {
+        return propertyDictionary;
+    }
+
+    public Dictionary getObjectDictionary() {
+        return objectDictionary;
+    }
+
+    /**
+     * @return dictionary of the entity classes of the subjects and OBJECT objects
+     */
+    public Dictionary getClassDictionary() {
+        return classDictionary;
+    }
+
+    /**
+     * @return number of triples
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return bytes used by the columns of all orders and the subject and object terms
+     */
+    public long bytes() {
+        long bytes = (long) (subjectTerms.length + terms.length) * Long.BYTES;
+        for (PackedColumn[] orderColumns : columns) {
+            for (PackedColumn column : orderColumns) {
+                bytes += column.bytes();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Get the subject id of a subject
+     *
+     * @param subject     subject key
+     * @param entityClass entity class of the subject, e.g. wsdbm:User, null if the tables don't know it
+     * @return subject id or Dictionary.NOT_FOUND if no triple has the subject
+     */
+    public int subjectId(int subject, String entityClass) {
+        int classKey = Dictionary.NOT_FOUND;
+        if (entityClass != null) {
+            classKey = classDictionary.getKey(entityClass);
+            if (classKey == Dictionary.NOT_FOUND) {
+                return Dictionary.NOT_FOUND;
+            }
+        }
+        int id = Arrays.binarySearch(subjectTerms, subjectTerm(classKey, subject));
+        return id >= 0 ? id + 1 : Dictionary.NOT_FOUND;
+    }
+
+    /**
+     * Get the object id of an object that is not an entity
+     *
+     * @param object object key, STRING keys of the object dictionary of the store
+     * @param type   type of the object
+     * @return object id or Dictionary.NOT_FOUND if no triple has the object
+     */
+    public int objectId(int object, DataType type) {
+        return objectId(object, type, null);
+    }
+
+    /**
+     * Get the object id of an object
+     *
+     * @param object      object key, STRING keys of the object dictionary of the store
+     * @param type        type of the object
+     * @param entityClass entity class of an OBJECT object, e.g. wsdbm:User, null if the tables don't know it
+     * @return object id or Dictionary.NOT_FOUND if no triple has the object
+     */
+    public int objectId(int object, DataType type, String entityClass) {
+        int classKey = Dictionary.NOT_FOUND;
+        if (entityClass != null && type == DataType.OBJECT) {
+            classKey = classDictionary.getKey(entityClass);
+            if (classKey == Dictionary.NOT_FOUND) {
+                return Dictionary.NOT_FOUND;
+            }
+        }
+        int id = Arrays.binarySearch(terms, term(classKey, object, type));
+        return id >= 0 ? id + 1 : Dictionary.NOT_FOUND;
+    }
+
+    /**
+     * Get the object id of a STRING object
+     *
+     * @param object object value
+     * @return object id or Dictionary.NOT_FOUND if no triple has the object
+     */
+    public int objectId(String object) {
+        int key = objectDictionary.getKey(object);
+        return key == Dictionary.NOT_FOUND ? Dictionary.NOT_FOUND : objectId(key, DataType.STRING);
+    }
+
+    /**
+     * Find the triples of a pattern. The range is ordered by the unbound positions, the subject comes first:
+     * SPO for a bound subject, SOP for a bound subject and object, PSO and POS for a bound property and OSP for a bound object
+     *
+     * @param subject  subject id or ANY
+     * @param property property key or ANY
+     * @param objectId object id or ANY
+     * @return triples matching the pattern
+     */
+    public Range match(int subject, int property, int objectId) {
+        boolean[] bound = {subject != ANY, property != ANY, objectId != ANY};
+        int[] keys = {subject, property, objectId};
+        Order order;
+        if (bound[SUBJECT]) {
+            order = bound[OBJECT] && !bound[PROPERTY] ? Order.SOP : Order.SPO;
+        } else if (bound[PROPERTY]) {
+            order = bound[OBJECT] ? Order.POS : Order.PSO;
+        } else {
+            order = bound[OBJECT] ? Order.OSP : Order.SPO;
+        }
+        PackedColumn[] orderColumns = columns[order.ordinal()];
+        int from = 0;
+        int to = size;
+        for (int i = 0; i < order.positions.length && bound[order.positions[i]]; i++) {
+            // the triples of the range are ordered by the next position
+            int key = keys[order.positions[i]];
+            int end = orderColumns[i].upperBound(key, from, to);
+            from = orderColumns[i].lowerBound(key, from, end);
+            to = end;
+        }
+        return new Range(order, from, to, property);
+    }
+
+    private static int classKey(Dictionary classDictionary, String entityClass) {
+        return entityClass == null ? Dictionary.NOT_FOUND : classDictionary.put(entityClass);
+    }
+
+    private static long subjectTerm(int classKey, int subject) {
+        return (long) classKey << Integer.SIZE | (subject & 0xffffffffL);
+    }
+
+    private static long term(int classKey, int object, DataType type) {
+        return (long) classKey << 34 | ((long) object << 2 & 0x3ffffffffL) | type.ordinal();
+    }
+
+    /**
+     * Number the distinct terms from 1 in their order
+     *
+     * @param tripleTerms term of every triple
+     * @param ids         filled with the id of the term of every triple
+     * @return distinct terms in order, the term of id at id - 1
+     */
+    private static long[] number(long[] tripleTerms, int[] ids) {
+        long[] terms = tripleTerms.clone();
+        Arrays.sort(terms);
+        int numTerms = 0;
+        for (int i = 0; i < terms.length; i++) {
+            if (i == 0 || terms[i] != terms[i - 1]) {
+                terms[numTerms++] = terms[i];
+            }
+        }
+        terms = Arrays.copyOf(terms, numTerms);
+        for (int i = 0; i < tripleTerms.length; i++) {
+            ids[i] = Arrays.binarySearch(terms, tripleTerms[i]) + 1;
+        }
+        return terms;
+    }
+
+    /**
+     * Stable sort of triples by the values of a position
+     *
+     * @param values        values of the position
+     * @param previousOrder order of the triples with equal values, null for the triple order
+     * @return ordered triples
+     */
+    private static int[] order(int[] values, int[] previousOrder) {
+        // value in the high, position in the previous order in the low half, so ties keep the previous order
+        long[] keyedTriples = new long[values.length];
+        for (int i = 0; i < values.length; i++) {
+            int triple = previousOrder == null ? i : previousOrder[i];
+            keyedTriples[i] = ((long) values[triple] << Integer.SIZE) | i;
+        }
+        Arrays.sort(keyedTriples);
+        int[] triples = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            int position = (int) keyedTriples[i];
+            triples[i] = previousOrder == null ? position : previousOrder[position];
+        }
+        return triples;
+    }
+
+    /**
+     * Consecutive triples of one order
+     */
+    public final class Range {
+
+        private final Order order;
+
+        private final int from;
+
+        private final int to;
+
+        // bound property or ANY
+        private final int property;
+
+        private Range(Order order, int from, int to, int property) {
+            this.order = order;
+            this.from = from;
+            this.to = to;
+            this.property = property;
+        }
+
+        public Order order() {
+            return order;
+        }
+
+        /**
+         * @return number of triples
+         */
+        public int size() {
+            return to - from;
+        }
+
+        /**
+         * Gather the triples into a table, in the order of the range, with the subject and object keys of the ids.
+         * Every row holds one item in the slot of its property, so the joins read the range like any other table
+         * and the merge join doesn't sort the rows again when it joins on the position the range of a property
+         * is ordered by.
+         *
+         * @param arena arena of the table, null to create it on the heap
+         * @return table with the properties of the store or the single property of the range
+         */
+        public ComplexTable toComplex(OffHeapArena arena) {
+            PackedColumn[] orderColumns = columns[order.ordinal()];
+            int[][] blocks = new int[3][PackedColumn.BLOCK_SIZE];
+            int[] positions = new int[3];
+            for (int i = 0; i < 3; i++) {
+                positions[order.positions[i]] = i;
+            }
+            Dictionary outputPropertyDictionary = propertyDictionary;
+            if (property != ANY) {
+                outputPropertyDictionary = new Dictionary();
+                outputPropertyDictionary.put(propertyDictionary.get(property));
+            }
+            ComplexTable output = new ComplexTable(outputPropertyDictionary, objectDictionary, size(), arena);
+            for (int block = from / PackedColumn.BLOCK_SIZE; block * PackedColumn.BLOCK_SIZE < to; block++) {
+                int start = block * PackedColumn.BLOCK_SIZE;
+                int count = 0;
+                for (int i = 0; i < 3; i++) {
+                    count = orderColumns[i].decode(block, blocks[i]);
+                }
+                for (int i = Math.max(from - start, 0); i < Math.min(to - start, count); i++) {
+                    int subject = (int) subjectTerms[blocks[positions[SUBJECT]][i] - 1];
+                    long term = terms[blocks[positions[OBJECT]][i] - 1];
+                    int slot = property == ANY ? output.slot(blocks[positions[PROPERTY]][i]) : 0;
+                    output.set(output.addRow(), slot, subject, (int) (term >> 2), TYPES[(int) term & 3]);
+                }
+            }
+            return output;
+        }
+    }
+}
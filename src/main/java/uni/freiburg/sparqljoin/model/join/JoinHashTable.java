@@ -0,0 +1,149 @@
+package uni.freiburg.sparqljoin.model.join;
+
+import uni.freiburg.sparqljoin.util.Hasher;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Hash table of the build rows of a hash join: open addressing with linear probing on the raw int join key.
+ * Every slot holds a distinct join key and the first of its rows in one long, the further rows of the key are
+ * chained through an int array indexed by row. Inserting and looking up rows allocates nothing.
+ * <p>
+ * Several threads can insert at the same time with insertConcurrently(), which claims and extends the slots with
+ * compare-and-set. Lookups don't synchronize, they see the rows of all threads the looking up thread has
+ * synchronized with, e.g. by Thread.join().
+ */
+public final class JoinHashTable {
+
+    // end of a chain
+    public static final int NO_ROW = -1;
+
+    private static final long EMPTY = 0;
+
+    private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    // join key in the high half, first row + 1 in the low half, EMPTY if the slot is empty
+    private long[] slots;
+
+    // next row with the same join key, at row - firstRow
+    private final int[] next;
+
+    private final int firstRow;
+
+    private int mask;
+
+    private int numKeys;
+
+    /**
+     * @param expectedKeys expected number of distinct join keys, e.g. the number of build rows
+     * @param firstRow     first row that can be inserted
+     * @param endRow       end of the rows that can be inserted, exclusive
+     */
+    public JoinHashTable(int expectedKeys, int firstRow, int endRow) {
+        // at most half of the slots are used, so the probe sequences stay short
+        int capacity = Integer.highestOneBit(Math.min(Math.max(expectedKeys, 1), 1 << 29) * 2 - 1) << 1;
+        this.slots = new long[capacity];
+        this.mask = capacity - 1;
+        this.next = new int[endRow - firstRow];
+        this.firstRow = firstRow;
+    }
+
+    /**
+     * Insert a row in front of the rows with the same join key
+     *
+     * @param key join key of the row
+     * @param row row in [firstRow, endRow), inserted once
+     */
+    public void insert(int key, int row) {
+        int slot = slot(key);
+        if (slots[slot] == EMPTY) {
+            if (2 * (numKeys + 1) > slots.length) {
+                grow();
+                slot = slot(key);
+            }
+            numKeys++;
+        }
+        next[row - firstRow] = head(slots[slot]);
+        slots[slot] = entry(key, row);
+    }
+
+    /**
+     * Insert a row in front of the rows with the same join key while other threads insert as well.
+     * The table doesn't grow, the expected keys of the constructor must cover all keys.
+     *
+     * @param key join key of the row
+     * @param row row in [firstRow, endRow), inserted once
+     * @throws IllegalStateException if all slots are used by other keys
+     */
+    public void insertConcurrently(int key, int row) {
+        int slot = Hasher.hash(key) & mask;
+        for (int probes = 0; probes < slots.length; ) {
+            long current = (long) SLOTS.getVolatile(slots, slot);
+            if (current == EMPTY || key(current) == key) {
+                // the chain link is published by the compare-and-set
+                next[row - firstRow] = head(current);
+                if (SLOTS.compareAndSet(slots, slot, current, entry(key, row))) {
+                    return;
+                }
+                // another thread claimed or extended the slot, look at it again
+            } else {
+                slot = (slot + 1) & mask;
+                probes++;
+            }
+        }
+        throw new IllegalStateException("Join hash table of " + slots.length + " slots is full");
+    }
+
+    /**
+     * @param key join key
+     * @return first row with the join key, NO_ROW if there is none
+     */
+    public int first(int key) {
+        return head(slots[slot(key)]);
+    }
+
+    /**
+     * @param row row of the table
+     * @return next row with the join key of the row, NO_ROW at the end
+     */
+    public int next(int row) {
+        return next[row - firstRow];
+    }
+
+    /**
+     * @return slot of the key, or the empty slot the key belongs into
+     */
+    private int slot(int key) {
+        int slot = Hasher.hash(key) & mask;
+        while (slots[slot] != EMPTY && key(slots[slot]) != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        long[] oldSlots = slots;
+        slots = new long[oldSlots.length * 2];
+        mask = slots.length - 1;
+        // the chains stay as they are, only their heads move
+        for (long entry : oldSlots) {
+            if (entry != EMPTY) {
+                slots[slot(key(entry))] = entry;
+            }
+        }
+    }
+
+    private static long entry(int key, int row) {
+        return (long) key << Integer.SIZE | (row + 1) & 0xFFFFFFFFL;
+    }
+
+    private static int key(long entry) {
+        return (int) (entry >>> Integer.SIZE);
+    }
+
+    // NO_ROW for EMPTY
+    private static int head(long entry) {
+        return (int) entry - 1;
+    }
+}
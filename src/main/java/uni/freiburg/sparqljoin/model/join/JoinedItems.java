@@ -1,9 +1,7 @@
 package uni.freiburg.sparqljoin.model.join;
 
-import uni.freiburg.sparqljoin.join.JoinOn;
 import uni.freiburg.sparqljoin.model.db.Item;
 
-import java.util.Comparator;
 import java.util.HashMap;
 
 /**
@@ -32,29 +30,4 @@ public record JoinedItems(int subject, HashMap<Integer, Item> values) {
         //noinspection unchecked
         return new JoinedItems(this.subject, (HashMap<Integer, Item>) this.values.clone());
     }
-
-    public static class JoinedItemsComparator implements Comparator<JoinedItems> {
-
-        // property to sort on
-        private final int property;
-
-        private final JoinOn field;
-
-        public JoinedItemsComparator(int property, JoinOn field) {
-            this.property = property;
-            this.field = field;
-        }
-
-        @Override
-        public int compare(JoinedItems o1, JoinedItems o2) {
-            Item o1Item = o1.values().get(property);
-            Item o2Item = o2.values().get(property);
-
-            long o1Key = field == JoinOn.SUBJECT ? o1Item.subject() : o1Item.object();
-            long o2Key = field == JoinOn.SUBJECT ? o2Item.subject() : o2Item.object();
-
-            return Long.compare(o1Key, o2Key);
-        }
-    }
-
 }
@@ -1,31 +1,29 @@
 package uni.freiburg.sparqljoin.model.join;
 
-import java.util.List;
-
 /**
- * This class provides a shared interface for outputting sorted values
+ * This class provides a shared interface for outputting sorted rows
  * from the build phase into probe phase of SortMerge join algorithm
  */
 public class MergeJoinBuildOutput extends BuildOutput{
 
-    private List<JoinedItems> valuesR;
+    private int[] rowsR;
 
-    private List<JoinedItems> valuesS;
+    private int[] rowsS;
 
-    public MergeJoinBuildOutput(List<JoinedItems> valuesR) {
-        this.valuesR = valuesR;
+    public MergeJoinBuildOutput(int[] rowsR) {
+        this.rowsR = rowsR;
     }
 
-    public MergeJoinBuildOutput(List<JoinedItems> valuesR, List<JoinedItems> valuesS) {
-        this.valuesR = valuesR;
-        this.valuesS = valuesS;
+    public MergeJoinBuildOutput(int[] rowsR, int[] rowsS) {
+        this.rowsR = rowsR;
+        this.rowsS = rowsS;
     }
 
-    public List<JoinedItems> getValuesR() {
-        return valuesR;
+    public int[] getRowsR() {
+        return rowsR;
     }
 
-    public List<JoinedItems> getValuesS() {
-        return valuesS;
+    public int[] getRowsS() {
+        return rowsS;
     }
 }
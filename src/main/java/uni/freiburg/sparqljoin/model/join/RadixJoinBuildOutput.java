@@ -0,0 +1,49 @@
+package uni.freiburg.sparqljoin.model.join;
+
+/**
+ * This class provides the output of the RadixHashJoin build phase - rows of a relation clustered into partitions
+ * by the low bits of their hashed join key. The rows of partition p are at [partitionStart(p), partitionStart(p + 1)).
+ */
+public class RadixJoinBuildOutput extends BuildOutput {
+
+    private final int[] keys;
+
+    private final int[] rows;
+
+    private final int[] partitionStarts;
+
+    private final int radixBits;
+
+    /**
+     * @param keys            join keys of the clustered rows
+     * @param rows            clustered rows, in row order within a partition
+     * @param partitionStarts first index of every partition, followed by the number of rows
+     * @param radixBits       number of hash bits of the partition number
+     */
+    public RadixJoinBuildOutput(int[] keys, int[] rows, int[] partitionStarts, int radixBits) {
+        this.keys = keys;
+        this.rows = rows;
+        this.partitionStarts = partitionStarts;
+        this.radixBits = radixBits;
+    }
+
+    public int[] getKeys() {
+        return keys;
+    }
+
+    public int[] getRows() {
+        return rows;
+    }
+
+    public int getRadixBits() {
+        return radixBits;
+    }
+
+    public int numPartitions() {
+        return partitionStarts.length - 1;
+    }
+
+    public int partitionStart(int partition) {
+        return partitionStarts[partition];
+    }
+}
@@ -0,0 +1,164 @@
+package uni.freiburg.sparqljoin.parser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import static uni.freiburg.sparqljoin.parser.TripletTokenizer.PROPERTY;
+
+/**
+ * Index of the byte ranges of the dataset which contain the lines of each property.
+ * Ranges start and end at line breaks. Lines of a property that are less than GAP_BYTES apart
+ * are put into the same range, which keeps the index small but adds lines of other properties.
+ * <p>
+ * The index is saved next to the dataset (big-endian):
+ * <pre>
+ * magic, version, dataset size, dataset last modified time, #properties,
+ * per property: name (modified UTF-8), #ranges, [start, end) of every range
+ * </pre>
+ */
+public class PropertyIndex {
+
+    public static final long GAP_BYTES = 256L * 1024;
+
+    private static final int MAGIC = 0x53504a49; // "SPJI"
+
+    private static final int VERSION = 1;
+
+    private final HashMap<String, List<long[]>> ranges;
+
+    public PropertyIndex(HashMap<String, List<long[]>> ranges) {
+        this.ranges = ranges;
+    }
+
+    /**
+     * Build the index in one pass that only tokenizes the properties
+     *
+     * @param channel dataset file
+     * @param windows line-aligned [start, end) byte ranges covering the file, mapped one after the other
+     * @return index of the dataset
+     */
+    public static PropertyIndex build(FileChannel channel, List<long[]> windows) throws IOException {
+        TermIndex properties = new TermIndex();
+        List<String> names = new ArrayList<>();
+        List<List<long[]>> propertyRanges = new ArrayList<>();
+        for (long[] window : windows) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, window[0], window[1] - window[0]);
+            TripletTokenizer tokenizer = new TripletTokenizer(buffer);
+            long lineStart = window[0];
+            while (tokenizer.nextProperty()) {
+                long lineEnd = window[0] + buffer.position();
+                int property = properties.get(tokenizer.bytes(PROPERTY), tokenizer.length(PROPERTY));
+                if (property == TermIndex.NOT_FOUND) {
+                    property = names.size();
+                    names.add(tokenizer.string(PROPERTY));
+                    propertyRanges.add(new ArrayList<>());
+                    properties.put(tokenizer.bytes(PROPERTY), tokenizer.length(PROPERTY), property);
+                }
+                List<long[]> lineRanges = propertyRanges.get(property);
+                long[] last = lineRanges.isEmpty() ? null : lineRanges.get(lineRanges.size() - 1);
+                if (last != null && lineStart - last[1] < GAP_BYTES) {
+                    last[1] = lineEnd;
+                } else {
+                    lineRanges.add(new long[]{lineStart, lineEnd});
+                }
+                lineStart = lineEnd;
+            }
+        }
+        HashMap<String, List<long[]>> ranges = new HashMap<>();
+        for (int property = 0; property < names.size(); property++) {
+            ranges.put(names.get(property), propertyRanges.get(property));
+        }
+        return new PropertyIndex(ranges);
+    }
+
+    /**
+     * @return all properties of the dataset
+     */
+    public Set<String> properties() {
+        return Collections.unmodifiableSet(ranges.keySet());
+    }
+
+    /**
+     * @param property property name
+     * @return line-aligned [start, end) byte ranges containing all lines of the property, empty if it doesn't occur
+     */
+    public List<long[]> ranges(String property) {
+        return ranges.getOrDefault(property, List.of());
+    }
+
+    /**
+     * Save the index
+     *
+     * @param index   index file
+     * @param dataset dataset the index was built from
+     */
+    public void write(Path index, Path dataset) throws IOException {
+        Path temp = index.resolveSibling(index.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+            BasicFileAttributes attributes = Files.readAttributes(dataset, BasicFileAttributes.class);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(attributes.size());
+            out.writeLong(attributes.lastModifiedTime().toMillis());
+            out.writeInt(ranges.size());
+            for (var entry : ranges.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue().size());
+                for (long[] range : entry.getValue()) {
+                    out.writeLong(range[0]);
+                    out.writeLong(range[1]);
+                }
+            }
+        }
+        Files.move(temp, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Read a saved index
+     *
+     * @param index   index file
+     * @param dataset dataset the index must be up-to-date with
+     * @return index or empty if the file is missing, stale or unreadable
+     */
+    public static Optional<PropertyIndex> read(Path index, Path dataset) {
+        if (!Files.exists(index)) {
+            return Optional.empty();
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(index), 1 << 16))) {
+            BasicFileAttributes attributes = Files.readAttributes(dataset, BasicFileAttributes.class);
+            if (in.readInt() != MAGIC || in.readInt() != VERSION
+                    || in.readLong() != attributes.size() || in.readLong() != attributes.lastModifiedTime().toMillis()) {
+                return Optional.empty();
+            }
+            int numProperties = in.readInt();
+            HashMap<String, List<long[]>> ranges = new HashMap<>();
+            for (int i = 0; i < numProperties; i++) {
+                String property = in.readUTF();
+                int numRanges = in.readInt();
+                List<long[]> propertyRanges = new ArrayList<>(numRanges);
+                for (int j = 0; j < numRanges; j++) {
+                    propertyRanges.add(new long[]{in.readLong(), in.readLong()});
+                }
+                ranges.put(property, propertyRanges);
+            }
+            return Optional.of(new PropertyIndex(ranges));
+        } catch (IOException e) {
+            return Optional.empty();
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package uni.freiburg.sparqljoin.parser;
+
+import uni.freiburg.sparqljoin.util.Hasher;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash table from UTF-8 encoded terms to integer values.
+ * Terms are copied into a single byte heap, so looking up a term does not create any objects.
+ */
+public class TermIndex {
+
+    public static final int NOT_FOUND = -1;
+
+    private static final float LOAD_FACTOR = 0.5f;
+
+    // entry index + 1 for every slot, 0 marks an empty slot
+    private int[] slots;
+
+    private int[] hashes;
+
+    private int[] offsets;
+
+    private int[] lengths;
+
+    private int[] values;
+
+    private byte[] heap;
+
+    private int heapSize;
+
+    private int size;
+
+    public TermIndex() {
+        this.slots = new int[64];
+        this.hashes = new int[32];
+        this.offsets = new int[32];
+        this.lengths = new int[32];
+        this.values = new int[32];
+        this.heap = new byte[1024];
+    }
+
+    /**
+     * Get value of the term
+     *
+     * @param term   buffer holding the UTF-8 bytes of the term
+     * @param length number of bytes of the term
+     * @return value of the term or NOT_FOUND
+     */
+    public int get(byte[] term, int length) {
+        return get(term, 0, length);
+    }
+
+    /**
+     * Get value of the term
+     *
+     * @param term   buffer holding the UTF-8 bytes of the term
+     * @param offset first byte of the term
+     * @param length number of bytes of the term
+     * @return value of the term or NOT_FOUND
+     */
+    public int get(byte[] term, int offset, int length) {
+        int hash = Hasher.hash(term, offset, length);
+        int mask = slots.length - 1;
+        for (int slot = hash & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int entry = slots[slot] - 1;
+            if (hashes[entry] == hash && equals(entry, term, offset, length)) {
+                return values[entry];
+            }
+        }
+        return NOT_FOUND;
+    }
+
+    /**
+     * Put term that is not in the index yet
+     *
+     * @param term   buffer holding the UTF-8 bytes of the term
+     * @param length number of bytes of the term
+     * @param value  value of the term
+     */
+    public void put(byte[] term, int length, int value) {
+        put(term, 0, length, value);
+    }
+
+    /**
+     * Put term that is not in the index yet
+     *
+     * @param term   buffer holding the UTF-8 bytes of the term
+     * @param offset first byte of the term
+     * @param length number of bytes of the term
+     * @param value  value of the term
+     */
+    public void put(byte[] term, int offset, int length, int value) {
+        if (size == hashes.length) {
+            int capacity = size * 2;
+            hashes = Arrays.copyOf(hashes, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        if (heapSize + length > heap.length) {
+            heap = Arrays.copyOf(heap, Math.max(heap.length * 2, heapSize + length));
+        }
+        System.arraycopy(term, offset, heap, heapSize, length);
+        int hash = Hasher.hash(term, offset, length);
+        hashes[size] = hash;
+        offsets[size] = heapSize;
+        lengths[size] = length;
+        values[size] = value;
+        heapSize += length;
+        size++;
+        if (size > slots.length * LOAD_FACTOR) {
+            rehash(slots.length * 2);
+        } else {
+            insert(hash, size);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private boolean equals(int entry, byte[] term, int offset, int length) {
+        return lengths[entry] == length
+                && Arrays.equals(heap, offsets[entry], offsets[entry] + length, term, offset, offset + length);
+    }
+
+    private void insert(int hash, int entryRef) {
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = entryRef;
+    }
+
+    private void rehash(int capacity) {
+        slots = new int[capacity];
+        for (int entry = 0; entry < size; entry++) {
+            insert(hashes[entry], entry + 1);
+        }
+    }
+}
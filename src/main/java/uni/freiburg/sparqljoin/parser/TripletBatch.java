@@ -0,0 +1,140 @@
+package uni.freiburg.sparqljoin.parser;
+
+import uni.freiburg.sparqljoin.model.db.DataType;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static uni.freiburg.sparqljoin.parser.TripletTokenizer.*;
+
+/**
+ * Tokenized lines of a block of the dataset. The normalised terms of all lines are kept in one byte heap,
+ * types and integer values of subjects and objects are resolved already.
+ * Only STRING terms still have to be put into a dictionary.
+ */
+public class TripletBatch {
+
+    private static final DataType[] TYPES = DataType.values();
+
+    private byte[] heap = new byte[1 << 16];
+
+    private int heapSize;
+
+    // per row and token: offset and length of the term in the heap
+    private int[] offsets = new int[3 * 1024];
+
+    private int[] lengths = new int[3 * 1024];
+
+    // per row and SUBJECT/OBJECT: type and integer value of non-STRING terms
+    private byte[] types = new byte[3 * 1024];
+
+    private int[] values = new int[3 * 1024];
+
+    private int size;
+
+    private long bytes;
+
+    /**
+     * Tokenize all lines of the buffer
+     *
+     * @param buffer dataset bytes, starting at a line
+     * @return tokenized lines
+     */
+    public static TripletBatch tokenize(ByteBuffer buffer) {
+        TripletBatch batch = new TripletBatch();
+        batch.bytes = buffer.remaining();
+        TripletTokenizer tokenizer = new TripletTokenizer(buffer);
+        while (tokenizer.next()) {
+            batch.add(tokenizer);
+        }
+        return batch;
+    }
+
+    /**
+     * @return number of lines
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return number of dataset bytes the lines were tokenized from
+     */
+    public long bytes() {
+        return bytes;
+    }
+
+    /**
+     * @return heap holding the normalised terms of all lines
+     */
+    public byte[] heap() {
+        return heap;
+    }
+
+    /**
+     * @param row   line of the batch
+     * @param token SUBJECT, PROPERTY or OBJECT
+     * @return offset of the term in the heap
+     */
+    public int offset(int row, int token) {
+        return offsets[3 * row + token];
+    }
+
+    /**
+     * @param row   line of the batch
+     * @param token SUBJECT, PROPERTY or OBJECT
+     * @return number of bytes of the term
+     */
+    public int length(int row, int token) {
+        return lengths[3 * row + token];
+    }
+
+    /**
+     * @param row   line of the batch
+     * @param token SUBJECT or OBJECT
+     * @return DataType of the term
+     */
+    public DataType type(int row, int token) {
+        return TYPES[types[3 * row + token]];
+    }
+
+    /**
+     * @param row   line of the batch
+     * @param token SUBJECT or OBJECT
+     * @return integer the term represents, only defined for INTEGER and OBJECT terms
+     */
+    public int value(int row, int token) {
+        return values[3 * row + token];
+    }
+
+    private void add(TripletTokenizer tokenizer) {
+        if (3 * size == offsets.length) {
+            int capacity = offsets.length * 2;
+            offsets = Arrays.copyOf(offsets, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            types = Arrays.copyOf(types, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        for (int token = SUBJECT; token <= OBJECT; token++) {
+            int length = tokenizer.length(token);
+            if (heapSize + length > heap.length) {
+                heap = Arrays.copyOf(heap, Math.max(heap.length * 2, heapSize + length));
+            }
+            System.arraycopy(tokenizer.bytes(token), 0, heap, heapSize, length);
+            int index = 3 * size + token;
+            offsets[index] = heapSize;
+            lengths[index] = length;
+            heapSize += length;
+            if (token != PROPERTY) {
+                DataType type = tokenizer.typeOf(token);
+                types[index] = (byte) type.ordinal();
+                values[index] = switch (type) {
+                    case STRING -> 0;
+                    case INTEGER -> tokenizer.integer(token);
+                    case OBJECT -> tokenizer.digits(token);
+                };
+            }
+        }
+        size++;
+    }
+}
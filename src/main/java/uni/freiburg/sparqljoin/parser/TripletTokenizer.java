@@ -0,0 +1,393 @@
+package uni.freiburg.sparqljoin.parser;
+
+import org.apache.commons.lang3.StringUtils;
+import uni.freiburg.sparqljoin.model.db.DataType;
+import uni.freiburg.sparqljoin.model.parser.Triplet;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Tokenizer of dataset lines that scans the raw bytes of a (memory-mapped) buffer.
+ * Every term of the current line is normalised into a reusable byte buffer,
+ * so no String is created unless it is explicitly requested.
+ * <p>
+ * Lines are expected in the format {@code subject\tproperty\tobject .}.
+ * Terms given as links ({@code <http...domain/element>}) are transformed to {@code domain:element}.
+ */
+public class TripletTokenizer {
+
+    public static final int SUBJECT = 0;
+
+    public static final int PROPERTY = 1;
+
+    public static final int OBJECT = 2;
+
+    private static final byte[] LINK = ascii("<http");
+
+    private static final byte[] WSDBM = ascii("wsdbm");
+
+    private static final byte[] FOAF = ascii("foaf");
+
+    private static final byte[] REV = ascii("rev");
+
+    private static final byte[] WSDBM_PREFIX = ascii("wsdbm:");
+
+    private static final byte[] FOAF_PREFIX = ascii("foaf:");
+
+    private static final byte[] REV_PREFIX = ascii("rev:");
+
+    private final ByteBuffer buffer;
+
+    // normalised terms of the current line
+    private final byte[][] terms = {new byte[64], new byte[64], new byte[256]};
+
+    private final int[] lengths = new int[3];
+
+    private final boolean[] ascii = new boolean[3];
+
+    // token boundaries of the current line
+    private int lineStart;
+
+    private int firstTab;
+
+    private int secondTab;
+
+    private int objectEnd;
+
+    private boolean links;
+
+    public TripletTokenizer(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Tokenize the next non-empty line of the buffer
+     *
+     * @return false if there are no more lines
+     */
+    public boolean next() {
+        if (!nextProperty()) {
+            return false;
+        }
+        terms();
+        return true;
+    }
+
+    /**
+     * Tokenize only the property of the next non-empty line of the buffer.
+     * Subject and object can be tokenized afterwards with terms(), lines of other properties can be skipped cheaply.
+     *
+     * @return false if there are no more lines
+     */
+    public boolean nextProperty() {
+        int limit = buffer.limit();
+        while (buffer.position() < limit) {
+            int start = buffer.position();
+            int end = start;
+            while (end < limit && buffer.get(end) != '\n') {
+                end++;
+            }
+            buffer.position(end < limit ? end + 1 : limit);
+            if (end > start && buffer.get(end - 1) == '\r') {
+                end--;
+            }
+            if (end > start) {
+                split(start, end);
+                normalise(PROPERTY, firstTab + 1, secondTab, links);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tokenize subject and object of the line whose property was tokenized by nextProperty()
+     */
+    public void terms() {
+        normalise(SUBJECT, lineStart, firstTab, links);
+        normalise(OBJECT, secondTab + 1, objectEnd, links);
+    }
+
+    /**
+     * Get normalised bytes of a term of the current line. The buffer is reused for the next line.
+     *
+     * @param token SUBJECT, PROPERTY or OBJECT
+     * @return buffer, only the first length(token) bytes belong to the term
+     */
+    public byte[] bytes(int token) {
+        return terms[token];
+    }
+
+    /**
+     * @param token SUBJECT, PROPERTY or OBJECT
+     * @return number of bytes of the normalised term
+     */
+    public int length(int token) {
+        return lengths[token];
+    }
+
+    /**
+     * @param token SUBJECT, PROPERTY or OBJECT
+     * @return normalised term as String
+     */
+    public String string(int token) {
+        return new String(terms[token], 0, lengths[token], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Get the current line as triplet
+     *
+     * @return triplet of normalised terms
+     */
+    public Triplet triplet() {
+        return Triplet.builder()
+                .subject(string(SUBJECT))
+                .property(string(PROPERTY))
+                .object(string(OBJECT))
+                .build();
+    }
+
+    /**
+     * Get real type of a term
+     *
+     * @param token SUBJECT, PROPERTY or OBJECT
+     * @return DataType of the term
+     */
+    public DataType typeOf(int token) {
+        byte[] term = terms[token];
+        int length = lengths[token];
+        if (indexOf(term, 0, length, WSDBM_PREFIX) >= 0) {
+            return DataType.OBJECT;
+        }
+        if (!ascii[token]) {
+            return StringUtils.isNumeric(string(token)) ? DataType.INTEGER : DataType.STRING;
+        }
+        if (length == 0) {
+            return DataType.STRING;
+        }
+        for (int i = 0; i < length; i++) {
+            if (term[i] < '0' || term[i] > '9') {
+                return DataType.STRING;
+            }
+        }
+        return DataType.INTEGER;
+    }
+
+    /**
+     * Get the integer a term of type INTEGER represents
+     *
+     * @param token SUBJECT, PROPERTY or OBJECT
+     * @return parsed integer
+     */
+    public int integer(int token) {
+        if (!ascii[token]) {
+            return Integer.parseInt(string(token));
+        }
+        return digits(token);
+    }
+
+    /**
+     * Get the integer of a term of type OBJECT, built from all its digits, e.g. wsdbm:User24 -> 24.
+     * Non-numeric characters are dropped, this doesn't create collisions within a table
+     * because the property holds values of one specific type. Across tables the entity class tells
+     * the terms apart, see entityClass.
+     *
+     * @param token SUBJECT, PROPERTY or OBJECT
+     * @return integer representation
+     */
+    public int digits(int token) {
+        byte[] term = terms[token];
+        long value = 0;
+        boolean found = false;
+        for (int i = 0; i < lengths[token]; i++) {
+            if (term[i] >= '0' && term[i] <= '9') {
+                value = value * 10 + (term[i] - '0');
+                if (value > Integer.MAX_VALUE) {
+                    throw new NumberFormatException("Value out of int range: " + string(token));
+                }
+                found = true;
+            }
+        }
+        if (!found) {
+            throw new NumberFormatException("No digits in: " + string(token));
+        }
+        return (int) value;
+    }
+
+    /**
+     * Get the entity class of a term of type OBJECT, the term without its digits, e.g. wsdbm:User24 -> wsdbm:User
+     *
+     * @param token SUBJECT, PROPERTY or OBJECT
+     * @return entity class
+     */
+    public String entityClass(int token) {
+        return entityClass(terms[token], 0, lengths[token]);
+    }
+
+    /**
+     * Get the entity class of a term of type OBJECT, the term without its digits, e.g. wsdbm:User24 -> wsdbm:User
+     *
+     * @param bytes  buffer holding the term
+     * @param offset first byte of the term
+     * @param length number of bytes of the term
+     * @return entity class
+     */
+    public static String entityClass(byte[] bytes, int offset, int length) {
+        byte[] entityClass = new byte[length];
+        int classLength = 0;
+        for (int i = offset; i < offset + length; i++) {
+            if (bytes[i] < '0' || bytes[i] > '9') {
+                entityClass[classLength++] = bytes[i];
+            }
+        }
+        return new String(entityClass, 0, classLength, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Find the token boundaries of the line
+     */
+    private void split(int start, int end) {
+        firstTab = indexOf((byte) '\t', start, end);
+        secondTab = firstTab < 0 ? -1 : indexOf((byte) '\t', firstTab + 1, end);
+        if (secondTab < 0) {
+            byte[] line = new byte[end - start];
+            buffer.get(start, line);
+            throw new IllegalArgumentException("Malformed triplet: " + new String(line, StandardCharsets.UTF_8));
+        }
+        int thirdTab = indexOf((byte) '\t', secondTab + 1, end);
+        objectEnd = thirdTab < 0 ? end : thirdTab;
+        lineStart = start;
+
+        // 10M dataset looks different. It contains links instead of domain:element mapping
+        links = startsWith(start, firstTab, LINK);
+    }
+
+    /**
+     * Copy token into its term buffer. Links are reduced to the last path (or #fragment) element
+     * and prefixed with the known domains they contain. The object ends at the first space
+     * and is stripped of quotes.
+     */
+    private void normalise(int token, int from, int to, boolean links) {
+        int length = 0;
+        int start = from;
+        int end = to;
+        if (links) {
+            if (contains(from, to, REV)) {
+                length = append(token, length, REV_PREFIX);
+            }
+            if (contains(from, to, FOAF)) {
+                length = append(token, length, FOAF_PREFIX);
+            }
+            if (contains(from, to, WSDBM)) {
+                length = append(token, length, WSDBM_PREFIX);
+            }
+            // last path element, trailing separators are ignored
+            while (end > start && buffer.get(end - 1) == '/') {
+                end--;
+            }
+            int separator = lastIndexOf((byte) '/', start, end);
+            if (separator >= 0) {
+                start = separator + 1;
+            }
+            // needed value could be in last element with #begin
+            if (indexOf((byte) '#', start, end) >= 0) {
+                while (end > start && (buffer.get(end - 1) == '#' || buffer.get(end - 1) == '>')) {
+                    end--;
+                }
+                int fragment = lastIndexOf((byte) '#', start, end);
+                if (fragment >= 0) {
+                    start = fragment + 1;
+                }
+            }
+        }
+        boolean onlyAscii = true;
+        byte[] term = terms[token];
+        for (int i = start; i < end; i++) {
+            byte b = buffer.get(i);
+            if (links && b == '>') {
+                continue;
+            }
+            if (token == OBJECT) {
+                if (b == ' ') {
+                    break;
+                }
+                if (b == '"') {
+                    continue;
+                }
+            }
+            if (length == term.length) {
+                term = terms[token] = Arrays.copyOf(term, term.length * 2);
+            }
+            term[length++] = b;
+            onlyAscii &= b >= 0;
+        }
+        lengths[token] = length;
+        ascii[token] = onlyAscii;
+    }
+
+    private int append(int token, int length, byte[] bytes) {
+        if (length + bytes.length > terms[token].length) {
+            terms[token] = Arrays.copyOf(terms[token], terms[token].length * 2 + bytes.length);
+        }
+        System.arraycopy(bytes, 0, terms[token], length, bytes.length);
+        return length + bytes.length;
+    }
+
+    private int indexOf(byte b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int lastIndexOf(byte b, int from, int to) {
+        for (int i = to - 1; i >= from; i--) {
+            if (buffer.get(i) == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean startsWith(int from, int to, byte[] prefix) {
+        if (to - from < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (buffer.get(from + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean contains(int from, int to, byte[] pattern) {
+        for (int i = from; i <= to - pattern.length; i++) {
+            if (startsWith(i, to, pattern)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int indexOf(byte[] bytes, int from, int to, byte[] pattern) {
+        outer:
+        for (int i = from; i <= to - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (bytes[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -1,26 +1,74 @@
 package uni.freiburg.sparqljoin.service;
 
-import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 import uni.freiburg.sparqljoin.model.db.*;
-import uni.freiburg.sparqljoin.model.parser.Triplet;
+import uni.freiburg.sparqljoin.parser.PropertyIndex;
+import uni.freiburg.sparqljoin.parser.TermIndex;
+import uni.freiburg.sparqljoin.parser.TripletBatch;
+import uni.freiburg.sparqljoin.parser.TripletTokenizer;
+import uni.freiburg.sparqljoin.util.OffHeapMemory;
+import uni.freiburg.sparqljoin.util.Performance;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.stream.Stream;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
+
+import static uni.freiburg.sparqljoin.parser.TripletTokenizer.*;
 
 @Service
 public class DataLoaderService {
 
     private static final Logger LOG = LoggerFactory.getLogger(DataLoaderService.class);
 
-    private HashMap<String, SimpleTable> tables;
+    /**
+     * Upper bound of a single byte range parsed by a worker. Keeps mapped regions small
+     * and gives the workers enough ranges to balance the load.
+     */
+    private static final long MAX_RANGE_BYTES = 64L * 1024 * 1024;
+
+    /**
+     * Size of the blocks a stream is parsed in
+     */
+    private static final int STREAM_BLOCK_BYTES = 1 << 20;
+
+    /**
+     * Number of blocks or batches a pipeline stage may be ahead of the next one
+     */
+    private static final int PIPELINE_QUEUE_CAPACITY = 4;
+
+    /**
+     * Name prefix of the threads of the compressed load stages
+     */
+    static final String PIPELINE_THREAD_NAME = "load-pipeline-";
+
+    private static final ByteBuffer END_OF_BLOCKS = ByteBuffer.allocate(0);
+
+    private static final TripletBatch END_OF_BATCHES = TripletBatch.tokenize(ByteBuffer.allocate(0));
 
     /**
      * Parse the dataset and load data into database structure
@@ -28,117 +76,813 @@ public class DataLoaderService {
      * @param path to the dataset to read
      */
     public Database load(String path) {
-        LOG.info("Loading dataset...");
-        tables = new HashMap<>();
-        try (Stream<String> lines = Files.lines(Path.of(path))) {
-            for (String line : (Iterable<String>) lines::iterator) {
-                Triplet triplet = parseTriplet(line);
-                processTriplet(triplet);
+        return load(path, 1);
+    }
+
+    /**
+     * Parse the dataset with several workers and load data into database structure
+     *
+     * @param path    to the dataset to read
+     * @param workers number of parsing threads, 0 or less means number of available processors
+     */
+    public Database load(String path, int workers) {
+        return load(path, LoadOptions.builder().workers(workers).build());
+    }
+
+    /**
+     * Parse the dataset and load data into database structure.
+     * With several workers, the file is split into newline-aligned byte ranges, every range is parsed into its own tables
+     * and the ranges are merged in file order, so the result is identical to the sequential load.
+     * With a concurrent dictionary, the workers intern terms into shared dictionaries and the ranges are only appended.
+     * Gzip compressed datasets (*.gz) are parsed by a decompress, tokenize and encode pipeline instead of the workers.
+     * Off-heap tables are allocated in an arena of the database, it is closed if the load fails.
+     *
+     * @param path    to the dataset to read
+     * @param options load options
+     */
+    public Database load(String path, LoadOptions options) {
+        OffHeapArena arena = options.offHeap() ? new OffHeapArena() : null;
+        try {
+            return load(path, options, arena);
+        } catch (RuntimeException e) {
+            if (arena != null) {
+                arena.close();
             }
-        } catch (IOException e) {
+            throw e;
+        }
+    }
+
+    private Database load(String path, LoadOptions options, OffHeapArena arena) {
+        if (isCompressed(path)) {
+            HashMap<String, SimpleTable> tables = new HashMap<>();
+            try {
+                loadCompressed(Path.of(path), new TableLoader(tables, objectDictionaries(options.globalDictionary() ? new Dictionary() : null), arena));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return completeLoad(tables, options, arena);
+        }
+        int workers = options.workers() > 0 ? options.workers() : Runtime.getRuntime().availableProcessors();
+        LOG.info("Loading dataset with {} workers...", workers);
+        HashMap<String, SimpleTable> tables = new HashMap<>();
+        boolean concurrentDictionary = options.concurrentDictionary() && workers > 1;
+        Dictionary globalDictionary = !options.globalDictionary() ? null
+                : concurrentDictionary ? new ConcurrentDictionary() : new Dictionary();
+        ExecutorService executor = workers > 1 ? Executors.newFixedThreadPool(workers) : null;
+        try (FileChannel channel = FileChannel.open(Path.of(path), StandardOpenOption.READ)) {
+            List<long[]> ranges = splitIntoRanges(channel, workers);
+            if (executor == null) {
+                TableLoader loader = new TableLoader(tables, objectDictionaries(globalDictionary), arena);
+                for (long[] range : ranges) {
+                    loader.load(channel.map(FileChannel.MapMode.READ_ONLY, range[0], range[1] - range[0]));
+                }
+            } else {
+                ConcurrentHashMap<String, Dictionary> sharedDictionaries = new ConcurrentHashMap<>();
+                List<Future<TableLoader>> loaders = new ArrayList<>();
+                for (long[] range : ranges) {
+                    Function<String, Dictionary> dictionaries;
+                    if (!concurrentDictionary) {
+                        // every range interns into its own dictionaries, they are merged afterwards
+                        dictionaries = objectDictionaries(options.globalDictionary() ? new Dictionary() : null);
+                    } else if (globalDictionary != null) {
+                        dictionaries = objectDictionaries(globalDictionary);
+                    } else {
+                        dictionaries = property -> sharedDictionaries.computeIfAbsent(property, p -> new ConcurrentDictionary());
+                    }
+                    loaders.add(executor.submit(() -> loadRange(channel, range[0], range[1], dictionaries, arena)));
+                }
+                // merge in file order while the remaining ranges are still being parsed
+                for (Future<TableLoader> loader : loaders) {
+                    mergeRange(loader.get(), tables, globalDictionary, arena);
+                }
+                if (concurrentDictionary) {
+                    freezeDictionaries(tables);
+                }
+            }
+        } catch (IOException | ExecutionException e) {
+            throw new RuntimeException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             throw new RuntimeException(e);
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+        return completeLoad(tables, options, arena);
+    }
+
+    /**
+     * Replace the concurrent dictionaries of the parsing threads by plain dictionaries with the same keys,
+     * which joins clone without copying. Tables sharing a dictionary keep sharing its plain copy.
+     *
+     * @param tables loaded tables
+     */
+    private static void freezeDictionaries(HashMap<String, SimpleTable> tables) {
+        IdentityHashMap<Dictionary, Dictionary> frozenDictionaries = new IdentityHashMap<>();
+        tables.replaceAll((property, table) -> table.getObjectDictionary() instanceof ConcurrentDictionary dictionary
+                ? table.withObjectDictionary(frozenDictionaries.computeIfAbsent(dictionary, d -> dictionary.freeze()))
+                : table);
+    }
+
+    /**
+     * Release the unused capacity of the tables, create the database and collect the statistics catalog of its tables.
+     * Compressed tables replace the loaded tables after the statistics are collected and keep these statistics,
+     * otherwise the permutations are built if requested.
+     *
+     * @param tables  loaded tables
+     * @param options load options
+     * @param arena   arena of the tables, null if the tables are on the heap
+     * @return database with collected statistics
+     */
+    private static Database completeLoad(HashMap<String, SimpleTable> tables, LoadOptions options, OffHeapArena arena) {
+        tables.values().forEach(SimpleTable::trimToSize);
+        Dictionary globalDictionary = !options.globalDictionary() ? null
+                : tables.isEmpty() ? new Dictionary() : tables.values().iterator().next().getObjectDictionary();
+        Database database = new Database(tables, globalDictionary, arena);
+        if (arena != null) {
+            LOG.info(OffHeapMemory.report());
+        }
+        HashMap<String, PropertyStatistics> statistics = Performance.measure(database::statistics, "Collect Statistics");
+        statistics.values().forEach(property ->
+                LOG.debug("Property '{}': {} triples, {} subjects, {} objects, object types {}", property.property(),
+                        property.triples(), property.distinctSubjects(), property.distinctObjects(), property.objectTypes()));
+        if (options.compressTables()) {
+            return compress(tables, statistics, globalDictionary, arena);
+        }
+        if (options.permutations()) {
+            Performance.measure(() -> {
+                tables.values().forEach(SimpleTable::buildPermutations);
+                return tables.size();
+            }, "Build Permutations");
+        }
+        return database;
+    }
+
+    /**
+     * Compress the tables and release the loaded ones
+     *
+     * @param tables           loaded tables
+     * @param statistics       statistics collected on the loaded tables
+     * @param globalDictionary dictionary shared by all tables, null if every table has its own dictionary
+     * @param arena            arena of the loaded tables and of the tables of new properties, null for the heap
+     * @return database decompressing its tables on demand
+     */
+    private static Database compress(HashMap<String, SimpleTable> tables, HashMap<String, PropertyStatistics> statistics,
+                                     Dictionary globalDictionary, OffHeapArena arena) {
+        HashMap<String, CompressedTable> compressedTables = Performance.measure(() -> {
+            HashMap<String, CompressedTable> compressed = new HashMap<>();
+            tables.forEach((property, table) -> {
+                compressed.put(property, CompressedTable.of(table));
+                table.release();
+            });
+            return compressed;
+        }, "Compress Tables");
+        long rows = compressedTables.values().stream().mapToLong(CompressedTable::size).sum();
+        long bytes = compressedTables.values().stream().mapToLong(CompressedTable::bytes).sum();
+        LOG.info("Compressed {} rows into {} bytes ({} bytes per row)", rows, bytes, rows == 0 ? 0 : String.format("%.2f", (double) bytes / rows));
+        return Database.compressed(compressedTables, statistics, globalDictionary, arena);
+    }
+
+    /**
+     * Prepare a database that loads the table of a property when it is first requested.
+     * A one-time pass indexes the byte ranges of every property, the index is saved next to the dataset
+     * ({@code <dataset>.properties.idx}) and rebuilt when the dataset changes. A table is then parsed from the ranges of
+     * its property only. Every table has the same rows and dictionary as with a full load, unless a global dictionary
+     * is used: it is then filled in the order the tables are requested.
+     *
+     * @param path    to the dataset to read
+     * @param options load options, workers are not used
+     * @return database loading its tables on demand
+     */
+    public Database loadLazy(String path, LoadOptions options) {
+        if (isCompressed(path)) {
+            LOG.info("Compressed dataset can't be read by ranges, loading all properties");
+            return load(path, options);
         }
-        return new Database(tables);
+        Path dataset = Path.of(path);
+        PropertyIndex index = propertyIndex(dataset);
+        Dictionary globalDictionary = options.globalDictionary() ? new Dictionary() : null;
+        OffHeapArena arena = options.offHeap() ? new OffHeapArena() : null;
+        return new Database(index.properties(), property -> {
+            SimpleTable table = loadProperty(dataset, index.ranges(property), property, globalDictionary, arena);
+            if (options.permutations()) {
+                table.buildPermutations();
+            }
+            return table;
+        }, globalDictionary, arena);
     }
 
     /**
-     * Parse line into triplet
+     * Read the property index of the dataset, build and save it if it is missing or stale
      *
-     * @param line to parse
+     * @param dataset dataset file
+     * @return property index
      */
-    private Triplet parseTriplet(final String line) {
-        List<String> tokens = new ArrayList<>(List.of(line.split("\t")));
-        // object   property    subject .
-        assert tokens.size() == 3;
-        // 10M dataset looks different. It contains links instead of domain:element mapping
-        if (tokens.get(0).startsWith("<http")) {
-            // transform each token from http...domain/element format to domain:element
-            for (int i = 0; i < tokens.size(); i++) {
-                String token = tokens.get(i);
-                List<String> domains = List.of(token.split("/"));
-                String domain = domains.get(domains.size() - 1).replaceAll(">", "");
-                // needed value could be in last domain with #begin
-                if (domain.contains("#")) {
-                    domains = List.of(domain.split("#"));
-                    domain = domains.get(domains.size() - 1);
+    private static PropertyIndex propertyIndex(Path dataset) {
+        Path indexPath = dataset.resolveSibling(dataset.getFileName() + ".properties.idx");
+        Optional<PropertyIndex> saved = PropertyIndex.read(indexPath, dataset);
+        if (saved.isPresent()) {
+            return saved.get();
+        }
+        LOG.info("Indexing properties of '{}'...", dataset);
+        try (FileChannel channel = FileChannel.open(dataset, StandardOpenOption.READ)) {
+            PropertyIndex index = PropertyIndex.build(channel, splitIntoRanges(channel, 1));
+            try {
+                index.write(indexPath, dataset);
+            } catch (IOException e) {
+                LOG.warn("Property index '{}' can't be saved: {}", indexPath, e.toString());
+            }
+            return index;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Parse the table of a property from the byte ranges of the dataset that contain it
+     *
+     * @param dataset          dataset file
+     * @param ranges           line-aligned byte ranges with all lines of the property
+     * @param property         property to load
+     * @param globalDictionary dictionary shared by all tables, null if every table has its own dictionary
+     * @param arena            arena of the table, null to load it on the heap
+     * @return table of the property
+     */
+    private static SimpleTable loadProperty(Path dataset, List<long[]> ranges, String property, Dictionary globalDictionary,
+                                            OffHeapArena arena) {
+        LOG.info("Loading property '{}' from {} ranges...", property, ranges.size());
+        HashMap<String, SimpleTable> tables = new HashMap<>();
+        TableLoader loader = new TableLoader(tables, objectDictionaries(globalDictionary), arena, Set.of(property));
+        try (FileChannel channel = FileChannel.open(dataset, StandardOpenOption.READ)) {
+            for (long[] range : ranges) {
+                loader.load(channel.map(FileChannel.MapMode.READ_ONLY, range[0], range[1] - range[0]));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return tables.computeIfAbsent(property, loader::createTable);
+    }
+
+    /**
+     * Parse a delta file and append its triplets to the tables of the database.
+     * Existing tables and dictionaries are extended in place, new properties get new tables with the global dictionary
+     * of the database or with their own dictionaries. Only the tables of the properties in the delta are loaded.
+     * Must not run concurrently with queries on the same database, queries started afterwards see the new rows.
+     *
+     * @param database database to extend
+     * @param path     to the delta file to read, may be gzip compressed (*.gz)
+     * @return number of inserted rows per property
+     */
+    public HashMap<String, Integer> append(Database database, String path) {
+        LOG.info("Appending '{}'...", path);
+        if (isCompressed(path)) {
+            try {
+                return append(database, loader -> loadCompressed(Path.of(path), loader));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        try (FileChannel channel = FileChannel.open(Path.of(path), StandardOpenOption.READ)) {
+            return append(database, loader -> {
+                for (long[] range : splitIntoRanges(channel, 1)) {
+                    loader.load(channel.map(FileChannel.MapMode.READ_ONLY, range[0], range[1] - range[0]));
                 }
-                // small hash to indicate that it is an object
-                if (token.contains("wsdbm")) {
-                    domain = "wsdbm:" + domain;
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Parse a delta stream and append its triplets to the tables of the database.
+     * Existing tables and dictionaries are extended in place, new properties get new tables with the global dictionary
+     * of the database or with their own dictionaries. Only the tables of the properties in the delta are loaded.
+     * Must not run concurrently with queries on the same database, queries started afterwards see the new rows.
+     *
+     * @param database database to extend
+     * @param input    delta triplets, the stream is read to its end but not closed
+     * @return number of inserted rows per property
+     */
+    public HashMap<String, Integer> append(Database database, InputStream input) {
+        try {
+            return append(database, loader -> loadStream(input, loader));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static HashMap<String, Integer> append(Database database, LoaderTask task) throws IOException {
+        // tables of the properties in the delta and the sizes they had before
+        HashMap<String, SimpleTable> tables = new HashMap<>();
+        HashMap<String, Integer> sizes = new HashMap<>();
+        Function<String, SimpleTable> existingTables = property -> {
+            SimpleTable table = database.table(property);
+            if (table != null) {
+                sizes.put(property, table.size());
+            }
+            return table;
+        };
+
+        try {
+            task.run(new TableLoader(tables, objectDictionaries(database.globalDictionary()), database.arena(), null, existingTables));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+
+        HashMap<String, Integer> inserted = new HashMap<>();
+        tables.forEach((property, table) -> {
+            int rows = table.size() - sizes.getOrDefault(property, 0);
+            if (rows > 0) {
+                inserted.put(property, rows);
+            }
+            database.putTable(table);
+        });
+        // refresh the statistics catalog of the extended tables
+        inserted.keySet().forEach(database::statistics);
+        LOG.info("Appended {} rows to {} tables", inserted.values().stream().mapToInt(Integer::intValue).sum(), inserted.size());
+        return inserted;
+    }
+
+    /**
+     * Parse the stream in line-aligned blocks
+     *
+     * @param input  triplets to read
+     * @param loader loader to put the triplets into
+     */
+    private static void loadStream(InputStream input, TableLoader loader) throws IOException, InterruptedException {
+        readBlocks(input, loader::load);
+    }
+
+    /**
+     * Parse the compressed file in a pipeline of a decompress, a tokenize and an encode stage.
+     * The stages run in their own threads and pass line-aligned blocks and tokenized batches
+     * over bounded queues, so a slow stage throttles the others.
+     *
+     * @param path   gzip compressed dataset
+     * @param loader loader to put the triplets into, used by the calling thread only
+     */
+    private static void loadCompressed(Path path, TableLoader loader) throws IOException {
+        LOG.info("Loading compressed dataset '{}'...", path);
+        ArrayBlockingQueue<ByteBuffer> blocks = new ArrayBlockingQueue<>(PIPELINE_QUEUE_CAPACITY);
+        ArrayBlockingQueue<TripletBatch> batches = new ArrayBlockingQueue<>(PIPELINE_QUEUE_CAPACITY);
+        AtomicInteger threads = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, PIPELINE_THREAD_NAME + threads.incrementAndGet());
+            // a stage that doesn't stop must not keep the JVM alive
+            thread.setDaemon(true);
+            return thread;
+        });
+        try (InputStream input = new GZIPInputStream(Files.newInputStream(path), 1 << 16)) {
+            Future<?> decompress = executor.submit(() -> {
+                Performance.Throughput throughput = Performance.throughput("Decompress");
+                try {
+                    readBlocks(input, block -> {
+                        throughput.pause(countLines(block), block.remaining());
+                        blocks.put(block);
+                        throughput.resume();
+                    });
+                    throughput.pause(0, 0);
+                    blocks.put(END_OF_BLOCKS);
+                } catch (Throwable e) {
+                    stopStage(blocks, END_OF_BLOCKS);
+                    throw e;
                 }
-                if (token.contains("foaf")) {
-                    domain = "foaf:" + domain;
+                throughput.report();
+                return null;
+            });
+            Future<?> tokenize = executor.submit(() -> {
+                Performance.Throughput throughput = Performance.throughput("Tokenize");
+                try {
+                    for (ByteBuffer block = blocks.take(); block != END_OF_BLOCKS; block = blocks.take()) {
+                        throughput.resume();
+                        TripletBatch batch = TripletBatch.tokenize(block);
+                        throughput.pause(batch.size(), batch.bytes());
+                        batches.put(batch);
+                    }
+                    batches.put(END_OF_BATCHES);
+                } catch (Throwable e) {
+                    stopStage(batches, END_OF_BATCHES);
+                    throw e;
                 }
-                if (token.contains("rev")) {
-                    domain = "rev:" + domain;
+                throughput.report();
+                return null;
+            });
+
+            Performance.Throughput throughput = Performance.throughput("Encode");
+            for (TripletBatch batch = batches.take(); batch != END_OF_BATCHES; batch = batches.take()) {
+                throughput.resume();
+                loader.load(batch);
+                throughput.pause(batch.size(), batch.bytes());
+            }
+            throughput.report();
+            // the tokenize stage stops at the end of the blocks, so the decompress stage has finished as well
+            tokenize.get();
+            decompress.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof IOException cause) {
+                throw cause;
+            }
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Tell the next stage that a failed stage stops early. The queued items aren't needed anymore, they are dropped
+     * so the end marker never waits for room: the next stage may have failed or been interrupted as well.
+     *
+     * @param queue     queue to the next stage
+     * @param endMarker end marker of the queue
+     */
+    private static <T> void stopStage(ArrayBlockingQueue<T> queue, T endMarker) {
+        queue.clear();
+        queue.offer(endMarker);
+    }
+
+    /**
+     * Read the stream in blocks which end at a line break, the last block ends at the end of the stream
+     *
+     * @param input    stream to read
+     * @param consumer receives every block, the block is not reused
+     */
+    private static void readBlocks(InputStream input, BlockConsumer consumer) throws IOException, InterruptedException {
+        byte[] buffer = new byte[STREAM_BLOCK_BYTES];
+        int filled = 0;
+        int read;
+        while ((read = input.read(buffer, filled, buffer.length - filled)) >= 0) {
+            filled += read;
+            int end = filled;
+            while (end > 0 && buffer[end - 1] != '\n') {
+                end--;
+            }
+            if (end == 0) {
+                if (filled == buffer.length) {
+                    // line longer than the buffer
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
                 }
-                tokens.set(i, domain);
+                continue;
             }
+            // keep the incomplete last line for the next block
+            byte[] next = new byte[buffer.length];
+            System.arraycopy(buffer, end, next, 0, filled - end);
+            consumer.accept(ByteBuffer.wrap(buffer, 0, end));
+            buffer = next;
+            filled -= end;
+        }
+        if (filled > 0) {
+            consumer.accept(ByteBuffer.wrap(buffer, 0, filled));
+        }
+    }
+
+    private static int countLines(ByteBuffer block) {
+        int lines = 0;
+        for (int i = block.position(); i < block.limit(); i++) {
+            if (block.get(i) == '\n') {
+                lines++;
+            }
+        }
+        return lines;
+    }
+
+    private static boolean isCompressed(String path) {
+        return path.endsWith(".gz");
+    }
 
+    /**
+     * Split the file into byte ranges which start at the beginning of a line
+     *
+     * @param channel file to split
+     * @param parts   minimal number of ranges
+     * @return list of [start, end) byte ranges
+     */
+    private static List<long[]> splitIntoRanges(FileChannel channel, int parts) throws IOException {
+        long size = channel.size();
+        long numRanges = Math.max(parts, (size + MAX_RANGE_BYTES - 1) / MAX_RANGE_BYTES);
+        List<long[]> ranges = new ArrayList<>();
+        long start = 0;
+        for (long i = 1; i <= numRanges && start < size; i++) {
+            long end = i == numRanges ? size : nextLineStart(channel, size * i / numRanges);
+            if (end > start) {
+                ranges.add(new long[]{start, end});
+                start = end;
+            }
         }
-        return Triplet.builder()
-                .subject(tokens.get(0))
-                .property(tokens.get(1))
-                .object(tokens.get(2).split(" ")[0].replaceAll("\"", ""))
-                .build();
+        return ranges;
     }
 
     /**
-     * Put triplet into the property table,
-     * save string value to dictionary if needed
+     * Find the first line start at or after the given position
      *
-     * @param triplet to put
+     * @param channel  file to search in
+     * @param position byte position to start from
+     * @return position right after the next line break
      */
-    private void processTriplet(final Triplet triplet) {
-        // create new table
-        if (!tables.containsKey(triplet.property())) {
-            tables.put(triplet.property(), new SimpleTable(triplet.property()));
+    private static long nextLineStart(FileChannel channel, long position) throws IOException {
+        if (position == 0) {
+            return 0;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        long offset = position - 1;
+        while (offset < channel.size()) {
+            buffer.clear();
+            int read = channel.read(buffer, offset);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return offset + i + 1;
+                }
+            }
+            offset += read;
         }
-        SimpleTable table = tables.get(triplet.property());
-        Dictionary dict = table.getObjectDictionary();
+        return channel.size();
+    }
 
-        int subjectKey = extractKey(triplet.subject(), dict);
-        int objectKey = extractKey(triplet.object(), dict);
+    /**
+     * Get the object dictionaries of new tables
+     *
+     * @param globalDictionary dictionary shared by all tables, null if every table has its own dictionary
+     * @return function from property to the object dictionary of its table
+     */
+    private static Function<String, Dictionary> objectDictionaries(Dictionary globalDictionary) {
+        return globalDictionary == null ? property -> new Dictionary() : property -> globalDictionary;
+    }
 
-        table.insert(new Item(subjectKey, objectKey, typeOf(triplet.object())));
+    /**
+     * Parse a byte range of the dataset into its own tables
+     *
+     * @param channel      dataset file
+     * @param start        first byte of the range
+     * @param end          end of the range (exclusive)
+     * @param dictionaries object dictionaries of the tables of the range
+     * @param arena        arena of the tables, null to load them on the heap
+     * @return loader holding the tables of the range
+     */
+    private static TableLoader loadRange(FileChannel channel, long start, long end, Function<String, Dictionary> dictionaries,
+                                         OffHeapArena arena) throws IOException {
+        TableLoader loader = new TableLoader(new HashMap<>(), dictionaries, arena);
+        loader.load(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start));
+        return loader;
+    }
 
+    /**
+     * Append the tables of a parsed range to the database tables.
+     * Dictionary entries of the range are put in their insertion order, so the resulting
+     * keys are the same as if the range was parsed right after the previous ones.
+     * Keys of dictionaries shared by the workers are already final. Range tables that are copied are released.
+     *
+     * @param range            parsed range
+     * @param tables           tables to append to
+     * @param globalDictionary dictionary shared by all tables, null if every table has its own dictionary
+     * @param arena            arena of new tables, null to create them on the heap
+     */
+    private static void mergeRange(TableLoader range, HashMap<String, SimpleTable> tables, Dictionary globalDictionary,
+                                   OffHeapArena arena) {
+        IdentityHashMap<Dictionary, int[]> rangeKeys = new IdentityHashMap<>();
+        range.tables.forEach((property, rangeTable) -> {
+            SimpleTable table = tables.get(property);
+            if (table == null && (globalDictionary == null || globalDictionary == rangeTable.getObjectDictionary())) {
+                // first range with this property, its keys are already final
+                tables.put(property, rangeTable);
+                return;
+            }
+            if (table == null) {
+                table = new SimpleTable(property, globalDictionary, arena);
+                tables.put(property, table);
+            }
+            if (table.getSubjectClass() == null) {
+                table.setSubjectClass(rangeTable.getSubjectClass());
+            }
+            if (table.getObjectClass() == null) {
+                table.setObjectClass(rangeTable.getObjectClass());
+            }
+            if (table.getObjectDictionary() == rangeTable.getObjectDictionary()) {
+                table.insertAll(rangeTable);
+                rangeTable.release();
+                return;
+            }
+            Dictionary dictionary = table.getObjectDictionary();
+            int[] keys = rangeKeys.computeIfAbsent(rangeTable.getObjectDictionary(), rangeDictionary -> {
+                int[] dictionaryKeys = new int[rangeDictionary.size() + 1];
+                for (int key = 1; key < dictionaryKeys.length; key++) {
+                    dictionaryKeys[key] = dictionary.put(rangeDictionary.get(key));
+                }
+                return dictionaryKeys;
+            });
+            BitSet encodedSubjects = range.encodedSubjects.getOrDefault(property, new BitSet());
+            SimpleTable.Cursor cursor = rangeTable.cursor();
+            while (cursor.next()) {
+                int subject = encodedSubjects.get(cursor.row()) ? keys[cursor.subject()] : cursor.subject();
+                int object = cursor.type() == DataType.STRING ? keys[cursor.object()] : cursor.object();
+                table.insert(subject, object, cursor.type());
+            }
+            rangeTable.release();
+        });
     }
 
     /**
-     * Extracts the integer representation from a value.
+     * Put triplet into the property table
+     *
+     * @param table      property table of the triplet
+     * @param subjectKey integer representation of the subject
+     * @param objectKey  integer representation of the object
+     * @param objectType type of the object
+     */
+    private static void processTriplet(SimpleTable table, int subjectKey, int objectKey, DataType objectType) {
+        table.insert(subjectKey, objectKey, objectType);
+    }
+
+    /**
+     * Extracts the integer representation from a term of the current line.
      * Because integer comparisons are faster than string comparisons, we will assign a unique integer to each unique
-     * string value and store it in dict.
+     * string value and store it in dict. The String is only created when the term is not known yet.
      * If value is an integer wrapped inside a string, convert it to integer.
      *
-     * @param value Value to extract the key from
-     * @param dict  The dictionary where the mapping between string and int will be stored
+     * @param tokenizer tokenizer positioned on the line
+     * @param token     SUBJECT or OBJECT
+     * @param type      type of the term
+     * @param dict      The dictionary where the mapping between string and int will be stored
      * @return integer representation
      */
-    private int extractKey(String value, Dictionary dict) {
-        return switch (typeOf(value)) {
-            case STRING -> dict.put(value);
-            case INTEGER -> Integer.parseInt(value);
-            case OBJECT ->
-                    // non-numeric value replacement shouldn't create collisions
-                    // because the property holds values of one specific type
-                    Integer.parseInt(value.replaceAll("\\D", ""));
+    private static int extractKey(TripletTokenizer tokenizer, int token, DataType type, Dictionary dict) {
+        return switch (type) {
+            case STRING -> dict.put(tokenizer.bytes(token), 0, tokenizer.length(token));
+            case INTEGER -> tokenizer.integer(token);
+            case OBJECT -> tokenizer.digits(token);
         };
     }
 
+    /**
+     * Parsing work done with a loader
+     */
+    @FunctionalInterface
+    private interface LoaderTask {
+        void run(TableLoader loader) throws IOException, InterruptedException;
+    }
 
     /**
-     * Get real type of the String value
-     *
-     * @param value String value to check
-     * @return DataType of the value
+     * Receives line-aligned blocks of a stream
      */
-    private static DataType typeOf(String value) {
-        if (value.contains("wsdbm:")) {
-            return DataType.OBJECT;
-        } else if (StringUtils.isNumeric(value)) {
-            return DataType.INTEGER;
-        }
-        return DataType.STRING;
+    @FunctionalInterface
+    private interface BlockConsumer {
+        void accept(ByteBuffer block) throws InterruptedException;
     }
 
+    /**
+     * Loads dataset lines into property tables. Keeps the byte index of the property names and
+     * puts terms into the dictionaries by their bytes, so Strings are only created for properties
+     * and terms seen the first time.
+     */
+    private static final class TableLoader {
+
+        private final HashMap<String, SimpleTable> tables;
+
+        // object dictionary of a new table by its property
+        private final Function<String, Dictionary> dictionaries;
+
+        // per property, rows whose subject key comes from the object dictionary
+        private final HashMap<String, BitSet> encodedSubjects = new HashMap<>();
+
+        private final TermIndex properties = new TermIndex();
+
+        private final List<SimpleTable> propertyTables = new ArrayList<>();
+
+        // arena of new tables, null to create them on the heap
+        private final OffHeapArena arena;
+
+        // properties to load, null to load all properties
+        private final Set<String> selected;
+
+        // existing table of a property that isn't in the tables yet, null if the property is new
+        private final Function<String, SimpleTable> existingTables;
+
+        private TableLoader(HashMap<String, SimpleTable> tables, Function<String, Dictionary> dictionaries, OffHeapArena arena) {
+            this(tables, dictionaries, arena, null);
+        }
+
+        private TableLoader(HashMap<String, SimpleTable> tables, Function<String, Dictionary> dictionaries, OffHeapArena arena,
+                            Set<String> selected) {
+            this(tables, dictionaries, arena, selected, property -> null);
+        }
+
+        private TableLoader(HashMap<String, SimpleTable> tables, Function<String, Dictionary> dictionaries, OffHeapArena arena,
+                            Set<String> selected, Function<String, SimpleTable> existingTables) {
+            this.tables = tables;
+            this.dictionaries = dictionaries;
+            this.arena = arena;
+            this.selected = selected;
+            this.existingTables = existingTables;
+        }
+
+        /**
+         * Parse all lines of the buffer and put them into the tables
+         *
+         * @param buffer dataset bytes, starting at a line
+         */
+        private void load(ByteBuffer buffer) {
+            TripletTokenizer tokenizer = new TripletTokenizer(buffer);
+            while (tokenizer.nextProperty()) {
+                SimpleTable table = table(tokenizer.bytes(PROPERTY), 0, tokenizer.length(PROPERTY));
+                if (table == null) {
+                    // property is not selected
+                    continue;
+                }
+                tokenizer.terms();
+                Dictionary dict = table.getObjectDictionary();
+
+                DataType subjectType = tokenizer.typeOf(SUBJECT);
+                DataType objectType = tokenizer.typeOf(OBJECT);
+                int subjectKey = extractKey(tokenizer, SUBJECT, subjectType, dict);
+                int objectKey = extractKey(tokenizer, OBJECT, objectType, dict);
+                if (subjectType == DataType.OBJECT && table.getSubjectClass() == null) {
+                    table.setSubjectClass(tokenizer.entityClass(SUBJECT));
+                }
+                if (objectType == DataType.OBJECT && table.getObjectClass() == null) {
+                    table.setObjectClass(tokenizer.entityClass(OBJECT));
+                }
+
+                insert(table, subjectType, subjectKey, objectKey, objectType);
+            }
+        }
+
+        /**
+         * Encode the tokenized lines of the batch and put them into the tables
+         *
+         * @param batch tokenized lines
+         */
+        private void load(TripletBatch batch) {
+            byte[] heap = batch.heap();
+            for (int row = 0; row < batch.size(); row++) {
+                SimpleTable table = table(heap, batch.offset(row, PROPERTY), batch.length(row, PROPERTY));
+                if (table == null) {
+                    continue;
+                }
+                Dictionary dict = table.getObjectDictionary();
+
+                DataType subjectType = batch.type(row, SUBJECT);
+                DataType objectType = batch.type(row, OBJECT);
+                int subjectKey = subjectType == DataType.STRING
+                        ? dict.put(heap, batch.offset(row, SUBJECT), batch.length(row, SUBJECT))
+                        : batch.value(row, SUBJECT);
+                int objectKey = objectType == DataType.STRING
+                        ? dict.put(heap, batch.offset(row, OBJECT), batch.length(row, OBJECT))
+                        : batch.value(row, OBJECT);
+                if (subjectType == DataType.OBJECT && table.getSubjectClass() == null) {
+                    table.setSubjectClass(TripletTokenizer.entityClass(heap, batch.offset(row, SUBJECT), batch.length(row, SUBJECT)));
+                }
+                if (objectType == DataType.OBJECT && table.getObjectClass() == null) {
+                    table.setObjectClass(TripletTokenizer.entityClass(heap, batch.offset(row, OBJECT), batch.length(row, OBJECT)));
+                }
+
+                insert(table, subjectType, subjectKey, objectKey, objectType);
+            }
+        }
+
+        /**
+         * Get the table of the property, create it if needed
+         *
+         * @param bytes  buffer holding the property name
+         * @param offset first byte of the property name
+         * @param length number of bytes of the property name
+         * @return property table, null if the property is not selected
+         */
+        private SimpleTable table(byte[] bytes, int offset, int length) {
+            int property = properties.get(bytes, offset, length);
+            if (property == TermIndex.NOT_FOUND) {
+                // create new table
+                property = propertyTables.size();
+                String name = new String(bytes, offset, length, StandardCharsets.UTF_8);
+                propertyTables.add(selected == null || selected.contains(name) ? tables.computeIfAbsent(name, this::existingOrNewTable) : null);
+                properties.put(bytes, offset, length, property);
+            }
+            return propertyTables.get(property);
+        }
+
+        private void insert(SimpleTable table, DataType subjectType, int subjectKey, int objectKey, DataType objectType) {
+            processTriplet(table, subjectKey, objectKey, objectType);
+            if (subjectType == DataType.STRING) {
+                encodedSubjects.computeIfAbsent(table.getProperty(), p -> new BitSet())
+                        .set(table.size() - 1);
+            }
+        }
+
+        private SimpleTable existingOrNewTable(String property) {
+            SimpleTable table = existingTables.apply(property);
+            return table != null ? table : createTable(property);
+        }
+
+        private SimpleTable createTable(String property) {
+            return new SimpleTable(property, dictionaries.apply(property), arena);
+        }
+    }
 }
@@ -2,16 +2,26 @@ package uni.freiburg.sparqljoin.service;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import uni.freiburg.sparqljoin.join.*;
 import uni.freiburg.sparqljoin.model.db.ComplexTable;
+import uni.freiburg.sparqljoin.model.db.CompressedTable;
+import uni.freiburg.sparqljoin.model.db.OffHeapArena;
+import uni.freiburg.sparqljoin.model.db.RowIdTable;
 import uni.freiburg.sparqljoin.util.Performance;
 
+import java.util.concurrent.ForkJoinPool;
+
 @Service
 public class JoinService {
 
     private static final Logger LOG = LoggerFactory.getLogger(JoinService.class);
 
+    // pool of the parallel joins, the common pool unless the application context provides one
+    @Autowired(required = false)
+    private ForkJoinPool joinPool = ForkJoinPool.commonPool();
+
     /**
      * Join 2 tables by given property using HashJoin algorithm
      * @param R              R relation join table
@@ -25,10 +35,49 @@ public class JoinService {
     public ComplexTable hashJoin(ComplexTable R, ComplexTable S,
                                  String joinPropertyR, JoinOn joinOnR,
                                  String joinPropertyS, JoinOn joinOnS) {
+        return hashJoin(R, S, joinPropertyR, joinOnR, joinPropertyS, joinOnS, null);
+    }
+
+    /**
+     * Join 2 tables by given property using HashJoin algorithm, the output is allocated in an arena
+     * @param R              R relation join table
+     * @param S              S relation join table
+     * @param joinPropertyR  property to join on from table R
+     * @param joinOnR        join field in property from R
+     * @param joinPropertyS  property to join on from table S
+     * @param joinOnS        join field in property from S
+     * @param arena          arena of the output and intermediate tables, null for the heap
+     * @return               joined table
+     */
+    public ComplexTable hashJoin(ComplexTable R, ComplexTable S,
+                                 String joinPropertyR, JoinOn joinOnR,
+                                 String joinPropertyS, JoinOn joinOnS, OffHeapArena arena) {
         int joinPropertyRInt = R.getPropertyDictionary().getInvertedValues().get(joinPropertyR);
         int joinPropertySInt = S.getPropertyDictionary().getInvertedValues().get(joinPropertyS);
 
-        return join(new HashJoin(), R, S, joinPropertyRInt, joinOnR, joinPropertySInt, joinOnS);
+        return join(new HashJoin(arena), R, S, joinPropertyRInt, joinOnR, joinPropertySInt, joinOnS);
+    }
+
+    /**
+     * Join 2 tables by given property using the hybrid GraceHashJoin algorithm, build partitions exceeding the memory budget
+     * are spilled to temporary files
+     * @param R              R relation join table
+     * @param S              S relation join table
+     * @param joinPropertyR  property to join on from table R
+     * @param joinOnR        join field in property from R
+     * @param joinPropertyS  property to join on from table S
+     * @param joinOnS        join field in property from S
+     * @param memoryBudget   bytes of the build partitions joined in memory
+     * @param arena          arena of the output table, null for the heap
+     * @return               joined table
+     */
+    public ComplexTable graceHashJoin(ComplexTable R, ComplexTable S,
+                                 String joinPropertyR, JoinOn joinOnR,
+                                 String joinPropertyS, JoinOn joinOnS, long memoryBudget, OffHeapArena arena) {
+        int joinPropertyRInt = R.getPropertyDictionary().getInvertedValues().get(joinPropertyR);
+        int joinPropertySInt = S.getPropertyDictionary().getInvertedValues().get(joinPropertyS);
+
+        return join(new GraceHashJoin(memoryBudget, null, arena), R, S, joinPropertyRInt, joinOnR, joinPropertySInt, joinOnS);
     }
 
     /**
@@ -44,10 +93,69 @@ public class JoinService {
     public ComplexTable parallelHashJoin(ComplexTable R, ComplexTable S,
                                  String joinPropertyR, JoinOn joinOnR,
                                  String joinPropertyS, JoinOn joinOnS) {
+        return parallelHashJoin(R, S, joinPropertyR, joinOnR, joinPropertyS, joinOnS, null);
+    }
+
+    /**
+     * Join 2 tables by given property using parallel HashJoin algorithm, the output is allocated in an arena
+     * @param R              R relation join table
+     * @param S              S relation join table
+     * @param joinPropertyR  property to join on from table R
+     * @param joinOnR        join field in property from R
+     * @param joinPropertyS  property to join on from table S
+     * @param joinOnS        join field in property from S
+     * @param arena          arena of the output and intermediate tables, null for the heap
+     * @return               joined table
+     */
+    public ComplexTable parallelHashJoin(ComplexTable R, ComplexTable S,
+                                 String joinPropertyR, JoinOn joinOnR,
+                                 String joinPropertyS, JoinOn joinOnS, OffHeapArena arena) {
+        int joinPropertyRInt = R.getPropertyDictionary().getInvertedValues().get(joinPropertyR);
+        int joinPropertySInt = S.getPropertyDictionary().getInvertedValues().get(joinPropertyS);
+
+        return join(new ParallelHashJoin(joinPool, arena), R, S, joinPropertyRInt, joinOnR, joinPropertySInt, joinOnS);
+    }
+
+    /**
+     * Join 2 tables by given property using PartitionedParallelHashJoin algorithm, both tables are hash partitioned
+     * and every thread joins whole partitions with private hash tables
+     * @param R              R relation join table
+     * @param S              S relation join table
+     * @param joinPropertyR  property to join on from table R
+     * @param joinOnR        join field in property from R
+     * @param joinPropertyS  property to join on from table S
+     * @param joinOnS        join field in property from S
+     * @param arena          arena of the output and intermediate tables, null for the heap
+     * @return               joined table
+     */
+    public ComplexTable partitionedParallelHashJoin(ComplexTable R, ComplexTable S,
+                                 String joinPropertyR, JoinOn joinOnR,
+                                 String joinPropertyS, JoinOn joinOnS, OffHeapArena arena) {
         int joinPropertyRInt = R.getPropertyDictionary().getInvertedValues().get(joinPropertyR);
         int joinPropertySInt = S.getPropertyDictionary().getInvertedValues().get(joinPropertyS);
 
-        return join(new ParallelHashJoin(), R, S, joinPropertyRInt, joinOnR, joinPropertySInt, joinOnS);
+        return join(new PartitionedParallelHashJoin(joinPool, arena), R, S, joinPropertyRInt, joinOnR, joinPropertySInt, joinOnS);
+    }
+
+    /**
+     * Join 2 tables by given property using RadixHashJoin algorithm, both tables are clustered into cache-sized partitions
+     * that are joined in parallel
+     * @param R              R relation join table
+     * @param S              S relation join table
+     * @param joinPropertyR  property to join on from table R
+     * @param joinOnR        join field in property from R
+     * @param joinPropertyS  property to join on from table S
+     * @param joinOnS        join field in property from S
+     * @param arena          arena of the output and intermediate tables, null for the heap
+     * @return               joined table
+     */
+    public ComplexTable radixHashJoin(ComplexTable R, ComplexTable S,
+                                 String joinPropertyR, JoinOn joinOnR,
+                                 String joinPropertyS, JoinOn joinOnS, OffHeapArena arena) {
+        int joinPropertyRInt = R.getPropertyDictionary().getInvertedValues().get(joinPropertyR);
+        int joinPropertySInt = S.getPropertyDictionary().getInvertedValues().get(joinPropertyS);
+
+        return join(new RadixHashJoin(joinPool, arena), R, S, joinPropertyRInt, joinOnR, joinPropertySInt, joinOnS);
     }
 
     /**
@@ -63,12 +171,162 @@ public class JoinService {
     public ComplexTable sortMergeJoin(ComplexTable R, ComplexTable S,
                                  String joinPropertyR, JoinOn joinOnR,
                                  String joinPropertyS, JoinOn joinOnS) {
+        return sortMergeJoin(R, S, joinPropertyR, joinOnR, joinPropertyS, joinOnS, null);
+    }
+
+    /**
+     * Join 2 tables by given property using SortMergeJoin algorithm, the output is allocated in an arena
+     * @param R              R relation join table
+     * @param S              S relation join table
+     * @param joinPropertyR  property to join on from table R
+     * @param joinOnR        join field in property from R
+     * @param joinPropertyS  property to join on from table S
+     * @param joinOnS        join field in property from S
+     * @param arena          arena of the output and intermediate tables, null for the heap
+     * @return               joined table
+     */
+    public ComplexTable sortMergeJoin(ComplexTable R, ComplexTable S,
+                                 String joinPropertyR, JoinOn joinOnR,
+                                 String joinPropertyS, JoinOn joinOnS, OffHeapArena arena) {
+        int joinPropertyRInt = R.getPropertyDictionary().getInvertedValues().get(joinPropertyR);
+        int joinPropertySInt = S.getPropertyDictionary().getInvertedValues().get(joinPropertyS);
+
+        return join(new SortMergeJoin(arena), R, S, joinPropertyRInt, joinOnR, joinPropertySInt, joinOnS);
+    }
+
+    /**
+     * Join 2 tables by given property using the ExternalSortMergeJoin algorithm, relations whose sort exceeds the memory
+     * budget are sorted in runs spilled to temporary files
+     * @param R              R relation join table
+     * @param S              S relation join table
+     * @param joinPropertyR  property to join on from table R
+     * @param joinOnR        join field in property from R
+     * @param joinPropertyS  property to join on from table S
+     * @param joinOnS        join field in property from S
+     * @param memoryBudget   bytes of the sort of a relation in memory
+     * @param arena          arena of the output table, null for the heap
+     * @return               joined table
+     */
+    public ComplexTable externalSortMergeJoin(ComplexTable R, ComplexTable S,
+                                 String joinPropertyR, JoinOn joinOnR,
+                                 String joinPropertyS, JoinOn joinOnS, long memoryBudget, OffHeapArena arena) {
+        int joinPropertyRInt = R.getPropertyDictionary().getInvertedValues().get(joinPropertyR);
+        int joinPropertySInt = S.getPropertyDictionary().getInvertedValues().get(joinPropertyS);
+
+        return join(new ExternalSortMergeJoin(memoryBudget, null, arena), R, S, joinPropertyRInt, joinOnR, joinPropertySInt, joinOnS);
+    }
+
+    /**
+     * Join 2 row id tables by given property using HashJoin algorithm, items are materialized later
+     * @param R              R relation join table
+     * @param S              S relation join table
+     * @param joinPropertyR  property to join on from table R
+     * @param joinOnR        join field in property from R
+     * @param joinPropertyS  property to join on from table S
+     * @param joinOnS        join field in property from S
+     * @return               row ids of the joined rows
+     */
+    public RowIdTable hashJoin(RowIdTable R, RowIdTable S,
+                           String joinPropertyR, JoinOn joinOnR,
+                           String joinPropertyS, JoinOn joinOnS) {
+        int joinPropertyRInt = R.getPropertyDictionary().getInvertedValues().get(joinPropertyR);
+        int joinPropertySInt = S.getPropertyDictionary().getInvertedValues().get(joinPropertyS);
+
+        return join(new HashJoin(), R, S, joinPropertyRInt, joinOnR, joinPropertySInt, joinOnS);
+    }
+
+    /**
+     * Join 2 row id tables by given property using parallel HashJoin algorithm, items are materialized later
+     * @param R              R relation join table
+     * @param S              S relation join table
+     * @param joinPropertyR  property to join on from table R
+     * @param joinOnR        join field in property from R
+     * @param joinPropertyS  property to join on from table S
+     * @param joinOnS        join field in property from S
+     * @return               row ids of the joined rows
+     */
+    public RowIdTable parallelHashJoin(RowIdTable R, RowIdTable S,
+                           String joinPropertyR, JoinOn joinOnR,
+                           String joinPropertyS, JoinOn joinOnS) {
+        int joinPropertyRInt = R.getPropertyDictionary().getInvertedValues().get(joinPropertyR);
+        int joinPropertySInt = S.getPropertyDictionary().getInvertedValues().get(joinPropertyS);
+
+        return join(new ParallelHashJoin(joinPool, null), R, S, joinPropertyRInt, joinOnR, joinPropertySInt, joinOnS);
+    }
+
+    /**
+     * Join 2 row id tables by given property using PartitionedParallelHashJoin algorithm, items are materialized later
+     * @param R              R relation join table
+     * @param S              S relation join table
+     * @param joinPropertyR  property to join on from table R
+     * @param joinOnR        join field in property from R
+     * @param joinPropertyS  property to join on from table S
+     * @param joinOnS        join field in property from S
+     * @return               row ids of the joined rows
+     */
+    public RowIdTable partitionedParallelHashJoin(RowIdTable R, RowIdTable S,
+                           String joinPropertyR, JoinOn joinOnR,
+                           String joinPropertyS, JoinOn joinOnS) {
+        int joinPropertyRInt = R.getPropertyDictionary().getInvertedValues().get(joinPropertyR);
+        int joinPropertySInt = S.getPropertyDictionary().getInvertedValues().get(joinPropertyS);
+
+        return join(new PartitionedParallelHashJoin(joinPool, null), R, S, joinPropertyRInt, joinOnR, joinPropertySInt, joinOnS);
+    }
+
+    /**
+     * Join 2 row id tables by given property using RadixHashJoin algorithm, items are materialized later
+     * @param R              R relation join table
+     * @param S              S relation join table
+     * @param joinPropertyR  property to join on from table R
+     * @param joinOnR        join field in property from R
+     * @param joinPropertyS  property to join on from table S
+     * @param joinOnS        join field in property from S
+     * @return               row ids of the joined rows
+     */
+    public RowIdTable radixHashJoin(RowIdTable R, RowIdTable S,
+                           String joinPropertyR, JoinOn joinOnR,
+                           String joinPropertyS, JoinOn joinOnS) {
+        int joinPropertyRInt = R.getPropertyDictionary().getInvertedValues().get(joinPropertyR);
+        int joinPropertySInt = S.getPropertyDictionary().getInvertedValues().get(joinPropertyS);
+
+        return join(new RadixHashJoin(joinPool, null), R, S, joinPropertyRInt, joinOnR, joinPropertySInt, joinOnS);
+    }
+
+    /**
+     * Join 2 row id tables by given property using SortMergeJoin algorithm, items are materialized later
+     * @param R              R relation join table
+     * @param S              S relation join table
+     * @param joinPropertyR  property to join on from table R
+     * @param joinOnR        join field in property from R
+     * @param joinPropertyS  property to join on from table S
+     * @param joinOnS        join field in property from S
+     * @return               row ids of the joined rows
+     */
+    public RowIdTable sortMergeJoin(RowIdTable R, RowIdTable S,
+                           String joinPropertyR, JoinOn joinOnR,
+                           String joinPropertyS, JoinOn joinOnS) {
         int joinPropertyRInt = R.getPropertyDictionary().getInvertedValues().get(joinPropertyR);
         int joinPropertySInt = S.getPropertyDictionary().getInvertedValues().get(joinPropertyS);
 
         return join(new SortMergeJoin(), R, S, joinPropertyRInt, joinOnR, joinPropertySInt, joinOnS);
     }
 
+    /**
+     * Join 2 compressed tables on their subjects using SortMergeJoin algorithm, the sorted tables are merged without sorting
+     * and without decompressing the blocks that can't match
+     * @param R              R relation table
+     * @param S              S relation table
+     * @param arena          arena of the output table, null for the heap
+     * @return               joined table
+     */
+    public ComplexTable sortMergeJoin(CompressedTable R, CompressedTable S, OffHeapArena arena) {
+        LOG.debug("Joining compressed tables '{}'.SUBJECT = '{}'.SUBJECT ...", R.getProperty(), S.getProperty());
+        ComplexTable joinedTable = Performance.measure(() ->
+                new SortMergeJoin(arena).joinOnSubjects(R, S), "SortMergeJoin (compressed)");
+        LOG.debug("Joined table size: {}", joinedTable.size());
+        return joinedTable;
+    }
+
     /**
      * Join call with performance measuring and details logging
      * @param joiner        Join implementation class
@@ -88,9 +346,34 @@ public class JoinService {
         ComplexTable joinedTable = Performance.measure(() ->
                 joiner.join(R, S, joinPropertyR, joinOnR, joinPropertyS,  joinOnS), String.format("%s", joiner.getClass().getSimpleName())
         );
-        LOG.debug("Table 1 length: {}", R.getValues().size());
-        LOG.debug("Table 2 length: {}", S.getValues().size());
-        LOG.debug("Joined table length: {}", joinedTable.getValues().size());
+        LOG.debug("Table 1 length: {}", R.size());
+        LOG.debug("Table 2 length: {}", S.size());
+        LOG.debug("Joined table length: {}", joinedTable.size());
+        return joinedTable;
+    }
+
+    /**
+     * Late materialized join call with performance measuring and details logging
+     * @param joiner        Join implementation class
+     * @param R             R relation join table
+     * @param S             S relation join table
+     * @param joinPropertyR join property from R
+     * @param joinOnR       join field in property from R
+     * @param joinPropertyS join property from S
+     * @param joinOnS       join field in property from S
+     * @return              row ids of the joined rows
+     */
+    private RowIdTable join(AbstractJoin joiner, RowIdTable R, RowIdTable S,
+                            int joinPropertyR, JoinOn joinOnR,
+                            int joinPropertyS, JoinOn joinOnS) {
+        LOG.debug("Joining row ids of '{}' on '{}'.{} = '{}'.{} ...",
+                R.getPropertyDictionary(), R.getPropertyDictionary().get(joinPropertyR), joinOnR, S.getPropertyDictionary().get(joinPropertyS), joinOnS);
+        RowIdTable joinedTable = Performance.measure(() ->
+                joiner.join(R, S, joinPropertyR, joinOnR, joinPropertyS, joinOnS), String.format("%s (row ids)", joiner.getClass().getSimpleName())
+        );
+        LOG.debug("Table 1 length: {}", R.size());
+        LOG.debug("Table 2 length: {}", S.size());
+        LOG.debug("Joined table length: {}", joinedTable.size());
         return joinedTable;
     }
 }
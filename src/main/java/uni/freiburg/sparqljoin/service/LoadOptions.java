@@ -0,0 +1,27 @@
+package uni.freiburg.sparqljoin.service;
+
+import lombok.Builder;
+
+/**
+ * Options of the dataset load
+ *
+ * @param workers              number of parsing threads, 0 or less means number of available processors
+ * @param globalDictionary     use one object dictionary for all tables, so keys of STRING values are the same in every table
+ * @param concurrentDictionary with several workers, intern terms into dictionaries shared by all workers instead of
+ *                             merging the dictionaries of the ranges in file order. Keys then depend on the thread scheduling
+ * @param offHeap              store the table columns in off-heap memory, released when the database is closed
+ * @param compressTables       keep the tables sorted by subject and compressed, a requested table is decompressed into
+ *                             a temporary copy. Only subject merge joins read the compressed blocks. Only used by full loads
+ * @param permutations         build the SO and OS permutations of every table, so merge joins on base tables don't sort.
+ *                             Can't be combined with compressTables, the temporary copies have no permutations
+ */
+@Builder
+public record LoadOptions(int workers, boolean globalDictionary, boolean concurrentDictionary, boolean offHeap,
+                          boolean compressTables, boolean permutations) {
+
+    public LoadOptions {
+        if (compressTables && permutations) {
+            throw new IllegalArgumentException("Compressed tables can't keep permutations");
+        }
+    }
+}
@@ -0,0 +1,375 @@
+package uni.freiburg.sparqljoin.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import uni.freiburg.sparqljoin.model.db.*;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.IntUnaryOperator;
+import java.util.function.Supplier;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Binary columnar snapshot of the database, used to skip parsing the text dataset on startup.
+ * <p>
+ * Layout (big-endian, the table columns in native byte order):
+ * <pre>
+ * header:     magic, version, byte order, dataset size, dataset last modified time, #dictionaries, #tables,
+ *             global dictionary number (-1 if every table has its own dictionary), compressed tables (0 or 1)
+ * dictionary: section length, #keys, term lengths[#keys] (-1 for a key without a term), UTF-8 string heap, checksum
+ * table:      section length, property, subject class, object class (length -1 if unknown), dictionary number, #rows,
+ *             subjects[], objects[], DataType ordinals + 1[], checksum
+ * </pre>
+ * Every section is followed by its CRC32C checksum. Sections are memory-mapped on read, the tables are backed by
+ * their mapped sections and copied to the heap only when rows are inserted. Compressed tables are written decompressed
+ * and compressed again on read. A snapshot written with another global dictionary or compression option is stale.
+ */
+@Service
+public class SnapshotService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SnapshotService.class);
+
+    private static final int MAGIC = 0x53504a53; // "SPJS"
+
+    private static final int VERSION = 5;
+
+    private static final int BYTE_ORDER = ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN ? 0 : 1;
+
+    private static final int HEADER_BYTES = 4 + 4 + 4 + 8 + 8 + 4 + 4 + 4 + 4;
+
+    // term length of a key without a term, or of an unknown entity class
+    private static final int NO_TERM = -1;
+
+    /**
+     * Read the database from the snapshot if it is up-to-date with the dataset.
+     * Otherwise, load the database from text and write a new snapshot.
+     *
+     * @param datasetPath  text dataset the snapshot was built from
+     * @param snapshotPath snapshot file
+     * @param options      load options the snapshot must have been written with
+     * @param textLoad     loads the database from the text dataset with these options
+     * @return database
+     */
+    public Database loadOrCreate(String datasetPath, String snapshotPath, LoadOptions options, Supplier<Database> textLoad) {
+        Path dataset = Path.of(datasetPath);
+        Path snapshot = Path.of(snapshotPath);
+        Optional<Database> database = read(snapshot, dataset, options);
+        if (database.isPresent()) {
+            return database.get();
+        }
+        Database loaded = textLoad.get();
+        write(loaded, snapshot, dataset);
+        return loaded;
+    }
+
+    /**
+     * Write snapshot of the database
+     *
+     * @param database database to save
+     * @param snapshot snapshot file
+     * @param dataset  text dataset the database was loaded from
+     */
+    public void write(Database database, Path snapshot, Path dataset) {
+        LOG.info("Writing snapshot '{}'...", snapshot);
+        // dictionaries are written once, even if they are shared by several tables
+        IdentityHashMap<Dictionary, Integer> dictionaryNumbers = new IdentityHashMap<>();
+        List<Dictionary> dictionaries = new ArrayList<>();
+        if (database.globalDictionary() != null) {
+            // kept even if there are no tables yet, new properties get it
+            dictionaryNumbers.put(database.globalDictionary(), 0);
+            dictionaries.add(database.globalDictionary());
+        }
+        List<SimpleTable> tables = new ArrayList<>(database.tables().values());
+        tables.sort(Comparator.comparing(SimpleTable::getProperty));
+        for (SimpleTable table : tables) {
+            dictionaryNumbers.computeIfAbsent(table.getObjectDictionary(), dictionary -> {
+                dictionaries.add(dictionary);
+                return dictionaries.size() - 1;
+            });
+        }
+
+        Path temp = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+            BasicFileAttributes attributes = Files.readAttributes(dataset, BasicFileAttributes.class);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(BYTE_ORDER);
+            out.writeLong(attributes.size());
+            out.writeLong(attributes.lastModifiedTime().toMillis());
+            out.writeInt(dictionaries.size());
+            out.writeInt(tables.size());
+            out.writeInt(database.globalDictionary() != null ? 0 : -1);
+            out.writeInt(database.isCompressed() ? 1 : 0);
+            for (Dictionary dictionary : dictionaries) {
+                writeDictionary(out, dictionary);
+            }
+            for (SimpleTable table : tables) {
+                writeTable(out, table, dictionaryNumbers.get(table.getObjectDictionary()));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        try {
+            Files.move(temp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Read database from the snapshot
+     *
+     * @param snapshot snapshot file
+     * @param dataset  text dataset the snapshot must be up-to-date with
+     * @param options  load options the snapshot must have been written with, only the global dictionary and
+     *                 the compression are compared
+     * @return database or empty if the snapshot is missing, stale or corrupted
+     */
+    public Optional<Database> read(Path snapshot, Path dataset, LoadOptions options) {
+        if (!Files.exists(snapshot)) {
+            LOG.info("Snapshot '{}' doesn't exist", snapshot);
+            return Optional.empty();
+        }
+        LOG.info("Reading snapshot '{}'...", snapshot);
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES) {
+                LOG.warn("Snapshot '{}' is truncated", snapshot);
+                return Optional.empty();
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            BasicFileAttributes attributes = Files.readAttributes(dataset, BasicFileAttributes.class);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                LOG.info("Snapshot '{}' has unsupported format", snapshot);
+                return Optional.empty();
+            }
+            if (header.getInt() != BYTE_ORDER) {
+                LOG.info("Snapshot '{}' has another byte order", snapshot);
+                return Optional.empty();
+            }
+            if (header.getLong() != attributes.size() || header.getLong() != attributes.lastModifiedTime().toMillis()) {
+                LOG.info("Snapshot '{}' is stale", snapshot);
+                return Optional.empty();
+            }
+            int numDictionaries = header.getInt();
+            int numTables = header.getInt();
+            int globalDictionary = header.getInt();
+            boolean compressed = header.getInt() != 0;
+            if ((globalDictionary >= 0) != options.globalDictionary() || compressed != options.compressTables()) {
+                LOG.info("Snapshot '{}' was written with other load options", snapshot);
+                return Optional.empty();
+            }
+
+            long position = HEADER_BYTES;
+            List<Dictionary> dictionaries = new ArrayList<>();
+            for (int i = 0; i < numDictionaries; i++) {
+                MappedByteBuffer section = mapSection(channel, position);
+                dictionaries.add(readDictionary(section));
+                position += Long.BYTES + section.capacity() + Long.BYTES;
+            }
+            HashMap<String, SimpleTable> tables = new HashMap<>();
+            for (int i = 0; i < numTables; i++) {
+                MappedByteBuffer section = mapSection(channel, position);
+                SimpleTable table = readTable(section, dictionaries);
+                tables.put(table.getProperty(), table);
+                position += Long.BYTES + section.capacity() + Long.BYTES;
+            }
+            Dictionary dictionary = globalDictionary < 0 ? null : dictionaries.get(globalDictionary);
+            return Optional.of(compressed ? compress(tables, dictionary) : new Database(tables, dictionary, null));
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Snapshot '{}' can't be read: {}", snapshot, e.toString());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Compress the read tables, their statistics are collected first like on a load
+     *
+     * @param tables           read tables
+     * @param globalDictionary dictionary shared by all tables, null if every table has its own dictionary
+     * @return compressed database
+     */
+    private static Database compress(HashMap<String, SimpleTable> tables, Dictionary globalDictionary) {
+        HashMap<String, CompressedTable> compressedTables = new HashMap<>();
+        HashMap<String, PropertyStatistics> statistics = new HashMap<>();
+        tables.forEach((property, table) -> {
+            statistics.put(property, PropertyStatistics.of(table, PropertyStatistics.DEFAULT_TOP_KEYS));
+            compressedTables.put(property, CompressedTable.of(table));
+        });
+        return Database.compressed(compressedTables, statistics, globalDictionary, null);
+    }
+
+    private static void writeDictionary(DataOutputStream out, Dictionary dictionary) throws IOException {
+        int numKeys = dictionary.keyLimit() - 1;
+        byte[][] terms = new byte[numKeys][];
+        int heapBytes = 0;
+        for (int key = 1; key <= numKeys; key++) {
+            String term = dictionary.get(key);
+            if (term != null) {
+                terms[key - 1] = term.getBytes(StandardCharsets.UTF_8);
+                heapBytes += terms[key - 1].length;
+            }
+        }
+        out.writeLong(4L + 4L * numKeys + heapBytes);
+        CheckedOutputStream section = new CheckedOutputStream(out, new CRC32C());
+        DataOutputStream sectionOut = new DataOutputStream(section);
+        sectionOut.writeInt(numKeys);
+        for (byte[] term : terms) {
+            sectionOut.writeInt(term == null ? NO_TERM : term.length);
+        }
+        for (byte[] term : terms) {
+            if (term != null) {
+                sectionOut.write(term);
+            }
+        }
+        sectionOut.flush();
+        out.writeLong(section.getChecksum().getValue());
+    }
+
+    private static Dictionary readDictionary(MappedByteBuffer section) {
+        int numKeys = section.getInt();
+        IntBuffer lengths = section.slice(Integer.BYTES, Integer.BYTES * numKeys).asIntBuffer();
+        int position = Integer.BYTES * (numKeys + 1);
+        String[] terms = new String[numKeys + 1];
+        byte[] term = new byte[64];
+        for (int key = 1; key <= numKeys; key++) {
+            int length = lengths.get(key - 1);
+            if (length == NO_TERM) {
+                continue;
+            }
+            if (term.length < length) {
+                term = new byte[length];
+            }
+            section.get(position, term, 0, length);
+            terms[key] = new String(term, 0, length, StandardCharsets.UTF_8);
+            position += length;
+        }
+        return Dictionary.of(terms, numKeys + 1);
+    }
+
+    private static void writeTable(DataOutputStream out, SimpleTable table, int dictionaryNumber) throws IOException {
+        byte[] property = table.getProperty().getBytes(StandardCharsets.UTF_8);
+        byte[] subjectClass = table.getSubjectClass() == null ? null : table.getSubjectClass().getBytes(StandardCharsets.UTF_8);
+        byte[] objectClass = table.getObjectClass() == null ? null : table.getObjectClass().getBytes(StandardCharsets.UTF_8);
+        int numRows = table.size();
+        out.writeLong(4L + property.length + 4L + (subjectClass == null ? 0 : subjectClass.length)
+                + 4L + (objectClass == null ? 0 : objectClass.length) + 4L + 4L + 9L * numRows);
+        CheckedOutputStream section = new CheckedOutputStream(out, new CRC32C());
+        DataOutputStream sectionOut = new DataOutputStream(section);
+        sectionOut.writeInt(property.length);
+        sectionOut.write(property);
+        writeTerm(sectionOut, subjectClass);
+        writeTerm(sectionOut, objectClass);
+        sectionOut.writeInt(dictionaryNumber);
+        sectionOut.writeInt(numRows);
+        writeColumn(sectionOut, numRows, table::subject);
+        writeColumn(sectionOut, numRows, table::object);
+        for (int row = 0; row < numRows; row++) {
+            sectionOut.writeByte(table.type(row).ordinal() + 1);
+        }
+        sectionOut.flush();
+        out.writeLong(section.getChecksum().getValue());
+    }
+
+    private static void writeTerm(DataOutputStream out, byte[] term) throws IOException {
+        out.writeInt(term == null ? NO_TERM : term.length);
+        if (term != null) {
+            out.write(term);
+        }
+    }
+
+    private static String readTerm(MappedByteBuffer section) {
+        int length = section.getInt();
+        if (length == NO_TERM) {
+            return null;
+        }
+        byte[] term = new byte[length];
+        section.get(term);
+        return new String(term, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Write an int column in native byte order, so it can be read from the mapped section as it is
+     *
+     * @param out    section output
+     * @param size   number of values
+     * @param values value by row
+     */
+    private static void writeColumn(DataOutputStream out, int size, IntUnaryOperator values) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocate(1 << 16).order(ByteOrder.nativeOrder());
+        for (int row = 0; row < size; row++) {
+            if (!chunk.hasRemaining()) {
+                out.write(chunk.array(), 0, chunk.position());
+                chunk.clear();
+            }
+            chunk.putInt(values.applyAsInt(row));
+        }
+        out.write(chunk.array(), 0, chunk.position());
+    }
+
+    private static SimpleTable readTable(MappedByteBuffer section, List<Dictionary> dictionaries) {
+        byte[] property = new byte[section.getInt()];
+        section.get(property);
+        String subjectClass = readTerm(section);
+        String objectClass = readTerm(section);
+        Dictionary dictionary = dictionaries.get(section.getInt());
+        int numRows = section.getInt();
+        // columns are backed by the mapped section, not copied
+        int subjects = section.position();
+        int objects = subjects + Integer.BYTES * numRows;
+        int types = objects + Integer.BYTES * numRows;
+        SimpleTable table = new SimpleTable(new String(property, StandardCharsets.UTF_8), dictionary,
+                section.slice(subjects, Integer.BYTES * numRows), section.slice(objects, Integer.BYTES * numRows),
+                section.slice(types, numRows), numRows);
+        table.setSubjectClass(subjectClass);
+        table.setObjectClass(objectClass);
+        return table;
+    }
+
+    /**
+     * Map section payload and verify its checksum
+     *
+     * @param channel  snapshot file
+     * @param position position of the section length
+     * @return mapped payload
+     * @throws IllegalStateException if the section length is invalid or the checksum doesn't match
+     */
+    private static MappedByteBuffer mapSection(FileChannel channel, long position) throws IOException {
+        ByteBuffer length = ByteBuffer.allocate(Long.BYTES);
+        channel.read(length, position);
+        long payloadBytes = length.flip().getLong();
+        if (payloadBytes < 0 || payloadBytes > Integer.MAX_VALUE || position + 2 * Long.BYTES + payloadBytes > channel.size()) {
+            throw new IllegalStateException("invalid section length at " + position);
+        }
+        MappedByteBuffer payload = channel.map(FileChannel.MapMode.READ_ONLY, position + Long.BYTES, payloadBytes);
+        ByteBuffer checksum = ByteBuffer.allocate(Long.BYTES);
+        channel.read(checksum, position + Long.BYTES + payloadBytes);
+        CRC32C crc = new CRC32C();
+        crc.update(payload.duplicate());
+        if (crc.getValue() != checksum.flip().getLong()) {
+            throw new IllegalStateException("checksum mismatch at " + position);
+        }
+        return payload;
+    }
+}
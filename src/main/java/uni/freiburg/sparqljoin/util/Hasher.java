@@ -30,6 +30,60 @@ public class Hasher {
         return hash;
     }
 
+    /**
+     * Hash bytes by SDBM algorithm, mixed with the int hash to spread the low bits
+     * @param bytes  to hash
+     * @param offset first byte to hash
+     * @param length number of bytes to hash
+     * @return hashed value
+     */
+    public static int hash(final byte[] bytes, int offset, int length) {
+        int hash = 0;
+        for (int i = offset; i < offset + length; ++i) {
+            hash = (bytes[i] & 0xff) + (hash << 6) + (hash << 16) - hash;
+        }
+        return hash(hash);
+    }
+
+    /**
+     * Hash the UTF-8 encoding of a string, equal to hash(bytes, offset, length) of its encoded bytes.
+     * The string is encoded on the fly, unpaired surrogates are encoded as '?' like String.getBytes does.
+     * @param s to hash
+     * @return hashed value
+     */
+    public static int hashUtf8(final String s) {
+        int hash = 0;
+        for (int i = 0; i < s.length(); ++i) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                hash = c + (hash << 6) + (hash << 16) - hash;
+                continue;
+            }
+            int codePoint = c;
+            if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                codePoint = Character.toCodePoint(c, s.charAt(++i));
+            } else if (Character.isSurrogate(c)) {
+                codePoint = '?';
+            }
+            if (codePoint < 0x80) {
+                hash = codePoint + (hash << 6) + (hash << 16) - hash;
+            } else if (codePoint < 0x800) {
+                hash = (0xc0 | codePoint >> 6) + (hash << 6) + (hash << 16) - hash;
+                hash = (0x80 | codePoint & 0x3f) + (hash << 6) + (hash << 16) - hash;
+            } else if (codePoint < 0x10000) {
+                hash = (0xe0 | codePoint >> 12) + (hash << 6) + (hash << 16) - hash;
+                hash = (0x80 | codePoint >> 6 & 0x3f) + (hash << 6) + (hash << 16) - hash;
+                hash = (0x80 | codePoint & 0x3f) + (hash << 6) + (hash << 16) - hash;
+            } else {
+                hash = (0xf0 | codePoint >> 18) + (hash << 6) + (hash << 16) - hash;
+                hash = (0x80 | codePoint >> 12 & 0x3f) + (hash << 6) + (hash << 16) - hash;
+                hash = (0x80 | codePoint >> 6 & 0x3f) + (hash << 6) + (hash << 16) - hash;
+                hash = (0x80 | codePoint & 0x3f) + (hash << 6) + (hash << 16) - hash;
+            }
+        }
+        return hash(hash);
+    }
+
     /**
      * Hash int
      * @param a to hash
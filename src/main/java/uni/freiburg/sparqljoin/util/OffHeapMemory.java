@@ -0,0 +1,130 @@
+package uni.freiburg.sparqljoin.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Accounting of the direct memory used by off-heap tables.
+ * Allocations fail once the limit would be exceeded. Freed buffers are released right away instead of
+ * waiting for the garbage collector, so a freed buffer must not be used anymore.
+ * Direct memory is also bounded by -XX:MaxDirectMemorySize, which defaults to the maximum heap size.
+ */
+public final class OffHeapMemory {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OffHeapMemory.class);
+
+    private static final AtomicLong USED = new AtomicLong();
+
+    private static final AtomicLong PEAK = new AtomicLong();
+
+    private static volatile long limit = Long.MAX_VALUE;
+
+    // sun.misc.Unsafe.invokeCleaner bound to the Unsafe instance, null if not accessible
+    private static final MethodHandle INVOKE_CLEANER = invokeCleaner();
+
+    private OffHeapMemory() {
+    }
+
+    /**
+     * Allocate direct memory in native byte order
+     *
+     * @param bytes size of the buffer
+     * @return zeroed direct buffer
+     * @throws IllegalStateException if the limit would be exceeded
+     */
+    public static ByteBuffer allocate(int bytes) {
+        reserve(bytes);
+        try {
+            return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+        } catch (OutOfMemoryError e) {
+            USED.addAndGet(-bytes);
+            throw e;
+        }
+    }
+
+    /**
+     * Release a buffer allocated by this class
+     *
+     * @param buffer buffer to release, must not be used afterwards
+     */
+    public static void free(ByteBuffer buffer) {
+        USED.addAndGet(-buffer.capacity());
+        if (INVOKE_CLEANER != null) {
+            try {
+                INVOKE_CLEANER.invokeExact(buffer);
+            } catch (Throwable e) {
+                throw new IllegalStateException("Direct buffer can't be released", e);
+            }
+        }
+    }
+
+    /**
+     * @return bytes currently allocated
+     */
+    public static long used() {
+        return USED.get();
+    }
+
+    /**
+     * @return most bytes allocated at the same time
+     */
+    public static long peak() {
+        return PEAK.get();
+    }
+
+    /**
+     * @return maximum number of bytes that can be allocated
+     */
+    public static long limit() {
+        return limit;
+    }
+
+    /**
+     * @param bytes maximum number of bytes that can be allocated, 0 or less for no limit
+     */
+    public static void setLimit(long bytes) {
+        limit = bytes > 0 ? bytes : Long.MAX_VALUE;
+    }
+
+    /**
+     * @return usage summary for logging
+     */
+    public static String report() {
+        return String.format("Off-heap memory: %.1f MB used, %.1f MB peak, limit %s",
+                used() / 1e6, peak() / 1e6, limit == Long.MAX_VALUE ? "none" : String.format("%.1f MB", limit / 1e6));
+    }
+
+    private static void reserve(int bytes) {
+        long used;
+        do {
+            used = USED.get();
+            if (used + bytes > limit) {
+                throw new IllegalStateException(String.format("Off-heap limit of %d bytes exceeded: %d bytes in use, %d bytes requested",
+                        limit, used, bytes));
+            }
+        } while (!USED.compareAndSet(used, used + bytes));
+        PEAK.accumulateAndGet(used + bytes, Math::max);
+    }
+
+    private static MethodHandle invokeCleaner() {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            return MethodHandles.lookup()
+                    .findVirtual(unsafeClass, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class))
+                    .bindTo(theUnsafe.get(null));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOG.warn("Direct buffers are released by the garbage collector: {}", e.toString());
+            return null;
+        }
+    }
+}
@@ -32,4 +32,70 @@ public class Performance {
         LOG.info("Stage '{}' took {} seconds", methodName, secondsWithMillis);
         return result;
     }
+
+    /**
+     * Start measuring the throughput of a pipeline stage
+     *
+     * @param stageName name of the stage for logging purposes
+     * @return throughput counter of the stage
+     */
+    public static Throughput throughput(final String stageName) {
+        return new Throughput(stageName);
+    }
+
+    /**
+     * Throughput of a pipeline stage. Busy time excludes the time the stage waits for other stages,
+     * so the slowest stage of a pipeline is the one with the lowest busy throughput.
+     */
+    public static final class Throughput {
+
+        private final String stageName;
+
+        private final long start = System.nanoTime();
+
+        private long busyStart = start;
+
+        private long busyNanos;
+
+        private long lines;
+
+        private long bytes;
+
+        private Throughput(String stageName) {
+            this.stageName = stageName;
+        }
+
+        /**
+         * Stage starts working after waiting for another stage
+         */
+        public void resume() {
+            busyStart = System.nanoTime();
+        }
+
+        /**
+         * Stage processed a unit of work and waits for another stage
+         *
+         * @param processedLines number of processed lines
+         * @param processedBytes number of processed dataset bytes
+         */
+        public void pause(long processedLines, long processedBytes) {
+            busyNanos += System.nanoTime() - busyStart;
+            lines += processedLines;
+            bytes += processedBytes;
+        }
+
+        /**
+         * Log the throughput of the stage
+         */
+        public void report() {
+            double busySeconds = busyNanos / 1e9;
+            double totalSeconds = (System.nanoTime() - start) / 1e9;
+            double megabytes = bytes / (1024.0 * 1024.0);
+            LOG.info("Stage '{}' processed {} lines ({} MB) in {} seconds, busy {} seconds: {} lines/s, {} MB/s while busy",
+                    stageName, lines, String.format("%.1f", megabytes),
+                    String.format("%.3f", totalSeconds), String.format("%.3f", busySeconds),
+                    String.format("%.0f", lines / Math.max(busySeconds, 1e-9)),
+                    String.format("%.1f", megabytes / Math.max(busySeconds, 1e-9)));
+        }
+    }
 }
@@ -0,0 +1,128 @@
+package uni.freiburg.sparqljoin.model.db;
+
+import org.junit.Assert;
+import org.junit.Test;
+import uni.freiburg.sparqljoin.util.Hasher;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class DictionaryTest {
+
+    // slots of a new dictionary, twice its initial capacity
+    private static final int INITIAL_SLOTS = 32;
+
+    @Test
+    public void testRemoveWithinProbeChain() {
+        // terms with the same home slot form one probe chain
+        List<String> chain = collidingTerms(4);
+        Dictionary dictionary = new Dictionary();
+        List<Integer> keys = new ArrayList<>();
+        for (String term : chain) {
+            keys.add(dictionary.put(term));
+        }
+
+        // removing the head shifts the rest of the chain back, the other terms stay reachable
+        Assert.assertEquals(chain.get(0), dictionary.remove(keys.get(0)));
+        Assert.assertEquals(Dictionary.NOT_FOUND, dictionary.getKey(chain.get(0)));
+        Assert.assertNull(dictionary.get(keys.get(0)));
+        for (int i = 1; i < chain.size(); i++) {
+            Assert.assertEquals((int) keys.get(i), dictionary.getKey(chain.get(i)));
+        }
+
+        // removing from the middle, keys aren't reused
+        Assert.assertEquals(chain.get(2), dictionary.remove(keys.get(2)));
+        Assert.assertEquals((int) keys.get(1), dictionary.getKey(chain.get(1)));
+        Assert.assertEquals((int) keys.get(3), dictionary.getKey(chain.get(3)));
+        int newKey = dictionary.put(chain.get(0));
+        Assert.assertEquals(chain.size() + 1, newKey);
+        Assert.assertEquals(newKey, dictionary.getKey(chain.get(0)));
+        Assert.assertEquals(newKey, dictionary.put(chain.get(0)));
+        Assert.assertEquals(3, dictionary.size());
+        Assert.assertEquals(chain.size() + 2, dictionary.keyLimit());
+    }
+
+    @Test
+    public void testCloneIsModifiedIndependently() {
+        Dictionary original = new Dictionary();
+        int alice = original.put("Alice");
+        int bob = original.put("Bob");
+        Dictionary clone = original.clone();
+
+        int carol = original.put("Carol");
+        original.remove(alice);
+        Assert.assertEquals(alice, clone.getKey("Alice"));
+        Assert.assertEquals(Dictionary.NOT_FOUND, clone.getKey("Carol"));
+        Assert.assertNull(clone.get(carol));
+        Assert.assertEquals(2, clone.size());
+
+        int dave = clone.put("Dave");
+        clone.remove(bob);
+        Assert.assertEquals(bob, original.getKey("Bob"));
+        Assert.assertEquals(Dictionary.NOT_FOUND, original.getKey("Dave"));
+        // both dictionaries handed out the next key on their own
+        Assert.assertEquals(carol, dave);
+        Assert.assertEquals("Carol", original.get(carol));
+        Assert.assertEquals("Dave", clone.get(dave));
+        Assert.assertEquals(Dictionary.NOT_FOUND, original.getKey("Alice"));
+        Assert.assertEquals(2, original.size());
+        Assert.assertEquals(2, clone.size());
+
+        // a clone of a clone doesn't see later changes of either
+        Dictionary cloneOfClone = clone.clone();
+        clone.put("Eve");
+        Assert.assertEquals(Dictionary.NOT_FOUND, cloneOfClone.getKey("Eve"));
+        Assert.assertEquals(dave, cloneOfClone.getKey("Dave"));
+    }
+
+    @Test
+    public void testGrowPastInitialCapacity() {
+        Dictionary dictionary = new Dictionary();
+        for (int i = 0; i < 10_000; i++) {
+            Assert.assertEquals(i + 1, dictionary.put("term" + i));
+        }
+        Assert.assertEquals(10_000, dictionary.size());
+        for (int i = 0; i < 10_000; i++) {
+            Assert.assertEquals("term" + i, dictionary.get(i + 1));
+            Assert.assertEquals(i + 1, dictionary.getKey("term" + i));
+        }
+        byte[] bytes = "term9999".getBytes();
+        Assert.assertEquals(10_000, dictionary.put(bytes, 0, bytes.length));
+        Assert.assertEquals(Dictionary.NOT_FOUND, dictionary.getKey("term10000"));
+    }
+
+    @Test
+    public void testFreezeConcurrentDictionary() {
+        ConcurrentDictionary dictionary = new ConcurrentDictionary();
+        for (int i = 0; i < 20_000; i++) {
+            dictionary.put("term" + i % 10_000);
+        }
+        Assert.assertEquals(10_000, dictionary.size());
+
+        Dictionary frozen = dictionary.freeze();
+        Assert.assertFalse(frozen instanceof ConcurrentDictionary);
+        Assert.assertEquals(dictionary, frozen);
+        for (int key = 1; key <= 10_000; key++) {
+            Assert.assertEquals(key, frozen.getKey(dictionary.get(key)));
+        }
+        // the frozen copy takes new terms after the keys of the concurrent dictionary
+        Assert.assertEquals(10_001, frozen.put("term10000"));
+        Assert.assertEquals(Dictionary.NOT_FOUND, dictionary.getKey("term10000"));
+        Assert.assertEquals(10_000, dictionary.clone().size());
+    }
+
+    /**
+     * @param count number of terms
+     * @return terms with the same home slot in a new dictionary
+     */
+    private static List<String> collidingTerms(int count) {
+        List<String> terms = new ArrayList<>();
+        int home = Hasher.hashUtf8("term0") & (INITIAL_SLOTS - 1);
+        for (int i = 0; terms.size() < count; i++) {
+            if ((Hasher.hashUtf8("term" + i) & (INITIAL_SLOTS - 1)) == home) {
+                terms.add("term" + i);
+            }
+        }
+        return terms;
+    }
+}
@@ -1,19 +1,40 @@
 package uni.freiburg.sparqljoin.service;
 
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
 import org.mockito.runners.MockitoJUnitRunner;
 import uni.freiburg.sparqljoin.model.db.*;
+import uni.freiburg.sparqljoin.util.OffHeapMemory;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
 
 @RunWith(MockitoJUnitRunner.class)
 public class DataLoaderServiceTest {
 
     private static final String DATASET_PATH = "dataset/test.txt";
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @InjectMocks
     DataLoaderService dataLoaderService;
 
@@ -28,6 +49,338 @@ public class DataLoaderServiceTest {
                 expected.tables().get(key).list(), actualTable.list()));
     }
 
+    @Test
+    public void testParallelLoadDataset() {
+        Database expected = dataLoaderService.load(DATASET_PATH);
+        Database actual = dataLoaderService.load(DATASET_PATH, 4);
+
+        Assert.assertEquals("Some table is missing", expected.tables().size(), actual.tables().size());
+
+        actual.tables().forEach((key, actualTable) -> {
+            Assert.assertEquals(String.format("For key '%s' tables are not equal", key),
+                    expected.tables().get(key).list(), actualTable.list());
+            Assert.assertEquals(String.format("For key '%s' dictionaries are not equal", key),
+                    expected.tables().get(key).getObjectDictionary(), actualTable.getObjectDictionary());
+        });
+    }
+
+    @Test
+    public void testLoadWithGlobalDictionary() {
+        LoadOptions options = LoadOptions.builder().workers(1).globalDictionary(true).build();
+        Database actual = dataLoaderService.load(DATASET_PATH, options);
+
+        Dictionary globalDictionary = actual.tables().get("sorg:email").getObjectDictionary();
+        actual.tables().forEach((key, table) -> Assert.assertSame(String.format("Table '%s' should use the global dictionary", key),
+                globalDictionary, table.getObjectDictionary()));
+        Assert.assertEquals(3, globalDictionary.getValues().size());
+        Assert.assertEquals(List.of(new Item(0, 2, DataType.STRING), new Item(2, 2, DataType.STRING)),
+                actual.tables().get("foaf:givenName").list());
+        Assert.assertEquals(List.of(new Item(2, 3, DataType.STRING)), actual.tables().get("foaf:familyName").list());
+
+        Database parallel = dataLoaderService.load(DATASET_PATH, LoadOptions.builder().workers(4).globalDictionary(true).build());
+        parallel.tables().forEach((key, table) -> {
+            Assert.assertEquals(actual.tables().get(key).list(), table.list());
+            Assert.assertEquals(globalDictionary, table.getObjectDictionary());
+        });
+    }
+
+    @Test
+    public void testLoadWithConcurrentDictionary() {
+        Database expected = dataLoaderService.load(DATASET_PATH, LoadOptions.builder().workers(1).globalDictionary(true).build());
+        Database actual = dataLoaderService.load(DATASET_PATH,
+                LoadOptions.builder().workers(4).globalDictionary(true).concurrentDictionary(true).build());
+
+        Dictionary expectedDictionary = expected.tables().get("sorg:email").getObjectDictionary();
+        Dictionary actualDictionary = actual.tables().get("sorg:email").getObjectDictionary();
+        // the parsing threads share a concurrent dictionary, the database keeps a plain copy
+        Assert.assertFalse(actualDictionary instanceof ConcurrentDictionary);
+        Assert.assertEquals(expectedDictionary.size(), actualDictionary.size());
+        actual.tables().forEach((key, table) -> {
+            Assert.assertSame(String.format("Table '%s' should use the shared dictionary", key),
+                    actualDictionary, table.getObjectDictionary());
+            List<Item> expectedItems = expected.tables().get(key).list();
+            List<Item> actualItems = table.list();
+            Assert.assertEquals(expectedItems.size(), actualItems.size());
+            for (int row = 0; row < expectedItems.size(); row++) {
+                // keys depend on the thread scheduling, terms don't
+                Item expectedItem = expectedItems.get(row);
+                Item actualItem = actualItems.get(row);
+                Assert.assertEquals(expectedItem.type(), actualItem.type());
+                if (expectedItem.type() == DataType.STRING) {
+                    Assert.assertEquals(expectedDictionary.get(expectedItem.object()), actualDictionary.get(actualItem.object()));
+                } else {
+                    Assert.assertEquals(expectedItem.object(), actualItem.object());
+                }
+            }
+        });
+    }
+
+    @Test
+    public void testAppendDataset() {
+        Database database = dataLoaderService.load(DATASET_PATH);
+        String delta = """
+                wsdbm:User3\tfoaf:givenName\t"BERTA" .
+                wsdbm:User3\tfoaf:givenName\t"ANNA" .
+                wsdbm:User3\twsdbm:follows\twsdbm:User0 .
+                wsdbm:User3\tsorg:jobTitle\t"Pilot" .""";
+
+        HashMap<String, Integer> inserted = dataLoaderService.append(database,
+                new ByteArrayInputStream(delta.getBytes(StandardCharsets.UTF_8)));
+
+        Assert.assertEquals(Map.of("foaf:givenName", 2, "wsdbm:follows", 1, "sorg:jobTitle", 1), inserted);
+        Assert.assertEquals(List.of(new Item(0, 1, DataType.STRING), new Item(2, 1, DataType.STRING),
+                        new Item(3, 1, DataType.STRING), new Item(3, 2, DataType.STRING)),
+                database.tables().get("foaf:givenName").list());
+        Assert.assertEquals("ANNA", database.tables().get("foaf:givenName").getObjectDictionary().get(2));
+        Assert.assertEquals(new Item(3, 0, DataType.OBJECT), database.tables().get("wsdbm:follows").list().get(2));
+        Assert.assertEquals(List.of(new Item(3, 1, DataType.STRING)), database.tables().get("sorg:jobTitle").list());
+        Assert.assertEquals(1, database.tables().get("sorg:email").list().size());
+    }
+
+    @Test
+    public void testAppendWithGlobalDictionary() throws IOException {
+        Path dataset = folder.getRoot().toPath().resolve("follows.txt");
+        Files.writeString(dataset, "wsdbm:User0\twsdbm:follows\twsdbm:User24 .\n");
+        LoadOptions options = LoadOptions.builder().workers(1).globalDictionary(true).build();
+        String delta = "wsdbm:User3\tsorg:jobTitle\t\"Pilot\" .";
+
+        // a single table still shares its dictionary with the tables of new properties
+        Database database = dataLoaderService.load(dataset.toString(), options);
+        dataLoaderService.append(database, new ByteArrayInputStream(delta.getBytes(StandardCharsets.UTF_8)));
+        Assert.assertSame(database.globalDictionary(), database.table("wsdbm:follows").getObjectDictionary());
+        Assert.assertSame(database.globalDictionary(), database.table("sorg:jobTitle").getObjectDictionary());
+
+        // new properties of a lazy database are listed without loading the other tables
+        Database lazy = dataLoaderService.loadLazy(dataset.toString(), options);
+        dataLoaderService.append(lazy, new ByteArrayInputStream(delta.getBytes(StandardCharsets.UTF_8)));
+        Assert.assertEquals(Set.of("wsdbm:follows", "sorg:jobTitle"), lazy.properties());
+        Assert.assertEquals(List.of(new Item(3, 1, DataType.STRING)), lazy.table("sorg:jobTitle").list());
+        Assert.assertSame(lazy.globalDictionary(), lazy.table("sorg:jobTitle").getObjectDictionary());
+        Assert.assertSame(lazy.globalDictionary(), lazy.table("wsdbm:follows").getObjectDictionary());
+        Assert.assertEquals(1, lazy.table("wsdbm:follows").size());
+    }
+
+    @Test
+    public void testLoadCompressedDataset() throws IOException {
+        File compressed = folder.newFile("test.txt.gz");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(compressed.toPath()))) {
+            out.write(Files.readAllBytes(Path.of(DATASET_PATH)));
+        }
+        Database expected = dataLoaderService.load(DATASET_PATH);
+        Database actual = dataLoaderService.load(compressed.getPath());
+
+        Assert.assertEquals("Some table is missing", expected.tables().size(), actual.tables().size());
+        actual.tables().forEach((key, actualTable) -> {
+            Assert.assertEquals(String.format("For key '%s' tables are not equal", key),
+                    expected.tables().get(key).list(), actualTable.list());
+            Assert.assertEquals(String.format("For key '%s' dictionaries are not equal", key),
+                    expected.tables().get(key).getObjectDictionary(), actualTable.getObjectDictionary());
+        });
+    }
+
+    @Test(timeout = 60_000)
+    public void testLoadMalformedCompressedDataset() throws IOException {
+        // the tokenize stage fails on the malformed line, while the decompress stage is blocks ahead and waits
+        // on the full queue
+        File compressed = folder.newFile("malformed.txt.gz");
+        byte[] dataset = (Files.readString(Path.of(DATASET_PATH)) + "\n").getBytes(StandardCharsets.UTF_8);
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(compressed.toPath()))) {
+            for (int bytes = 0; bytes < 8 << 20; bytes += dataset.length) {
+                out.write(dataset);
+            }
+            out.write("wsdbm:User0 wsdbm:follows\n".getBytes(StandardCharsets.UTF_8));
+            for (int bytes = 0; bytes < 32 << 20; bytes += dataset.length) {
+                out.write(dataset);
+            }
+        }
+        Assert.assertThrows(IllegalArgumentException.class, () -> dataLoaderService.load(compressed.getPath()));
+        assertPipelineStopped();
+    }
+
+    @Test(timeout = 60_000)
+    public void testLoadCorruptCompressedDataset() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] dataset = (Files.readString(Path.of(DATASET_PATH)) + "\n").getBytes(StandardCharsets.UTF_8);
+        try (OutputStream out = new GZIPOutputStream(bytes)) {
+            for (int i = 0; i < 10_000; i++) {
+                out.write(dataset);
+            }
+        }
+        byte[] corrupt = bytes.toByteArray();
+        Arrays.fill(corrupt, corrupt.length / 2, corrupt.length / 2 + 64, (byte) 0xff);
+        File compressed = folder.newFile("corrupt.txt.gz");
+        Files.write(compressed.toPath(), corrupt);
+
+        // the decompress stage fails, or the encode stage on garbled lines, either way the load fails
+        Assert.assertThrows(RuntimeException.class, () -> dataLoaderService.load(compressed.getPath()));
+        assertPipelineStopped();
+    }
+
+    /**
+     * Wait until the stages of a failed compressed load are done, a stage blocked forever fails the test by its timeout
+     */
+    private static void assertPipelineStopped() {
+        while (Thread.getAllStackTraces().keySet().stream()
+                .anyMatch(thread -> thread.getName().startsWith(DataLoaderService.PIPELINE_THREAD_NAME))) {
+            Thread.onSpinWait();
+        }
+    }
+
+    @Test
+    public void testLazyLoadDataset() throws IOException {
+        Path dataset = folder.getRoot().toPath().resolve("test.txt");
+        Files.copy(Path.of(DATASET_PATH), dataset);
+        Database expected = dataLoaderService.load(DATASET_PATH);
+        Database actual = dataLoaderService.loadLazy(dataset.toString(), LoadOptions.builder().workers(1).build());
+
+        Assert.assertEquals(expected.tables().keySet(), actual.properties());
+        SimpleTable givenName = actual.table("foaf:givenName");
+        Assert.assertEquals(expected.tables().get("foaf:givenName").list(), givenName.list());
+        Assert.assertEquals(expected.tables().get("foaf:givenName").getObjectDictionary(), givenName.getObjectDictionary());
+        Assert.assertNull(actual.table("foaf:age"));
+
+        Path index = dataset.resolveSibling("test.txt.properties.idx");
+        Assert.assertTrue("Property index should be saved", Files.exists(index));
+        long indexModified = Files.getLastModifiedTime(index).toMillis();
+
+        Database reopened = dataLoaderService.loadLazy(dataset.toString(), LoadOptions.builder().workers(1).build());
+        Assert.assertEquals(indexModified, Files.getLastModifiedTime(index).toMillis());
+        reopened.tables().forEach((key, table) -> {
+            Assert.assertEquals(String.format("For key '%s' tables are not equal", key),
+                    expected.tables().get(key).list(), table.list());
+            Assert.assertEquals(String.format("For key '%s' dictionaries are not equal", key),
+                    expected.tables().get(key).getObjectDictionary(), table.getObjectDictionary());
+        });
+    }
+
+    @Test
+    public void testTripleStoreEntityClasses() throws IOException {
+        // wsdbm:User24 and wsdbm:Product24 are both stored as key 24
+        String triples = "wsdbm:User5\twsdbm:follows\twsdbm:User24 .\n"
+                + "wsdbm:User5\twsdbm:likes\twsdbm:Product24 .\n"
+                + "wsdbm:Product24\tsorg:caption\t\"bag\" .\n";
+        Path dataset = folder.newFile("entities.txt").toPath();
+        Files.writeString(dataset, triples);
+        File compressed = folder.newFile("entities.txt.gz");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(compressed.toPath()))) {
+            out.write(triples.getBytes(StandardCharsets.UTF_8));
+        }
+
+        for (Database database : List.of(dataLoaderService.load(dataset.toString()), dataLoaderService.load(compressed.getPath()))) {
+            Assert.assertEquals("wsdbm:User", database.table("wsdbm:likes").getSubjectClass());
+            Assert.assertEquals("wsdbm:Product", database.table("wsdbm:likes").getObjectClass());
+            Assert.assertNull(database.table("sorg:caption").getObjectClass());
+
+            TripleStore store = database.tripleStore();
+            TripleStore.Range followers = store.match(TripleStore.ANY, TripleStore.ANY, store.objectId(24, DataType.OBJECT, "wsdbm:User"));
+            Assert.assertEquals(1, followers.size());
+            ComplexTable followersTable = followers.toComplex(null);
+            int followsSlot = followersTable.slot(followersTable.getPropertyDictionary().getKey("wsdbm:follows"));
+            Assert.assertEquals(5, followersTable.subject(0, followsSlot));
+            Assert.assertEquals(24, followersTable.object(0, followsSlot));
+            Assert.assertEquals(1, store.match(TripleStore.ANY, TripleStore.ANY, store.objectId(24, DataType.OBJECT, "wsdbm:Product")).size());
+            Assert.assertEquals(1, store.match(store.subjectId(24, "wsdbm:Product"), TripleStore.ANY, TripleStore.ANY).size());
+            Assert.assertEquals(2, store.match(store.subjectId(5, "wsdbm:User"), TripleStore.ANY, TripleStore.ANY).size());
+            Assert.assertEquals(0, store.match(store.subjectId(24, "wsdbm:User"), TripleStore.ANY, TripleStore.ANY).size());
+        }
+    }
+
+    @Test
+    public void testStatisticsCatalog() {
+        Database database = dataLoaderService.load(DATASET_PATH);
+
+        Assert.assertEquals(database.tables().keySet(), database.statistics().keySet());
+        PropertyStatistics follows = database.statistics("wsdbm:follows");
+        Assert.assertEquals(2, follows.triples());
+        Assert.assertEquals(1, follows.distinctSubjects());
+        Assert.assertEquals(2, follows.distinctObjects());
+        Assert.assertEquals(List.of(new PropertyStatistics.KeyFrequency(0, DataType.OBJECT, 2)), follows.topSubjects());
+        Assert.assertEquals(Set.of(DataType.OBJECT), follows.objectTypes());
+
+        PropertyStatistics givenName = database.statistics("foaf:givenName");
+        Assert.assertEquals(1, givenName.distinctObjects());
+        Assert.assertEquals(List.of(new PropertyStatistics.KeyFrequency(1, DataType.STRING, 2)), givenName.topObjects());
+        Assert.assertEquals(Set.of(DataType.INTEGER), database.statistics("wsdbm:userId").objectTypes());
+        Assert.assertNull(database.statistics("foaf:age"));
+
+        dataLoaderService.append(database, new ByteArrayInputStream(
+                "wsdbm:User3\twsdbm:follows\twsdbm:User24 .".getBytes(StandardCharsets.UTF_8)));
+        follows = database.statistics("wsdbm:follows");
+        Assert.assertEquals(3, follows.triples());
+        Assert.assertEquals(2, follows.distinctSubjects());
+        Assert.assertEquals(new PropertyStatistics.KeyFrequency(24, DataType.OBJECT, 2), follows.topObjects().get(0));
+    }
+
+    @Test
+    public void testOffHeapLoadDataset() {
+        Database expected = dataLoaderService.load(DATASET_PATH);
+        long used = OffHeapMemory.used();
+        Database actual = dataLoaderService.load(DATASET_PATH, LoadOptions.builder().workers(4).offHeap(true).build());
+
+        Assert.assertNotNull(actual.arena());
+        Assert.assertEquals(expected.tables().keySet(), actual.tables().keySet());
+        actual.tables().forEach((key, actualTable) -> {
+            Assert.assertEquals(String.format("For key '%s' tables are not equal", key),
+                    expected.tables().get(key).list(), actualTable.list());
+            Assert.assertEquals(String.format("For key '%s' dictionaries are not equal", key),
+                    expected.tables().get(key).getObjectDictionary(), actualTable.getObjectDictionary());
+        });
+        // released range tables and trimmed columns are not counted anymore
+        Assert.assertEquals(used + actual.arena().allocated(), OffHeapMemory.used());
+
+        actual.close();
+        Assert.assertEquals(used, OffHeapMemory.used());
+    }
+
+    @Test
+    public void testLoadPermutations() {
+        Database database = dataLoaderService.load(DATASET_PATH, LoadOptions.builder().workers(1).permutations(true).build());
+
+        SimpleTable follows = database.tables().get("wsdbm:follows");
+        Assert.assertArrayEquals(new int[]{0, 1}, follows.subjectObjectRows());
+        Assert.assertArrayEquals(new int[]{1, 0}, database.tables().get("gn:parentCountry").objectSubjectRows());
+        database.tables().values().forEach(table -> Assert.assertEquals(table.size(), table.subjectObjectRows().length));
+    }
+
+    @Test
+    public void testCompressedLoadDataset() {
+        Database expected = dataLoaderService.load(DATASET_PATH);
+        Database actual = dataLoaderService.load(DATASET_PATH, LoadOptions.builder().workers(1).compressTables(true).build());
+
+        Assert.assertEquals(expected.tables().keySet(), actual.properties());
+        CompressedTable follows = actual.compressedTable("wsdbm:follows");
+        Assert.assertEquals(2, follows.size());
+        CompressedTable.Cursor cursor = follows.cursor();
+        Assert.assertTrue(cursor.seek(0));
+        Assert.assertEquals(24, cursor.object());
+        Assert.assertFalse(cursor.seek(1));
+
+        // decompressed tables hold the same rows ordered by subject
+        expected.tables().forEach((key, expectedTable) -> {
+            SimpleTable actualTable = actual.table(key);
+            List<Item> expectedItems = new ArrayList<>(expectedTable.list());
+            expectedItems.sort(Comparator.comparingInt(Item::subject));
+            Assert.assertEquals(String.format("For key '%s' tables are not equal", key), expectedItems, actualTable.list());
+            Assert.assertEquals(expectedTable.getObjectDictionary(), actualTable.getObjectDictionary());
+            // the compressed table stays, every request decompresses a new copy
+            Assert.assertNotNull(actual.compressedTable(key));
+            Assert.assertNotSame(actualTable, actual.table(key));
+        });
+        Assert.assertEquals(expected.statistics(), actual.statistics());
+
+        dataLoaderService.append(actual, new ByteArrayInputStream(
+                "wsdbm:User3\twsdbm:follows\twsdbm:User0 .\nwsdbm:User3\tsorg:jobTitle\t\"Pilot\" .".getBytes(StandardCharsets.UTF_8)));
+        Assert.assertEquals(3, actual.compressedTable("wsdbm:follows").size());
+        Assert.assertEquals(3, actual.statistics("wsdbm:follows").triples());
+        Assert.assertEquals(List.of(new Item(3, 1, DataType.STRING)), actual.compressedTable("sorg:jobTitle").decompress(null).list());
+        Assert.assertTrue(actual.properties().contains("sorg:jobTitle"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCompressedTablesWithoutPermutations() {
+        LoadOptions.builder().compressTables(true).permutations(true).build();
+    }
+
     private HashMap<String, Dictionary> initDictionaries() {
         HashMap<String, Dictionary> dictionaries = new HashMap<>();
         Dictionary emailDict = new Dictionary();
@@ -5,12 +5,22 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
 import org.mockito.runners.MockitoJUnitRunner;
+import uni.freiburg.sparqljoin.join.AbstractJoin;
 import uni.freiburg.sparqljoin.join.JoinOn;
+import uni.freiburg.sparqljoin.join.ParallelHashJoin;
+import uni.freiburg.sparqljoin.join.PartitionedParallelHashJoin;
+import uni.freiburg.sparqljoin.join.RadixHashJoin;
 import uni.freiburg.sparqljoin.model.db.*;
 import uni.freiburg.sparqljoin.model.join.JoinedItems;
+import uni.freiburg.sparqljoin.util.OffHeapMemory;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
 @RunWith(MockitoJUnitRunner.class)
 public class JoinServiceTest {
@@ -747,6 +757,473 @@ public class JoinServiceTest {
         compareTables(expectedJoinedUserIdGivenNameFamilyNameFollowsTable, actualJoinedUserIdGivenNameFamilyNameFollowsTable);
     }
 
+    /**
+     * Test joins of tables sharing a global dictionary keep the dictionary and the string keys
+     */
+    @Test
+    public void testGlobalDictionaryJoin() {
+        Dictionary globalDictionary = new Dictionary();
+        int luke = globalDictionary.put("LUKE");
+        int han = globalDictionary.put("HAN");
+        int skywalker = globalDictionary.put("SKYWALKER");
+        int solo = globalDictionary.put("SOLO");
+        SimpleTable givenNameTable = new SimpleTable("foaf:givenName", globalDictionary);
+        givenNameTable.insert(new Item(0, luke, DataType.STRING));
+        givenNameTable.insert(new Item(2, han, DataType.STRING));
+        SimpleTable familyNameTable = new SimpleTable("foaf:familyName", globalDictionary);
+        familyNameTable.insert(new Item(0, skywalker, DataType.STRING));
+        familyNameTable.insert(new Item(2, solo, DataType.STRING));
+
+        Dictionary expectedPropertyDict = new Dictionary();
+        expectedPropertyDict.put("foaf:givenName");
+        expectedPropertyDict.put("foaf:familyName");
+        ComplexTable expectedTable = new ComplexTable(expectedPropertyDict, globalDictionary);
+        HashMap<Integer, Item> joinedValue1 = new HashMap<>();
+        joinedValue1.put(1, new Item(0, luke, DataType.STRING));
+        joinedValue1.put(2, new Item(0, skywalker, DataType.STRING));
+        expectedTable.insert(new JoinedItems(0, joinedValue1));
+        HashMap<Integer, Item> joinedValue2 = new HashMap<>();
+        joinedValue2.put(1, new Item(2, han, DataType.STRING));
+        joinedValue2.put(2, new Item(2, solo, DataType.STRING));
+        expectedTable.insert(new JoinedItems(2, joinedValue2));
+
+        List<ComplexTable> actualTables = List.of(
+                joinService.hashJoin(givenNameTable.toComplex(), familyNameTable.toComplex(),
+                        "foaf:givenName", JoinOn.SUBJECT, "foaf:familyName", JoinOn.SUBJECT),
+                joinService.parallelHashJoin(givenNameTable.toComplex(), familyNameTable.toComplex(),
+                        "foaf:givenName", JoinOn.SUBJECT, "foaf:familyName", JoinOn.SUBJECT),
+                joinService.sortMergeJoin(givenNameTable.toComplex(), familyNameTable.toComplex(),
+                        "foaf:givenName", JoinOn.SUBJECT, "foaf:familyName", JoinOn.SUBJECT));
+        for (ComplexTable actualTable : actualTables) {
+            Assert.assertSame("Join should keep the global dictionary", globalDictionary, actualTable.getObjectDictionary());
+            compareTables(expectedTable, actualTable);
+        }
+    }
+
+    /**
+     * Test joins on the subject of a property that is not the first one of the probed table
+     */
+    @Test
+    public void testJoinOnSubjectOfLaterProperty() {
+        Database database = new Database(initSimpleTables());
+        // follows -> likes: the subject of likes is the followed user 24
+        ComplexTable followsLikesTable = joinService.hashJoin(
+                database.tables().get("wsdbm:follows").toComplex(),
+                database.tables().get("wsdbm:likes").toComplex(),
+                "wsdbm:follows", JoinOn.OBJECT, "wsdbm:likes", JoinOn.SUBJECT);
+        Assert.assertEquals(2, followsLikesTable.size());
+
+        List<ComplexTable> actualTables = List.of(
+                joinService.parallelHashJoin(database.tables().get("foaf:givenName").toComplex(), followsLikesTable,
+                        "foaf:givenName", JoinOn.SUBJECT, "wsdbm:likes", JoinOn.SUBJECT),
+                joinService.sortMergeJoin(database.tables().get("foaf:givenName").toComplex(), followsLikesTable,
+                        "foaf:givenName", JoinOn.SUBJECT, "wsdbm:likes", JoinOn.SUBJECT));
+        for (ComplexTable actualTable : actualTables) {
+            Assert.assertEquals(2, actualTable.size());
+            int givenNameSlot = actualTable.slot(actualTable.getPropertyDictionary().getKey("foaf:givenName"));
+            for (int row = 0; row < actualTable.size(); row++) {
+                Assert.assertEquals("LEA", actualTable.getObjectDictionary().get(actualTable.object(row, givenNameSlot)));
+            }
+        }
+    }
+
+    @Test
+    public void testJoinOnSimpleTableViews() {
+        Database database = new Database(initSimpleTables());
+        ComplexTable expectedTable = joinService.hashJoin(
+                database.tables().get("wsdbm:userId").toComplex(),
+                database.tables().get("foaf:givenName").toComplex(),
+                "wsdbm:userId", JoinOn.SUBJECT, "foaf:givenName", JoinOn.SUBJECT);
+
+        ComplexTable userIds = database.tables().get("wsdbm:userId").asComplex();
+        ComplexTable givenNames = database.tables().get("foaf:givenName").asComplex();
+        Assert.assertTrue(userIds.isView());
+        compareTables(expectedTable, joinService.hashJoin(userIds, givenNames,
+                "wsdbm:userId", JoinOn.SUBJECT, "foaf:givenName", JoinOn.SUBJECT));
+        compareTables(expectedTable, joinService.parallelHashJoin(userIds, givenNames,
+                "wsdbm:userId", JoinOn.SUBJECT, "foaf:givenName", JoinOn.SUBJECT));
+        compareTables(expectedTable, joinService.sortMergeJoin(userIds, givenNames,
+                "wsdbm:userId", JoinOn.SUBJECT, "foaf:givenName", JoinOn.SUBJECT));
+
+        // the view reads the rows of the table and can't change them
+        SimpleTable userIdTable = database.tables().get("wsdbm:userId");
+        Assert.assertEquals(userIdTable.size(), userIds.size());
+        for (int row = 0; row < userIds.size(); row++) {
+            Assert.assertEquals(userIdTable.list().get(row), new Item(userIds.subject(row, 0), userIds.object(row, 0), userIds.type(row, 0)));
+        }
+        Assert.assertThrows(UnsupportedOperationException.class, userIds::addRow);
+    }
+
+    @Test
+    public void testLateMaterializedJoin() {
+        Database database = new Database(initSimpleTables());
+        ComplexTable expectedTable = joinService.sortMergeJoin(
+                joinService.sortMergeJoin(
+                        database.tables().get("wsdbm:userId").toComplex(),
+                        database.tables().get("foaf:givenName").toComplex(),
+                        "wsdbm:userId", JoinOn.SUBJECT, "foaf:givenName", JoinOn.SUBJECT),
+                database.tables().get("wsdbm:follows").toComplex(),
+                "wsdbm:userId", JoinOn.SUBJECT, "wsdbm:follows", JoinOn.SUBJECT);
+        List<String> properties = List.of("wsdbm:userId", "foaf:givenName", "wsdbm:follows");
+
+        List<RowIdTable> actualTables = List.of(
+                joinService.hashJoin(
+                        joinService.hashJoin(database.tables().get("wsdbm:userId").toRowIds(), database.tables().get("foaf:givenName").toRowIds(),
+                                "wsdbm:userId", JoinOn.SUBJECT, "foaf:givenName", JoinOn.SUBJECT),
+                        database.tables().get("wsdbm:follows").toRowIds(),
+                        "wsdbm:userId", JoinOn.SUBJECT, "wsdbm:follows", JoinOn.SUBJECT),
+                joinService.parallelHashJoin(
+                        joinService.parallelHashJoin(database.tables().get("wsdbm:userId").toRowIds(), database.tables().get("foaf:givenName").toRowIds(),
+                                "wsdbm:userId", JoinOn.SUBJECT, "foaf:givenName", JoinOn.SUBJECT),
+                        database.tables().get("wsdbm:follows").toRowIds(),
+                        "wsdbm:userId", JoinOn.SUBJECT, "wsdbm:follows", JoinOn.SUBJECT),
+                joinService.sortMergeJoin(
+                        joinService.sortMergeJoin(database.tables().get("wsdbm:userId").toRowIds(), database.tables().get("foaf:givenName").toRowIds(),
+                                "wsdbm:userId", JoinOn.SUBJECT, "foaf:givenName", JoinOn.SUBJECT),
+                        database.tables().get("wsdbm:follows").toRowIds(),
+                        "wsdbm:userId", JoinOn.SUBJECT, "wsdbm:follows", JoinOn.SUBJECT),
+                joinService.partitionedParallelHashJoin(
+                        joinService.partitionedParallelHashJoin(database.tables().get("wsdbm:userId").toRowIds(), database.tables().get("foaf:givenName").toRowIds(),
+                                "wsdbm:userId", JoinOn.SUBJECT, "foaf:givenName", JoinOn.SUBJECT),
+                        database.tables().get("wsdbm:follows").toRowIds(),
+                        "wsdbm:userId", JoinOn.SUBJECT, "wsdbm:follows", JoinOn.SUBJECT),
+                joinService.radixHashJoin(
+                        joinService.radixHashJoin(database.tables().get("wsdbm:userId").toRowIds(), database.tables().get("foaf:givenName").toRowIds(),
+                                "wsdbm:userId", JoinOn.SUBJECT, "foaf:givenName", JoinOn.SUBJECT),
+                        database.tables().get("wsdbm:follows").toRowIds(),
+                        "wsdbm:userId", JoinOn.SUBJECT, "wsdbm:follows", JoinOn.SUBJECT));
+        for (RowIdTable actualTable : actualTables) {
+            compareTables(expectedTable, actualTable.materialize(properties, null));
+
+            // only the projected properties are gathered, the dictionary holds their terms only
+            ComplexTable givenNames = actualTable.materialize(List.of("foaf:givenName"), null);
+            Assert.assertEquals(1, givenNames.width());
+            Assert.assertEquals(expectedTable.size(), givenNames.size());
+            Set<String> names = new HashSet<>();
+            for (int row = 0; row < givenNames.size(); row++) {
+                names.add(givenNames.getObjectDictionary().get(givenNames.object(row, 0)));
+            }
+            Assert.assertEquals(names, givenNames.getObjectDictionary().getInvertedValues().keySet());
+        }
+    }
+
+    @Test
+    public void testOffHeapJoin() {
+        Database database = new Database(initSimpleTables());
+        ComplexTable expectedTable = joinService.sortMergeJoin(
+                database.tables().get("wsdbm:userId").toComplex(),
+                database.tables().get("foaf:givenName").toComplex(),
+                "wsdbm:userId", JoinOn.SUBJECT, "foaf:givenName", JoinOn.SUBJECT);
+
+        long used = OffHeapMemory.used();
+        OffHeapArena arena = new OffHeapArena();
+        List<ComplexTable> actualTables = List.of(
+                joinService.hashJoin(database.tables().get("wsdbm:userId").toComplex(arena),
+                        database.tables().get("foaf:givenName").toComplex(arena),
+                        "wsdbm:userId", JoinOn.SUBJECT, "foaf:givenName", JoinOn.SUBJECT, arena),
+                joinService.parallelHashJoin(database.tables().get("wsdbm:userId").toComplex(arena),
+                        database.tables().get("foaf:givenName").toComplex(arena),
+                        "wsdbm:userId", JoinOn.SUBJECT, "foaf:givenName", JoinOn.SUBJECT, arena),
+                joinService.sortMergeJoin(database.tables().get("wsdbm:userId").toComplex(arena),
+                        database.tables().get("foaf:givenName").toComplex(arena),
+                        "wsdbm:userId", JoinOn.SUBJECT, "foaf:givenName", JoinOn.SUBJECT, arena));
+        for (ComplexTable actualTable : actualTables) {
+            compareTables(expectedTable, actualTable);
+        }
+        Assert.assertTrue(arena.allocated() > 0);
+        Assert.assertEquals(used + arena.allocated(), OffHeapMemory.used());
+
+        arena.close();
+        Assert.assertEquals(0, arena.allocated());
+        Assert.assertEquals(used, OffHeapMemory.used());
+    }
+
+    @Test
+    public void testSortMergeJoinOnPermutations() {
+        Database database = new Database(initSimpleTables());
+        ComplexTable expectedTable = joinService.sortMergeJoin(
+                database.tables().get("wsdbm:follows").toComplex(),
+                database.tables().get("wsdbm:likes").toComplex(),
+                "wsdbm:follows", JoinOn.OBJECT, "wsdbm:likes", JoinOn.SUBJECT);
+
+        SimpleTable follows = database.tables().get("wsdbm:follows");
+        SimpleTable likes = database.tables().get("wsdbm:likes");
+        follows.buildPermutations();
+        likes.buildPermutations();
+        for (int i = 1; i < follows.size(); i++) {
+            int previous = follows.objectSubjectRows()[i - 1];
+            int row = follows.objectSubjectRows()[i];
+            Assert.assertTrue(follows.object(previous) < follows.object(row)
+                    || follows.object(previous) == follows.object(row) && follows.subject(previous) <= follows.subject(row));
+        }
+        Assert.assertSame(follows.objectSubjectRows(), follows.asComplex().rowsByObject(0));
+        Assert.assertSame(likes.subjectObjectRows(), likes.toRowIds().rowsBySubject(0));
+
+        compareTables(expectedTable, joinService.sortMergeJoin(follows.asComplex(), likes.asComplex(),
+                "wsdbm:follows", JoinOn.OBJECT, "wsdbm:likes", JoinOn.SUBJECT));
+        compareTables(expectedTable, joinService.sortMergeJoin(follows.toRowIds(), likes.toRowIds(),
+                "wsdbm:follows", JoinOn.OBJECT, "wsdbm:likes", JoinOn.SUBJECT).materialize());
+
+        // inserted rows drop the permutations
+        ComplexTable view = follows.asComplex();
+        follows.insert(new Item(2, 0, DataType.OBJECT));
+        Assert.assertNull(follows.objectSubjectRows());
+        Assert.assertNull(view.rowsByObject(0));
+    }
+
+    @Test
+    public void testTripleStoreRanges() {
+        HashMap<String, SimpleTable> tables = initSimpleTables();
+        tables.values().forEach(table -> table.setSubjectClass("wsdbm:User"));
+        tables.get("wsdbm:follows").setObjectClass("wsdbm:User");
+        tables.get("wsdbm:likes").setObjectClass("wsdbm:Product");
+        Database database = new Database(tables);
+        TripleStore store = database.tripleStore();
+        Assert.assertEquals(13, store.size());
+        Assert.assertSame(store, database.tripleStore());
+
+        // ?s ?p wsdbm:User24
+        TripleStore.Range followers = store.match(TripleStore.ANY, TripleStore.ANY, store.objectId(24, DataType.OBJECT, "wsdbm:User"));
+        Assert.assertEquals(TripleStore.Order.OSP, followers.order());
+        ComplexTable followersTable = followers.toComplex(null);
+        int followsSlot = followersTable.slot(followersTable.getPropertyDictionary().getKey("wsdbm:follows"));
+        Assert.assertEquals(2, followersTable.size());
+        Assert.assertEquals(0, followersTable.subject(0, followsSlot));
+        Assert.assertEquals(2, followersTable.subject(1, followsSlot));
+
+        // wsdbm:User24 ?p ?o, every row has the item of its property only
+        ComplexTable user24 = store.match(store.subjectId(24, "wsdbm:User"), TripleStore.ANY, TripleStore.ANY).toComplex(null);
+        Assert.assertEquals(4, user24.size());
+        int givenNameSlot = user24.slot(user24.getPropertyDictionary().getKey("foaf:givenName"));
+        int rowsWithGivenName = 0;
+        for (int row = 0; row < user24.size(); row++) {
+            if (user24.has(row, givenNameSlot)) {
+                rowsWithGivenName++;
+                Assert.assertEquals("LEA", user24.getObjectDictionary().get(user24.object(row, givenNameSlot)));
+            }
+        }
+        Assert.assertEquals(1, rowsWithGivenName);
+        Assert.assertEquals(1, store.match(store.subjectId(0, "wsdbm:User"), TripleStore.ANY, store.objectId("LUKE")).size());
+        Assert.assertEquals(Dictionary.NOT_FOUND, store.objectId("NOBODY"));
+        Assert.assertEquals(0, store.match(TripleStore.ANY, TripleStore.ANY, Dictionary.NOT_FOUND).size());
+        Assert.assertEquals(Dictionary.NOT_FOUND, store.objectId(24, DataType.OBJECT, "wsdbm:Product"));
+        Assert.assertEquals(Dictionary.NOT_FOUND, store.subjectId(24, "wsdbm:City"));
+
+        // the range of a property is a sorted join input
+        ComplexTable expectedTable = joinService.sortMergeJoin(
+                database.tables().get("wsdbm:follows").toComplex(),
+                database.tables().get("wsdbm:userId").toComplex(),
+                "wsdbm:follows", JoinOn.SUBJECT, "wsdbm:userId", JoinOn.SUBJECT);
+        TripleStore.Range follows = store.match(TripleStore.ANY, store.getPropertyDictionary().getKey("wsdbm:follows"), TripleStore.ANY);
+        Assert.assertEquals(TripleStore.Order.PSO, follows.order());
+        compareTables(expectedTable, joinService.sortMergeJoin(follows.toComplex(null),
+                database.tables().get("wsdbm:userId").toComplex(),
+                "wsdbm:follows", JoinOn.SUBJECT, "wsdbm:userId", JoinOn.SUBJECT));
+    }
+
+    @Test
+    public void testGraceHashJoin() {
+        Database database = new Database(initSimpleTables());
+        ComplexTable expectedTable = joinService.hashJoin(
+                database.tables().get("wsdbm:userId").toComplex(),
+                database.tables().get("foaf:givenName").toComplex(),
+                "wsdbm:userId", JoinOn.SUBJECT, "foaf:givenName", JoinOn.SUBJECT);
+        compareTables(expectedTable, joinService.graceHashJoin(
+                database.tables().get("wsdbm:userId").toComplex(),
+                database.tables().get("foaf:givenName").toComplex(),
+                "wsdbm:userId", JoinOn.SUBJECT, "foaf:givenName", JoinOn.SUBJECT, 1, null));
+
+        // some partitions fit into the budget, the others are spilled and partitioned again
+        FollowsAndNames tables = randomFollowsAndNames(7, 3000, 3000, 1000, true);
+        SimpleTable follows = tables.follows();
+        SimpleTable names = tables.names();
+        ComplexTable expectedLargeTable = joinService.hashJoin(follows.asComplex(), names.asComplex(),
+                "wsdbm:follows", JoinOn.OBJECT, "foaf:givenName", JoinOn.SUBJECT);
+        for (long memoryBudget : new long[]{20_000, 10_000_000}) {
+            ComplexTable actualTable = joinService.graceHashJoin(follows.asComplex(), names.asComplex(),
+                    "wsdbm:follows", JoinOn.OBJECT, "foaf:givenName", JoinOn.SUBJECT, memoryBudget, null);
+            Assert.assertEquals(joinedRows(expectedLargeTable), joinedRows(actualTable));
+        }
+    }
+
+    @Test
+    public void testExternalSortMergeJoin() {
+        // more rows than a run holds, so both relations are sorted in several spilled runs and merged
+        FollowsAndNames tables = randomFollowsAndNames(11, 3000, 3000, 1000, false);
+        SimpleTable follows = tables.follows();
+        SimpleTable names = tables.names();
+        ComplexTable expectedTable = joinService.sortMergeJoin(follows.asComplex(), names.asComplex(),
+                "wsdbm:follows", JoinOn.OBJECT, "foaf:givenName", JoinOn.SUBJECT);
+        for (long memoryBudget : new long[]{1, 10_000_000}) {
+            ComplexTable actualTable = joinService.externalSortMergeJoin(follows.asComplex(), names.asComplex(),
+                    "wsdbm:follows", JoinOn.OBJECT, "foaf:givenName", JoinOn.SUBJECT, memoryBudget, null);
+            Assert.assertEquals(joinedRows(expectedTable), joinedRows(actualTable));
+        }
+    }
+
+    @Test
+    public void testRadixHashJoin() {
+        Database database = new Database(initSimpleTables());
+        ComplexTable expectedTable = joinService.hashJoin(
+                database.tables().get("wsdbm:userId").toComplex(),
+                database.tables().get("foaf:givenName").toComplex(),
+                "wsdbm:userId", JoinOn.SUBJECT, "foaf:givenName", JoinOn.SUBJECT);
+        compareTables(expectedTable, joinService.radixHashJoin(
+                database.tables().get("wsdbm:userId").toComplex(),
+                database.tables().get("foaf:givenName").toComplex(),
+                "wsdbm:userId", JoinOn.SUBJECT, "foaf:givenName", JoinOn.SUBJECT, null));
+
+        // the build relation exceeds the cache, so the relations are clustered into several partitions
+        FollowsAndNames tables = randomFollowsAndNames(13, 40_000, 50_000, 100_000, false);
+        SimpleTable follows = tables.follows();
+        SimpleTable names = tables.names();
+        ComplexTable expectedLargeTable = joinService.hashJoin(follows.asComplex(), names.asComplex(),
+                "wsdbm:follows", JoinOn.OBJECT, "foaf:givenName", JoinOn.SUBJECT);
+        ComplexTable actualTable = joinService.radixHashJoin(follows.asComplex(), names.asComplex(),
+                "wsdbm:follows", JoinOn.OBJECT, "foaf:givenName", JoinOn.SUBJECT, null);
+        Assert.assertEquals(joinedRows(expectedLargeTable), joinedRows(actualTable));
+    }
+
+    @Test
+    public void testParallelHashJoinsOnHotKeys() {
+        // few distinct keys, so the build threads insert into the same slots at the same time
+        FollowsAndNames tables = randomFollowsAndNames(17, 30_000, 300, 100, true);
+        SimpleTable follows = tables.follows();
+        SimpleTable names = tables.names();
+        ComplexTable expectedTable = joinService.hashJoin(names.asComplex(), follows.asComplex(),
+                "foaf:givenName", JoinOn.SUBJECT, "wsdbm:follows", JoinOn.OBJECT);
+        // the larger relation is the build relation of the parallel join
+        ComplexTable actualTable = joinService.parallelHashJoin(follows.asComplex(), names.asComplex(),
+                "wsdbm:follows", JoinOn.OBJECT, "foaf:givenName", JoinOn.SUBJECT);
+        Assert.assertEquals(joinedRows(expectedTable), joinedRows(actualTable));
+
+        // hot keys make some partitions much larger than others
+        actualTable = joinService.partitionedParallelHashJoin(follows.asComplex(), names.asComplex(),
+                "wsdbm:follows", JoinOn.OBJECT, "foaf:givenName", JoinOn.SUBJECT, null);
+        Assert.assertEquals(joinedRows(expectedTable), joinedRows(actualTable));
+    }
+
+    @Test
+    public void testParallelJoinsOnOwnPool() {
+        FollowsAndNames tables = randomFollowsAndNames(19, 10_000, 10_000, 5_000, true);
+        SimpleTable follows = tables.follows();
+        SimpleTable names = tables.names();
+        ComplexTable expectedTable = joinService.hashJoin(follows.asComplex(), names.asComplex(),
+                "wsdbm:follows", JoinOn.OBJECT, "foaf:givenName", JoinOn.SUBJECT);
+
+        // the last row of R fails, so one task of every phase fails while the other tasks finish
+        ComplexTable brokenFollows = new ComplexTable(follows.asComplex().getPropertyDictionary(), follows.getObjectDictionary()) {
+            @Override
+            public boolean has(int row, int slot) {
+                if (row == size() - 1) {
+                    throw new IllegalStateException("Broken row " + row);
+                }
+                return super.has(row, slot);
+            }
+        };
+        brokenFollows.insertAll(follows.asComplex());
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            List<AbstractJoin> joins = List.of(new ParallelHashJoin(pool, null), new PartitionedParallelHashJoin(pool, null),
+                    new RadixHashJoin(pool, null));
+            for (AbstractJoin join : joins) {
+                Assert.assertEquals(joinedRows(expectedTable), joinedRows(join.join(follows.asComplex(), names.asComplex(),
+                        1, JoinOn.OBJECT, 1, JoinOn.SUBJECT)));
+                Assert.assertThrows(IllegalStateException.class, () -> join.join(brokenFollows, names.asComplex(),
+                        1, JoinOn.OBJECT, 1, JoinOn.SUBJECT));
+            }
+            // the pool outlives failed joins
+            Assert.assertEquals(joinedRows(expectedTable), joinedRows(joins.get(0).join(follows.asComplex(), names.asComplex(),
+                    1, JoinOn.OBJECT, 1, JoinOn.SUBJECT)));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testCompressedSortMergeJoin() {
+        // enough rows for several blocks, so the merge seeks over blocks without matches
+        Dictionary dictionary = new Dictionary();
+        SimpleTable names = new SimpleTable("foaf:givenName", dictionary);
+        SimpleTable ages = new SimpleTable("foaf:age", dictionary);
+        Random random = new Random(42);
+        for (int i = 0; i < 2000; i++) {
+            names.insert(random.nextInt(1000), dictionary.put("NAME" + random.nextInt(50)), DataType.STRING);
+            // ages only for subjects from 800 on
+            ages.insert(800 + random.nextInt(400), random.nextInt(100), DataType.INTEGER);
+        }
+        CompressedTable compressedNames = CompressedTable.of(names);
+        CompressedTable compressedAges = CompressedTable.of(ages);
+        Assert.assertTrue(compressedNames.bytes() < (long) names.size() * 9);
+
+        ComplexTable expectedTable = joinService.sortMergeJoin(names.asComplex(), ages.asComplex(),
+                "foaf:givenName", JoinOn.SUBJECT, "foaf:age", JoinOn.SUBJECT);
+        ComplexTable actualTable = joinService.sortMergeJoin(compressedNames, compressedAges, null);
+        Assert.assertTrue(expectedTable.size() > 0);
+        Assert.assertSame(dictionary, actualTable.getObjectDictionary());
+        Assert.assertEquals(sortedRows(expectedTable), sortedRows(actualTable));
+
+        CompressedTable.Cursor cursor = compressedAges.cursor();
+        Assert.assertTrue(cursor.seek(1100));
+        Assert.assertTrue(cursor.subject() >= 1100);
+        Assert.assertFalse(cursor.seek(1200));
+    }
+
+    private List<String> joinedRows(ComplexTable table) {
+        List<String> rows = new ArrayList<>();
+        for (JoinedItems items : table.getValues()) {
+            List<String> row = new ArrayList<>();
+            items.values().forEach((property, item) -> row.add(table.getPropertyDictionary().get(property) + "=" + item.subject()
+                    + ":" + (item.type() == DataType.STRING ? table.getObjectDictionary().get(item.object()) : item.object())));
+            row.sort(null);
+            rows.add(row.toString());
+        }
+        rows.sort(null);
+        return rows;
+    }
+
+    private List<String> sortedRows(ComplexTable table) {
+        List<String> rows = new ArrayList<>();
+        int nameSlot = table.slot(table.getPropertyDictionary().getKey("foaf:givenName"));
+        int ageSlot = table.slot(table.getPropertyDictionary().getKey("foaf:age"));
+        for (int row = 0; row < table.size(); row++) {
+            rows.add(table.subject(row, nameSlot) + " " + table.object(row, nameSlot) + " " + table.object(row, ageSlot));
+        }
+        rows.sort(null);
+        return rows;
+    }
+
+    /**
+     * Random follows and names relations, joining on the objects of follows and the subjects of names
+     *
+     * @param seed             seed of the random rows
+     * @param followsRows      number of wsdbm:follows rows
+     * @param namesRows        number of foaf:givenName rows
+     * @param keys             number of distinct join keys
+     * @param sharedDictionary whether both relations share one object dictionary
+     * @return follows and names relations
+     */
+    private FollowsAndNames randomFollowsAndNames(long seed, int followsRows, int namesRows, int keys, boolean sharedDictionary) {
+        Dictionary followsDictionary = new Dictionary();
+        Dictionary namesDictionary = sharedDictionary ? followsDictionary : new Dictionary();
+        SimpleTable follows = new SimpleTable("wsdbm:follows", followsDictionary);
+        SimpleTable names = new SimpleTable("foaf:givenName", namesDictionary);
+        Random random = new Random(seed);
+        for (int i = 0; i < Math.max(followsRows, namesRows); i++) {
+            if (i < followsRows) {
+                follows.insert(random.nextInt(followsRows), random.nextInt(keys), DataType.OBJECT);
+            }
+            if (i < namesRows) {
+                names.insert(random.nextInt(keys), namesDictionary.put("NAME" + random.nextInt(50)), DataType.STRING);
+            }
+        }
+        return new FollowsAndNames(follows, names);
+    }
+
+    private record FollowsAndNames(SimpleTable follows, SimpleTable names) {
+    }
+
     private void compareTables(ComplexTable expected, ComplexTable actual) {
         // check sizes
         Assert.assertEquals(String.format("Joined Table size should be %d, got %d", expected.getValues().size(), actual.getValues().size()),
@@ -0,0 +1,164 @@
+package uni.freiburg.sparqljoin.service;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.runners.MockitoJUnitRunner;
+import uni.freiburg.sparqljoin.model.db.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Optional;
+
+@RunWith(MockitoJUnitRunner.class)
+public class SnapshotServiceTest {
+
+    private static final String DATASET_PATH = "dataset/test.txt";
+
+    private static final LoadOptions DEFAULT_OPTIONS = LoadOptions.builder().workers(1).build();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @InjectMocks
+    SnapshotService snapshotService;
+
+    @Test
+    public void testReadWrittenSnapshot() throws IOException {
+        Path dataset = Path.of(DATASET_PATH);
+        Path snapshot = folder.getRoot().toPath().resolve("test.snapshot");
+        Database expected = new DataLoaderService().load(DATASET_PATH);
+
+        snapshotService.write(expected, snapshot, dataset);
+        Optional<Database> actual = snapshotService.read(snapshot, dataset, DEFAULT_OPTIONS);
+
+        Assert.assertTrue("Snapshot should be readable", actual.isPresent());
+        Assert.assertEquals("Some table is missing", expected.tables().size(), actual.get().tables().size());
+        expected.tables().forEach((key, expectedTable) -> {
+            Assert.assertEquals(String.format("For key '%s' tables are not equal", key),
+                    expectedTable.list(), actual.get().tables().get(key).list());
+            Assert.assertEquals(String.format("For key '%s' dictionaries are not equal", key),
+                    expectedTable.getObjectDictionary(), actual.get().tables().get(key).getObjectDictionary());
+            Assert.assertEquals(expectedTable.getSubjectClass(), actual.get().tables().get(key).getSubjectClass());
+            Assert.assertEquals(expectedTable.getObjectClass(), actual.get().tables().get(key).getObjectClass());
+        });
+    }
+
+    @Test
+    public void testReadGlobalDictionary() throws IOException {
+        Path dataset = Path.of(DATASET_PATH);
+        Path snapshot = folder.getRoot().toPath().resolve("test.snapshot");
+        LoadOptions options = LoadOptions.builder().workers(1).globalDictionary(true).build();
+        Database expected = new DataLoaderService().load(DATASET_PATH, options);
+
+        snapshotService.write(expected, snapshot, dataset);
+        Database actual = snapshotService.read(snapshot, dataset, options).orElseThrow();
+
+        Assert.assertEquals(expected.globalDictionary(), actual.globalDictionary());
+        actual.tables().values().forEach(table -> Assert.assertSame(actual.globalDictionary(), table.getObjectDictionary()));
+        Assert.assertFalse("Snapshot with a global dictionary should be stale without one",
+                snapshotService.read(snapshot, dataset, DEFAULT_OPTIONS).isPresent());
+
+        // tables with their own dictionaries have no global dictionary
+        snapshotService.write(new DataLoaderService().load(DATASET_PATH), snapshot, dataset);
+        Assert.assertNull(snapshotService.read(snapshot, dataset, DEFAULT_OPTIONS).orElseThrow().globalDictionary());
+        Assert.assertFalse("Snapshot without a global dictionary should be stale with one",
+                snapshotService.read(snapshot, dataset, options).isPresent());
+    }
+
+    @Test
+    public void testReadCompressedSnapshot() throws IOException {
+        Path dataset = Path.of(DATASET_PATH);
+        Path snapshot = folder.getRoot().toPath().resolve("test.snapshot");
+        LoadOptions options = LoadOptions.builder().workers(1).compressTables(true).build();
+        Database expected = new DataLoaderService().load(DATASET_PATH, options);
+
+        snapshotService.write(expected, snapshot, dataset);
+        Assert.assertFalse("Compressed snapshot should be stale without compression",
+                snapshotService.read(snapshot, dataset, DEFAULT_OPTIONS).isPresent());
+        Database actual = snapshotService.read(snapshot, dataset, options).orElseThrow();
+
+        Assert.assertTrue(actual.isCompressed());
+        Assert.assertEquals(expected.properties(), actual.properties());
+        expected.properties().forEach(property -> {
+            Assert.assertEquals(expected.table(property).list(), actual.table(property).list());
+            Assert.assertEquals(expected.table(property).getObjectClass(), actual.table(property).getObjectClass());
+        });
+        Assert.assertEquals(expected.statistics(), actual.statistics());
+    }
+
+    @Test
+    public void testCorruptedSnapshotIsReloaded() throws IOException {
+        Path dataset = folder.getRoot().toPath().resolve("test.txt");
+        Files.copy(Path.of(DATASET_PATH), dataset);
+        Path snapshot = folder.getRoot().toPath().resolve("test.snapshot");
+        DataLoaderService dataLoaderService = new DataLoaderService();
+        snapshotService.write(dataLoaderService.load(dataset.toString()), snapshot, dataset);
+
+        // flip a byte of the last table column, the checksum of its section doesn't match anymore
+        byte[] bytes = Files.readAllBytes(snapshot);
+        bytes[bytes.length - Long.BYTES - 1] ^= 1;
+        Files.write(snapshot, bytes);
+        Assert.assertFalse("Corrupted snapshot should not be read", snapshotService.read(snapshot, dataset, DEFAULT_OPTIONS).isPresent());
+
+        Database reloaded = snapshotService.loadOrCreate(dataset.toString(), snapshot.toString(), DEFAULT_OPTIONS,
+                () -> dataLoaderService.load(dataset.toString()));
+        Assert.assertEquals(dataLoaderService.load(dataset.toString()).tables().get("wsdbm:follows").list(),
+                reloaded.tables().get("wsdbm:follows").list());
+        Assert.assertTrue("Snapshot should be rewritten", snapshotService.read(snapshot, dataset, DEFAULT_OPTIONS).isPresent());
+    }
+
+    @Test
+    public void testReadDictionaryWithRemovedKeys() throws IOException {
+        Path dataset = Path.of(DATASET_PATH);
+        Path snapshot = folder.getRoot().toPath().resolve("test.snapshot");
+        Dictionary dictionary = new Dictionary();
+        int alice = dictionary.put("Alice");
+        dictionary.remove(dictionary.put("Bob"));
+        int carol = dictionary.put("Carol");
+        SimpleTable names = new SimpleTable("foaf:givenName", dictionary);
+        names.insert(0, alice, DataType.STRING);
+        names.insert(1, carol, DataType.STRING);
+        HashMap<String, SimpleTable> tables = new HashMap<>();
+        tables.put(names.getProperty(), names);
+
+        snapshotService.write(new Database(tables), snapshot, dataset);
+        SimpleTable actual = snapshotService.read(snapshot, dataset, DEFAULT_OPTIONS).orElseThrow().table("foaf:givenName");
+
+        // the removed key stays free, the later keys keep their terms
+        Assert.assertEquals(dictionary, actual.getObjectDictionary());
+        Assert.assertNull(actual.getObjectDictionary().get(2));
+        Assert.assertEquals("Carol", actual.getObjectDictionary().get(carol));
+        Assert.assertEquals(4, actual.getObjectDictionary().put("Dave"));
+
+        // rows are inserted after the mapped rows
+        actual.insert(2, 4, DataType.STRING);
+        Assert.assertEquals(List.of(new Item(0, alice, DataType.STRING), new Item(1, carol, DataType.STRING),
+                new Item(2, 4, DataType.STRING)), actual.list());
+    }
+
+    @Test
+    public void testStaleSnapshotIsReloaded() throws IOException {
+        Path dataset = folder.getRoot().toPath().resolve("test.txt");
+        Files.copy(Path.of(DATASET_PATH), dataset);
+        Path snapshot = folder.getRoot().toPath().resolve("test.snapshot");
+        DataLoaderService dataLoaderService = new DataLoaderService();
+
+        snapshotService.loadOrCreate(dataset.toString(), snapshot.toString(), DEFAULT_OPTIONS, () -> dataLoaderService.load(dataset.toString()));
+        Assert.assertTrue("Snapshot should be up-to-date", snapshotService.read(snapshot, dataset, DEFAULT_OPTIONS).isPresent());
+
+        Files.writeString(dataset, "\nwsdbm:User3\twsdbm:follows\twsdbm:User0 .", StandardOpenOption.APPEND);
+        Assert.assertFalse("Snapshot should be stale", snapshotService.read(snapshot, dataset, DEFAULT_OPTIONS).isPresent());
+
+        Database reloaded = snapshotService.loadOrCreate(dataset.toString(), snapshot.toString(), DEFAULT_OPTIONS, () -> dataLoaderService.load(dataset.toString()));
+        Assert.assertEquals(3, reloaded.tables().get("wsdbm:follows").list().size());
+        Assert.assertTrue("Snapshot should be rewritten", snapshotService.read(snapshot, dataset, DEFAULT_OPTIONS).isPresent());
+    }
+}